@@ -0,0 +1,184 @@
+package com.imasson.droidshake.util;
+
+import java.util.HashMap;
+
+import android.util.Log;
+
+/**
+ * <p>根据实际的传输速度估计网络带宽的工具类</p>
+ * <p>每次下载完成后通过{@link #addSample(int, int, long, long)}报告传输的字节数和耗时，
+ * 本类按照网络类型（类型和子类型）分别计算带宽的指数加权移动平均值，
+ * 并把连接质量划分为几个等级，用于选择图片的尺寸和预加载的深度。</p>
+ * <p>太小的传输主要受TCP慢启动和请求延迟的影响，不能反映带宽，会被忽略。</p>
+ * <p>本类是线程安全的。</p>
+ *
+ * @see NetworkUtils#getConnectionQuality(android.content.Context)
+ * @see NetworkUtils#recordTransfer(android.content.Context, long, long)
+ */
+public class BandwidthEstimator {
+	private static final String TAG = "BandwidthEstimator";
+
+	/** 连接质量：还没有足够的样本 */
+	public static final int QUALITY_UNKNOWN = 0;
+	/** 连接质量：带宽低于150kbps，例如GPRS、EDGE */
+	public static final int QUALITY_POOR = 1;
+	/** 连接质量：带宽在150~550kbps之间 */
+	public static final int QUALITY_MODERATE = 2;
+	/** 连接质量：带宽在550~2000kbps之间 */
+	public static final int QUALITY_GOOD = 3;
+	/** 连接质量：带宽高于2000kbps */
+	public static final int QUALITY_EXCELLENT = 4;
+
+	/** 各个连接质量等级的带宽下限，单位为kbps */
+	private static final double[] QUALITY_THRESHOLDS = { 0, 0, 150, 550, 2000 };
+
+	/** 默认的衰减系数，即每个新样本所占的权重 */
+	public static final double DEFAULT_DECAY = 0.05;
+	/** 默认的最小样本大小，单位为byte */
+	public static final long DEFAULT_MIN_SAMPLE_BYTES = 20 * 1024;
+	/** 至少需要多少个样本才能判断连接质量 */
+	public static final int MIN_SAMPLE_COUNT = 3;
+
+	private static BandwidthEstimator sDefault = null;
+
+	private final double mDecay;
+	private final long mMinSampleBytes;
+	private final HashMap<Integer, Average> mAverages = new HashMap<Integer, Average>();
+
+	/**
+	 * 使用默认参数创建估计器
+	 */
+	public BandwidthEstimator() {
+		this(DEFAULT_DECAY, DEFAULT_MIN_SAMPLE_BYTES);
+	}
+
+	/**
+	 * 创建估计器
+	 * @param decay 衰减系数，范围为(0,1)，越大则越快地跟随带宽的变化
+	 * @param minSampleBytes 最小样本大小，小于该大小的传输会被忽略
+	 */
+	public BandwidthEstimator(double decay, long minSampleBytes) {
+		if (!(decay > 0 && decay < 1)) {
+			Log.w(TAG, "Invalid decay: " + decay + ", use default value.");
+			decay = DEFAULT_DECAY;
+		}
+		if (minSampleBytes < 0L) {
+			Log.w(TAG, "Invalid minSampleBytes: " + minSampleBytes + ", use default value.");
+			minSampleBytes = DEFAULT_MIN_SAMPLE_BYTES;
+		}
+		mDecay = decay;
+		mMinSampleBytes = minSampleBytes;
+	}
+
+	/**
+	 * @return 全局共用的估计器，下载模块把样本报告到这里
+	 */
+	public static synchronized BandwidthEstimator getDefault() {
+		if (sDefault == null) {
+			sDefault = new BandwidthEstimator();
+		}
+		return sDefault;
+	}
+
+	/**
+	 * 报告一次传输的结果
+	 * @param type 网络类型，例如{@link android.net.ConnectivityManager#TYPE_WIFI}
+	 * @param subtype 网络子类型，例如{@link android.telephony.TelephonyManager#NETWORK_TYPE_UMTS}
+	 * @param bytes 传输的字节数
+	 * @param durationMillis 传输的耗时，单位为毫秒
+	 * @return 样本是否被采用，太小或者无效的样本返回false
+	 */
+	public boolean addSample(int type, int subtype, long bytes, long durationMillis) {
+		if (bytes < mMinSampleBytes || bytes <= 0L || durationMillis <= 0L) {
+			return false;
+		}
+
+		double kbps = bytes * 8.0 / durationMillis;
+		Integer key = toKey(type, subtype);
+		synchronized (this) {
+			Average average = mAverages.get(key);
+			if (average == null) {
+				average = new Average();
+				mAverages.put(key, average);
+			}
+			average.add(kbps, mDecay);
+		}
+		return true;
+	}
+
+	/**
+	 * 获取指定网络的带宽估计值
+	 * @param type 网络类型
+	 * @param subtype 网络子类型
+	 * @return 带宽，单位为kbps，没有样本时返回-1
+	 */
+	public synchronized double getBandwidthKbps(int type, int subtype) {
+		Average average = mAverages.get(toKey(type, subtype));
+		return average != null ? average.value : -1;
+	}
+
+	/**
+	 * @return 指定网络已经采用的样本数量
+	 */
+	public synchronized int getSampleCount(int type, int subtype) {
+		Average average = mAverages.get(toKey(type, subtype));
+		return average != null ? average.count : 0;
+	}
+
+	/**
+	 * 获取指定网络的连接质量
+	 * @param type 网络类型
+	 * @param subtype 网络子类型
+	 * @return 连接质量，{@link #QUALITY_POOR}到{@link #QUALITY_EXCELLENT}之一，
+	 * 样本数量少于{@link #MIN_SAMPLE_COUNT}时返回{@link #QUALITY_UNKNOWN}
+	 */
+	public synchronized int getQuality(int type, int subtype) {
+		Average average = mAverages.get(toKey(type, subtype));
+		if (average == null || average.count < MIN_SAMPLE_COUNT) {
+			return QUALITY_UNKNOWN;
+		}
+		return classify(average.value);
+	}
+
+	/**
+	 * 清除全部样本
+	 */
+	public synchronized void reset() {
+		mAverages.clear();
+	}
+
+	/**
+	 * 根据带宽划分连接质量
+	 * @param kbps 带宽，单位为kbps
+	 * @return 连接质量，带宽为负数时返回{@link #QUALITY_UNKNOWN}
+	 */
+	public static int classify(double kbps) {
+		if (kbps < 0) {
+			return QUALITY_UNKNOWN;
+		}
+		for (int quality = QUALITY_EXCELLENT; quality > QUALITY_POOR; quality--) {
+			if (kbps >= QUALITY_THRESHOLDS[quality]) {
+				return quality;
+			}
+		}
+		return QUALITY_POOR;
+	}
+
+	private static Integer toKey(int type, int subtype) {
+		return Integer.valueOf((type << 16) | (subtype & 0xFFFF));
+	}
+
+	/**
+	 * 指数加权移动平均值，样本较少时使用算术平均值，避免第一个样本的权重过低
+	 */
+	private static final class Average {
+		double value = -1;
+		int count = 0;
+
+		void add(double sample, double decay) {
+			count++;
+			double weight = Math.max(decay, 1.0 / count);
+			value = count == 1 ? sample : value + (sample - value) * weight;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package com.imasson.droidshake.util;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+
+/**
+ * <p>可以复用的位图池</p>
+ * <p>反复截图或生成缩略图时，每次都创建新的位图会产生大量需要回收的内存。
+ * 使用完毕的位图通过{@link #put(Bitmap)}放回池中，下次需要相同宽高和{@link Bitmap.Config}的位图时，
+ * {@link #obtain(int, int, Bitmap.Config)}会清空并直接返回池中的位图。</p>
+ * <p>池中位图的总字节数不超过指定的上限，超出时回收最早放入的位图。
+ * 位图放回池中之后调用者不能再使用它。本类是线程安全的。</p>
+ *
+ * @see ViewUtils#makeSnapshot(android.view.View, float, Bitmap.Config, BitmapPool)
+ */
+public final class BitmapPool {
+	private static final String TAG = "BitmapPool";
+
+	/** 默认的总字节数上限 */
+	public static final int DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+	private final int mMaxBytes;
+	/** 池中的位图，按放入的顺序排列 */
+	private final LinkedList<Bitmap> mBitmaps = new LinkedList<Bitmap>();
+	private int mCurrentBytes = 0;
+
+	private long mHitCount = 0L;
+	private long mMissCount = 0L;
+
+	/**
+	 * 使用默认的上限创建位图池
+	 */
+	public BitmapPool() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * 创建位图池
+	 * @param maxBytes 池中位图的总字节数上限
+	 */
+	public BitmapPool(int maxBytes) {
+		if (maxBytes <= 0) {
+			Log.w(TAG, "Invalid maxBytes: " + maxBytes + ", use default value.");
+			maxBytes = DEFAULT_MAX_BYTES;
+		}
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * <p>获取指定宽高和格式的可修改位图，池中没有时创建新的位图</p>
+	 * @param width 宽度，必须大于0
+	 * @param height 高度，必须大于0
+	 * @param config 位图的格式，不能为空
+	 * @return 内容为全透明（RGB_565为黑色）的位图，参数无效或者内存不足时返回null
+	 */
+	public Bitmap obtain(int width, int height, Bitmap.Config config) {
+		if (width <= 0 || height <= 0) {
+			Log.w(TAG, "Invalid size " + width + "x" + height + " at obtain()");
+			return null;
+		}
+		if (config == null) {
+			Log.w(TAG, "Argument 'config' is null at obtain()");
+			return null;
+		}
+
+		Bitmap bitmap = null;
+		synchronized (this) {
+			Iterator<Bitmap> iterator = mBitmaps.iterator();
+			while (iterator.hasNext()) {
+				Bitmap candidate = iterator.next();
+				if (candidate.getWidth() == width && candidate.getHeight() == height
+						&& candidate.getConfig() == config) {
+					iterator.remove();
+					mCurrentBytes -= getByteCount(candidate);
+					bitmap = candidate;
+					break;
+				}
+			}
+			if (bitmap != null) {
+				mHitCount++;
+			} else {
+				mMissCount++;
+			}
+		}
+
+		if (bitmap != null) {
+			bitmap.eraseColor(Color.TRANSPARENT);
+			return bitmap;
+		}
+		try {
+			return Bitmap.createBitmap(width, height, config);
+		} catch (OutOfMemoryError er) {
+			Log.w(TAG, "OutOfMemoryError at obtain(), size=" + width + "x" + height, er);
+			// 池中的位图可能正是内存不足的原因
+			clear();
+			return null;
+		}
+	}
+
+	/**
+	 * <p>把不再使用的位图放回池中</p>
+	 * @param bitmap 需要放回的位图，必须是可修改的，放回后调用者不能再使用
+	 * @return 是否放回成功，位图无效或者超过上限时返回false，此时位图仍由调用者负责
+	 */
+	public boolean put(Bitmap bitmap) {
+		if (bitmap == null) {
+			Log.w(TAG, "Argument 'bitmap' is null at put()");
+			return false;
+		}
+		if (bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() == null) {
+			return false;
+		}
+		int bytes = getByteCount(bitmap);
+		if (bytes > mMaxBytes) {
+			return false;
+		}
+
+		synchronized (this) {
+			if (mBitmaps.contains(bitmap)) {
+				return true;
+			}
+			while (mCurrentBytes + bytes > mMaxBytes && !mBitmaps.isEmpty()) {
+				Bitmap eldest = mBitmaps.removeFirst();
+				mCurrentBytes -= getByteCount(eldest);
+				eldest.recycle();
+			}
+			mBitmaps.addLast(bitmap);
+			mCurrentBytes += bytes;
+		}
+		return true;
+	}
+
+	/**
+	 * 回收池中的全部位图
+	 */
+	public synchronized void clear() {
+		for (Bitmap bitmap : mBitmaps) {
+			bitmap.recycle();
+		}
+		mBitmaps.clear();
+		mCurrentBytes = 0;
+	}
+
+	/**
+	 * @return 池中位图的总字节数
+	 */
+	public synchronized int getSize() {
+		return mCurrentBytes;
+	}
+
+	public int getMaxSize() {
+		return mMaxBytes;
+	}
+
+	public synchronized long getHitCount() {
+		return mHitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return mMissCount;
+	}
+
+	/**
+	 * Bitmap.getByteCount()需要API Level 12
+	 */
+	private static int getByteCount(Bitmap bitmap) {
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+}
@@ -0,0 +1,307 @@
+package com.imasson.droidshake.util;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * <p>缓存当前网络连接状态的监听器</p>
+ * <p>{@link ConnectivityManager#getActiveNetworkInfo()}每次调用都是一次跨进程调用。
+ * 本类只在第一次使用时查询一次，之后注册{@link ConnectivityManager#CONNECTIVITY_ACTION}广播，
+ * 网络变化时重新查询，并把结果保存在一个不可变的{@link Snapshot}中。
+ * 查询网络状态时只需要读取一个volatile变量，{@link NetworkUtils}中的方法都通过本类实现。</p>
+ * <p>网络状态发生变化时会在主线程中通知{@link Listener}，状态没有变化的广播不会通知。
+ * 查询和更新状态在同一个锁中进行，多个线程同时刷新时不会用旧的状态覆盖新的状态。</p>
+ *
+ * @see NetworkUtils
+ */
+public final class ConnectivityMonitor {
+	private static final String TAG = "ConnectivityMonitor";
+
+	/**
+	 * 网络状态变化的监听接口，在主线程中回调
+	 */
+	public interface Listener {
+		/**
+		 * 网络状态发生了变化
+		 * @param oldSnapshot 变化之前的网络状态
+		 * @param newSnapshot 当前的网络状态
+		 */
+		void onConnectivityChanged(Snapshot oldSnapshot, Snapshot newSnapshot);
+	}
+
+	private static ConnectivityMonitor sInstance = null;
+
+	private final Context mContext;
+	private final ConnectivityManager mConnectivityManager;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			refresh();
+		}
+	};
+
+	private volatile Snapshot mSnapshot;
+	/** 写时复制的监听者数组，通知时不需要加锁 */
+	private volatile Listener[] mListeners = new Listener[0];
+	private boolean mRegistered = false;
+
+	private ConnectivityMonitor(Context context) {
+		mContext = context;
+		mConnectivityManager = (ConnectivityManager) context
+				.getSystemService(Context.CONNECTIVITY_SERVICE);
+		if (mConnectivityManager == null) {
+			Log.w(TAG, "Can't not fetch ConnectivityManager at ConnectivityMonitor(Context)");
+		}
+		mSnapshot = query();
+	}
+
+	/**
+	 * <p>获取监听器，第一次调用时查询网络状态并注册广播</p>
+	 * @param context 上下文对象，不能为空，内部只会保存ApplicationContext
+	 * @return 监听器，context为空时返回null
+	 */
+	public static synchronized ConnectivityMonitor getInstance(Context context) {
+		if (sInstance == null) {
+			if (context == null) {
+				Log.w(TAG, "Argument 'context' is null at getInstance(Context)");
+				return null;
+			}
+			Context appContext = context.getApplicationContext();
+			sInstance = new ConnectivityMonitor(appContext != null ? appContext : context);
+			sInstance.start();
+		}
+		return sInstance;
+	}
+
+	/**
+	 * 注册网络变化的广播，已经注册时不做任何事情
+	 * @return 是否注册成功，已经注册时返回false
+	 */
+	public synchronized boolean start() {
+		if (mRegistered) {
+			return false;
+		}
+
+		try {
+			mContext.registerReceiver(mReceiver,
+					new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+		} catch (Exception e) {
+			Log.w(TAG, "Exception at start()", e);
+			return false;
+		}
+		mRegistered = true;
+		// 注册之前可能已经错过了一次变化
+		refresh();
+		return true;
+	}
+
+	/**
+	 * 注销网络变化的广播，之后{@link #getSnapshot()}返回的是注销之前最后一次的状态
+	 */
+	public synchronized void stop() {
+		if (!mRegistered) {
+			return;
+		}
+
+		try {
+			mContext.unregisterReceiver(mReceiver);
+		} catch (Exception e) {
+			Log.w(TAG, "Exception at stop()", e);
+		}
+		mRegistered = false;
+	}
+
+	public synchronized boolean isRunning() {
+		return mRegistered;
+	}
+
+	/**
+	 * @return 当前的网络状态，不会为null
+	 */
+	public Snapshot getSnapshot() {
+		return mSnapshot;
+	}
+
+	/**
+	 * <p>立即重新查询网络状态，状态发生变化时在主线程中通知监听者</p>
+	 * <p>一般不需要手动调用，收到广播时会自动调用。可以在任意线程中调用。</p>
+	 * @return 当前的网络状态
+	 */
+	public Snapshot refresh() {
+		final Snapshot oldSnapshot;
+		final Snapshot newSnapshot;
+		// 在锁中查询，保证后开始的查询结果一定后发布
+		synchronized (this) {
+			oldSnapshot = mSnapshot;
+			newSnapshot = query();
+			if (newSnapshot.equals(oldSnapshot)) {
+				return oldSnapshot;
+			}
+			mSnapshot = newSnapshot;
+			// 在锁中提交通知，保证通知的顺序与状态变化的顺序一致
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					Listener[] listeners = mListeners;
+					for (int i = 0; i < listeners.length; i++) {
+						listeners[i].onConnectivityChanged(oldSnapshot, newSnapshot);
+					}
+				}
+			});
+		}
+		return newSnapshot;
+	}
+
+	public synchronized void addListener(Listener listener) {
+		if (listener == null) {
+			Log.w(TAG, "Argument 'listener' is null at addListener(Listener)");
+			return;
+		}
+
+		Listener[] listeners = mListeners;
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				return;
+			}
+		}
+
+		Listener[] newListeners = new Listener[listeners.length + 1];
+		System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+		newListeners[listeners.length] = listener;
+		mListeners = newListeners;
+	}
+
+	public synchronized void removeListener(Listener listener) {
+		Listener[] listeners = mListeners;
+		int index = -1;
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				index = i;
+				break;
+			}
+		}
+		if (index < 0) {
+			return;
+		}
+
+		Listener[] newListeners = new Listener[listeners.length - 1];
+		System.arraycopy(listeners, 0, newListeners, 0, index);
+		System.arraycopy(listeners, index + 1, newListeners, index, newListeners.length - index);
+		mListeners = newListeners;
+	}
+
+	private Snapshot query() {
+		if (mConnectivityManager == null) {
+			return new Snapshot(false, null, SystemClock.elapsedRealtime());
+		}
+
+		NetworkInfo activeInfo = null;
+		boolean available = false;
+		try {
+			activeInfo = mConnectivityManager.getActiveNetworkInfo();
+			if (activeInfo != null && activeInfo.isAvailable()) {
+				available = true;
+			} else {
+				NetworkInfo[] infos = mConnectivityManager.getAllNetworkInfo();
+				if (infos != null) {
+					for (int i = infos.length - 1; i >= 0; i--) {
+						NetworkInfo info = infos[i];
+						if (info != null && info.isAvailable()) {
+							available = true;
+							break;
+						}
+					}
+				}
+			}
+		} catch (Exception e) {
+			// 没有ACCESS_NETWORK_STATE权限等
+			Log.w(TAG, "Exception at query()", e);
+		}
+		return new Snapshot(available, activeInfo, SystemClock.elapsedRealtime());
+	}
+
+
+	/**
+	 * 某一时刻的网络状态，创建之后不会再改变
+	 */
+	public static final class Snapshot {
+		/** 至少有一个网络连接是可用的（没有全部禁止或启用飞行模式等） */
+		public final boolean available;
+		/** 是否已经连接上网络 */
+		public final boolean connected;
+		/** 当前网络的类型，例如{@link ConnectivityManager#TYPE_WIFI}，没有网络时为-1 */
+		public final int type;
+		/** 当前网络的子类型，例如{@link android.telephony.TelephonyManager#NETWORK_TYPE_UMTS}，没有网络时为-1 */
+		public final int subtype;
+		/** 查询的时间，基于{@link SystemClock#elapsedRealtime()} */
+		public final long timestamp;
+
+		Snapshot(boolean available, NetworkInfo info, long timestamp) {
+			this.available = available;
+			this.connected = info != null && info.isConnected();
+			this.type = info != null ? info.getType() : -1;
+			this.subtype = info != null ? info.getSubtype() : -1;
+			this.timestamp = timestamp;
+		}
+
+		/**
+		 * @return 是否正在使用WIFI网络
+		 */
+		public boolean isWifi() {
+			return connected && type == ConnectivityManager.TYPE_WIFI;
+		}
+
+		/**
+		 * @return 是否正在使用移动网络（包括2G~4G等所有移动网络）
+		 */
+		public boolean isMobile() {
+			return connected && type == ConnectivityManager.TYPE_MOBILE;
+		}
+
+		/**
+		 * @return 是否正在使用高速的网络（WIFI或者3G~4G等移动网络）
+		 */
+		public boolean isFast() {
+			return connected && NetworkUtils.isConnectionFast(type, subtype);
+		}
+
+		/**
+		 * 比较网络状态是否相同，不比较查询的时间
+		 */
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Snapshot)) {
+				return false;
+			}
+			Snapshot other = (Snapshot) o;
+			return available == other.available && connected == other.connected
+					&& type == other.type && subtype == other.subtype;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = (available ? 1 : 0) | (connected ? 2 : 0);
+			result = 31 * result + type;
+			result = 31 * result + subtype;
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return "Snapshot: available=" + available + ", connected=" + connected
+					+ ", type=" + type + ", subtype=" + subtype + ", timestamp=" + timestamp;
+		}
+	}
+}
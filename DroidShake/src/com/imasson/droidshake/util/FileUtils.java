@@ -8,6 +8,8 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -27,6 +29,8 @@ import android.util.Log;
  * <p>该工具类已对各种可能出现的异常作了封装和保护</p>
  * 
  * @version 1.0 包含多种通用文件操作的方法
+ * @version 1.1 增加计算文件摘要的方法
+ * @version 1.2 增加写入字节数组的方法
  */
 public final class FileUtils {
 	private static final String TAG = "FileUtil";
@@ -184,7 +188,7 @@ public final class FileUtils {
      * @return 是否已经建立了目录
      */
     public static boolean mkdirIfNotFound(String dirPath) {
-    	if (!TextUtils.isEmpty(dirPath)) {
+    	if (TextUtils.isEmpty(dirPath)) {
         	Log.w(TAG, "Argument 'dirPath' is null or empty at mkdirIfNotFound(String)");
             return false;
         }
@@ -665,6 +669,100 @@ public final class FileUtils {
 		return baos.toByteArray();
 	}
 	
+	/**
+	 * <p>把字节数组写入指定路径的文件，文件已经存在时会被覆盖</p>
+	 * @param path 文件的完整路径，所在的目录不存在时会自动创建
+	 * @param data 要写入的数据
+	 * @return 是否写入成功
+	 */
+	public static boolean writeBytes(String path, byte[] data) {
+		if (TextUtils.isEmpty(path)) {
+			Log.w(TAG, "Argument 'path' is null or empty at writeBytes()");
+			return false;
+		}
+		if (data == null) {
+			Log.w(TAG, "Argument 'data' is null at writeBytes()");
+			return false;
+		}
+		
+		File parent = new File(path).getParentFile();
+		if (parent != null && !parent.exists()) {
+			mkdirIfNotFound(parent.getPath());
+		}
+		
+		FileOutputStream fos = null;
+		try {
+			fos = new FileOutputStream(path);
+			fos.write(data);
+			fos.flush();
+			return true;
+		} catch (Exception e) {
+			Log.w(TAG, "Exception at writeBytes(), path=" + path, e);
+			return false;
+		} finally {
+			if (fos != null) {
+				try {
+					fos.close();
+				} catch (IOException e) { }
+			}
+		}
+	}
+	
+	/**
+	 * <p>计算指定路径的文件的摘要，用于校验下载的文件是否完整</p>
+	 * <p>文件按块读取，可以用于大文件。</p>
+	 * @param path 文件的完整路径
+	 * @param algorithm 摘要算法，例如"MD5"、"SHA-1"、"SHA-256"
+	 * @return 小写的十六进制摘要字符串，失败时返回null
+	 */
+	public static String computeDigest(String path, String algorithm) {
+		if (TextUtils.isEmpty(path)) {
+			Log.w(TAG, "Argument 'path' is null or empty at computeDigest()");
+			return null;
+		}
+		if (TextUtils.isEmpty(algorithm)) {
+			Log.w(TAG, "Argument 'algorithm' is null or empty at computeDigest()");
+			return null;
+		}
+		
+		File file = new File(path);
+		if (!file.exists() || !file.isFile()) {
+			Log.w(TAG, "The target file not exist at computeDigest(), path=" + path);
+			return null;
+		}
+		
+		FileInputStream fis = null;
+		try {
+			MessageDigest digest = MessageDigest.getInstance(algorithm);
+			fis = new FileInputStream(file);
+			byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+			int byteread;
+			while ((byteread = fis.read(buffer)) != -1) {
+				digest.update(buffer, 0, byteread);
+			}
+			
+			byte[] bytes = digest.digest();
+			char[] hex = new char[bytes.length * 2];
+			for (int i = 0; i < bytes.length; i++) {
+				hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0x0F, 16);
+				hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0x0F, 16);
+			}
+			return new String(hex);
+		} catch (NoSuchAlgorithmException e) {
+			Log.w(TAG, "Unsupported algorithm at computeDigest(), algorithm=" + algorithm, e);
+			return null;
+		} catch (Exception e) {
+			Log.w(TAG, "Exception at computeDigest(), path=" + path, e);
+			return null;
+		} finally {
+			if (fis != null) {
+				try {
+					fis.close();
+				} catch (IOException e) { }
+			}
+		}
+	}
+	
 	
 	private FileUtils() { }
 }
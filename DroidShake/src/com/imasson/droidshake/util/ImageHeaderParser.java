@@ -0,0 +1,299 @@
+package com.imasson.droidshake.util;
+
+/**
+ * <p>增量式的图像文件头解析器，用于在下载的过程中尽早得到图像的宽高</p>
+ * <p>通过{@link #feed(byte[], int, int)}按顺序传入图像文件的数据，解析器只保存很少的状态，
+ * 不会缓存已经传入的数据。一旦得到宽高或者确定无法解析，{@link #isFinished()}就会返回true，
+ * 之后传入的数据都会被忽略。</p>
+ * <p>支持的格式：PNG、JPEG、GIF、WEBP（VP8、VP8L和VP8X）和BMP。JPEG需要找到SOF段才能得到宽高，
+ * 前面的EXIF等段会被直接跳过；其它格式只需要文件的前{@link #HEADER_SIZE}个字节。</p>
+ * <p>本类只依赖于基本的Java类，可以在JVM中测试。本类不是线程安全的。</p>
+ */
+public class ImageHeaderParser {
+
+	public static final int FORMAT_UNKNOWN = 0;
+	public static final int FORMAT_PNG = 1;
+	public static final int FORMAT_JPEG = 2;
+	public static final int FORMAT_GIF = 3;
+	public static final int FORMAT_WEBP = 4;
+	public static final int FORMAT_BMP = 5;
+
+	/** 除JPEG以外的格式需要的文件头长度 */
+	public static final int HEADER_SIZE = 30;
+
+	private static final byte[] PNG_SIGNATURE = {
+		(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+	};
+
+	// JPEG解析的状态
+	private static final int JPEG_MARKER_START = 0;
+	private static final int JPEG_MARKER = 1;
+	private static final int JPEG_LENGTH_HIGH = 2;
+	private static final int JPEG_LENGTH_LOW = 3;
+	private static final int JPEG_SKIP = 4;
+	private static final int JPEG_SOF = 5;
+
+	private final byte[] mHeader = new byte[HEADER_SIZE];
+	private int mHeaderLength = 0;
+	private int mFormat = FORMAT_UNKNOWN;
+	private int mWidth = -1;
+	private int mHeight = -1;
+	private boolean mFinished = false;
+
+	private int mJpegState = JPEG_MARKER_START;
+	private int mJpegMarker = 0;
+	private int mJpegRemaining = 0;
+	private final int[] mJpegSof = new int[5];
+	private int mJpegSofLength = 0;
+
+	/**
+	 * 传入下一段数据
+	 * @param buffer 数据所在的数组
+	 * @param offset 数据的起始位置
+	 * @param count 数据的长度
+	 * @return 解析是否已经结束，与{@link #isFinished()}相同
+	 */
+	public boolean feed(byte[] buffer, int offset, int count) {
+		if (buffer == null) {
+			return mFinished;
+		}
+
+		while (count > 0 && !mFinished) {
+			if (mFormat != FORMAT_JPEG) {
+				int length = Math.min(HEADER_SIZE - mHeaderLength, count);
+				System.arraycopy(buffer, offset, mHeader, mHeaderLength, length);
+				mHeaderLength += length;
+				offset += length;
+				count -= length;
+				parseHeader();
+			} else if (mJpegState == JPEG_SKIP) {
+				// 跳过不需要的段时不必逐字节处理
+				int length = Math.min(mJpegRemaining, count);
+				mJpegRemaining -= length;
+				offset += length;
+				count -= length;
+				if (mJpegRemaining == 0) {
+					mJpegState = JPEG_MARKER_START;
+				}
+			} else {
+				feedJpeg(buffer[offset] & 0xFF);
+				offset++;
+				count--;
+			}
+		}
+		return mFinished;
+	}
+
+	/**
+	 * @return 解析是否已经结束，结束后可以通过{@link #hasSize()}判断是否得到了宽高
+	 */
+	public boolean isFinished() {
+		return mFinished;
+	}
+
+	/**
+	 * @return 是否已经得到了有效的宽高
+	 */
+	public boolean hasSize() {
+		return mWidth > 0 && mHeight > 0;
+	}
+
+	/**
+	 * @return 图像的格式，例如{@link #FORMAT_PNG}，还没有识别或者不支持时返回{@link #FORMAT_UNKNOWN}
+	 */
+	public int getFormat() {
+		return mFormat;
+	}
+
+	/**
+	 * @return 图像的宽度，还没有得到时返回-1
+	 */
+	public int getWidth() {
+		return mWidth;
+	}
+
+	/**
+	 * @return 图像的高度，还没有得到时返回-1
+	 */
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * 清除解析的状态，以便解析另一个文件
+	 */
+	public void reset() {
+		mHeaderLength = 0;
+		mFormat = FORMAT_UNKNOWN;
+		mWidth = -1;
+		mHeight = -1;
+		mFinished = false;
+		mJpegState = JPEG_MARKER_START;
+		mJpegMarker = 0;
+		mJpegRemaining = 0;
+		mJpegSofLength = 0;
+	}
+
+	private void parseHeader() {
+		if (mHeaderLength >= 2 && u8(0) == 0xFF && u8(1) == 0xD8) {
+			// JPEG的SOI之后是一系列的段，把文件头中剩余的数据交给状态机处理
+			mFormat = FORMAT_JPEG;
+			for (int i = 2; i < mHeaderLength && !mFinished; i++) {
+				if (mJpegState == JPEG_SKIP) {
+					if (--mJpegRemaining == 0) {
+						mJpegState = JPEG_MARKER_START;
+					}
+				} else {
+					feedJpeg(u8(i));
+				}
+			}
+			return;
+		}
+		if (mHeaderLength < HEADER_SIZE) {
+			return;
+		}
+
+		if (startsWith(PNG_SIGNATURE, 0) && startsWith("IHDR", 12)) {
+			mFormat = FORMAT_PNG;
+			mWidth = int32BigEndian(16);
+			mHeight = int32BigEndian(20);
+		} else if (startsWith("GIF8", 0)) {
+			mFormat = FORMAT_GIF;
+			mWidth = int16LittleEndian(6);
+			mHeight = int16LittleEndian(8);
+		} else if (startsWith("BM", 0)) {
+			mFormat = FORMAT_BMP;
+			if (int32LittleEndian(14) == 12) {
+				// OS/2的BITMAPCOREHEADER使用16位的宽高
+				mWidth = int16LittleEndian(18);
+				mHeight = int16LittleEndian(20);
+			} else {
+				mWidth = int32LittleEndian(18);
+				// 高度为负数时表示自上而下存储
+				mHeight = Math.abs(int32LittleEndian(22));
+			}
+		} else if (startsWith("RIFF", 0) && startsWith("WEBP", 8)) {
+			mFormat = FORMAT_WEBP;
+			parseWebp();
+		}
+		mFinished = true;
+	}
+
+	private void parseWebp() {
+		if (startsWith("VP8X", 12)) {
+			mWidth = int24LittleEndian(24) + 1;
+			mHeight = int24LittleEndian(27) + 1;
+		} else if (startsWith("VP8L", 12)) {
+			if (u8(20) == 0x2F) {
+				int bits = int32LittleEndian(21);
+				mWidth = (bits & 0x3FFF) + 1;
+				mHeight = ((bits >> 14) & 0x3FFF) + 1;
+			}
+		} else if (startsWith("VP8 ", 12)) {
+			if (u8(23) == 0x9D && u8(24) == 0x01 && u8(25) == 0x2A) {
+				mWidth = int16LittleEndian(26) & 0x3FFF;
+				mHeight = int16LittleEndian(28) & 0x3FFF;
+			}
+		}
+	}
+
+	private void feedJpeg(int b) {
+		switch (mJpegState) {
+		case JPEG_MARKER_START:
+			if (b == 0xFF) {
+				mJpegState = JPEG_MARKER;
+			} else {
+				// 段之间出现了不属于标记的数据，文件已经损坏
+				mFinished = true;
+			}
+			break;
+		case JPEG_MARKER:
+			if (b == 0xFF) {
+				// 标记前的填充字节
+				break;
+			}
+			mJpegMarker = b;
+			if (b == 0x01 || b == 0xD8 || (b >= 0xD0 && b <= 0xD7)) {
+				// 没有长度的独立标记
+				mJpegState = JPEG_MARKER_START;
+			} else if (b == 0xDA || b == 0xD9) {
+				// 到了图像数据或者文件结束都没有找到SOF
+				mFinished = true;
+			} else {
+				mJpegState = JPEG_LENGTH_HIGH;
+			}
+			break;
+		case JPEG_LENGTH_HIGH:
+			mJpegRemaining = b << 8;
+			mJpegState = JPEG_LENGTH_LOW;
+			break;
+		case JPEG_LENGTH_LOW:
+			// 段的长度包括长度字段本身的两个字节
+			mJpegRemaining = (mJpegRemaining | b) - 2;
+			if (mJpegRemaining < 0) {
+				mFinished = true;
+			} else if (isStartOfFrame(mJpegMarker)) {
+				mJpegSofLength = 0;
+				mJpegState = JPEG_SOF;
+			} else {
+				mJpegState = mJpegRemaining > 0 ? JPEG_SKIP : JPEG_MARKER_START;
+			}
+			break;
+		case JPEG_SOF:
+			// 依次为精度、高度和宽度
+			mJpegSof[mJpegSofLength++] = b;
+			if (mJpegSofLength == mJpegSof.length) {
+				mHeight = (mJpegSof[1] << 8) | mJpegSof[2];
+				mWidth = (mJpegSof[3] << 8) | mJpegSof[4];
+				mFinished = true;
+			}
+			break;
+		}
+	}
+
+	/**
+	 * SOF0~SOF15，其中0xC4(DHT)、0xC8(JPG)和0xCC(DAC)不是SOF
+	 */
+	private static boolean isStartOfFrame(int marker) {
+		return marker >= 0xC0 && marker <= 0xCF
+				&& marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+	}
+
+	private boolean startsWith(byte[] signature, int offset) {
+		for (int i = 0; i < signature.length; i++) {
+			if (mHeader[offset + i] != signature[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean startsWith(String signature, int offset) {
+		for (int i = 0; i < signature.length(); i++) {
+			if (mHeader[offset + i] != (byte) signature.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int u8(int offset) {
+		return mHeader[offset] & 0xFF;
+	}
+
+	private int int16LittleEndian(int offset) {
+		return u8(offset) | (u8(offset + 1) << 8);
+	}
+
+	private int int24LittleEndian(int offset) {
+		return int16LittleEndian(offset) | (u8(offset + 2) << 16);
+	}
+
+	private int int32LittleEndian(int offset) {
+		return int24LittleEndian(offset) | (u8(offset + 3) << 24);
+	}
+
+	private int int32BigEndian(int offset) {
+		return (u8(offset) << 24) | (u8(offset + 1) << 16) | (u8(offset + 2) << 8) | u8(offset + 3);
+	}
+}
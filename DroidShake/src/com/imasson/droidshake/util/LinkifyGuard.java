@@ -0,0 +1,240 @@
+package com.imasson.droidshake.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.text.util.Linkify;
+import android.util.Log;
+
+/**
+ * <p>超链接识别的时间和计算量限制</p>
+ * <p>部分正则表达式（如{@link ShakePatterns#EMAIL_ADDRESS}）在特殊构造或者很长的文字上会产生大量回溯，
+ *在UI线程中识别时会造成界面卡死。通过{@link ShakeLinkify#addLinks(android.text.Spannable, int, LinkifyGuard)}
+ *使用本类后，识别过程将受到以下限制：</p>
+ * <ul>
+ * <li>文字按照换行符分段识别，每段的长度不超过{@link #getMaxRegionLength()}，过长的一行在空白字符处截断；</li>
+ * <li>整个识别过程的时间不超过{@link #getTimeBudgetMillis()}，超出时停止识别，已经识别出的链接仍然有效。</li>
+ * </ul>
+ * <p>每次中止识别时都会计数，并通知{@link AbortCallback}。本类的对象可以在多个线程中共享。</p>
+ * <p>注意：Android的正则表达式由ICU实现，匹配前会复制整段文字，单次匹配无法被中断，
+ *超时只能在每次匹配之间检查，因此最坏情况下的识别时间由分段长度决定。</p>
+ *
+ * @see ShakeLinkify
+ */
+public class LinkifyGuard {
+    private static final String TAG = "LinkifyGuard";
+
+    /** 默认的识别时间限制，单位为毫秒 */
+    public static final long DEFAULT_TIME_BUDGET_MILLIS = 50;
+    /** 默认的最大分段长度 */
+    public static final int DEFAULT_MAX_REGION_LENGTH = 2048;
+
+    /**
+     * 每读取这么多个字符检查一次是否超时，必须为2的幂减1
+     */
+    private static final int DEADLINE_CHECK_MASK = 0x3FF;
+
+    /**
+     * 识别被中止时的回调接口，可能在任意的识别线程中调用
+     */
+    public interface AbortCallback {
+        /**
+         * @param linkType      被中止的链接类型，为{@link Linkify#WEB_URLS}等标志位之一
+         * @param regionStart   被中止的文字区间的起始位置
+         * @param regionEnd     被中止的文字区间的结束位置（不包括）
+         * @param elapsedNanos  从开始识别到中止经过的时间，单位为纳秒
+         */
+        void onLinkifyAborted(int linkType, int regionStart, int regionEnd,
+                long elapsedNanos);
+    }
+
+    private final long mTimeBudgetNanos;
+    private final int mMaxRegionLength;
+
+    private final AtomicInteger mTimeoutCount = new AtomicInteger();
+
+    private volatile AbortCallback mCallback;
+
+    /**
+     * 使用默认的限制创建对象
+     */
+    public LinkifyGuard() {
+        this(DEFAULT_TIME_BUDGET_MILLIS, DEFAULT_MAX_REGION_LENGTH);
+    }
+
+    /**
+     * @param timeBudgetMillis  整个识别过程的时间限制，单位为毫秒，小于等于0时使用默认值
+     * @param maxRegionLength   最大分段长度，小于等于0时使用默认值
+     */
+    public LinkifyGuard(long timeBudgetMillis, int maxRegionLength) {
+        if (timeBudgetMillis <= 0) {
+            Log.w(TAG, "Invalid time budget: " + timeBudgetMillis + ", use default value.");
+            timeBudgetMillis = DEFAULT_TIME_BUDGET_MILLIS;
+        }
+        if (maxRegionLength <= 0) {
+            Log.w(TAG, "Invalid max region length: " + maxRegionLength + ", use default value.");
+            maxRegionLength = DEFAULT_MAX_REGION_LENGTH;
+        }
+        mTimeBudgetNanos = timeBudgetMillis * 1000000L;
+        mMaxRegionLength = maxRegionLength;
+    }
+
+    /**
+     * 设置识别被中止时的回调
+     * @param callback 回调对象，为null时取消回调
+     */
+    public void setAbortCallback(AbortCallback callback) {
+        mCallback = callback;
+    }
+
+    public long getTimeBudgetMillis() {
+        return mTimeBudgetNanos / 1000000L;
+    }
+
+    public int getMaxRegionLength() {
+        return mMaxRegionLength;
+    }
+
+    /**
+     * @return 因为超时而中止识别的次数
+     */
+    public int getTimeoutCount() {
+        return mTimeoutCount.get();
+    }
+
+    /**
+     * 开始一次受限制的识别
+     * @param text 需要识别的文字
+     * @return 包装了原文字的识别过程，只能在当前线程中使用
+     */
+    Session begin(CharSequence text) {
+        return new Session(text);
+    }
+
+    private void notifyAborted(int linkType, int regionStart, int regionEnd,
+            long elapsedNanos) {
+        mTimeoutCount.incrementAndGet();
+        Log.w(TAG, "Linkify aborted, type=" + linkType + ", region=[" + regionStart
+                + ", " + regionEnd + "), elapsed=" + (elapsedNanos / 1000L) + "us");
+
+        AbortCallback callback = mCallback;
+        if (callback != null) {
+            callback.onLinkifyAborted(linkType, regionStart, regionEnd, elapsedNanos);
+        }
+    }
+
+    /**
+     * 识别时间超出限制时抛出的异常，不记录调用栈，因此可以重复使用同一个对象
+     */
+    static final class BudgetExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        static final BudgetExceededException INSTANCE = new BudgetExceededException();
+
+        private BudgetExceededException() {
+            super("Linkify budget exceeded");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * <p>一次受限制的识别过程</p>
+     * <p>本对象包装了原文字，每读取一定数量的字符检查一次是否超时，超时时抛出
+     *{@link BudgetExceededException}，从而中断正在进行的匹配。Android的正则表达式不经过
+     *{@link #charAt(int)}读取文字，因此调用者还需要在每次匹配之间调用{@link #checkDeadline()}。</p>
+     */
+    final class Session implements CharSequence {
+        private final CharSequence mText;
+        private final long mStartTime;
+        private final long mDeadline;
+
+        private int mReads;
+        private boolean mTimedOut;
+
+        private Session(CharSequence text) {
+            mText = text;
+            mStartTime = System.nanoTime();
+            mDeadline = mStartTime + mTimeBudgetNanos;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if ((++mReads & DEADLINE_CHECK_MASK) == 0) {
+                checkDeadline();
+            }
+            return mText.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return mText.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return mText.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return mText.toString();
+        }
+
+        /**
+         * 计算从start开始的一段文字的结束位置。优先在换行符处分段，
+         *超过最大分段长度时在空白字符处截断，找不到空白字符时直接截断
+         */
+        int nextRegionEnd(int start) {
+            CharSequence text = mText;
+            int length = text.length();
+            // mMaxRegionLength可能是Integer.MAX_VALUE，需要用long计算避免溢出
+            int limit = (int) Math.min((long) start + mMaxRegionLength, length);
+
+            for (int i = start; i < limit; i++) {
+                if (text.charAt(i) == '\n') {
+                    return i + 1;
+                }
+            }
+            if (limit == length) {
+                return length;
+            }
+
+            int minEnd = (int) Math.min((long) start + mMaxRegionLength / 2, length);
+            for (int i = limit - 1; i >= minEnd; i--) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c) || c == '\u3000') {
+                    return i + 1;
+                }
+            }
+            return limit;
+        }
+
+        /**
+         * 检查是否超时，超时的话抛出{@link BudgetExceededException}
+         */
+        void checkDeadline() {
+            if (System.nanoTime() > mDeadline) {
+                mTimedOut = true;
+                throw BudgetExceededException.INSTANCE;
+            }
+        }
+
+        /**
+         * @return 是否已经超时，超时之后不应该再继续识别
+         */
+        boolean isTimedOut() {
+            return mTimedOut;
+        }
+
+        /**
+         * 记录一次中止，并通知回调
+         * @param linkType 链接类型，为{@link Linkify#WEB_URLS}等标志位之一
+         */
+        void abort(int linkType, int regionStart, int regionEnd) {
+            notifyAborted(linkType, regionStart, regionEnd, System.nanoTime() - mStartTime);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.imasson.droidshake.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * <p>合并和去重媒体扫描请求的队列</p>
+ * <p>每个文件发送一次{@link android.content.Intent#ACTION_MEDIA_SCANNER_SCAN_FILE}广播，
+ * 在短时间内保存大量图片时会让媒体扫描服务不堪重负。本类把一段时间窗口内加入的路径合并成一批，
+ * 重复的路径只保留一个，然后通过{@link MediaScannerConnection#scanFile(Context, String[], String[],
+ * MediaScannerConnection.OnScanCompletedListener)}一次扫描一批文件。</p>
+ * <p>每次加入路径都会重新开始计时，直到窗口内不再有新的路径；
+ * 但第一个路径加入后最多等待窗口的{@link #MAX_DELAY_FACTOR}倍，避免持续写入时一直不扫描。</p>
+ * <p>扫描完成的回调在扫描服务的线程中调用，不是主线程。本类是线程安全的。</p>
+ *
+ * @see MediaUtils#requestScanMediaFile(Context, String)
+ */
+public final class MediaScanQueue {
+	private static final String TAG = "MediaScanQueue";
+
+	/** 默认的合并窗口，单位为毫秒 */
+	public static final long DEFAULT_WINDOW_MILLIS = 500L;
+	/** 第一个路径加入后的最长等待时间是窗口的多少倍 */
+	public static final int MAX_DELAY_FACTOR = 4;
+
+	/**
+	 * 扫描完成的回调接口
+	 */
+	public interface Callback {
+		/**
+		 * 文件已经扫描完毕
+		 * @param path 文件的路径
+		 * @param uri 文件在媒体库中的地址，扫描失败时为null
+		 */
+		void onScanCompleted(String path, Uri uri);
+	}
+
+	private static MediaScanQueue sInstance = null;
+
+	private final Context mContext;
+	private final long mWindowMillis;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final Runnable mFlushRunnable = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	/** 等待扫描的路径和对应的回调，按加入的顺序排列 */
+	private LinkedHashMap<String, List<Callback>> mPending = new LinkedHashMap<String, List<Callback>>();
+	private long mFirstPendingTime = 0L;
+
+	private long mRequestCount = 0L;
+	private long mScannedCount = 0L;
+	private long mBatchCount = 0L;
+
+	/**
+	 * 创建队列，一般使用{@link #getInstance(Context)}即可
+	 * @param context 上下文对象，不能为空，内部只会保存ApplicationContext
+	 * @param windowMillis 合并窗口，单位为毫秒
+	 */
+	public MediaScanQueue(Context context, long windowMillis) {
+		if (windowMillis < 0L) {
+			Log.w(TAG, "Invalid windowMillis: " + windowMillis + ", use default value.");
+			windowMillis = DEFAULT_WINDOW_MILLIS;
+		}
+		Context appContext = context.getApplicationContext();
+		mContext = appContext != null ? appContext : context;
+		mWindowMillis = windowMillis;
+	}
+
+	/**
+	 * @param context 上下文对象，不能为空
+	 * @return 使用默认窗口的全局队列，context为空时返回null
+	 */
+	public static synchronized MediaScanQueue getInstance(Context context) {
+		if (sInstance == null) {
+			if (context == null) {
+				Log.w(TAG, "Argument 'context' is null at getInstance(Context)");
+				return null;
+			}
+			sInstance = new MediaScanQueue(context, DEFAULT_WINDOW_MILLIS);
+		}
+		return sInstance;
+	}
+
+	/**
+	 * 把文件加入队列，等待下一批扫描
+	 * @param path 文件的完整路径，不需要包含"<code>file://</code>"的前缀
+	 * @param callback 扫描完成的回调，可以为null
+	 */
+	public void enqueue(String path, Callback callback) {
+		if (path == null || path.length() == 0) {
+			Log.w(TAG, "Argument 'path' is null or empty at enqueue(String, Callback)");
+			return;
+		}
+
+		long delay;
+		synchronized (this) {
+			mRequestCount++;
+			long now = SystemClock.uptimeMillis();
+			if (mPending.isEmpty()) {
+				mFirstPendingTime = now;
+			}
+			List<Callback> callbacks = mPending.get(path);
+			if (callbacks == null) {
+				callbacks = new ArrayList<Callback>(1);
+				mPending.put(path, callbacks);
+			}
+			if (callback != null) {
+				callbacks.add(callback);
+			}
+
+			long deadline = mFirstPendingTime + mWindowMillis * MAX_DELAY_FACTOR;
+			delay = Math.max(Math.min(mWindowMillis, deadline - now), 0L);
+		}
+		mHandler.removeCallbacks(mFlushRunnable);
+		mHandler.postDelayed(mFlushRunnable, delay);
+	}
+
+	/**
+	 * 把多个文件加入队列
+	 * @see #enqueue(String, Callback)
+	 */
+	public void enqueue(String[] paths, Callback callback) {
+		if (paths == null) {
+			Log.w(TAG, "Argument 'paths' is null at enqueue(String[], Callback)");
+			return;
+		}
+		for (String path : paths) {
+			enqueue(path, callback);
+		}
+	}
+
+	/**
+	 * 立即扫描队列中的全部文件，不再等待窗口结束
+	 */
+	public void flush() {
+		mHandler.removeCallbacks(mFlushRunnable);
+
+		final Map<String, List<Callback>> batch;
+		synchronized (this) {
+			if (mPending.isEmpty()) {
+				return;
+			}
+			batch = mPending;
+			mPending = new LinkedHashMap<String, List<Callback>>();
+			mBatchCount++;
+		}
+
+		String[] paths = batch.keySet().toArray(new String[batch.size()]);
+		try {
+			MediaScannerConnection.scanFile(mContext, paths, null,
+					new MediaScannerConnection.OnScanCompletedListener() {
+						@Override
+						public void onScanCompleted(String path, Uri uri) {
+							List<Callback> list;
+							// 回调在扫描服务的线程中调用，每一批的回调单独保存
+							synchronized (batch) {
+								list = batch.remove(path);
+							}
+							synchronized (MediaScanQueue.this) {
+								mScannedCount++;
+							}
+							if (list != null) {
+								for (Callback callback : list) {
+									callback.onScanCompleted(path, uri);
+								}
+							}
+						}
+					});
+		} catch (Exception e) {
+			Log.w(TAG, "Exception at flush(), count=" + paths.length, e);
+		}
+	}
+
+	/**
+	 * @return 等待扫描的文件数量（已去重）
+	 */
+	public synchronized int getPendingCount() {
+		return mPending.size();
+	}
+
+	/**
+	 * @return 加入队列的总次数，包括重复的路径
+	 */
+	public synchronized long getRequestCount() {
+		return mRequestCount;
+	}
+
+	/**
+	 * @return 已经扫描完毕的文件数量
+	 */
+	public synchronized long getScannedCount() {
+		return mScannedCount;
+	}
+
+	/**
+	 * @return 已经提交的批次数量，即实际请求扫描服务的次数
+	 */
+	public synchronized long getBatchCount() {
+		return mBatchCount;
+	}
+}
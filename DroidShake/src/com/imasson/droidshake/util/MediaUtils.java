@@ -1,59 +1,85 @@
 package com.imasson.droidshake.util;
 
 import android.content.Context;
-import android.content.Intent;
-import android.net.Uri;
-import android.os.Environment;
 import android.util.Log;
 
 /**
  * <p>与媒体相关的工具类</p>
  * 
  * @version 1.0 包含请求进行媒体扫描的相关方法
+ * @version 1.1 媒体扫描请求通过{@link MediaScanQueue}合并，不再请求扫描整个外部存储器
  */
 public class MediaUtils {
 	private static final String TAG = "MediaUtils";
 	
     /**
-     * 请求媒体扫描服务扫描整个外部存储器</br>
-     * 建议采用{@link #requestScanMediaFile(Context, String)}来扫描指定文件以提高效率
+     * <p>立即扫描{@link MediaScanQueue}中等待的全部文件</p>
+     * <p>原来通过{@link android.content.Intent#ACTION_MEDIA_MOUNTED}广播请求扫描整个外部存储器，
+     * 会引起全盘扫描和大量的磁盘读写，现在已经不再发送该广播。
+     * 保存文件后请通过{@link #requestScanMediaFile(Context, String)}请求扫描对应的文件。</p>
      * @param context 上下文对象
+     * @deprecated 使用{@link #requestScanMediaFile(Context, String)}
      */
+    @Deprecated
     public static void requestScanMediaFile(Context context) {
 		if (context == null) {
 			Log.w(TAG, "Argument 'context' is null at requestScanMediaFile(Context)");
 			return;
 		}
         
-        context.sendBroadcast(new Intent(
-                Intent.ACTION_MEDIA_MOUNTED, 
-                Uri.parse("file://" + Environment.getExternalStorageDirectory())));
+        MediaScanQueue.getInstance(context).flush();
     }
     
     /**
-     * 请求媒体扫描服务扫描指定的图像文件
+     * 请求媒体扫描服务扫描指定的图像文件，短时间内的多个请求会合并为一次扫描
      * @param context 上下文对象
      * @param filePath 指定的图像文件的完全路径，不需要包含"<code>file://</code>"的前缀
      */
     public static void requestScanMediaFile(Context context, String filePath) {
+    	requestScanMediaFile(context, filePath, null);
+    }
+    
+    /**
+     * 请求媒体扫描服务扫描指定的图像文件，短时间内的多个请求会合并为一次扫描
+     * @param context 上下文对象
+     * @param filePath 指定的图像文件的完全路径，不需要包含"<code>file://</code>"的前缀
+     * @param callback 扫描完成的回调，可以为null
+     */
+    public static void requestScanMediaFile(Context context, String filePath,
+    		MediaScanQueue.Callback callback) {
 		if (context == null) {
 			Log.w(TAG, "Argument 'context' is null "
-					+ "at requestScanMediaFile(Context, String)");
+					+ "at requestScanMediaFile(Context, String, Callback)");
 			return;
 		}
 		if (filePath == null || filePath.length() == 0) {
 			Log.w(TAG, "Argument 'filePath' is null or empty "
-					+ "at requestScanMediaFile(Context, String)");
+					+ "at requestScanMediaFile(Context, String, Callback)");
 			return;
 		}
         
-        Uri uri = Uri.parse("file://" + filePath);
-		if (uri == null) {
-			Log.w(TAG, "Error on parsing file path to URI "
-					+ "at requestScanMediaFile(Context, String), filePath: " + filePath);
+        MediaScanQueue.getInstance(context).enqueue(filePath, callback);
+    }
+    
+    /**
+     * 请求媒体扫描服务扫描多个文件
+     * @param context 上下文对象
+     * @param filePaths 文件的完全路径
+     * @param callback 每个文件扫描完成的回调，可以为null
+     */
+    public static void requestScanMediaFiles(Context context, String[] filePaths,
+    		MediaScanQueue.Callback callback) {
+		if (context == null) {
+			Log.w(TAG, "Argument 'context' is null "
+					+ "at requestScanMediaFiles(Context, String[], Callback)");
+			return;
+		}
+		if (filePaths == null) {
+			Log.w(TAG, "Argument 'filePaths' is null "
+					+ "at requestScanMediaFiles(Context, String[], Callback)");
 			return;
 		}
         
-        context.sendBroadcast(new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE, uri));
-    } 
+        MediaScanQueue.getInstance(context).enqueue(filePaths, callback);
+    }
 }
@@ -2,7 +2,6 @@ package com.imasson.droidshake.util;
 
 import android.content.Context;
 import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 
@@ -11,6 +10,8 @@ import android.util.Log;
  *
  * @version 1.0 包含基本的判断网络状态的方法
  * @version 2.0 更新判断是否已连接网络的方法，并增加判断网络是否为高速网络的方法
+ * @version 2.1 通过{@link ConnectivityMonitor}缓存网络状态，查询时不再需要跨进程调用
+ * @version 2.2 增加根据实际传输速度判断连接质量的方法
  */
 public final class NetworkUtils {
 	private static final String TAG = "NetworkUtils";
@@ -25,42 +26,17 @@ public final class NetworkUtils {
 	 * @see #isConnected(Context)
 	 */
 	public static boolean isAvaliable(Context context) {
-		if (context == null) {
-			Log.w(TAG, "Argument 'context' is null at isAvaliable(Context)");
-			return false;
-		}
-		
-		ConnectivityManager connectivityManager = (ConnectivityManager) context
-				.getSystemService(Context.CONNECTIVITY_SERVICE);
-		if (connectivityManager == null) {
-			Log.w(TAG, "Can't not fetch ConnectivityManager at isAvaliable(Context)");
-			return false;
-		}
-		
-		boolean isAvaliable = false;
-		NetworkInfo[] infos = connectivityManager.getAllNetworkInfo();
-		if (infos != null) {
-			for (int i = infos.length - 1; i >= 0; i--) {
-				NetworkInfo info = infos[i];
-				if (info != null && info.isAvailable()) {
-					isAvaliable = true;
-					break;
-				}
-			}
-		}
-
-		return isAvaliable;
+		ConnectivityMonitor.Snapshot snapshot = getSnapshot(context, "isAvaliable(Context)");
+		return (snapshot != null && snapshot.available);
 	}
 	
 	
-    private static NetworkInfo getNetworkInfo(Context context) {
-        ConnectivityManager connectivityManager = (ConnectivityManager) context
-        		.getSystemService(Context.CONNECTIVITY_SERVICE);
-        if (connectivityManager == null) {
-			Log.w(TAG, "Can't not fetch ConnectivityManager at getNetworkInfo(Context)");
+    private static ConnectivityMonitor.Snapshot getSnapshot(Context context, String method) {
+        if (context == null) {
+			Log.w(TAG, "Argument 'context' is null at " + method);
 			return null;
 		}
-        return connectivityManager.getActiveNetworkInfo();
+        return ConnectivityMonitor.getInstance(context).getSnapshot();
     }
 
     /**
@@ -72,8 +48,8 @@ public final class NetworkUtils {
 	 * @see #isConnectedFast(Context)
 	 */
     public static boolean isConnected(Context context) {
-        NetworkInfo info = getNetworkInfo(context);
-        return (info != null && info.isConnected());
+        ConnectivityMonitor.Snapshot snapshot = getSnapshot(context, "isConnected(Context)");
+        return (snapshot != null && snapshot.connected);
     }
 
     /**
@@ -84,9 +60,8 @@ public final class NetworkUtils {
    	 * @see #isConnectedFast(Context)
    	 */
     public static boolean isConnectedWifi(Context context) {
-        NetworkInfo info = getNetworkInfo(context);
-        return (info != null && info.isConnected() && 
-        		info.getType() == ConnectivityManager.TYPE_WIFI);
+        ConnectivityMonitor.Snapshot snapshot = getSnapshot(context, "isConnectedWifi(Context)");
+        return (snapshot != null && snapshot.isWifi());
     }
 
     /**
@@ -97,25 +72,63 @@ public final class NetworkUtils {
    	 * @see #isConnectedFast(Context)
    	 */
     public static boolean isConnectedMobile(Context context) {
-        NetworkInfo info = getNetworkInfo(context);
-        return (info != null && info.isConnected() && 
-        		info.getType() == ConnectivityManager.TYPE_MOBILE);
+        ConnectivityMonitor.Snapshot snapshot = getSnapshot(context, "isConnectedMobile(Context)");
+        return (snapshot != null && snapshot.isMobile());
     }
 
     /**
-   	 * <p>判断当前设备是否正在使用高速的移动网络（包括3G~4G等移动网络）</p>
+   	 * <p>判断当前设备是否正在使用高速的网络（WIFI或者3G~4G等移动网络）</p>
+   	 * <p>当前网络已经有足够的传输样本时，根据{@link BandwidthEstimator}测得的带宽判断，
+   	 * 否则根据网络的类型判断。</p>
    	 * @param context 上下文对象，不能为空
-   	 * @return 当前设备是否正在使用高速的移动网络
+   	 * @return 当前设备是否正在使用高速的网络
    	 * @see #isConnectedWifi(Context)
-   	 * @see #isConnectedFast(Context)
+   	 * @see #getConnectionQuality(Context)
    	 */
     public static boolean isConnectedFast(Context context) {
-        NetworkInfo info = getNetworkInfo(context);
-        return (info != null && info.isConnected() && 
-        		isConnectionFast(info.getType(), info.getSubtype()));
+        ConnectivityMonitor.Snapshot snapshot = getSnapshot(context, "isConnectedFast(Context)");
+        if (snapshot == null || !snapshot.connected) {
+        	return false;
+        }
+        
+        int quality = BandwidthEstimator.getDefault().getQuality(snapshot.type, snapshot.subtype);
+        if (quality != BandwidthEstimator.QUALITY_UNKNOWN) {
+        	return quality >= BandwidthEstimator.QUALITY_MODERATE;
+        }
+        return snapshot.isFast();
+    }
+
+    /**
+   	 * <p>获取当前网络的连接质量，可以据此选择图片的尺寸和预加载的深度</p>
+   	 * @param context 上下文对象，不能为空
+   	 * @return {@link BandwidthEstimator#QUALITY_POOR}到{@link BandwidthEstimator#QUALITY_EXCELLENT}之一，
+   	 * 没有连接网络或者当前网络的传输样本不足时返回{@link BandwidthEstimator#QUALITY_UNKNOWN}
+   	 * @see #recordTransfer(Context, long, long)
+   	 */
+    public static int getConnectionQuality(Context context) {
+        ConnectivityMonitor.Snapshot snapshot = getSnapshot(context, "getConnectionQuality(Context)");
+        if (snapshot == null || !snapshot.connected) {
+        	return BandwidthEstimator.QUALITY_UNKNOWN;
+        }
+        return BandwidthEstimator.getDefault().getQuality(snapshot.type, snapshot.subtype);
+    }
+
+    /**
+   	 * <p>报告一次在当前网络上完成的传输，用于估计网络带宽</p>
+   	 * @param context 上下文对象，不能为空
+   	 * @param bytes 传输的字节数
+   	 * @param durationMillis 传输的耗时，单位为毫秒
+   	 * @see BandwidthEstimator#addSample(int, int, long, long)
+   	 */
+    public static void recordTransfer(Context context, long bytes, long durationMillis) {
+        ConnectivityMonitor.Snapshot snapshot = getSnapshot(context, "recordTransfer(Context, long, long)");
+        if (snapshot != null && snapshot.connected) {
+        	BandwidthEstimator.getDefault().addSample(snapshot.type, snapshot.subtype,
+        			bytes, durationMillis);
+        }
     }
 
-    private static boolean isConnectionFast(int type, int subType) {
+    static boolean isConnectionFast(int type, int subType) {
         if (type == ConnectivityManager.TYPE_WIFI) {
             return true;
         } else if (type == ConnectivityManager.TYPE_MOBILE) {
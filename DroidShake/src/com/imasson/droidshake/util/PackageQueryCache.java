@@ -0,0 +1,285 @@
+package com.imasson.droidshake.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * <p>{@link android.content.pm.PackageManager}查询结果的缓存</p>
+ * <p>{@link PackageUtils}中的查询每次都是一次跨进程调用，查询可以处理某个action的程序列表通常需要50~200ms。
+ * 本类按照(action, type)和包名缓存查询结果（只缓存查询得到的数据，不缓存目标程序的上下文对象），并注册程序包安装、卸载和变化的广播，
+ * 收到广播时清除受影响的结果，因此缓存的结果总是与系统一致。
+ * {@link PackageUtils}中的方法都通过本类实现。</p>
+ * <p>可以在启动时通过{@link #prefetchActivityInfos(String, String[])}在后台线程中预先查询常用的action，
+ * 第一次打开分享列表等界面时就不需要再等待。</p>
+ * <p>本类是线程安全的。</p>
+ *
+ * @see PackageUtils
+ */
+public final class PackageQueryCache {
+	private static final String TAG = "PackageQueryCache";
+
+	private static PackageQueryCache sInstance = null;
+
+	private final Context mContext;
+	private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			Uri data = intent.getData();
+			invalidate(data != null ? data.getSchemeSpecificPart() : null);
+		}
+	};
+
+	/** 可以处理(action, type)的程序列表 */
+	private final HashMap<String, List<ResolveInfo>> mActivityInfos = new HashMap<String, List<ResolveInfo>>();
+	/** 包名是否存在 */
+	private final HashMap<String, Boolean> mPackages = new HashMap<String, Boolean>();
+	/** 包名对应的版本号，包不存在时为-1 */
+	private final HashMap<String, Integer> mVersionCodes = new HashMap<String, Integer>();
+	/** 每次清除缓存时加1，用于丢弃清除之前开始的查询的结果 */
+	private int mGeneration = 0;
+	private boolean mRegistered = false;
+
+	private long mHitCount = 0L;
+	private long mMissCount = 0L;
+	private long mInvalidationCount = 0L;
+
+	private PackageQueryCache(Context context) {
+		mContext = context;
+	}
+
+	/**
+	 * <p>获取缓存，第一次调用时注册程序包变化的广播</p>
+	 * @param context 上下文对象，不能为空，内部只会保存ApplicationContext
+	 * @return 缓存，context为空时返回null
+	 */
+	public static synchronized PackageQueryCache getInstance(Context context) {
+		if (sInstance == null) {
+			if (context == null) {
+				Log.w(TAG, "Argument 'context' is null at getInstance(Context)");
+				return null;
+			}
+			Context appContext = context.getApplicationContext();
+			sInstance = new PackageQueryCache(appContext != null ? appContext : context);
+			sInstance.start();
+		}
+		return sInstance;
+	}
+
+	/**
+	 * 注册程序包变化的广播，注册之后才会缓存查询结果
+	 * @return 是否注册成功，已经注册时返回false
+	 */
+	public synchronized boolean start() {
+		if (mRegistered) {
+			return false;
+		}
+
+		try {
+			IntentFilter filter = new IntentFilter();
+			filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+			filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+			filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+			filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+			filter.addDataScheme("package");
+			mContext.registerReceiver(mReceiver, filter);
+			// 安装在SD卡上的程序变为可用或不可用时发送的广播没有包名
+			IntentFilter externalFilter = new IntentFilter();
+			externalFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+			externalFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+			mContext.registerReceiver(mReceiver, externalFilter);
+		} catch (Exception e) {
+			Log.w(TAG, "Exception at start()", e);
+			return false;
+		}
+		mRegistered = true;
+		return true;
+	}
+
+	/**
+	 * 注销广播并清除缓存，之后的查询都直接访问PackageManager
+	 */
+	public synchronized void stop() {
+		if (!mRegistered) {
+			return;
+		}
+
+		try {
+			mContext.unregisterReceiver(mReceiver);
+		} catch (Exception e) {
+			Log.w(TAG, "Exception at stop()", e);
+		}
+		mRegistered = false;
+		invalidate(null);
+	}
+
+	public synchronized boolean isRunning() {
+		return mRegistered;
+	}
+
+	/**
+	 * 获取系统中可以接收特定action的程序列表
+	 * @param action action字符串
+	 * @param type 指定的类型，可以为空
+	 * @return 可以接收该action的程序列表，每次返回新的列表，调用者可以修改
+	 * @see PackageUtils#getInstalledActivityInfos(Context, String, String)
+	 */
+	public List<ResolveInfo> getInstalledActivityInfos(String action, String type) {
+		String key = action + '\n' + type;
+		int generation;
+		synchronized (this) {
+			List<ResolveInfo> infos = mActivityInfos.get(key);
+			if (infos != null) {
+				mHitCount++;
+				return new ArrayList<ResolveInfo>(infos);
+			}
+			mMissCount++;
+			generation = mGeneration;
+		}
+
+		List<ResolveInfo> infos = PackageUtils.queryActivityInfos(mContext, action, type);
+		synchronized (this) {
+			if (mRegistered && generation == mGeneration) {
+				mActivityInfos.put(key, new ArrayList<ResolveInfo>(infos));
+			}
+		}
+		return infos;
+	}
+
+	/**
+	 * 检测是否存在某个包
+	 * @param packageName 要检测的包名
+	 * @return 是否存在某个包
+	 * @see PackageUtils#existPackage(Context, String)
+	 */
+	public boolean existPackage(String packageName) {
+		if (packageName == null) {
+			Log.w(TAG, "Argument 'packageName' is null at existPackage()");
+			return false;
+		}
+
+		int generation;
+		synchronized (this) {
+			Boolean exist = mPackages.get(packageName);
+			if (exist != null) {
+				mHitCount++;
+				return exist.booleanValue();
+			}
+			mMissCount++;
+			generation = mGeneration;
+		}
+
+		boolean exist = PackageUtils.queryPackageExists(mContext, packageName);
+		synchronized (this) {
+			if (mRegistered && generation == mGeneration) {
+				mPackages.put(packageName, Boolean.valueOf(exist));
+			}
+		}
+		return exist;
+	}
+
+	/**
+	 * 获取程序包的版本号，用于判断依赖于程序包内容的缓存是否过期
+	 * @param packageName 包名，不能为空
+	 * @return 版本号，包不存在时返回-1
+	 */
+	public int getVersionCode(String packageName) {
+		if (packageName == null) {
+			Log.w(TAG, "Argument 'packageName' is null at getVersionCode()");
+			return -1;
+		}
+
+		int generation;
+		synchronized (this) {
+			Integer versionCode = mVersionCodes.get(packageName);
+			if (versionCode != null) {
+				mHitCount++;
+				return versionCode.intValue();
+			}
+			mMissCount++;
+			generation = mGeneration;
+		}
+
+		int versionCode = PackageUtils.queryVersionCode(mContext, packageName);
+		synchronized (this) {
+			if (mRegistered && generation == mGeneration) {
+				mVersionCodes.put(packageName, Integer.valueOf(versionCode));
+			}
+		}
+		return versionCode;
+	}
+
+	/**
+	 * <p>在后台线程中查询可以接收特定action的程序列表，结果保存在缓存中</p>
+	 * @param action action字符串
+	 * @param types 需要查询的类型，可以包含null，为null时只查询不指定类型的结果
+	 */
+	public void prefetchActivityInfos(final String action, String[] types) {
+		final String[] queryTypes = types != null ? types.clone() : new String[] { null };
+		Thread thread = new Thread("PackageQueryCache prefetch") {
+			@Override
+			public void run() {
+				for (String type : queryTypes) {
+					try {
+						getInstalledActivityInfos(action, type);
+					} catch (Exception e) {
+						Log.w(TAG, "Exception at prefetchActivityInfos(), action=" + action
+								+ ", type=" + type, e);
+					}
+				}
+			}
+		};
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * <p>清除缓存的查询结果</p>
+	 * <p>一般不需要手动调用，收到程序包变化的广播时会自动调用。</p>
+	 * @param packageName 发生变化的包名，为null时清除全部结果
+	 */
+	public synchronized void invalidate(String packageName) {
+		mGeneration++;
+		mInvalidationCount++;
+		// 任何程序的变化都可能影响action的查询结果
+		mActivityInfos.clear();
+		if (packageName == null) {
+			mPackages.clear();
+			mVersionCodes.clear();
+		} else {
+			mPackages.remove(packageName);
+			mVersionCodes.remove(packageName);
+		}
+	}
+
+	public synchronized long getHitCount() {
+		return mHitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return mMissCount;
+	}
+
+	/**
+	 * @return 缓存命中率，范围为[0,1]，还没有查询时返回0
+	 */
+	public synchronized double getHitRate() {
+		long total = mHitCount + mMissCount;
+		return total > 0L ? (double) mHitCount / total : 0;
+	}
+
+	/**
+	 * @return 收到程序包变化等原因清除缓存的次数
+	 */
+	public synchronized long getInvalidationCount() {
+		return mInvalidationCount;
+	}
+}
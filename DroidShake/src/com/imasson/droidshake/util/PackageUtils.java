@@ -14,6 +14,7 @@ import android.util.Log;
  * 用于进行程序包相关操作的工具类
  * 
  * @version 1.0 包含程序包检测、查询的几个基本方法
+ * @version 1.1 查询结果通过{@link PackageQueryCache}缓存
  */
 public final class PackageUtils {
 	private static final String TAG = "PackageUtils";
@@ -34,6 +35,14 @@ public final class PackageUtils {
 			return Collections.emptyList();
 		}
     	
+    	return PackageQueryCache.getInstance(context).getInstalledActivityInfos(actionString, type);
+    }
+    
+    /**
+     * 直接查询PackageManager，不使用缓存
+     * @see #getInstalledActivityInfos(Context, String, String)
+     */
+    static List<ResolveInfo> queryActivityInfos(Context context, String actionString, String type) {
         Intent intent = new Intent(actionString);
         intent.addCategory(Intent.CATEGORY_DEFAULT);
         if (type != null) {
@@ -61,6 +70,14 @@ public final class PackageUtils {
 			return false;
 		}
 		
+		return PackageQueryCache.getInstance(context).existPackage(packageName);
+	}
+	
+	/**
+	 * 直接查询PackageManager，不使用缓存
+	 * @see #existPackage(Context, String)
+	 */
+	static boolean queryPackageExists(Context context, String packageName) {
 		boolean hasFound = false;
 		try {
 			context.getPackageManager().getPackageInfo(packageName, 0);
@@ -86,6 +103,10 @@ public final class PackageUtils {
 			return null;
 		}
 		
+		// 上下文对象持有目标程序的资源，不缓存，只利用缓存的查询结果跳过不存在的包
+		if (!existPackage(context, packageName)) {
+			return null;
+		}
 		Context targetContext = null;
 		try {
 			targetContext = context.createPackageContext(packageName, 
@@ -94,5 +115,17 @@ public final class PackageUtils {
 		}
 		return targetContext;
 	}
+	
+	/**
+	 * 直接查询程序包的版本号，不使用缓存
+	 * @see PackageQueryCache#getVersionCode(String)
+	 */
+	static int queryVersionCode(Context context, String packageName) {
+		try {
+			return context.getPackageManager().getPackageInfo(packageName, 0).versionCode;
+		} catch (NameNotFoundException e) {
+			return -1;
+		}
+	}
 
 }
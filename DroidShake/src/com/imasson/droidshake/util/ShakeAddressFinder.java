@@ -0,0 +1,551 @@
+package com.imasson.droidshake.util;
+
+/**
+ * <p>基于规则的文字内地址识别工具类，用于代替{@link android.webkit.WebView#findAddress(String)}</p>
+ * <p>目前支持的地址格式如下：</p>
+ * <ul>
+ * <li>中文地址，由“省、市、区、县”等行政区划，“路、街、道”等道路，“号”以及“栋、座、室”等
+ *建筑部分组成，例如“广州市天河区中山大道100号A座1201室”</li>
+ * <li>美国地址，由门牌号、街道、城市、州缩写和邮政编码组成，
+ *例如“1600 Amphitheatre Parkway, Mountain View, CA 94043”</li>
+ * </ul>
+ * <p>识别过程只对文字进行一次顺序扫描，全程使用下标而不截取子字符串，不依赖于WebView的初始化，
+ *也不依赖于Android的运行环境，因此可以在列表中频繁使用，也可以直接在JVM上进行测试。</p>
+ * <p>中文地址的起始位置是根据各级地名的常见长度推测的，可能不准确。
+ *行政区划必须从大到小排列并且不能重复，整个地址最长为60个字。</p>
+ *
+ * @see ShakeLinkify
+ * @see ShakePatterns
+ */
+public final class ShakeAddressFinder {
+
+    private static final int LEVEL_NONE     = 0;
+    private static final int LEVEL_ADMIN    = 1;
+    private static final int LEVEL_ROAD     = 2;
+    private static final int LEVEL_NUMBER   = 3;
+    private static final int LEVEL_BUILDING = 4;
+
+    /**
+     * 地址各级的后缀，较长的后缀必须排在前面
+     */
+    private static final String[] CN_SUFFIXES = {
+        "自治区", "自治州", "自治县", "大道", "大街", "胡同", "单元", "号楼",
+        "省", "市", "区", "县", "镇", "乡",
+        "路", "街", "道", "巷", "弄",
+        "号",
+        "栋", "幢", "座", "楼", "层", "室",
+    };
+    private static final int[] CN_SUFFIX_LEVELS = {
+        LEVEL_ADMIN, LEVEL_ADMIN, LEVEL_ADMIN, LEVEL_ROAD, LEVEL_ROAD, LEVEL_ROAD,
+        LEVEL_BUILDING, LEVEL_BUILDING,
+        LEVEL_ADMIN, LEVEL_ADMIN, LEVEL_ADMIN, LEVEL_ADMIN, LEVEL_ADMIN, LEVEL_ADMIN,
+        LEVEL_ROAD, LEVEL_ROAD, LEVEL_ROAD, LEVEL_ROAD, LEVEL_ROAD,
+        LEVEL_NUMBER,
+        LEVEL_BUILDING, LEVEL_BUILDING, LEVEL_BUILDING, LEVEL_BUILDING, LEVEL_BUILDING, LEVEL_BUILDING,
+    };
+    /** 各级后缀前面的地名的最短长度 */
+    private static final int[] CN_SUFFIX_MIN_NAMES = {
+        2, 2, 2, 2, 2, 1, 0, 0,
+        2, 2, 2, 2, 2, 2,
+        2, 2, 2, 1, 1,
+        1,
+        0, 0, 0, 0, 0, 0,
+    };
+    /** 各级后缀前面的地名的最大长度 */
+    private static final int[] CN_SUFFIX_MAX_NAMES = {
+        5, 8, 6, 6, 6, 6, 4, 4,
+        3, 4, 5, 5, 4, 4,
+        6, 6, 6, 6, 6,
+        6,
+        4, 4, 4, 4, 4, 6,
+    };
+    /**
+     * 行政区划后缀的级别，数值越大表示越小的行政单位，不是行政区划时为0。
+     * 地址中的行政区划必须从大到小排列，并且不能重复，例如“省、市、区”
+     */
+    private static final int[] CN_ADMIN_RANKS = {
+        1, 2, 3, 0, 0, 0, 0, 0,
+        1, 2, 3, 3, 4, 4,
+        0, 0, 0, 0, 0,
+        0,
+        0, 0, 0, 0, 0, 0,
+    };
+
+    /** 一个地址中道路部分的最大数量，例如“长乐路100弄” */
+    private static final int CN_MAX_ROADS = 2;
+    /** 一个地址中建筑部分的最大数量，例如“3栋2单元1201室” */
+    private static final int CN_MAX_BUILDINGS = 3;
+    /** 中文地址的最大长度，超过该长度的部分不再作为地址的一部分 */
+    private static final int CN_MAX_LENGTH = 60;
+
+    /** 两级地名之间允许的最大间隔，超过该长度即认为地址已经结束 */
+    private static final int CN_MAX_SEGMENT = 8;
+
+    /**
+     * 不会出现在地名中的常见虚词，遇到时会截断地址
+     */
+    private static final String CN_STOP_CHARS = "的在是住于到从往去请我你他她了吗呢吧啊";
+
+    private static final String CN_NUMERALS = "零〇一二三四五六七八九十百千";
+
+    private static final String CN_DIRECTIONS = "东西南北中";
+
+    private static final String[] US_STREET_SUFFIXES = {
+        "street", "st", "avenue", "ave", "road", "rd", "boulevard", "blvd",
+        "drive", "dr", "lane", "ln", "way", "court", "ct", "place", "pl",
+        "parkway", "pkwy", "highway", "hwy", "circle", "cir", "terrace", "ter",
+        "square", "sq", "trail", "trl", "plaza", "plz", "alley", "expressway",
+    };
+
+    private static final String[] US_UNIT_DESIGNATORS = {
+        "apt", "apartment", "suite", "ste", "unit", "room", "rm", "floor", "fl",
+    };
+
+    private static final String US_STATES =
+        "AL AK AZ AR CA CO CT DE DC FL GA HI ID IL IN IA KS KY LA ME MD MA MI MN MS "
+        + "MO MT NE NV NH NJ NM NY NC ND OH OK OR PA RI SC SD TN TX UT VT VA WA WV WI WY";
+
+    private static final int US_MAX_HOUSE_NUMBER_DIGITS = 6;
+    private static final int US_MAX_STREET_WORDS = 5;
+    private static final int US_MAX_CITY_WORDS = 3;
+
+
+    /**
+     * <p>从指定位置开始，查找文字中的下一个地址</p>
+     * @param text 需要查找的文字，不能为空
+     * @param from 开始查找的位置
+     * @param outRange 用于输出地址区间的数组，长度至少为2，
+     *找到地址时 <code>outRange[0]</code> 为起始位置，<code>outRange[1]</code> 为结束位置（不包含）
+     * @return 是否找到了地址
+     */
+    public static boolean find(CharSequence text, int from, int[] outRange) {
+        if (text == null || outRange == null || outRange.length < 2) {
+            return false;
+        }
+
+        int length = text.length();
+        int i = from < 0 ? 0 : from;
+
+        while (i < length) {
+            char c = text.charAt(i);
+
+            if (isCjk(c)) {
+                int resume = findChineseAddress(text, i, length, outRange);
+                if (resume < 0) {
+                    return true;
+                }
+                i = resume;
+                continue;
+            }
+
+            if (isAsciiDigit(c) && (i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1)))) {
+                int end = matchUsAddress(text, i, length);
+                if (end > 0) {
+                    outRange[0] = i;
+                    outRange[1] = end;
+                    return true;
+                }
+            }
+
+            i++;
+        }
+
+        return false;
+    }
+
+    /**
+     * 判断整段文字是否就是一个地址
+     * @param text 需要判断的文字
+     * @return 整段文字是否就是一个地址
+     */
+    public static boolean isAddress(CharSequence text) {
+        int[] range = new int[2];
+        return find(text, 0, range) && range[0] == 0 && range[1] == text.length();
+    }
+
+
+    /**
+     * 从一段中文的起始处开始识别中文地址
+     * @return 找到地址时返回-1，并把地址区间写入outRange；否则返回继续查找的位置
+     */
+    private static int findChineseAddress(CharSequence s, int from, int limit, int[] outRange) {
+        int segStart = from;        // 当前一级地名的起始位置
+        int addrStart = -1;
+        int addrEnd = -1;
+        int lastLevel = LEVEL_NONE;
+        int adminCount = 0;
+        int lastAdminRank = 0;
+        int roadCount = 0;
+        int buildingCount = 0;
+        boolean hasRoad = false;
+        boolean hasNumber = false;
+
+        int i = from;
+        while (i < limit) {
+            char c = s.charAt(i);
+            if (!isCnAddressChar(c)) {
+                break;
+            }
+            if (CN_STOP_CHARS.indexOf(c) >= 0) {
+                if (addrStart >= 0) {
+                    break;
+                }
+                segStart = i + 1;
+                i++;
+                continue;
+            }
+            if (addrStart >= 0 && i - segStart > CN_MAX_SEGMENT) {
+                break;
+            }
+
+            int suffix = matchChineseSuffix(s, i, limit);
+            if (suffix >= 0) {
+                int level = CN_SUFFIX_LEVELS[suffix];
+                int nameLength = i - segStart;
+                boolean isFirst = addrStart < 0;
+                if (isFirst && nameLength > CN_SUFFIX_MAX_NAMES[suffix]) {
+                    nameLength = CN_SUFFIX_MAX_NAMES[suffix];
+                }
+                int nameStart = i - nameLength;
+                int suffixLength = CN_SUFFIXES[suffix].length();
+                if (!isFirst && i + suffixLength - addrStart > CN_MAX_LENGTH) {
+                    break;
+                }
+
+                boolean accepted = false;
+                if (hasNumber && level != LEVEL_BUILDING) {
+                    // 门牌号之后只能是建筑的部分
+                    accepted = false;
+                } else if (level == LEVEL_NUMBER) {
+                    // 道路与门牌号之间可能有表示方位的字，例如“中山大道西100号”
+                    int numberStart = nameStart;
+                    while (numberStart < i && CN_DIRECTIONS.indexOf(s.charAt(numberStart)) >= 0) {
+                        numberStart++;
+                    }
+                    accepted = hasRoad && nameLength <= CN_SUFFIX_MAX_NAMES[suffix]
+                            && isNumeric(s, numberStart, i);
+                } else if (level == LEVEL_BUILDING) {
+                    accepted = (lastLevel == LEVEL_NUMBER || lastLevel == LEVEL_BUILDING)
+                            && buildingCount < CN_MAX_BUILDINGS
+                            && nameLength <= CN_SUFFIX_MAX_NAMES[suffix]
+                            && isAlphanumeric(s, nameStart, i);
+                } else if (level == LEVEL_ROAD) {
+                    accepted = roadCount < CN_MAX_ROADS
+                            && nameLength >= CN_SUFFIX_MIN_NAMES[suffix]
+                            && nameLength <= CN_SUFFIX_MAX_NAMES[suffix];
+                } else {
+                    // 行政区划只能出现在道路之前，并且从大到小排列
+                    accepted = !hasRoad && CN_ADMIN_RANKS[suffix] > lastAdminRank
+                            && nameLength >= CN_SUFFIX_MIN_NAMES[suffix]
+                            && nameLength <= CN_SUFFIX_MAX_NAMES[suffix];
+                }
+
+                if (accepted) {
+                    if (isFirst) {
+                        addrStart = nameStart;
+                    }
+                    addrEnd = i + suffixLength;
+                    segStart = addrEnd;
+                    lastLevel = level;
+                    if (level == LEVEL_ADMIN) {
+                        adminCount++;
+                        lastAdminRank = CN_ADMIN_RANKS[suffix];
+                    } else if (level == LEVEL_ROAD) {
+                        hasRoad = true;
+                        roadCount++;
+                    } else if (level == LEVEL_NUMBER) {
+                        hasNumber = true;
+                    } else if (level == LEVEL_BUILDING) {
+                        buildingCount++;
+                    }
+                    i += suffixLength;
+                    continue;
+                } else if (hasNumber) {
+                    break;
+                }
+            }
+
+            i++;
+        }
+
+        boolean isAddress = (hasRoad && (hasNumber || adminCount >= 1)) || adminCount >= 3;
+        if (isAddress) {
+            outRange[0] = addrStart;
+            outRange[1] = addrEnd;
+            return -1;
+        }
+
+        if (addrStart >= 0 && segStart > from) {
+            return segStart;
+        }
+        return i + 1;
+    }
+
+    private static int matchChineseSuffix(CharSequence s, int index, int limit) {
+        for (int i = 0; i < CN_SUFFIXES.length; i++) {
+            String suffix = CN_SUFFIXES[i];
+            int length = suffix.length();
+            if (index + length > limit) {
+                continue;
+            }
+            boolean matches = true;
+            for (int j = 0; j < length; j++) {
+                if (s.charAt(index + j) != suffix.charAt(j)) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * 从门牌号的起始处开始匹配美国地址
+     * @return 地址的结束位置，不匹配时返回-1
+     */
+    private static int matchUsAddress(CharSequence s, int start, int limit) {
+        // 门牌号
+        int i = skipDigits(s, start, limit);
+        int digits = i - start;
+        if (digits < 1 || digits > US_MAX_HOUSE_NUMBER_DIGITS) {
+            return -1;
+        }
+        if (i < limit && isAsciiLetter(s.charAt(i))
+                && (i + 1 >= limit || !Character.isLetterOrDigit(s.charAt(i + 1)))) {
+            i++;    // 例如 221B
+        }
+
+        // 街道名称，以街道类型的后缀结束
+        int words = 0;
+        int streetEnd = -1;
+        while (words < US_MAX_STREET_WORDS) {
+            int wordStart = skipSpaces(s, i, limit);
+            if (wordStart == i) {
+                break;
+            }
+            int wordEnd = skipWord(s, wordStart, limit);
+            if (wordEnd == wordStart) {
+                break;
+            }
+            words++;
+            i = wordEnd;
+            if (words >= 2 && matchesAny(s, wordStart, wordEnd, US_STREET_SUFFIXES)) {
+                if (i < limit && s.charAt(i) == '.') {
+                    i++;
+                }
+                streetEnd = i;
+                break;
+            }
+        }
+        if (streetEnd < 0) {
+            return -1;
+        }
+        i = streetEnd;
+
+        // 可选的房间号，例如 Suite 100 或 #5
+        int unitStart = skipSeparator(s, i, limit);
+        if (unitStart > i && unitStart < limit) {
+            int unitEnd = -1;
+            if (s.charAt(unitStart) == '#') {
+                unitEnd = skipWord(s, unitStart + 1, limit);
+                if (unitEnd == unitStart + 1) {
+                    unitEnd = -1;
+                }
+            } else {
+                int wordEnd = skipWord(s, unitStart, limit);
+                if (matchesAny(s, unitStart, wordEnd, US_UNIT_DESIGNATORS)) {
+                    int valueStart = skipSpaces(s, wordEnd < limit && s.charAt(wordEnd) == '.'
+                            ? wordEnd + 1 : wordEnd, limit);
+                    int valueEnd = skipWord(s, valueStart, limit);
+                    if (valueEnd > valueStart) {
+                        unitEnd = valueEnd;
+                    }
+                }
+            }
+            if (unitEnd > 0) {
+                i = unitEnd;
+            }
+        }
+
+        // 城市、州缩写和邮政编码
+        int cityWords = 0;
+        while (true) {
+            int next = skipSeparator(s, i, limit);
+            if (next == i) {
+                return -1;
+            }
+            if (cityWords > 0) {
+                int end = matchStateAndZip(s, next, limit);
+                if (end > 0) {
+                    return end;
+                }
+            }
+            if (cityWords >= US_MAX_CITY_WORDS || next >= limit
+                    || !Character.isUpperCase(s.charAt(next))) {
+                return -1;
+            }
+            int wordEnd = skipLetters(s, next, limit);
+            if (wordEnd == next) {
+                return -1;
+            }
+            cityWords++;
+            i = wordEnd;
+        }
+    }
+
+    private static int matchStateAndZip(CharSequence s, int start, int limit) {
+        if (start + 2 > limit) {
+            return -1;
+        }
+        char c1 = s.charAt(start);
+        char c2 = s.charAt(start + 1);
+        if (!isUpperAsciiLetter(c1) || !isUpperAsciiLetter(c2) || !isUsState(c1, c2)) {
+            return -1;
+        }
+
+        int zipStart = skipSpaces(s, start + 2, limit);
+        if (zipStart == start + 2) {
+            return -1;
+        }
+        int zipEnd = skipDigits(s, zipStart, limit);
+        if (zipEnd - zipStart != 5) {
+            return -1;
+        }
+        if (zipEnd + 5 <= limit && s.charAt(zipEnd) == '-'
+                && skipDigits(s, zipEnd + 1, limit) == zipEnd + 5) {
+            zipEnd += 5;
+        }
+        if (zipEnd < limit && Character.isLetterOrDigit(s.charAt(zipEnd))) {
+            return -1;
+        }
+        return zipEnd;
+    }
+
+    private static boolean isUsState(char c1, char c2) {
+        for (int i = 0, len = US_STATES.length(); i + 1 < len; i += 3) {
+            if (US_STATES.charAt(i) == c1 && US_STATES.charAt(i + 1) == c2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 判断指定区间的单词是否与列表中的某个单词相同，忽略大小写
+     */
+    private static boolean matchesAny(CharSequence s, int start, int end, String[] words) {
+        int length = end - start;
+        for (int i = 0; i < words.length; i++) {
+            String word = words[i];
+            if (word.length() != length) {
+                continue;
+            }
+            boolean matches = true;
+            for (int j = 0; j < length; j++) {
+                if (Character.toLowerCase(s.charAt(start + j)) != word.charAt(j)) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static int skipDigits(CharSequence s, int i, int limit) {
+        while (i < limit && isAsciiDigit(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipLetters(CharSequence s, int i, int limit) {
+        while (i < limit && isAsciiLetter(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipWord(CharSequence s, int i, int limit) {
+        while (i < limit) {
+            char c = s.charAt(i);
+            if (!isAsciiLetter(c) && !isAsciiDigit(c)) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipSpaces(CharSequence s, int i, int limit) {
+        while (i < limit && s.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 跳过地址各部分之间的分隔符（可选的逗号以及空格）
+     */
+    private static int skipSeparator(CharSequence s, int i, int limit) {
+        if (i < limit && s.charAt(i) == ',') {
+            i++;
+        }
+        return skipSpaces(s, i, limit);
+    }
+
+    private static boolean isNumeric(CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c) && c != '-' && c != '\uff0d' && CN_NUMERALS.indexOf(c) < 0) {
+                return false;
+            }
+        }
+        return end > start;
+    }
+
+    private static boolean isAlphanumeric(CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c) && !isAsciiLetter(c) && c != '-' && CN_NUMERALS.indexOf(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isCnAddressChar(char c) {
+        return isCjk(c) || isDigit(c) || isAsciiLetter(c) || c == '-' || c == '\uff0d' || c == '#';
+    }
+
+    private static boolean isCjk(char c) {
+        return (c >= '\u4e00' && c <= '\u9fff') || (c >= '\u3400' && c <= '\u4dbf');
+    }
+
+    private static boolean isDigit(char c) {
+        return isAsciiDigit(c) || (c >= '\uff10' && c <= '\uff19');
+    }
+
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isUpperAsciiLetter(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+
+    // Do not create this static utility class.
+    private ShakeAddressFinder() {}
+}
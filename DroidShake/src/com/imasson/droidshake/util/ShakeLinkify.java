@@ -2,9 +2,12 @@ package com.imasson.droidshake.util;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -16,23 +19,38 @@ import android.text.method.MovementMethod;
 import android.text.style.URLSpan;
 import android.text.util.Linkify;
 import android.text.util.Linkify.MatchFilter;
-import android.text.util.Linkify.TransformFilter;
 import android.util.Log;
-import android.webkit.WebView;
 import android.widget.TextView;
 
 /**
  * <p>提供文字内超链接识别功能的工具类</p>
  * <p>本类为{@link TextView}和{@link Spannable}服务，为其附加指定类型的超链接识别功能。</br>
- * 本类以{@link Linkify}为基础构建，并增强了部分正则表达式和识别功能。</p>
+ * 本类以{@link Linkify}为基础构建，并增强了部分正则表达式和识别功能。</br>
+ * 地址的识别由{@link ShakeAddressFinder}完成，支持中文地址，并且不需要初始化WebView。</p>
  * 
  * @see android.text.util.Linkify
  * @see android.util.Patterns
  * @see ShakePatterns
+ * @see ShakeAddressFinder
  */
 public class ShakeLinkify {
     private static final String TAG = "ShakeLinkify";
 
+    private static final String[] WEB_URL_SCHEMES =
+        new String[] { "http://", "https://", "rtsp://" };
+    private static final String[] EMAIL_ADDRESS_SCHEMES =
+        new String[] { "mailto:" };
+    private static final String[] PHONE_NUMBER_SCHEMES =
+        new String[] { "tel:" };
+
+    /** 按照{@link LinkSpecBuffer}中的类型顺序排列的{@link Linkify}标志位 */
+    private static final int[] LINKIFY_TYPES = new int[] {
+        Linkify.WEB_URLS, Linkify.EMAIL_ADDRESSES, Linkify.PHONE_NUMBERS, Linkify.MAP_ADDRESSES
+    };
+
+    private static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static Executor sDefaultExecutor;
+
     /**
      * <p>为指定的一段文字添加超链接识别，该操作将清除原来加在文字上的超链接</p>
      * <p>注意：该段文字必须是{@link Spannable}，如果不是的话，
@@ -44,8 +62,21 @@ public class ShakeLinkify {
      * @see Linkify#addLinks(Spannable, int)
      */
     public static final boolean addLinks(Spannable text, int mask) {
+        return addLinks(text, mask, null);
+    }
+
+    /**
+     * <p>为指定的一段文字添加超链接识别，识别过程受到时间和计算量的限制，该操作将清除原来加在文字上的超链接</p>
+     * <p>适合在UI线程中识别来源不可信或者很长的文字，超出限制的部分将不会被识别，详细请参考{@link LinkifyGuard}。</p>
+     * 
+     * @param text  需要添加超链接识别的文字
+     * @param mask  超链接类型的标志位，请参考{@link Linkify}
+     * @param guard 识别的时间和计算量限制，为null时不做限制
+     * @return 是否对这段文字进行了修改
+     */
+    public static final boolean addLinks(Spannable text, int mask, LinkifyGuard guard) {
         if(text == null) {
-            Log.w(TAG, "Argument 'text' is null on addLinks(Spannable, int)!");
+            Log.w(TAG, "Argument 'text' is null on addLinks(Spannable, int, LinkifyGuard)!");
             return false;
         }
         
@@ -59,42 +90,163 @@ public class ShakeLinkify {
             text.removeSpan(old[i]);
         }
 
-        ArrayList<LinkSpec> links = new ArrayList<LinkSpec>();
-
-        if ((mask & Linkify.WEB_URLS) != 0) {
-            // 此处使用了自己的网址识别的正则表达式，同时加入了FTP支持
-            gatherLinks(links, text, ShakePatterns.WEB_URL,
-                new String[] { "http://", "https://", "rtsp://" },
-                Linkify.sUrlMatchFilter, null);
+        LinkSpecBuffer links = new LinkDetector().detect(text, mask, guard);
+
+        boolean hasApplied = false;
+        for (int i = 0; i < links.size; i++) {
+            // URL只为经过重叠筛选后保留下来的链接生成
+            int start = links.starts[i];
+            int end = links.ends[i];
+            String url = makeUrl(text, start, end, links.types[i]);
+            if (url != null) {
+                applyLink(url, start, end, text);
+                hasApplied = true;
+            }
         }
 
-        if ((mask & Linkify.EMAIL_ADDRESSES) != 0) {
-            gatherLinks(links, text, ShakePatterns.EMAIL_ADDRESS,
-                new String[] { "mailto:" },
-                null, null);
+        return hasApplied;
+    }
+
+    /**
+     * <p>识别一段文字中的超链接，只返回链接的区间和类型，不修改文字本身</p>
+     * <p>识别结果可以在之后通过{@link #applyLinks(Spannable, LinkRanges)}附加到文字上。</p>
+     * 
+     * @param text  需要识别超链接的文字
+     * @param mask  超链接类型的标志位，请参考{@link Linkify}
+     * @return 识别结果，参数无效时返回null
+     */
+    public static final LinkRanges findLinks(CharSequence text, int mask) {
+        return findLinks(text, mask, null);
+    }
+
+    /**
+     * <p>识别一段文字中的超链接，识别过程受到时间和计算量的限制，只返回链接的区间和类型</p>
+     * 
+     * @param text  需要识别超链接的文字
+     * @param mask  超链接类型的标志位，请参考{@link Linkify}
+     * @param guard 识别的时间和计算量限制，为null时不做限制
+     * @return 识别结果，参数无效时返回null
+     * @see #addLinks(Spannable, int, LinkifyGuard)
+     */
+    public static final LinkRanges findLinks(CharSequence text, int mask, LinkifyGuard guard) {
+        if (text == null) {
+            Log.w(TAG, "Argument 'text' is null on findLinks(CharSequence, int, LinkifyGuard)!");
+            return null;
         }
+        return new LinkDetector().findLinks(text, mask, guard);
+    }
+
+    /**
+     * <p>批量识别多段文字中的超链接，识别过程在所有CPU核心上并行执行</p>
+     * <p>注意：调用线程同样参与识别，方法在全部文字识别完成后才返回，因此不要在UI线程中调用。</p>
+     * 
+     * @param texts 需要识别超链接的文字列表
+     * @param mask  超链接类型的标志位，请参考{@link Linkify}
+     * @return 与texts一一对应的识别结果，列表中为null的文字对应的结果也为null；参数无效时返回null
+     * @see #findLinks(List, int, Executor, int)
+     */
+    public static final LinkRanges[] findLinks(List<? extends CharSequence> texts, int mask) {
+        return findLinks(texts, mask, getDefaultExecutor(), DEFAULT_PARALLELISM);
+    }
 
-        if ((mask & Linkify.PHONE_NUMBERS) != 0) {
-            gatherLinks(links, text, ShakePatterns.PHONE,
-                new String[] { "tel:" },
-                Linkify.sPhoneNumberMatchFilter, Linkify.sPhoneNumberTransformFilter);
+    /**
+     * <p>批量识别多段文字中的超链接，识别过程在指定的线程池中并行执行</p>
+     * <p>每个参与识别的线程独占一组Matcher和缓冲区并重复使用，线程之间只共享一个任务计数器，
+     *以若干段文字为单位领取任务。调用线程同样参与识别，因此即使线程池繁忙也不会阻塞，
+     *方法在全部文字识别完成后才返回。</p>
+     * 
+     * @param texts         需要识别超链接的文字列表
+     * @param mask          超链接类型的标志位，请参考{@link Linkify}
+     * @param executor      执行识别任务的线程池，不能为空
+     * @param parallelism   参与识别的最大线程数量，包括调用线程
+     * @return 与texts一一对应的识别结果，列表中为null的文字对应的结果也为null；参数无效时返回null
+     */
+    public static final LinkRanges[] findLinks(List<? extends CharSequence> texts, int mask,
+            Executor executor, int parallelism) {
+        if (texts == null) {
+            Log.w(TAG, "Argument 'texts' is null on findLinks(List, int, Executor, int)!");
+            return null;
+        }
+        if (executor == null) {
+            Log.w(TAG, "Argument 'executor' is null on findLinks(List, int, Executor, int)!");
+            return null;
         }
 
-        if ((mask & Linkify.MAP_ADDRESSES) != 0) {
-            gatherMapLinks(links, text);
+        // 先复制为数组，避免工作线程通过List.get()访问链表等非随机访问的列表
+        CharSequence[] array = texts.toArray(new CharSequence[texts.size()]);
+        BatchTask task = new BatchTask(array, mask, Math.max(1, parallelism));
+
+        for (int i = 1; i < task.mWorkerCount; i++) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // 线程池无法接受更多任务时，剩余的文字由已有的线程完成
+                break;
+            }
         }
 
-        pruneOverlaps(links);
+        return task.runAndWait();
+    }
 
-        if (links.size() == 0) {
+    /**
+     * <p>把{@link #findLinks(CharSequence, int)}的识别结果附加到文字上，该操作将清除原来加在文字上的超链接</p>
+     * 
+     * @param text      需要附加超链接的文字，必须与识别时的文字内容相同
+     * @param ranges    超链接的识别结果
+     * @return 是否对这段文字进行了修改
+     */
+    public static final boolean applyLinks(Spannable text, LinkRanges ranges) {
+        if (text == null) {
+            Log.w(TAG, "Argument 'text' is null on applyLinks(Spannable, LinkRanges)!");
+            return false;
+        }
+        if (ranges == null) {
+            Log.w(TAG, "Argument 'ranges' is null on applyLinks(Spannable, LinkRanges)!");
+            return false;
+        }
+        if (ranges.mTextLength != text.length()) {
+            Log.w(TAG, "Text does not match the link ranges at applyLinks(), length="
+                    + text.length() + ", expected=" + ranges.mTextLength);
             return false;
         }
 
-        for (LinkSpec link: links) {
-            applyLink(link.url, link.start, link.end, text);
+        URLSpan[] old = text.getSpans(0, text.length(), URLSpan.class);
+
+        for (int i = old.length - 1; i >= 0; i--) {
+            text.removeSpan(old[i]);
         }
 
-        return true;
+        boolean hasApplied = false;
+        int[] data = ranges.mData;
+        for (int i = 0; i < data.length; i += 3) {
+            int start = data[i];
+            int end = data[i + 1];
+            String url = makeUrl(text, start, end, data[i + 2]);
+            if (url != null) {
+                applyLink(url, start, end, text);
+                hasApplied = true;
+            }
+        }
+
+        return hasApplied;
+    }
+
+    private static synchronized final Executor getDefaultExecutor() {
+        if (sDefaultExecutor == null) {
+            // 调用线程也会参与识别，因此线程池只需要比CPU核心数少一个线程
+            int threadCount = Math.max(1, DEFAULT_PARALLELISM - 1);
+            sDefaultExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ShakeLinkify #" + mCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sDefaultExecutor;
     }
 
 
@@ -151,60 +303,92 @@ public class ShakeLinkify {
         }
     }
     
-    private static final void gatherLinks(ArrayList<LinkSpec> links,
-            Spannable s, Pattern pattern, String[] schemes,
-            MatchFilter matchFilter, TransformFilter transformFilter) {
-        Matcher m = pattern.matcher(s);
+    private static final void gatherLinks(LinkSpecBuffer links,
+            CharSequence s, Pattern pattern, int type, MatchFilter matchFilter) {
+        // 复用当前线程缓存的Matcher，避免每次识别都创建新的对象
+        Matcher m = ShakePatterns.obtainMatcher(pattern, s);
 
         while (m.find()) {
             int start = m.start();
             int end = m.end();
 
             if (matchFilter == null || matchFilter.acceptMatch(s, start, end)) {
-                LinkSpec spec = new LinkSpec();
-                String url = makeUrl(m.group(0), schemes, m, transformFilter);
-                
-                spec.url = url;
-                spec.start = start;
-                spec.end = end;
-
-                links.add(spec);
+                links.add(start, end, type);
             }
         }
+
+        ShakePatterns.recycleMatcher(m);
+        links.sortLastRun();
     }
     
-    private static final void gatherMapLinks(ArrayList<LinkSpec> links, Spannable s) {
-        String string = s.toString();
-        String address;
-        int base = 0;
-
-        while ((address = WebView.findAddress(string)) != null) {
-            int start = string.indexOf(address);
+    private static final void gatherLinks(LinkSpecBuffer links, CharSequence s,
+            Pattern pattern, int type, MatchFilter matchFilter, LinkifyGuard.Session session) {
+        Matcher m = ShakePatterns.obtainMatcher(pattern, session);
+        // 分段匹配时仍然允许零宽断言看到段落以外的文字
+        m.useTransparentBounds(true);
+        m.useAnchoringBounds(false);
+
+        int length = s.length();
+        int regionStart = 0;
+        while (regionStart < length && !session.isTimedOut()) {
+            int regionEnd = session.nextRegionEnd(regionStart);
+            m.region(regionStart, regionEnd);
 
-            if (start < 0) {
-                break;
+            try {
+                session.checkDeadline();
+                while (m.find()) {
+                    int start = m.start();
+                    int end = m.end();
+
+                    if (matchFilter == null || matchFilter.acceptMatch(s, start, end)) {
+                        links.add(start, end, type);
+                    }
+                    // ICU实现的正则表达式不通过charAt()读取文字，因此每次匹配之后都检查一次
+                    session.checkDeadline();
+                }
+            } catch (LinkifyGuard.BudgetExceededException e) {
+                session.abort(LINKIFY_TYPES[type], regionStart, regionEnd);
             }
 
-            LinkSpec spec = new LinkSpec();
-            int length = address.length();
-            int end = start + length;
-            
-            spec.start = base + start;
-            spec.end = base + end;
-            string = string.substring(end);
-            base += end;
+            regionStart = regionEnd;
+        }
 
-            String encodedAddress = null;
+        m.useTransparentBounds(false);
+        m.useAnchoringBounds(true);
+        ShakePatterns.recycleMatcher(m);
+        links.sortLastRun();
+    }
+    
+    private static final void gatherMapLinks(LinkSpecBuffer links, CharSequence s,
+            int[] range) {
+        int from = 0;
+
+        // 使用本地的地址识别代替WebView.findAddress，只需顺序扫描一次，且不需要截取子字符串
+        while (ShakeAddressFinder.find(s, from, range)) {
+            links.add(range[0], range[1], LinkSpecBuffer.TYPE_MAP_ADDRESS);
+            from = range[1];
+        }
 
-            try {
-                encodedAddress = URLEncoder.encode(address,"UTF-8");
-            } catch (UnsupportedEncodingException e) {
-                continue;
+        links.sortLastRun();
+    }
+    
+    private static final void gatherMapLinks(LinkSpecBuffer links, CharSequence s,
+            int[] range, LinkifyGuard.Session session) {
+        int from = 0;
+
+        // 地址识别只需要线性的时间，因此不分段，读取文字时即可检查超时
+        try {
+            session.checkDeadline();
+            while (ShakeAddressFinder.find(session, from, range)) {
+                links.add(range[0], range[1], LinkSpecBuffer.TYPE_MAP_ADDRESS);
+                from = range[1];
+                session.checkDeadline();
             }
-
-            spec.url = "geo:0,0?q=" + encodedAddress;
-            links.add(spec);
+        } catch (LinkifyGuard.BudgetExceededException e) {
+            session.abort(Linkify.MAP_ADDRESSES, from, s.length());
         }
+
+        links.sortLastRun();
     }
     
 	private static final void applyLink(String url, int start, int end,
@@ -213,101 +397,476 @@ public class ShakeLinkify {
 		text.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
 	}
 
-    private static final String makeUrl(String url, String[] prefixes,
-            Matcher m, TransformFilter filter) {
-        if (filter != null) {
-            url = filter.transformUrl(m, url);
+    /**
+     * 根据链接的类型，从原文的对应区间生成URL
+     * @return 生成的URL，无法生成时返回null
+     */
+    private static final String makeUrl(CharSequence text, int start, int end, int type) {
+        switch (type) {
+            case LinkSpecBuffer.TYPE_WEB_URL:
+                return makeUrl(text, start, end, WEB_URL_SCHEMES);
+
+            case LinkSpecBuffer.TYPE_EMAIL_ADDRESS:
+                return makeUrl(text, start, end, EMAIL_ADDRESS_SCHEMES);
+
+            case LinkSpecBuffer.TYPE_PHONE_NUMBER:
+                // 与Linkify.sPhoneNumberTransformFilter的处理相同，但不依赖于Matcher的状态
+                String digits = digitsAndPlusOnly(text, start, end);
+                return makeUrl(digits, 0, digits.length(), PHONE_NUMBER_SCHEMES);
+
+            case LinkSpecBuffer.TYPE_MAP_ADDRESS:
+                try {
+                    String address = text.subSequence(start, end).toString();
+                    return "geo:0,0?q=" + URLEncoder.encode(address, "UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    return null;
+                }
+
+            default:
+                Log.w(TAG, "Unknown link type at makeUrl(), type=" + type);
+                return null;
         }
+    }
 
-        boolean hasPrefix = false;
+    private static final String makeUrl(CharSequence url, int start, int end,
+            String[] prefixes) {
+        int length = end - start;
         
         for (int i = 0; i < prefixes.length; i++) {
-            if (url.regionMatches(true, 0, prefixes[i], 0,
-                                  prefixes[i].length())) {
-                hasPrefix = true;
+            String prefix = prefixes[i];
+            int prefixLength = prefix.length();
 
+            if (length >= prefixLength && regionMatches(url, start, prefix, true)) {
                 // Fix capitalization if necessary
-                if (!url.regionMatches(false, 0, prefixes[i], 0,
-                                       prefixes[i].length())) {
-                    url = prefixes[i] + url.substring(prefixes[i].length());
+                if (regionMatches(url, start, prefix, false)) {
+                    return url.subSequence(start, end).toString();
                 }
 
-                break;
+                return new StringBuilder(length)
+                        .append(prefix)
+                        .append(url, start + prefixLength, end)
+                        .toString();
+            }
+        }
+
+        return new StringBuilder(prefixes[0].length() + length)
+                .append(prefixes[0])
+                .append(url, start, end)
+                .toString();
+    }
+
+    private static final boolean regionMatches(CharSequence s, int offset,
+            String prefix, boolean ignoreCase) {
+        for (int i = 0, len = prefix.length(); i < len; i++) {
+            char c1 = s.charAt(offset + i);
+            char c2 = prefix.charAt(i);
+            if (c1 == c2) {
+                continue;
+            }
+            if (!ignoreCase || Character.toLowerCase(c1) != Character.toLowerCase(c2)) {
+                return false;
             }
         }
+        return true;
+    }
+
+    private static final String digitsAndPlusOnly(CharSequence s, int start, int end) {
+        StringBuilder buffer = new StringBuilder(end - start);
 
-        if (!hasPrefix) {
-            url = prefixes[0] + url;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '+' || Character.isDigit(c)) {
+                buffer.append(c);
+            }
         }
 
-        return url;
+        return buffer.toString();
     }
     
-    private static final void pruneOverlaps(ArrayList<LinkSpec> links) {
-        Comparator<LinkSpec>  c = new Comparator<LinkSpec>() {
-            public final int compare(LinkSpec a, LinkSpec b) {
-                if (a.start < b.start) {
-                    return -1;
-                }
 
-                if (a.start > b.start) {
-                    return 1;
-                }
+    /**
+     * <p>一段文字的超链接识别结果</p>
+     * <p>所有链接的起止位置和类型紧凑地保存在一个int数组中，URL在附加到文字上时才生成，
+     *因此适合大量缓存。链接按照起始位置升序排列，并且互不重叠。</p>
+     * 
+     * @see ShakeLinkify#findLinks(CharSequence, int)
+     * @see ShakeLinkify#applyLinks(Spannable, LinkRanges)
+     */
+    public static final class LinkRanges {
+        /** 每个链接依次占用三个元素：起始位置、结束位置、类型 */
+        private final int[] mData;
+        private final int mTextLength;
+
+        private LinkRanges(LinkSpecBuffer links, int textLength) {
+            int[] data = new int[links.size * 3];
+            for (int i = 0, j = 0; i < links.size; i++) {
+                data[j++] = links.starts[i];
+                data[j++] = links.ends[i];
+                data[j++] = links.types[i];
+            }
+            mData = data;
+            mTextLength = textLength;
+        }
 
-                if (a.end < b.end) {
-                    return 1;
-                }
+        /**
+         * @return 链接的数量
+         */
+        public int size() {
+            return mData.length / 3;
+        }
 
-                if (a.end > b.end) {
-                    return -1;
-                }
+        /**
+         * @return 第index个链接在原文中的起始位置
+         */
+        public int getStart(int index) {
+            return mData[index * 3];
+        }
+
+        /**
+         * @return 第index个链接在原文中的结束位置（不包括）
+         */
+        public int getEnd(int index) {
+            return mData[index * 3 + 1];
+        }
 
-                return 0;
+        /**
+         * @return 第index个链接的类型，为{@link Linkify#WEB_URLS}等标志位之一
+         */
+        public int getType(int index) {
+            return LINKIFY_TYPES[mData[index * 3 + 2]];
+        }
+
+        /**
+         * @return 识别时的文字长度
+         */
+        public int getTextLength() {
+            return mTextLength;
+        }
+    }
+
+    /**
+     * 在同一个线程内重复使用的超链接识别器，Matcher由{@link ShakePatterns}按线程缓存
+     */
+    private static final class LinkDetector {
+        private final LinkSpecBuffer mLinks = new LinkSpecBuffer();
+        private final int[] mRange = new int[2];
+
+        LinkSpecBuffer detect(CharSequence text, int mask, LinkifyGuard guard) {
+            LinkSpecBuffer links = mLinks;
+            links.clear();
+
+            if (guard != null) {
+                detect(links, text, mask, guard.begin(text));
+            } else {
+                detect(links, text, mask);
             }
 
-            public final boolean equals(Object o) {
-                return false;
+            links.pruneOverlaps();
+            return links;
+        }
+
+        LinkRanges findLinks(CharSequence text, int mask, LinkifyGuard guard) {
+            return new LinkRanges(detect(text, mask, guard), text.length());
+        }
+
+        private void detect(LinkSpecBuffer links, CharSequence text, int mask) {
+            if ((mask & Linkify.WEB_URLS) != 0) {
+                // 此处使用了自己的网址识别的正则表达式，同时加入了FTP支持
+                gatherLinks(links, text, ShakePatterns.WEB_URL,
+                    LinkSpecBuffer.TYPE_WEB_URL, Linkify.sUrlMatchFilter);
             }
-        };
 
-        Collections.sort(links, c);
+            if ((mask & Linkify.EMAIL_ADDRESSES) != 0) {
+                gatherLinks(links, text, ShakePatterns.EMAIL_ADDRESS,
+                    LinkSpecBuffer.TYPE_EMAIL_ADDRESS, null);
+            }
 
-        int len = links.size();
-        int i = 0;
+            if ((mask & Linkify.PHONE_NUMBERS) != 0) {
+                gatherLinks(links, text, ShakePatterns.PHONE,
+                    LinkSpecBuffer.TYPE_PHONE_NUMBER, Linkify.sPhoneNumberMatchFilter);
+            }
 
-        while (i < len - 1) {
-            LinkSpec a = links.get(i);
-            LinkSpec b = links.get(i + 1);
-            int remove = -1;
+            if ((mask & Linkify.MAP_ADDRESSES) != 0) {
+                gatherMapLinks(links, text, mRange);
+            }
+        }
+
+        private void detect(LinkSpecBuffer links, CharSequence text, int mask,
+                LinkifyGuard.Session session) {
+            if ((mask & Linkify.WEB_URLS) != 0) {
+                gatherLinks(links, text, ShakePatterns.WEB_URL,
+                    LinkSpecBuffer.TYPE_WEB_URL, Linkify.sUrlMatchFilter, session);
+            }
+
+            if ((mask & Linkify.EMAIL_ADDRESSES) != 0 && !session.isTimedOut()) {
+                gatherLinks(links, text, ShakePatterns.EMAIL_ADDRESS,
+                    LinkSpecBuffer.TYPE_EMAIL_ADDRESS, null, session);
+            }
+
+            if ((mask & Linkify.PHONE_NUMBERS) != 0 && !session.isTimedOut()) {
+                gatherLinks(links, text, ShakePatterns.PHONE,
+                    LinkSpecBuffer.TYPE_PHONE_NUMBER, Linkify.sPhoneNumberMatchFilter, session);
+            }
+
+            if ((mask & Linkify.MAP_ADDRESSES) != 0 && !session.isTimedOut()) {
+                gatherMapLinks(links, text, mRange, session);
+            }
+        }
+    }
+
+    /**
+     * <p>批量识别的任务，由调用线程和线程池中的若干线程共同执行</p>
+     * <p>各线程以{@link #mChunkSize}段文字为单位从计数器中领取任务，结果写入各自独占的数组位置。
+     *调用线程处理完所有剩余的任务后，只等待已经开始执行的线程，尚未开始执行的任务直接放弃。</p>
+     */
+    private static final class BatchTask implements Runnable {
+        /** 每次领取的最大文字数量，用于减少线程之间对计数器的竞争 */
+        private static final int MAX_CHUNK_SIZE = 16;
+
+        private final CharSequence[] mTexts;
+        private final LinkRanges[] mResults;
+        private final int mMask;
+        private final int mChunkSize;
+        private final int mWorkerCount;
+        private final AtomicInteger mNext = new AtomicInteger();
+
+        private int mRunning;
+        private boolean mFinished;
+        private RuntimeException mError;
+
+        BatchTask(CharSequence[] texts, int mask, int parallelism) {
+            mTexts = texts;
+            mResults = new LinkRanges[texts.length];
+            mMask = mask;
+            // 每个线程平均至少领取4次任务，使各线程的负载尽量均衡
+            mChunkSize = Math.max(1, Math.min(MAX_CHUNK_SIZE, texts.length / (parallelism * 4)));
+            int chunkCount = (texts.length + mChunkSize - 1) / mChunkSize;
+            mWorkerCount = Math.min(parallelism, chunkCount);
+        }
 
-            if ((a.start <= b.start) && (a.end > b.start)) {
-                if (b.end <= a.end) {
-                    remove = i + 1;
-                } else if ((a.end - a.start) > (b.end - b.start)) {
-                    remove = i + 1;
-                } else if ((a.end - a.start) < (b.end - b.start)) {
-                    remove = i;
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (mFinished) {
+                    return;
+                }
+                mRunning++;
+            }
+            try {
+                process();
+            } finally {
+                synchronized (this) {
+                    mRunning--;
+                    if (mRunning == 0) {
+                        notifyAll();
+                    }
                 }
+            }
+        }
 
-                if (remove != -1) {
-                    links.remove(remove);
-                    len--;
-                    continue;
+        LinkRanges[] runAndWait() {
+            process();
+
+            boolean interrupted = false;
+            synchronized (this) {
+                mFinished = true;
+                while (mRunning > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
                 }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
 
+            if (mError != null) {
+                throw mError;
             }
+            return mResults;
+        }
 
-            i++;
+        private void process() {
+            LinkDetector detector = new LinkDetector();
+            CharSequence[] texts = mTexts;
+            int count = texts.length;
+            int from;
+
+            try {
+                while ((from = mNext.getAndAdd(mChunkSize)) < count) {
+                    int to = Math.min(from + mChunkSize, count);
+                    for (int i = from; i < to; i++) {
+                        if (texts[i] != null) {
+                            mResults[i] = detector.findLinks(texts[i], mMask, null);
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                // 让其他线程尽快停止领取任务，异常在调用线程中重新抛出
+                mNext.set(count);
+                synchronized (this) {
+                    if (mError == null) {
+                        mError = e;
+                    }
+                }
+            }
         }
     }
     
-    
 	// Do not create this static utility class.
     private ShakeLinkify() {}
 }
 
-class LinkSpec {
-    String url;
-    int start;
-    int end;
-}
\ No newline at end of file
+/**
+ * <p>以并行的基本类型数组保存识别出的超链接区间的缓冲区</p>
+ * <p>每个链接只记录起止位置和类型，不为每个匹配项创建对象。
+ *链接按照起始位置升序、结束位置降序排列，重叠的链接在{@link #pruneOverlaps()}中就地剔除。</p>
+ */
+final class LinkSpecBuffer {
+    static final int TYPE_WEB_URL           = 0;
+    static final int TYPE_EMAIL_ADDRESS     = 1;
+    static final int TYPE_PHONE_NUMBER      = 2;
+    static final int TYPE_MAP_ADDRESS       = 3;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    int[] starts = new int[DEFAULT_CAPACITY];
+    int[] ends = new int[DEFAULT_CAPACITY];
+    int[] types = new int[DEFAULT_CAPACITY];
+    int size;
+
+    /** 已经排好序的部分的长度，其后为最近一次识别新增的链接 */
+    private int mSortedSize;
+
+    private int[] mRunStarts;
+    private int[] mRunEnds;
+    private int[] mRunTypes;
+
+    void add(int start, int end, int type) {
+        if (size == starts.length) {
+            int capacity = size * 2;
+            starts = grow(starts, capacity);
+            ends = grow(ends, capacity);
+            types = grow(types, capacity);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        types[size] = type;
+        size++;
+    }
+
+    void clear() {
+        size = 0;
+        mSortedSize = 0;
+    }
+
+    /**
+     * 把最近一次新增的链接归并到已排序的部分中。
+     * 同一个正则表达式的匹配结果本身就是有序的，因此这里只需要线性的时间
+     */
+    void sortLastRun() {
+        int runLength = size - mSortedSize;
+        if (runLength <= 0) {
+            return;
+        }
+
+        // 新增部分一般已经有序，此时插入排序只需要线性时间
+        for (int i = mSortedSize + 1; i < size; i++) {
+            int start = starts[i];
+            int end = ends[i];
+            int type = types[i];
+            int j = i - 1;
+            while (j >= mSortedSize && isAfter(starts[j], ends[j], start, end)) {
+                set(j + 1, j);
+                j--;
+            }
+            starts[j + 1] = start;
+            ends[j + 1] = end;
+            types[j + 1] = type;
+        }
+
+        if (mSortedSize > 0) {
+            mergeLastRun(runLength);
+        }
+        mSortedSize = size;
+    }
+
+    private void mergeLastRun(int runLength) {
+        if (mRunStarts == null || mRunStarts.length < runLength) {
+            int capacity = Math.max(runLength, DEFAULT_CAPACITY);
+            mRunStarts = new int[capacity];
+            mRunEnds = new int[capacity];
+            mRunTypes = new int[capacity];
+        }
+        System.arraycopy(starts, mSortedSize, mRunStarts, 0, runLength);
+        System.arraycopy(ends, mSortedSize, mRunEnds, 0, runLength);
+        System.arraycopy(types, mSortedSize, mRunTypes, 0, runLength);
+
+        // 从后往前归并，相等时先放入新增的链接，保持与稳定排序相同的先后顺序
+        int i = mSortedSize - 1;
+        int j = runLength - 1;
+        int k = size - 1;
+        while (j >= 0) {
+            if (i >= 0 && isAfter(starts[i], ends[i], mRunStarts[j], mRunEnds[j])) {
+                set(k, i);
+                i--;
+            } else {
+                starts[k] = mRunStarts[j];
+                ends[k] = mRunEnds[j];
+                types[k] = mRunTypes[j];
+                j--;
+            }
+            k--;
+        }
+    }
+
+    /**
+     * 就地剔除重叠的链接：两个链接重叠时保留较长的一个，长度相等时两者都保留
+     */
+    void pruneOverlaps() {
+        sortLastRun();
+        if (size < 2) {
+            return;
+        }
+
+        int last = 0;
+        for (int i = 1; i < size; i++) {
+            int aLength = ends[last] - starts[last];
+            int bLength = ends[i] - starts[i];
+
+            if (ends[last] > starts[i]) {
+                if (ends[i] <= ends[last] || aLength > bLength) {
+                    continue;   // 丢弃后一个链接
+                }
+                if (aLength < bLength) {
+                    set(last, i);   // 用后一个链接替换前一个
+                    continue;
+                }
+            }
+
+            last++;
+            set(last, i);
+        }
+
+        size = last + 1;
+        mSortedSize = size;
+    }
+
+    private void set(int to, int from) {
+        starts[to] = starts[from];
+        ends[to] = ends[from];
+        types[to] = types[from];
+    }
+
+    private static boolean isAfter(int aStart, int aEnd, int bStart, int bEnd) {
+        return aStart > bStart || (aStart == bStart && aEnd < bEnd);
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] newArray = new int[capacity];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+}
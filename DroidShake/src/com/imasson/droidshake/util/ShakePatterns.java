@@ -1,7 +1,11 @@
 package com.imasson.droidshake.util;
 
+import java.util.IdentityHashMap;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import android.util.Log;
+
 /**
  * <p>程序内公共的正则表达式</p>
  * <p>如果正则表达式有可能被其他模块用到，请在此处定义。</br>
@@ -13,6 +17,7 @@ import java.util.regex.Pattern;
  * @see java.util.regex.Pattern
  */
 public class ShakePatterns {
+    private static final String TAG = "ShakePatterns";
 
     /**
      * 网址参数中一般不含有的全角符号字符（基于经验的，可能不准确）
@@ -123,6 +128,133 @@ public class ShakePatterns {
         + "([0-9][0-9\\- \\.][0-9\\- \\.]+[0-9])"); // <digit><digit|sdd>+<digit> 
    
     
+    /**
+     * 预热时使用的样例文字，包含各个正则表达式能够匹配的内容
+     */
+    private static final String WARM_UP_TEXT =
+        "访问 www.example.com/path?q=1 或者 https://example.org:8080/a/b#c ，"
+        + "发邮件到 someone.name@example.com.cn ，也可以打电话 +86 (20) 1234-5678 咨询。";
+    
+    /**
+     * 预热时每个正则表达式的匹配次数，需要足以触发JIT编译
+     */
+    private static final int WARM_UP_ITERATIONS = 50;
+    
+    private static final ThreadLocal<IdentityHashMap<Pattern, Matcher>> sMatcherCache =
+        new ThreadLocal<IdentityHashMap<Pattern, Matcher>>() {
+            @Override
+            protected IdentityHashMap<Pattern, Matcher> initialValue() {
+                return new IdentityHashMap<Pattern, Matcher>();
+            }
+        };
+    
+    private static volatile boolean sWarmUpStarted = false;
+    private static volatile boolean sWarmedUp = false;
+    
+    /**
+     * <p>获取一个用于匹配指定文字的{@link Matcher}，优先复用当前线程中缓存的对象</p>
+     * <p>使用完毕后应该调用{@link #recycleMatcher(Matcher)}放回缓存。
+     *在放回之前再次获取同一个正则表达式的Matcher时，将会创建新的对象，因此嵌套使用也是安全的。</p>
+     * 
+     * @param pattern 正则表达式对象，不能为空
+     * @param input 需要匹配的文字，不能为空
+     * @return 已经重置为匹配input的Matcher
+     */
+    public static Matcher obtainMatcher(Pattern pattern, CharSequence input) {
+        Matcher matcher = sMatcherCache.get().remove(pattern);
+        if (matcher == null) {
+            return pattern.matcher(input);
+        }
+        return matcher.reset(input);
+    }
+    
+    /**
+     * <p>把通过{@link #obtainMatcher(Pattern, CharSequence)}获取的{@link Matcher}放回当前线程的缓存</p>
+     * <p>放回时会清除Matcher对原文字的引用，调用之后不能再使用该Matcher。</p>
+     * 
+     * @param matcher 需要放回缓存的Matcher
+     */
+    public static void recycleMatcher(Matcher matcher) {
+        if (matcher == null) {
+            return;
+        }
+        matcher.reset("");
+        IdentityHashMap<Pattern, Matcher> cache = sMatcherCache.get();
+        if (!cache.containsKey(matcher.pattern())) {
+            cache.put(matcher.pattern(), matcher);
+        }
+    }
+    
+    /**
+     * <p>在后台线程中预热本类的正则表达式</p>
+     * <p>第一次使用正则表达式时需要加载类、编译表达式，并且匹配代码尚未经过JIT编译，
+     *会明显拖慢第一个显示链接的界面。建议在程序启动时（如Application.onCreate()）调用本方法。
+     *重复调用时只会预热一次。</p>
+     * 
+     * @return 是否启动了新的预热线程
+     * @see #warmUpNow()
+     */
+    public static boolean warmUp() {
+        synchronized (ShakePatterns.class) {
+            if (sWarmUpStarted) {
+                return false;
+            }
+            sWarmUpStarted = true;
+        }
+        
+        Thread thread = new Thread("ShakePatterns-WarmUp") {
+            @Override
+            public void run() {
+                warmUpNow();
+            }
+        };
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return true;
+    }
+    
+    /**
+     * <p>在当前线程中同步地预热本类的正则表达式</p>
+     * 
+     * @return 预热花费的时间，单位为纳秒
+     * @see #warmUp()
+     */
+    public static long warmUpNow() {
+        sWarmUpStarted = true;
+        long startTime = System.nanoTime();
+        int matchCount = 0;
+        
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            matchCount += exercise(WEB_URL);
+            matchCount += exercise(EMAIL_ADDRESS);
+            matchCount += exercise(PHONE);
+        }
+        
+        long costTime = System.nanoTime() - startTime;
+        sWarmedUp = true;
+        Log.d(TAG, "warmUpNow: matches=" + matchCount
+                + ", costTime=" + (costTime / 1000000L) + "ms");
+        return costTime;
+    }
+    
+    /**
+     * @return 是否已经完成预热
+     */
+    public static boolean isWarmedUp() {
+        return sWarmedUp;
+    }
+    
+    private static int exercise(Pattern pattern) {
+        Matcher matcher = obtainMatcher(pattern, WARM_UP_TEXT);
+        int count = 0;
+        while (matcher.find()) {
+            count++;
+        }
+        recycleMatcher(matcher);
+        return count;
+    }
+    
     // Do not create this static utility class.
     private ShakePatterns() {}
 }
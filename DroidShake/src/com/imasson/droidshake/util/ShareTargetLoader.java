@@ -0,0 +1,525 @@
+package com.imasson.droidshake.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * <p>分享列表等选择界面中目标程序的标签和图标的加载器</p>
+ * <p>{@link PackageUtils#getInstalledActivityInfos(Context, String, String)}返回之后，
+ * 对每个{@link ResolveInfo}调用loadLabel和loadIcon才是打开选择界面的主要耗时。
+ * {@link #load(List, Callback)}立即返回一个目标列表，内存缓存中没有的目标只有包名和类名，
+ * 界面可以马上显示占位图；同时在有限数量的后台线程中并行加载标签和图标，
+ * 每加载完一个目标就在主线程中通知{@link Callback}，界面逐个替换占位图即可。</p>
+ * <p>加载结果按照(组件, 版本号, 语言)缓存在内存和磁盘中，图标缩放到统一的大小后保存为PNG，
+ * 程序升级或者切换语言之后，旧的缓存自然失效，并在保存新的结果时删除。
+ * 磁盘缓存的总大小超过上限时，按照最近使用的时间删除最旧的目标。</p>
+ * <p>本类是线程安全的。</p>
+ *
+ * @see PackageQueryCache
+ */
+public final class ShareTargetLoader {
+	private static final String TAG = "ShareTargetLoader";
+
+	/** 同时加载的线程数 */
+	public static final int MAX_THREADS = 3;
+	/** 内存缓存的最大目标数 */
+	public static final int MAX_MEMORY_ENTRIES = 64;
+	/** 默认的图标大小，单位为像素 */
+	public static final int DEFAULT_ICON_SIZE = 96;
+	/** 默认的磁盘缓存大小上限 */
+	public static final long DEFAULT_MAX_DISK_SIZE = 2 * 1024 * 1024;
+
+	private static final String LABEL_SUFFIX = ".txt";
+	private static final String ICON_SUFFIX = ".png";
+
+	private static final ExecutorService sExecutor = Executors.newFixedThreadPool(MAX_THREADS,
+			new ThreadFactory() {
+				private final AtomicInteger mCount = new AtomicInteger(1);
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ShareTargetLoader #" + mCount.getAndIncrement());
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+
+	private static ShareTargetLoader sInstance = null;
+
+	/**
+	 * 目标加载完毕的回调接口，在主线程中回调
+	 */
+	public interface Callback {
+		/**
+		 * 一个目标的标签和图标已经加载完毕
+		 * @param position 目标在{@link ShareTargetLoader#load(List, Callback)}返回的列表中的位置
+		 * @param target 加载完毕的目标
+		 */
+		void onTargetLoaded(int position, Target target);
+
+		/**
+		 * 全部目标都已经加载完毕
+		 */
+		void onLoadFinished();
+	}
+
+	private final Context mContext;
+	private final PackageManager mPackageManager;
+	private final File mCacheDir;
+	private final int mIconSize;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	/** 按访问顺序排列的内存缓存 */
+	private final LinkedHashMap<String, Target> mMemoryCache = new LinkedHashMap<String, Target>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Target> eldest) {
+			return size() > MAX_MEMORY_ENTRIES;
+		}
+	};
+	/** 每次{@link #cancel()}时加1，用于丢弃已经取消的加载结果 */
+	private final AtomicInteger mGeneration = new AtomicInteger();
+	private volatile long mMaxDiskSize = DEFAULT_MAX_DISK_SIZE;
+
+	private long mDiskHitCount = 0L;
+	private long mLoadCount = 0L;
+
+	/**
+	 * 创建加载器，一般使用{@link #getInstance(Context)}即可
+	 * @param context 上下文对象，不能为空，内部只会保存ApplicationContext
+	 * @param cacheDir 磁盘缓存的目录，为null时不使用磁盘缓存
+	 * @param iconSize 图标的大小，单位为像素
+	 */
+	public ShareTargetLoader(Context context, File cacheDir, int iconSize) {
+		if (iconSize <= 0) {
+			Log.w(TAG, "Invalid iconSize: " + iconSize + ", use default value.");
+			iconSize = DEFAULT_ICON_SIZE;
+		}
+		Context appContext = context.getApplicationContext();
+		mContext = appContext != null ? appContext : context;
+		mPackageManager = mContext.getPackageManager();
+		mCacheDir = cacheDir;
+		mIconSize = iconSize;
+		if (mCacheDir != null) {
+			FileUtils.mkdirIfNotFound(mCacheDir.getPath());
+		}
+	}
+
+	/**
+	 * @param context 上下文对象，不能为空
+	 * @return 使用默认图标大小、缓存在应用的缓存目录中的全局加载器，context为空时返回null
+	 */
+	public static synchronized ShareTargetLoader getInstance(Context context) {
+		if (sInstance == null) {
+			if (context == null) {
+				Log.w(TAG, "Argument 'context' is null at getInstance(Context)");
+				return null;
+			}
+			File cacheDir = context.getCacheDir();
+			sInstance = new ShareTargetLoader(context,
+					cacheDir != null ? new File(cacheDir, "share_targets") : null, DEFAULT_ICON_SIZE);
+		}
+		return sInstance;
+	}
+
+	/**
+	 * <p>开始加载目标的标签和图标</p>
+	 * @param infos {@link PackageUtils#getInstalledActivityInfos(Context, String, String)}的查询结果
+	 * @param callback 加载完毕的回调，可以为null，此时只把结果保存到缓存中
+	 * @return 与infos顺序相同的目标列表，内存缓存中已有的目标是完整的，
+	 * 其它目标的标签和图标为null，加载完毕后通过callback通知
+	 */
+	public List<Target> load(List<ResolveInfo> infos, final Callback callback) {
+		if (infos == null) {
+			Log.w(TAG, "Argument 'infos' is null at load(List, Callback)");
+			return new ArrayList<Target>();
+		}
+
+		final int generation = mGeneration.get();
+		List<Target> targets = new ArrayList<Target>(infos.size());
+		final AtomicInteger remaining = new AtomicInteger(1);
+		for (int i = 0; i < infos.size(); i++) {
+			final ResolveInfo info = infos.get(i);
+			final ActivityInfo activityInfo = info.activityInfo;
+			Target cached;
+			synchronized (mMemoryCache) {
+				cached = mMemoryCache.get(toComponentKey(activityInfo));
+			}
+			// 只有版本号在后台线程中确认之后才能确定缓存有效，内存中的结果先直接使用
+			targets.add(cached != null ? cached : new Target(info, null, null, -1, null));
+
+			final int position = i;
+			remaining.incrementAndGet();
+			sExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					final Target target = loadTarget(info);
+					if (callback == null || generation != mGeneration.get()) {
+						return;
+					}
+					mHandler.post(new Runnable() {
+						@Override
+						public void run() {
+							if (generation != mGeneration.get()) {
+								return;
+							}
+							callback.onTargetLoaded(position, target);
+							if (remaining.decrementAndGet() == 0) {
+								callback.onLoadFinished();
+							}
+						}
+					});
+				}
+			});
+		}
+
+		if (callback != null) {
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (generation == mGeneration.get() && remaining.decrementAndGet() == 0) {
+						callback.onLoadFinished();
+					}
+				}
+			});
+		}
+		return targets;
+	}
+
+	/**
+	 * 取消之前全部{@link #load(List, Callback)}的回调，已经开始的加载仍然会保存到缓存中
+	 */
+	public void cancel() {
+		mGeneration.incrementAndGet();
+	}
+
+	/**
+	 * 设置磁盘缓存的大小上限，超出时在下次保存时删除最久没有使用的目标
+	 * @param maxDiskSize 大小上限，单位为byte
+	 */
+	public void setMaxDiskSize(long maxDiskSize) {
+		if (maxDiskSize <= 0L) {
+			Log.w(TAG, "Invalid maxDiskSize: " + maxDiskSize + ", use default value.");
+			maxDiskSize = DEFAULT_MAX_DISK_SIZE;
+		}
+		mMaxDiskSize = maxDiskSize;
+	}
+
+	public long getMaxDiskSize() {
+		return mMaxDiskSize;
+	}
+
+	/**
+	 * @return 从磁盘缓存中读取目标的次数
+	 */
+	public synchronized long getDiskHitCount() {
+		return mDiskHitCount;
+	}
+
+	/**
+	 * @return 通过PackageManager加载目标的次数
+	 */
+	public synchronized long getLoadCount() {
+		return mLoadCount;
+	}
+
+	/**
+	 * 清除内存缓存和磁盘缓存
+	 */
+	public void clearCache() {
+		synchronized (mMemoryCache) {
+			mMemoryCache.clear();
+		}
+		if (mCacheDir != null) {
+			File[] files = mCacheDir.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * 在后台线程中加载一个目标，依次查找内存缓存、磁盘缓存，最后才访问PackageManager
+	 */
+	private Target loadTarget(ResolveInfo info) {
+		ActivityInfo activityInfo = info.activityInfo;
+		String componentKey = toComponentKey(activityInfo);
+		int versionCode = PackageQueryCache.getInstance(mContext).getVersionCode(activityInfo.packageName);
+
+		Target target;
+		synchronized (mMemoryCache) {
+			target = mMemoryCache.get(componentKey);
+		}
+		// 标签随语言变化
+		String locale = getLocaleTag();
+		if (target != null && target.versionCode == versionCode && locale.equals(target.locale)) {
+			return target;
+		}
+
+		String fileName = toFileName(activityInfo, versionCode, locale);
+		target = readDiskCache(info, fileName, versionCode, locale);
+		if (target != null) {
+			synchronized (this) {
+				mDiskHitCount++;
+			}
+		} else {
+			target = loadFromPackageManager(info, versionCode, locale);
+			synchronized (this) {
+				mLoadCount++;
+			}
+			writeDiskCache(target, fileName, toFilePrefix(activityInfo));
+		}
+		if (target.label != null) {
+			synchronized (mMemoryCache) {
+				mMemoryCache.put(componentKey, target);
+			}
+		}
+		return target;
+	}
+
+	private Target loadFromPackageManager(ResolveInfo info, int versionCode, String locale) {
+		String label = null;
+		Bitmap icon = null;
+		try {
+			CharSequence text = info.loadLabel(mPackageManager);
+			label = text != null ? text.toString() : info.activityInfo.name;
+			icon = toBitmap(info.loadIcon(mPackageManager), mIconSize);
+		} catch (Exception e) {
+			Log.w(TAG, "Exception at loadFromPackageManager(), component="
+					+ toComponentKey(info.activityInfo), e);
+		} catch (OutOfMemoryError e) {
+			Log.w(TAG, "OutOfMemoryError at loadFromPackageManager(), component="
+					+ toComponentKey(info.activityInfo), e);
+		}
+		return new Target(info, label, icon, versionCode, locale);
+	}
+
+	/**
+	 * <p>标签文件的格式为：</p>
+	 * <pre>
+	 * 类名
+	 * 标签
+	 * </pre>
+	 */
+	private Target readDiskCache(ResolveInfo info, String fileName, int versionCode, String locale) {
+		if (mCacheDir == null) {
+			return null;
+		}
+		File labelFile = new File(mCacheDir, fileName + LABEL_SUFFIX);
+		File iconFile = new File(mCacheDir, fileName + ICON_SUFFIX);
+		if (!labelFile.isFile() || !iconFile.isFile()) {
+			return null;
+		}
+
+		List<String> lines = FileUtils.readStringLines(labelFile.getPath());
+		if (lines == null || lines.size() < 2 || !info.activityInfo.name.equals(lines.get(0))) {
+			return null;
+		}
+		Bitmap icon = BitmapUtils.getBitmap(iconFile.getPath());
+		if (icon == null) {
+			return null;
+		}
+		// 标签文件的修改时间记录了最近的使用时间
+		labelFile.setLastModified(System.currentTimeMillis());
+		return new Target(info, lines.get(1), icon, versionCode, locale);
+	}
+
+	private void writeDiskCache(Target target, String fileName, String prefix) {
+		if (mCacheDir == null || target.label == null || target.icon == null) {
+			return;
+		}
+		String text = target.activityName + '\n' + target.label.replace('\n', ' ') + '\n';
+		try {
+			if (BitmapUtils.saveBitmap(target.icon, new File(mCacheDir, fileName + ICON_SUFFIX).getPath())) {
+				FileUtils.writeBytes(new File(mCacheDir, fileName + LABEL_SUFFIX).getPath(),
+						text.getBytes("UTF-8"));
+			}
+		} catch (Exception e) {
+			Log.w(TAG, "Exception at writeDiskCache(), fileName=" + fileName, e);
+		}
+		trimDiskCache(fileName, prefix);
+	}
+
+	/**
+	 * 删除同一个组件其它版本或者其它语言的缓存文件，然后按照最近使用的时间删除超出上限的目标
+	 * @param fileName 刚刚保存的文件名，不包括后缀
+	 * @param prefix 该组件的文件名前缀
+	 */
+	private void trimDiskCache(String fileName, String prefix) {
+		File[] files = mCacheDir.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		// 按目标分组，值为目标的总大小和标签文件的修改时间，即最近使用的时间
+		Map<String, long[]> entries = new HashMap<String, long[]>();
+		long size = 0L;
+		for (File file : files) {
+			String name = stripSuffix(file.getName());
+			if (!name.equals(fileName) && name.startsWith(prefix)
+					&& isCacheSuffix(name.substring(prefix.length()))) {
+				file.delete();
+				continue;
+			}
+			long[] entry = entries.get(name);
+			if (entry == null) {
+				entry = new long[2];
+				entries.put(name, entry);
+			}
+			entry[0] += file.length();
+			if (file.getName().endsWith(LABEL_SUFFIX)) {
+				entry[1] = file.lastModified();
+			}
+			size += file.length();
+		}
+		if (size <= mMaxDiskSize) {
+			return;
+		}
+
+		List<Map.Entry<String, long[]>> sorted = new ArrayList<Map.Entry<String, long[]>>(entries.entrySet());
+		Collections.sort(sorted, new Comparator<Map.Entry<String, long[]>>() {
+			@Override
+			public int compare(Map.Entry<String, long[]> lhs, Map.Entry<String, long[]> rhs) {
+				long l = lhs.getValue()[1];
+				long r = rhs.getValue()[1];
+				return l < r ? -1 : (l == r ? 0 : 1);
+			}
+		});
+		for (Map.Entry<String, long[]> entry : sorted) {
+			if (size <= mMaxDiskSize) {
+				break;
+			}
+			// 标签和图标一起删除
+			new File(mCacheDir, entry.getKey() + LABEL_SUFFIX).delete();
+			new File(mCacheDir, entry.getKey() + ICON_SUFFIX).delete();
+			size -= entry.getValue()[0];
+		}
+	}
+
+	private static String stripSuffix(String name) {
+		int index = name.lastIndexOf('.');
+		return index < 0 ? name : name.substring(0, index);
+	}
+
+	/**
+	 * 检查前缀之后的部分是否为"版本号_语言"
+	 */
+	private static boolean isCacheSuffix(String value) {
+		int index = value.indexOf('_');
+		try {
+			Integer.parseInt(index < 0 ? value : value.substring(0, index));
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return 当前的语言，例如"zh-CN"，不包含下划线
+	 */
+	private String getLocaleTag() {
+		Locale locale = mContext.getResources().getConfiguration().locale;
+		if (locale == null) {
+			locale = Locale.getDefault();
+		}
+		return locale.toString().replace('_', '-');
+	}
+
+	/**
+	 * 把图标绘制到指定大小的位图中，避免缓存过大的图标
+	 */
+	private static Bitmap toBitmap(Drawable drawable, int size) {
+		if (drawable == null) {
+			return null;
+		}
+		Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(bitmap);
+		drawable.setBounds(0, 0, size, size);
+		drawable.draw(canvas);
+		return bitmap;
+	}
+
+	private static String toComponentKey(ActivityInfo activityInfo) {
+		return activityInfo.packageName + '/' + activityInfo.name;
+	}
+
+	/**
+	 * 包名加上类名的散列值、版本号和语言，类名本身可能很长；散列值冲突时由标签文件中的类名区分
+	 */
+	private static String toFileName(ActivityInfo activityInfo, int versionCode, String locale) {
+		return toFilePrefix(activityInfo) + versionCode + '_' + locale;
+	}
+
+	/**
+	 * @return 同一个组件的所有缓存文件共同的前缀
+	 */
+	private static String toFilePrefix(ActivityInfo activityInfo) {
+		return activityInfo.packageName + '_' + Integer.toHexString(activityInfo.name.hashCode()) + '_';
+	}
+
+
+	/**
+	 * 一个分享目标，创建之后不会再改变
+	 */
+	public static final class Target {
+		/** 查询得到的原始结果，用于创建启动的Intent */
+		public final ResolveInfo resolveInfo;
+		public final String packageName;
+		public final String activityName;
+		/** 显示的标签，还没有加载时为null */
+		public final String label;
+		/** 缩放后的图标，还没有加载或者加载失败时为null */
+		public final Bitmap icon;
+		/** 加载时程序包的版本号，还没有加载时为-1 */
+		final int versionCode;
+		/** 加载时的语言，还没有加载时为null */
+		final String locale;
+
+		Target(ResolveInfo resolveInfo, String label, Bitmap icon, int versionCode, String locale) {
+			this.resolveInfo = resolveInfo;
+			this.packageName = resolveInfo.activityInfo.packageName;
+			this.activityName = resolveInfo.activityInfo.name;
+			this.label = label;
+			this.icon = icon;
+			this.versionCode = versionCode;
+			this.locale = locale;
+		}
+
+		/**
+		 * @return 标签和图标是否都已经加载
+		 */
+		public boolean isLoaded() {
+			return label != null && icon != null;
+		}
+
+		@Override
+		public String toString() {
+			return "Target: packageName=" + packageName + ", activityName=" + activityName
+					+ ", label=" + label + ", loaded=" + isLoaded();
+		}
+	}
+}
@@ -4,6 +4,7 @@ import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.util.DisplayMetrics;
 import android.util.Log;
@@ -22,6 +23,7 @@ import android.view.Window;
  * </ul>
  * @version 1.0 包含尺寸单位转换以及对视图进行截图的方法
  * @version 1.1 增加开启硬件加速的方法
+ * @version 1.2 截图可以缩小、使用RGB_565格式以及复用位图，并复用线程内的{@link Canvas}
  */
 public class ViewUtils {
 	private static final String TAG = "ViewUtils";
@@ -239,8 +241,7 @@ public class ViewUtils {
 		Bitmap snapshot = null;
 		try {
 			snapshot = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(snapshot);
-            view.draw(canvas);
+			drawSnapshot(view, snapshot);
 		} catch (OutOfMemoryError er) {
 			Log.w(TAG, "OutOfMemoryError at makeSnapshot(View)", er);
 		} catch (Exception e) {
@@ -305,6 +306,178 @@ public class ViewUtils {
 		return makeSnapshot(window.getDecorView());
 	}
 	
+	/**
+	 * 截图时复用的{@link Canvas}，每个线程一个，只在API Level 11及以上使用
+	 */
+	private static final ThreadLocal<Canvas> sSnapshotCanvas = new ThreadLocal<Canvas>() {
+		@Override
+		protected Canvas initialValue() {
+			return new Canvas();
+		}
+	};
+	
+	/**
+	 * <p>对指定的视图进行缩小的截图，输出位图</p>
+	 * <p>截图通过缩放的{@link Canvas}直接绘制到较小的位图上，例如scale为0.5时，
+	 * 位图的内存只有原尺寸截图的四分之一。不透明的视图使用RGB_565格式，内存再减少一半。</p>
+	 * @param view 需要截图的视图，该视图必须已经布局完毕
+	 * @param scale 缩放比例，范围为(0,1]
+	 * @return 该视图当前状态的截图
+	 * @see #makeSnapshot(View, float, Bitmap.Config, Bitmap)
+	 */
+	public static Bitmap makeSnapshot(View view, float scale) {
+		return makeSnapshot(view, scale, null, (Bitmap) null);
+	}
+	
+	/**
+	 * <p>对指定的视图进行截图，优先绘制到调用者提供的位图上</p>
+	 * <p>reuse的宽高与截图的宽高相同、格式相同并且是可修改的位图时，会清空reuse并直接绘制到它上面，
+	 * 否则创建新的位图，reuse不会被修改。调用者可以比较返回值与reuse，不同时自行处理reuse。</p>
+	 * @param view 需要截图的视图，该视图必须已经布局完毕
+	 * @param scale 缩放比例，范围为(0,1]，截图的宽高为视图的宽高乘以该比例后四舍五入
+	 * @param config 位图的格式，为null时根据{@link #getSnapshotConfig(View)}选择
+	 * @param reuse 希望复用的位图，可以为null
+	 * @return 该视图当前状态的截图，失败时返回null
+	 */
+	public static Bitmap makeSnapshot(View view, float scale, Bitmap.Config config, Bitmap reuse) {
+		if (view == null) {
+			Log.w(TAG, "Argument 'view' is null at makeSnapshot(View, float, Config, Bitmap)");
+			return null;
+		}
+		int[] size = getSnapshotSize(view, scale);
+		if (size == null) {
+			return null;
+		}
+		if (config == null) {
+			config = getSnapshotConfig(view);
+		}
+		
+		Bitmap snapshot = null;
+		try {
+			if (reuse != null && !reuse.isRecycled() && reuse.isMutable()
+					&& reuse.getWidth() == size[0] && reuse.getHeight() == size[1]
+					&& reuse.getConfig() == config) {
+				snapshot = reuse;
+				snapshot.eraseColor(Color.TRANSPARENT);
+			} else {
+				snapshot = Bitmap.createBitmap(size[0], size[1], config);
+			}
+			drawSnapshot(view, snapshot);
+		} catch (OutOfMemoryError er) {
+			Log.w(TAG, "OutOfMemoryError at makeSnapshot(View, float, Config, Bitmap)", er);
+			snapshot = null;
+		} catch (Exception e) {
+			Log.w(TAG, "Exception at makeSnapshot(View, float, Config, Bitmap)", e);
+			snapshot = null;
+		}
+		
+		return snapshot;
+	}
+	
+	/**
+	 * <p>对指定的视图进行截图，位图从{@link BitmapPool}中获取</p>
+	 * <p>截图使用完毕后可以通过{@link BitmapPool#put(Bitmap)}放回池中，供下一次截图使用。</p>
+	 * @param view 需要截图的视图，该视图必须已经布局完毕
+	 * @param scale 缩放比例，范围为(0,1]
+	 * @param config 位图的格式，为null时根据{@link #getSnapshotConfig(View)}选择
+	 * @param pool 位图池，不能为空
+	 * @return 该视图当前状态的截图，失败时返回null
+	 */
+	public static Bitmap makeSnapshot(View view, float scale, Bitmap.Config config, BitmapPool pool) {
+		if (view == null) {
+			Log.w(TAG, "Argument 'view' is null at makeSnapshot(View, float, Config, BitmapPool)");
+			return null;
+		}
+		if (pool == null) {
+			Log.w(TAG, "Argument 'pool' is null at makeSnapshot(View, float, Config, BitmapPool)");
+			return null;
+		}
+		int[] size = getSnapshotSize(view, scale);
+		if (size == null) {
+			return null;
+		}
+		if (config == null) {
+			config = getSnapshotConfig(view);
+		}
+		
+		Bitmap snapshot = pool.obtain(size[0], size[1], config);
+		if (snapshot == null) {
+			return null;
+		}
+		try {
+			drawSnapshot(view, snapshot);
+		} catch (OutOfMemoryError er) {
+			Log.w(TAG, "OutOfMemoryError at makeSnapshot(View, float, Config, BitmapPool)", er);
+			pool.put(snapshot);
+			return null;
+		} catch (Exception e) {
+			Log.w(TAG, "Exception at makeSnapshot(View, float, Config, BitmapPool)", e);
+			pool.put(snapshot);
+			return null;
+		}
+		return snapshot;
+	}
+	
+	/**
+	 * 获取适合对指定视图截图的位图格式，不透明的视图使用RGB_565，否则使用ARGB_8888
+	 * @param view 需要截图的视图
+	 * @return 位图的格式
+	 */
+	public static Bitmap.Config getSnapshotConfig(View view) {
+		if (view != null && view.isOpaque()) {
+			return Bitmap.Config.RGB_565;
+		}
+		return Bitmap.Config.ARGB_8888;
+	}
+	
+	/**
+	 * @return 缩放后的宽度和高度，视图的大小无效时返回null
+	 */
+	private static int[] getSnapshotSize(View view, float scale) {
+		if (!(scale > 0f && scale <= 1f)) {
+			Log.w(TAG, "Invalid scale: " + scale + ", use default value.");
+			scale = 1f;
+		}
+		int width = view.getWidth();
+		int height = view.getHeight();
+		if (width <= 0 || height <= 0) {
+			Log.w(TAG, "The size of the view is invalid at makeSnapshot()");
+			return null;
+		}
+		return new int[] {
+				Math.max((int) (width * scale + 0.5f), 1),
+				Math.max((int) (height * scale + 0.5f), 1) };
+	}
+	
+	/**
+	 * 把视图绘制到位图上，位图比视图小时按比例缩小。API Level 11及以上复用当前线程的{@link Canvas}
+	 */
+	private static void drawSnapshot(View view, Bitmap bitmap) {
+		// API Level 11之前setBitmap(null)会抛出异常，复用的Canvas会一直引用最后的位图，只能每次创建
+		boolean reuseCanvas = android.os.Build.VERSION.SDK_INT >= 11;
+		Canvas canvas;
+		if (reuseCanvas) {
+			canvas = sSnapshotCanvas.get();
+			canvas.setBitmap(bitmap);
+		} else {
+			canvas = new Canvas(bitmap);
+		}
+		int saveCount = canvas.save();
+		try {
+			int width = view.getWidth();
+			int height = view.getHeight();
+			if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+				canvas.scale((float) bitmap.getWidth() / width, (float) bitmap.getHeight() / height);
+			}
+			view.draw(canvas);
+		} finally {
+			canvas.restoreToCount(saveCount);
+			if (reuseCanvas) {
+				canvas.setBitmap(null);
+			}
+		}
+	}
+	
 	
 	/**
      * 对指定的界面启用硬件加速，注意当前设备的API Level必须大于或等于14
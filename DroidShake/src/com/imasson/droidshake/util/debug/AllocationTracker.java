@@ -0,0 +1,495 @@
+package com.imasson.droidshake.util.debug;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * <p>统计各个方法的内存分配和耗时的工具类</p>
+ * <p>每个被统计的方法对应一个{@link Probe}，在方法的前后分别调用{@link Probe#begin()}和
+ * {@link Probe#end(Sample)}，即可统计调用次数、耗时和当前线程在这段时间内分配的内存。
+ * 统计数据保存在原子变量中，多个线程同时调用时不需要加锁。</p>
+ * <p>统计点可以互相嵌套，每个统计点的数据都包含了其中嵌套的其他统计点的部分；
+ * 同一个统计点递归调用时只统计最外层，避免重复计算。</p>
+ * <p>内存分配的数据来源：</p>
+ * <ul>
+ * <li>在支持com.sun.management.ThreadMXBean的虚拟机中，通过getThreadAllocatedBytes()获取，
+ * 只能统计字节数，不能统计对象个数；</li>
+ * <li>在Android中，通过{@link Debug#getThreadAllocCount()}和{@link Debug#getThreadAllocSize()}获取，
+ * 启用时会调用{@link Debug#startAllocCounting()}。</li>
+ * </ul>
+ * <p>默认是关闭的，关闭时{@link Probe#begin()}只读取一个volatile变量并返回null，几乎没有开销。
+ * 常用的工具方法已经在{@link TrackedUtils}中包装好。</p>
+ *
+ * @see TrackedUtils
+ */
+public final class AllocationTracker {
+	private static final String TAG = "AllocationTracker";
+
+	private static volatile boolean sEnabled = false;
+
+	private static final ConcurrentHashMap<String, Probe> sProbes =
+			new ConcurrentHashMap<String, Probe>();
+
+	/** 每个线程复用的采样对象，避免统计本身产生内存分配 */
+	private static final ThreadLocal<SampleStack> sSamples = new ThreadLocal<SampleStack>() {
+		@Override
+		protected SampleStack initialValue() {
+			return new SampleStack();
+		}
+	};
+
+	private static AllocationCounter sCounter = null;
+	private static boolean sCounterResolved = false;
+
+	/**
+	 * 启用或关闭统计，已经统计的数据仍然保留
+	 * @param enabled 是否启用
+	 */
+	public static synchronized void setEnabled(boolean enabled) {
+		if (sEnabled == enabled) {
+			return;
+		}
+
+		AllocationCounter counter = getCounter();
+		if (counter != null) {
+			if (enabled) {
+				counter.start();
+			} else {
+				counter.stop();
+			}
+		}
+		sEnabled = enabled;
+	}
+
+	public static boolean isEnabled() {
+		return sEnabled;
+	}
+
+	/**
+	 * @return 当前环境是否能够统计内存分配的字节数，不能统计时只统计次数和耗时
+	 */
+	public static boolean isAllocationCountingSupported() {
+		return getCounter() != null;
+	}
+
+	/**
+	 * 获取指定名称的统计点，不存在时创建
+	 * @param name 统计点的名称，一般为"类名.方法名"
+	 * @return 统计点
+	 */
+	public static Probe probe(String name) {
+		Probe probe = sProbes.get(name);
+		if (probe == null) {
+			Probe newProbe = new Probe(name);
+			probe = sProbes.putIfAbsent(name, newProbe);
+			if (probe == null) {
+				probe = newProbe;
+			}
+		}
+		return probe;
+	}
+
+	/**
+	 * @return 所有统计点，按照分配的字节数从大到小排列，字节数相同时按照总耗时排列
+	 */
+	public static List<Probe> getProbes() {
+		List<Probe> list = new ArrayList<Probe>(sProbes.values());
+		Collections.sort(list, new Comparator<Probe>() {
+			@Override
+			public int compare(Probe lhs, Probe rhs) {
+				long l = lhs.getAllocatedBytes();
+				long r = rhs.getAllocatedBytes();
+				if (l == r) {
+					l = lhs.getTotalNanos();
+					r = rhs.getTotalNanos();
+				}
+				return l == r ? 0 : (l > r ? -1 : 1);
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * 清除所有统计点的数据
+	 */
+	public static void reset() {
+		for (Probe probe : sProbes.values()) {
+			probe.reset();
+		}
+	}
+
+	/**
+	 * 输出可读的统计报告
+	 * @return 统计报告，按照分配的字节数从大到小排列
+	 */
+	public static String dump() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("AllocationTracker: enabled=").append(sEnabled)
+				.append(", allocationCounting=").append(isAllocationCountingSupported()).append('\n');
+		builder.append(String.format(Locale.US, "%10s %12s %10s %12s %10s %10s  %s%n",
+				"calls", "bytes", "objects", "bytes/call", "avg(us)", "max(us)", "probe"));
+		for (Probe probe : getProbes()) {
+			long calls = probe.getCallCount();
+			if (calls == 0L) {
+				continue;
+			}
+			builder.append(String.format(Locale.US, "%10d %12d %10d %12d %10.1f %10.1f  %s%n",
+					calls, probe.getAllocatedBytes(), probe.getAllocatedObjects(),
+					probe.getAllocatedBytes() / calls, probe.getTotalNanos() / 1e3 / calls,
+					probe.getMaxNanos() / 1e3, probe.getName()));
+		}
+		return builder.toString();
+	}
+
+	private static synchronized AllocationCounter getCounter() {
+		if (!sCounterResolved) {
+			sCounterResolved = true;
+			sCounter = JvmAllocationCounter.create();
+			if (sCounter == null) {
+				sCounter = DalvikAllocationCounter.create();
+			}
+		}
+		return sCounter;
+	}
+
+	// Do not create this static utility class.
+	private AllocationTracker() {}
+
+
+	/**
+	 * <p>一个被统计的方法</p>
+	 * <p>用法：</p>
+	 * <pre>
+	 * AllocationTracker.Sample sample = PROBE.begin();
+	 * try {
+	 *     ...
+	 * } finally {
+	 *     PROBE.end(sample);
+	 * }
+	 * </pre>
+	 */
+	public static final class Probe {
+		private final String mName;
+		private final AtomicLong mCallCount = new AtomicLong();
+		private final AtomicLong mTotalNanos = new AtomicLong();
+		private final AtomicLong mMaxNanos = new AtomicLong();
+		private final AtomicLong mAllocatedBytes = new AtomicLong();
+		private final AtomicLong mAllocatedObjects = new AtomicLong();
+
+		Probe(String name) {
+			mName = name;
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		/**
+		 * 开始一次统计
+		 * @return 需要传给{@link #end(Sample)}的采样对象，没有启用统计时返回null
+		 */
+		public Sample begin() {
+			if (!sEnabled) {
+				return null;
+			}
+
+			SampleStack stack = sSamples.get();
+			for (int i = 0; i < stack.mDepth; i++) {
+				if (stack.mSamples[i].mProbe == this) {
+					// 递归调用只统计最外层，避免重复计算
+					return null;
+				}
+			}
+			Sample sample = stack.push(this);
+
+			AllocationCounter counter = sCounter;
+			if (counter != null) {
+				sample.mStartBytes = counter.getAllocatedBytes();
+				sample.mStartObjects = counter.getAllocatedObjects();
+			}
+			sample.mStartNanos = System.nanoTime();
+			return sample;
+		}
+
+		/**
+		 * 结束一次统计
+		 * @param sample {@link #begin()}返回的采样对象，为null时不做任何事情
+		 */
+		public void end(Sample sample) {
+			if (sample == null) {
+				return;
+			}
+
+			long nanos = System.nanoTime() - sample.mStartNanos;
+			AllocationCounter counter = sCounter;
+			if (counter != null) {
+				long bytes = counter.getAllocatedBytes() - sample.mStartBytes - counter.mBytesOverhead;
+				long objects = counter.getAllocatedObjects() - sample.mStartObjects
+						- counter.mObjectsOverhead;
+				mAllocatedBytes.addAndGet(Math.max(0L, bytes));
+				mAllocatedObjects.addAndGet(Math.max(0L, objects));
+			}
+			// 中间的统计点没有调用end()时一并丢弃
+			sSamples.get().pop(sample);
+
+			mCallCount.incrementAndGet();
+			mTotalNanos.addAndGet(nanos);
+			long max;
+			while (nanos > (max = mMaxNanos.get())) {
+				if (mMaxNanos.compareAndSet(max, nanos)) {
+					break;
+				}
+			}
+		}
+
+		public long getCallCount() {
+			return mCallCount.get();
+		}
+
+		public long getTotalNanos() {
+			return mTotalNanos.get();
+		}
+
+		public long getMaxNanos() {
+			return mMaxNanos.get();
+		}
+
+		/**
+		 * @return 累计分配的字节数，不支持统计内存分配时为0
+		 */
+		public long getAllocatedBytes() {
+			return mAllocatedBytes.get();
+		}
+
+		/**
+		 * @return 累计分配的对象个数，在JVM中或者不支持统计内存分配时为0
+		 */
+		public long getAllocatedObjects() {
+			return mAllocatedObjects.get();
+		}
+
+		void reset() {
+			mCallCount.set(0L);
+			mTotalNanos.set(0L);
+			mMaxNanos.set(0L);
+			mAllocatedBytes.set(0L);
+			mAllocatedObjects.set(0L);
+		}
+
+		@Override
+		public String toString() {
+			return mName + ": calls=" + getCallCount() + ", bytes=" + getAllocatedBytes()
+					+ ", objects=" + getAllocatedObjects() + ", totalNanos=" + getTotalNanos();
+		}
+	}
+
+	/**
+	 * 一次统计的起始数据，每个线程复用同一个对象
+	 */
+	public static final class Sample {
+		final int mIndex;
+		Probe mProbe;
+		long mStartNanos;
+		long mStartBytes;
+		long mStartObjects;
+
+		Sample(int index) {
+			mIndex = index;
+		}
+	}
+
+	/**
+	 * 每个线程中正在统计的采样对象，按照嵌套的深度排列，对象创建后一直复用
+	 */
+	private static final class SampleStack {
+		Sample[] mSamples = new Sample[8];
+		int mDepth = 0;
+
+		Sample push(Probe probe) {
+			if (mDepth == mSamples.length) {
+				Sample[] samples = new Sample[mSamples.length * 2];
+				System.arraycopy(mSamples, 0, samples, 0, mDepth);
+				mSamples = samples;
+			}
+			Sample sample = mSamples[mDepth];
+			if (sample == null) {
+				sample = new Sample(mDepth);
+				mSamples[mDepth] = sample;
+			}
+			sample.mProbe = probe;
+			mDepth++;
+			return sample;
+		}
+
+		void pop(Sample sample) {
+			if (sample.mIndex < mDepth && mSamples[sample.mIndex] == sample) {
+				for (int i = sample.mIndex; i < mDepth; i++) {
+					mSamples[i].mProbe = null;
+				}
+				mDepth = sample.mIndex;
+			}
+		}
+	}
+
+	/**
+	 * 读取当前线程已经分配的内存
+	 */
+	private static abstract class AllocationCounter {
+		private static final int CALIBRATE_WARM_UP = 64;
+
+		/** 读取计数本身产生的分配，启动时测量，统计时扣除 */
+		long mBytesOverhead;
+		long mObjectsOverhead;
+
+		abstract long getAllocatedBytes();
+
+		abstract long getAllocatedObjects();
+
+		void start() {}
+
+		void stop() {}
+
+		/**
+		 * 连续读取多次，以最小的差值作为读取计数本身的开销
+		 */
+		void calibrate() {
+			// 先预热，反射调用在前几次使用本地实现，之后才切换为生成的字节码，两者的分配不同
+			for (int i = 0; i < CALIBRATE_WARM_UP; i++) {
+				getAllocatedBytes();
+				getAllocatedObjects();
+			}
+			long bytes = Long.MAX_VALUE;
+			long objects = Long.MAX_VALUE;
+			for (int i = 0; i < 16; i++) {
+				long startBytes = getAllocatedBytes();
+				long startObjects = getAllocatedObjects();
+				bytes = Math.min(bytes, getAllocatedBytes() - startBytes);
+				objects = Math.min(objects, getAllocatedObjects() - startObjects);
+			}
+			mBytesOverhead = Math.max(0L, bytes);
+			mObjectsOverhead = Math.max(0L, objects);
+		}
+	}
+
+	/**
+	 * <p>通过com.sun.management.ThreadMXBean统计，只在JVM中可用</p>
+	 * <p>Android的编译环境中没有该类，只能通过反射调用。方法对象和参数数组都缓存起来，
+	 * 每次读取只有返回值装箱的固定分配，由{@link #calibrate()}测量后扣除。</p>
+	 */
+	private static final class JvmAllocationCounter extends AllocationCounter {
+		private final Object mThreadMXBean;
+		/** getCurrentThreadAllocatedBytes()或者getThreadAllocatedBytes(long) */
+		private final Method mGetAllocatedBytes;
+		private final boolean mNeedThreadId;
+
+		/** 每个线程的参数数组，避免每次调用时装箱线程ID和创建可变参数数组 */
+		private final ThreadLocal<Object[]> mArgs = new ThreadLocal<Object[]>() {
+			@Override
+			protected Object[] initialValue() {
+				return new Object[] { Long.valueOf(Thread.currentThread().getId()) };
+			}
+		};
+
+		private JvmAllocationCounter(Object threadMXBean, Method getAllocatedBytes,
+				boolean needThreadId) {
+			mThreadMXBean = threadMXBean;
+			mGetAllocatedBytes = getAllocatedBytes;
+			mNeedThreadId = needThreadId;
+		}
+
+		static AllocationCounter create() {
+			try {
+				Class<?> factoryClass = Class.forName("java.lang.management.ManagementFactory");
+				Object bean = factoryClass.getMethod("getThreadMXBean").invoke(null);
+				Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+				if (!beanClass.isInstance(bean)) {
+					return null;
+				}
+				Method method;
+				boolean needThreadId = false;
+				try {
+					// Java 14开始提供，不需要参数
+					method = beanClass.getMethod("getCurrentThreadAllocatedBytes");
+				} catch (NoSuchMethodException e) {
+					method = beanClass.getMethod("getThreadAllocatedBytes", long.class);
+					needThreadId = true;
+				}
+				Method isSupported = beanClass.getMethod("isThreadAllocatedMemorySupported");
+				if (!((Boolean) isSupported.invoke(bean))) {
+					return null;
+				}
+				beanClass.getMethod("setThreadAllocatedMemoryEnabled", boolean.class)
+						.invoke(bean, true);
+
+				JvmAllocationCounter counter = new JvmAllocationCounter(bean, method, needThreadId);
+				counter.calibrate();
+				return counter;
+			} catch (ClassNotFoundException e) {
+				// 不是JVM环境
+			} catch (Exception e) {
+				Log.w(TAG, "Exception at JvmAllocationCounter.create()", e);
+			}
+			return null;
+		}
+
+		@Override
+		long getAllocatedBytes() {
+			try {
+				Object[] args = mNeedThreadId ? mArgs.get() : null;
+				return ((Long) mGetAllocatedBytes.invoke(mThreadMXBean, args)).longValue();
+			} catch (Exception e) {
+				return 0L;
+			}
+		}
+
+		@Override
+		long getAllocatedObjects() {
+			return 0L;
+		}
+	}
+
+	/**
+	 * 通过{@link Debug}的分配计数统计，只在Android中可用
+	 */
+	private static final class DalvikAllocationCounter extends AllocationCounter {
+
+		static AllocationCounter create() {
+			try {
+				Class.forName("dalvik.system.VMDebug");
+				return new DalvikAllocationCounter();
+			} catch (ClassNotFoundException e) {
+				return null;
+			}
+		}
+
+		@Override
+		void start() {
+			Debug.startAllocCounting();
+			calibrate();
+		}
+
+		@Override
+		void stop() {
+			Debug.stopAllocCounting();
+		}
+
+		@Override
+		long getAllocatedBytes() {
+			return Debug.getThreadAllocSize();
+		}
+
+		@Override
+		long getAllocatedObjects() {
+			return Debug.getThreadAllocCount();
+		}
+	}
+}
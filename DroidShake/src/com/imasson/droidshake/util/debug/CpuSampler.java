@@ -0,0 +1,631 @@
+package com.imasson.droidshake.util.debug;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import android.util.Log;
+
+/**
+ * <p>通过读取/proc文件系统统计CPU占用率的采样器</p>
+ * <p>每次调用{@link #sample()}时读取/proc/stat、/proc/self/stat以及被跟踪线程的
+ * /proc/self/task/[tid]/stat，与上一次采样的结果相减得到这段时间内的CPU占用率。
+ * 文件句柄和读取缓冲区在多次采样之间重复使用，解析时不创建字符串，单次采样的耗时在1毫秒以内。</p>
+ * <p>调用{@link #setTrackAllThreads(boolean)}之后每次采样都会枚举/proc/self/task，自动跟踪进程中的全部线程，
+ * 再通过{@link #getTopThreads(int)}找出占用CPU最多的线程。</p>
+ * <p>本类不是线程安全的，请在同一个线程中使用，使用完毕后调用{@link #close()}释放文件句柄。</p>
+ *
+ * @see ShakeDiagnotor#getOwnCpuRate()
+ * @see ShakeDiagnotor#getTopThreadCpuUsage(int)
+ */
+public class CpuSampler {
+	private static final String TAG = "CpuSampler";
+
+	/** 默认的proc文件系统根目录 */
+	public static final String DEFAULT_PROC_ROOT = "/proc";
+
+	/** /proc/stat只需要读取第一行，/proc/[pid]/stat只有一行，因此缓冲区不需要很大 */
+	private static final int BUFFER_SIZE = 1024;
+
+	/** /proc/[pid]/stat中utime字段在右括号之后的序号（从0开始），stime紧随其后 */
+	private static final int STAT_UTIME_INDEX = 11;
+
+	private final String mProcRoot;
+	private final byte[] mBuffer = new byte[BUFFER_SIZE];
+	private int mBufferLength;
+	private int mPosition;
+
+	private RandomAccessFile mSystemStatFile;
+	private RandomAccessFile mProcessStatFile;
+
+	private long mTotalTime = -1L;
+	private long mIdleTime = -1L;
+	private long mProcessTime = -1L;
+	private long mTotalDelta = 0L;
+	private long mIdleDelta = 0L;
+	private long mProcessDelta = -1L;
+
+	private int[] mThreadIds = new int[0];
+	private RandomAccessFile[] mThreadStatFiles = new RandomAccessFile[0];
+	private long[] mThreadTimes = new long[0];
+	private long[] mThreadDeltas = new long[0];
+	private String[] mThreadNames = new String[0];
+	private boolean mTrackAllThreads = false;
+
+	/**
+	 * 创建统计当前进程的采样器
+	 */
+	public CpuSampler() {
+		this(DEFAULT_PROC_ROOT);
+	}
+
+	/**
+	 * 创建采样器，可以指定proc文件系统的根目录，主要用于测试
+	 * @param procRoot proc文件系统的根目录，其中self目录代表被统计的进程
+	 */
+	public CpuSampler(String procRoot) {
+		mProcRoot = procRoot;
+	}
+
+	/**
+	 * <p>开始跟踪指定线程的CPU占用情况，从下一次采样开始生效</p>
+	 * <p>在Android中可以通过{@link android.os.Process#myTid()}获取当前线程的id。</p>
+	 * @param tid 线程id，必须属于当前进程
+	 */
+	public void trackThread(int tid) {
+		if (indexOfThread(tid) >= 0) {
+			return;
+		}
+
+		int count = mThreadIds.length;
+		mThreadIds = copyOf(mThreadIds, count + 1);
+		mThreadIds[count] = tid;
+
+		RandomAccessFile[] files = new RandomAccessFile[count + 1];
+		System.arraycopy(mThreadStatFiles, 0, files, 0, count);
+		mThreadStatFiles = files;
+
+		mThreadTimes = copyOf(mThreadTimes, count + 1);
+		mThreadTimes[count] = -1L;
+		mThreadDeltas = copyOf(mThreadDeltas, count + 1);
+		mThreadDeltas[count] = -1L;
+
+		String[] names = new String[count + 1];
+		System.arraycopy(mThreadNames, 0, names, 0, count);
+		mThreadNames = names;
+	}
+
+	/**
+	 * 停止跟踪指定线程的CPU占用情况
+	 * @param tid 线程id
+	 */
+	public void untrackThread(int tid) {
+		int index = indexOfThread(tid);
+		if (index < 0) {
+			return;
+		}
+
+		closeQuietly(mThreadStatFiles[index]);
+		int last = mThreadIds.length - 1;
+		mThreadIds[index] = mThreadIds[last];
+		mThreadStatFiles[index] = mThreadStatFiles[last];
+		mThreadTimes[index] = mThreadTimes[last];
+		mThreadDeltas[index] = mThreadDeltas[last];
+		mThreadNames[index] = mThreadNames[last];
+
+		mThreadIds = copyOf(mThreadIds, last);
+		RandomAccessFile[] files = new RandomAccessFile[last];
+		System.arraycopy(mThreadStatFiles, 0, files, 0, last);
+		mThreadStatFiles = files;
+		mThreadTimes = copyOf(mThreadTimes, last);
+		mThreadDeltas = copyOf(mThreadDeltas, last);
+		String[] names = new String[last];
+		System.arraycopy(mThreadNames, 0, names, 0, last);
+		mThreadNames = names;
+	}
+
+	/**
+	 * <p>设置是否自动跟踪进程中的全部线程，从下一次采样开始生效</p>
+	 * <p>启用后每次采样都会枚举/proc/self/task，跟踪新出现的线程，并停止跟踪已经结束的线程。
+	 * 已经存在的线程会复用打开的文件，只有新线程才会分配内存。</p>
+	 * @param trackAll 是否跟踪全部线程
+	 */
+	public void setTrackAllThreads(boolean trackAll) {
+		mTrackAllThreads = trackAll;
+	}
+
+	public boolean isTrackAllThreads() {
+		return mTrackAllThreads;
+	}
+
+	/**
+	 * <p>进行一次采样，并计算与上一次采样之间的CPU占用情况</p>
+	 * <p>第一次采样只记录初始值，从第二次采样开始才能获取占用率。</p>
+	 * @return 是否采样成功
+	 */
+	public boolean sample() {
+		try {
+			if (mSystemStatFile == null) {
+				mSystemStatFile = open(mProcRoot + "/stat");
+			}
+			if (mProcessStatFile == null) {
+				mProcessStatFile = open(mProcRoot + "/self/stat");
+			}
+
+			// 先读取进程的数据，再读取系统的数据，保证进程的增量不会大于系统的增量
+			readFully(mProcessStatFile);
+			long processTime = parseProcessTime();
+
+			if (mTrackAllThreads) {
+				syncThreads();
+			}
+			for (int i = 0; i < mThreadIds.length; i++) {
+				sampleThread(i);
+			}
+
+			readFully(mSystemStatFile);
+			if (!parseSystemTimes()) {
+				Log.w(TAG, "Invalid content of " + mProcRoot + "/stat at sample()");
+				return false;
+			}
+
+			mProcessDelta = mProcessTime < 0L ? -1L : processTime - mProcessTime;
+			mProcessTime = processTime;
+			return true;
+		} catch (IOException e) {
+			Log.w(TAG, "IOException at sample()", e);
+			close();
+			return false;
+		}
+	}
+
+	/**
+	 * 获取最近两次采样之间当前进程的CPU占用率
+	 * @return 占全部CPU时间的百分比，范围为0~100，采样次数不足或失败时返回-1
+	 */
+	public float getProcessCpuRate() {
+		return toRate(mProcessDelta);
+	}
+
+	/**
+	 * 获取最近两次采样之间整个系统的CPU占用率
+	 * @return 非空闲时间占全部CPU时间的百分比，范围为0~100，采样次数不足或失败时返回-1
+	 */
+	public float getSystemCpuRate() {
+		if (mTotalDelta <= 0L) {
+			return -1f;
+		}
+		return toRate(mTotalDelta - mIdleDelta);
+	}
+
+	/**
+	 * 获取最近两次采样之间指定线程的CPU占用率
+	 * @param tid 通过{@link #trackThread(int)}跟踪的线程id
+	 * @return 占全部CPU时间的百分比，范围为0~100，线程未被跟踪、已经结束或者采样次数不足时返回-1
+	 */
+	public float getThreadCpuRate(int tid) {
+		int index = indexOfThread(tid);
+		if (index < 0) {
+			return -1f;
+		}
+		return toRate(mThreadDeltas[index]);
+	}
+
+	/**
+	 * <p>获取最近两次采样之间CPU占用最多的若干个线程</p>
+	 * <p>线程名优先使用Java线程的名称，找不到对应的Java线程时（例如native线程）使用内核中的线程名。
+	 * 只有调用本方法时才会创建结果对象，采样过程本身不受影响。</p>
+	 * @param maxCount 最多返回的线程数量，小于等于0时返回全部线程
+	 * @return 按照CPU时间从多到少排列的线程列表，采样次数不足时返回空列表
+	 */
+	public List<ThreadCpuUsage> getTopThreads(int maxCount) {
+		int count = mThreadIds.length;
+		if (maxCount <= 0 || maxCount > count) {
+			maxCount = count;
+		}
+
+		// 选择排序，只需要找出前maxCount个
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		List<ThreadCpuUsage> result = new ArrayList<ThreadCpuUsage>(maxCount);
+		Thread[] javaThreads = null;
+		for (int i = 0; i < maxCount; i++) {
+			int best = i;
+			for (int j = i + 1; j < count; j++) {
+				if (mThreadDeltas[order[j]] > mThreadDeltas[order[best]]) {
+					best = j;
+				}
+			}
+			int index = order[best];
+			order[best] = order[i];
+			order[i] = index;
+			if (mThreadDeltas[index] < 0L) {
+				break;
+			}
+
+			if (javaThreads == null) {
+				javaThreads = getAllJavaThreads();
+			}
+			String name = mThreadNames[index];
+			result.add(new ThreadCpuUsage(mThreadIds[index], name,
+					findJavaThreadName(name, javaThreads), mThreadDeltas[index],
+					toRate(mThreadDeltas[index])));
+		}
+		return result;
+	}
+
+	/**
+	 * 获取最近两次采样之间当前进程使用的CPU时间
+	 * @return CPU时间，单位为jiffies（一般为10毫秒），采样次数不足时返回-1
+	 */
+	public long getProcessCpuTimeDelta() {
+		return mProcessDelta;
+	}
+
+	/**
+	 * 获取最近两次采样之间系统全部CPU的总时间
+	 * @return CPU时间，单位为jiffies（一般为10毫秒），采样次数不足时返回0
+	 */
+	public long getTotalCpuTimeDelta() {
+		return mTotalDelta;
+	}
+
+	/**
+	 * @return 是否已经进行了至少两次成功的采样
+	 */
+	public boolean hasDelta() {
+		return mProcessDelta >= 0L && mTotalDelta > 0L;
+	}
+
+	/**
+	 * 关闭所有打开的文件，并清除采样的结果。之后仍然可以继续采样
+	 */
+	public void close() {
+		closeQuietly(mSystemStatFile);
+		closeQuietly(mProcessStatFile);
+		mSystemStatFile = null;
+		mProcessStatFile = null;
+		for (int i = 0; i < mThreadStatFiles.length; i++) {
+			closeQuietly(mThreadStatFiles[i]);
+			mThreadStatFiles[i] = null;
+			mThreadTimes[i] = -1L;
+			mThreadDeltas[i] = -1L;
+		}
+
+		mTotalTime = -1L;
+		mIdleTime = -1L;
+		mProcessTime = -1L;
+		mTotalDelta = 0L;
+		mIdleDelta = 0L;
+		mProcessDelta = -1L;
+	}
+
+	private void sampleThread(int index) {
+		try {
+			if (mThreadStatFiles[index] == null) {
+				mThreadStatFiles[index] = open(mProcRoot + "/self/task/" + mThreadIds[index] + "/stat");
+			}
+			readFully(mThreadStatFiles[index]);
+			long time = parseProcessTime();
+			if (mThreadNames[index] == null) {
+				mThreadNames[index] = parseThreadName();
+			}
+			mThreadDeltas[index] = mThreadTimes[index] < 0L ? -1L : time - mThreadTimes[index];
+			mThreadTimes[index] = time;
+		} catch (IOException e) {
+			// 线程已经结束
+			closeQuietly(mThreadStatFiles[index]);
+			mThreadStatFiles[index] = null;
+			mThreadTimes[index] = -1L;
+			mThreadDeltas[index] = -1L;
+		}
+	}
+
+	/**
+	 * 枚举/proc/self/task，使被跟踪的线程与进程中现有的线程一致
+	 */
+	private void syncThreads() {
+		String[] names = new File(mProcRoot + "/self/task").list();
+		if (names == null) {
+			return;
+		}
+
+		int[] tids = new int[names.length];
+		int tidCount = 0;
+		for (String name : names) {
+			int tid = parseTid(name);
+			if (tid > 0) {
+				tids[tidCount++] = tid;
+			}
+		}
+
+		for (int i = mThreadIds.length - 1; i >= 0; i--) {
+			if (indexOf(tids, tidCount, mThreadIds[i]) < 0) {
+				untrackThread(mThreadIds[i]);
+			}
+		}
+		for (int i = 0; i < tidCount; i++) {
+			trackThread(tids[i]);
+		}
+	}
+
+	private float toRate(long delta) {
+		if (delta < 0L || mTotalDelta <= 0L) {
+			return -1f;
+		}
+		return Math.min(100f, delta * 100f / mTotalDelta);
+	}
+
+	/**
+	 * 解析/proc/stat第一行的cpu汇总数据：user nice system idle iowait irq softirq steal
+	 */
+	private boolean parseSystemTimes() {
+		if (mBufferLength < 4 || mBuffer[0] != 'c' || mBuffer[1] != 'p' || mBuffer[2] != 'u'
+				|| mBuffer[3] != ' ') {
+			return false;
+		}
+
+		mPosition = 4;
+		long total = 0L;
+		long idle = 0L;
+		for (int i = 0; i < 8; i++) {
+			long value = nextLong();
+			if (value < 0L) {
+				// 旧版本的内核没有后面几个字段
+				if (i < 4) {
+					return false;
+				}
+				break;
+			}
+			total += value;
+			if (i == 3 || i == 4) {
+				idle += value;
+			}
+		}
+
+		if (mTotalTime >= 0L) {
+			mTotalDelta = total - mTotalTime;
+			mIdleDelta = idle - mIdleTime;
+		}
+		mTotalTime = total;
+		mIdleTime = idle;
+		return true;
+	}
+
+	/**
+	 * 解析/proc/[pid]/stat或/proc/[pid]/task/[tid]/stat中的utime与stime之和。
+	 * 进程名中可能含有空格和括号，因此从最后一个右括号之后开始计算字段
+	 */
+	private long parseProcessTime() throws IOException {
+		int position = mBufferLength - 1;
+		while (position >= 0 && mBuffer[position] != ')') {
+			position--;
+		}
+		if (position < 0) {
+			throw new IOException("Invalid stat content");
+		}
+
+		mPosition = position + 1;
+		for (int i = 0; i < STAT_UTIME_INDEX; i++) {
+			if (!skipField()) {
+				throw new IOException("Invalid stat content");
+			}
+		}
+		long utime = nextLong();
+		long stime = nextLong();
+		if (utime < 0L || stime < 0L) {
+			throw new IOException("Invalid stat content");
+		}
+		return utime + stime;
+	}
+
+	/**
+	 * 解析stat中第一个左括号和最后一个右括号之间的线程名，内核中的线程名最长为15个字符
+	 */
+	private String parseThreadName() {
+		int start = 0;
+		while (start < mBufferLength && mBuffer[start] != '(') {
+			start++;
+		}
+		int end = mBufferLength - 1;
+		while (end > start && mBuffer[end] != ')') {
+			end--;
+		}
+		if (end <= start) {
+			return null;
+		}
+		return new String(mBuffer, start + 1, end - start - 1);
+	}
+
+	private boolean skipField() {
+		byte[] buffer = mBuffer;
+		int position = mPosition;
+		int end = mBufferLength;
+		while (position < end && buffer[position] == ' ') {
+			position++;
+		}
+		if (position == end) {
+			return false;
+		}
+		while (position < end && buffer[position] != ' ' && buffer[position] != '\n') {
+			position++;
+		}
+		mPosition = position;
+		return true;
+	}
+
+	/**
+	 * 读取下一个非负整数，遇到行尾或者不是数字时返回-1
+	 */
+	private long nextLong() {
+		byte[] buffer = mBuffer;
+		int position = mPosition;
+		int end = mBufferLength;
+		while (position < end && buffer[position] == ' ') {
+			position++;
+		}
+		if (position == end || buffer[position] < '0' || buffer[position] > '9') {
+			mPosition = position;
+			return -1L;
+		}
+
+		long value = 0L;
+		while (position < end && buffer[position] >= '0' && buffer[position] <= '9') {
+			value = value * 10L + (buffer[position] - '0');
+			position++;
+		}
+		mPosition = position;
+		return value;
+	}
+
+	private void readFully(RandomAccessFile file) throws IOException {
+		// proc文件在seek到开头之后重新读取即可得到最新的数据
+		file.seek(0L);
+		int length = 0;
+		int count;
+		while (length < mBuffer.length
+				&& (count = file.read(mBuffer, length, mBuffer.length - length)) > 0) {
+			length += count;
+		}
+		mBufferLength = length;
+	}
+
+	private int indexOfThread(int tid) {
+		for (int i = 0; i < mThreadIds.length; i++) {
+			if (mThreadIds[i] == tid) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int parseTid(String name) {
+		int tid = 0;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			tid = tid * 10 + (c - '0');
+		}
+		return tid;
+	}
+
+	private static int indexOf(int[] array, int count, int value) {
+		for (int i = 0; i < count; i++) {
+			if (array[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static Thread[] getAllJavaThreads() {
+		ThreadGroup group = Thread.currentThread().getThreadGroup();
+		while (group.getParent() != null) {
+			group = group.getParent();
+		}
+
+		Thread[] threads = new Thread[group.activeCount() + 8];
+		int count;
+		while ((count = group.enumerate(threads, true)) == threads.length) {
+			threads = new Thread[threads.length * 2];
+		}
+		Thread[] result = new Thread[count];
+		System.arraycopy(threads, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * <p>根据内核中的线程名查找对应的Java线程名</p>
+	 * <p>线程名超过15个字符时会被截断：JVM保留开头的部分；Android对于含有'.'的名称保留末尾的部分，
+	 * 其它名称保留开头的部分。有多个Java线程匹配时无法区分，返回null。</p>
+	 */
+	static String findJavaThreadName(String kernelName, Thread[] threads) {
+		if (kernelName == null) {
+			return null;
+		}
+
+		String found = null;
+		boolean truncated = kernelName.length() >= 15;
+		for (Thread thread : threads) {
+			String name = thread.getName();
+			if (name.equals(kernelName)) {
+				return name;
+			}
+			if (truncated && (name.startsWith(kernelName) || name.endsWith(kernelName))) {
+				if (found != null && !found.equals(name)) {
+					return null;
+				}
+				found = name;
+			}
+		}
+		return found;
+	}
+
+	private static RandomAccessFile open(String path) throws IOException {
+		return new RandomAccessFile(new File(path), "r");
+	}
+
+	private static void closeQuietly(RandomAccessFile file) {
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	private static int[] copyOf(int[] array, int length) {
+		int[] newArray = new int[length];
+		System.arraycopy(array, 0, newArray, 0, Math.min(array.length, length));
+		return newArray;
+	}
+
+	private static long[] copyOf(long[] array, int length) {
+		long[] newArray = new long[length];
+		System.arraycopy(array, 0, newArray, 0, Math.min(array.length, length));
+		return newArray;
+	}
+
+	/**
+	 * 一个线程在最近两次采样之间的CPU占用情况
+	 */
+	public static final class ThreadCpuUsage {
+		/** 线程id */
+		public final int tid;
+		/** 内核中的线程名，最长15个字符 */
+		public final String kernelName;
+		/** 对应的Java线程名，找不到时为null */
+		public final String javaName;
+		/** CPU时间，单位为jiffies（一般为10毫秒） */
+		public final long cpuTimeDelta;
+		/** 占全部CPU时间的百分比，范围为0~100 */
+		public final float cpuRate;
+
+		ThreadCpuUsage(int tid, String kernelName, String javaName, long cpuTimeDelta,
+				float cpuRate) {
+			this.tid = tid;
+			this.kernelName = kernelName;
+			this.javaName = javaName;
+			this.cpuTimeDelta = cpuTimeDelta;
+			this.cpuRate = cpuRate;
+		}
+
+		/**
+		 * @return 优先返回Java线程名，找不到时返回内核中的线程名
+		 */
+		public String getName() {
+			return javaName != null ? javaName : kernelName;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%5.1f%% %6d  %s", cpuRate, tid, getName());
+		}
+	}
+}
@@ -0,0 +1,416 @@
+package com.imasson.droidshake.util.debug;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * <p>监测主线程界面流畅度（帧耗时与卡顿）的工具类</p>
+ * <p>在 API Level 16 及以上的系统中，通过反射使用Choreographer的帧回调记录相邻两帧的间隔；
+ * 在更早的系统中，改为记录主线程Looper中每条消息的耗时。记录的结果保存在{@link LatencyHistogram}中，
+ * 单位为微秒，可以通过{@link #dump()}输出与HdrHistogram相同格式的分布表。</p>
+ * <p>同时，一个后台线程会监视主线程的每条消息，当一条消息的耗时超过卡顿阈值时，
+ * 采集主线程当时的调用栈，最多保留最近的若干个。</p>
+ * <p>主线程连续若干帧都没有其他消息时（即界面空闲），将停止请求帧回调，直到主线程再次处理消息，
+ * 因此空闲时几乎没有额外的开销。</p>
+ *
+ * @see LatencyHistogram
+ */
+public class FrameMonitor {
+	private static final String TAG = "FrameMonitor";
+
+	/** 默认的卡顿阈值，单位为毫秒 */
+	public static final long DEFAULT_JANK_THRESHOLD_MILLIS = 100L;
+	/** 默认最多保留的调用栈数量 */
+	public static final int DEFAULT_MAX_STACK_SAMPLES = 10;
+
+	/** 系统无法提供时使用的帧间隔，即60fps */
+	private static final long DEFAULT_FRAME_INTERVAL_NANOS = 16666667L;
+	/** 连续这么多帧内主线程都没有处理其他消息时，视为界面空闲 */
+	private static final int IDLE_FRAME_LIMIT = 60;
+
+	private final long mJankThresholdMillis;
+	private final int mMaxStackSamples;
+	private final LatencyHistogram mHistogram = new LatencyHistogram();
+
+	private final List<StackSample> mStackSamples = new ArrayList<StackSample>();
+
+	/** 在主线程的帧回调中读取，在调用start()和stop()的线程中修改 */
+	private volatile boolean mRunning = false;
+	private long mFrameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+
+	// 以下字段只在主线程中访问
+	private Object mChoreographer = null;
+	private Method mPostFrameCallbackMethod = null;
+	private Object mFrameCallback = null;
+	private boolean mFrameCallbackPaused = false;
+	private long mLastFrameTimeNanos = 0L;
+	private int mMessagesSinceLastFrame = 0;
+	private int mIdleFrames = 0;
+	private long mDispatchStartNanos = 0L;
+
+	private volatile long mFrameCount = 0L;
+	private volatile long mDroppedFrameCount = 0L;
+	private volatile long mJankCount = 0L;
+
+	private HandlerThread mWatchdogThread = null;
+	private Handler mWatchdogHandler = null;
+	private volatile boolean mDispatching = false;
+
+	private final Runnable mCaptureStackRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if (mDispatching) {
+				captureMainThreadStack();
+			}
+		}
+	};
+
+	private final LooperMonitor.Listener mLooperListener = new LooperMonitor.Listener() {
+		@Override
+		public void onDispatchStart(String log) {
+			mDispatching = true;
+			mDispatchStartNanos = System.nanoTime();
+			mMessagesSinceLastFrame++;
+
+			Handler watchdog = mWatchdogHandler;
+			if (watchdog != null) {
+				watchdog.removeCallbacks(mCaptureStackRunnable);
+				watchdog.postDelayed(mCaptureStackRunnable, mJankThresholdMillis);
+			}
+
+			if (mFrameCallbackPaused) {
+				// 主线程重新开始工作，恢复帧回调。从这条消息开始计算下一帧的间隔，
+				// 这条消息本身的卡顿（例如耗时的点击事件）也会被记录
+				mFrameCallbackPaused = false;
+				mLastFrameTimeNanos = mDispatchStartNanos;
+				postFrameCallback();
+			}
+		}
+
+		@Override
+		public void onDispatchEnd(String log) {
+			mDispatching = false;
+			Handler watchdog = mWatchdogHandler;
+			if (watchdog != null) {
+				watchdog.removeCallbacks(mCaptureStackRunnable);
+			}
+
+			if (mChoreographer == null && mDispatchStartNanos > 0L) {
+				// 不支持Choreographer时，以消息的耗时代替帧耗时
+				onFrameTime(System.nanoTime() - mDispatchStartNanos);
+			}
+		}
+	};
+
+	/**
+	 * 使用默认的卡顿阈值和调用栈数量创建对象
+	 */
+	public FrameMonitor() {
+		this(DEFAULT_JANK_THRESHOLD_MILLIS, DEFAULT_MAX_STACK_SAMPLES);
+	}
+
+	/**
+	 * @param jankThresholdMillis 卡顿阈值，单位为毫秒，小于等于0时使用默认值
+	 * @param maxStackSamples 最多保留的调用栈数量，小于0时使用默认值
+	 */
+	public FrameMonitor(long jankThresholdMillis, int maxStackSamples) {
+		if (jankThresholdMillis <= 0L) {
+			Log.w(TAG, "Invalid jank threshold: " + jankThresholdMillis + ", use default value.");
+			jankThresholdMillis = DEFAULT_JANK_THRESHOLD_MILLIS;
+		}
+		if (maxStackSamples < 0) {
+			Log.w(TAG, "Invalid max stack samples: " + maxStackSamples + ", use default value.");
+			maxStackSamples = DEFAULT_MAX_STACK_SAMPLES;
+		}
+		mJankThresholdMillis = jankThresholdMillis;
+		mMaxStackSamples = maxStackSamples;
+	}
+
+	/**
+	 * 开始监测，必须在主线程中调用
+	 * @return 是否开始了监测，已经在监测或者不在主线程中调用时返回false
+	 */
+	public synchronized boolean start() {
+		if (mRunning) {
+			return false;
+		}
+		if (Looper.myLooper() != Looper.getMainLooper()) {
+			Log.w(TAG, "FrameMonitor.start() must be called on the main thread.");
+			return false;
+		}
+
+		mWatchdogThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		mWatchdogThread.start();
+		mWatchdogHandler = new Handler(mWatchdogThread.getLooper());
+
+		initChoreographer();
+		mLastFrameTimeNanos = 0L;
+		mIdleFrames = 0;
+		mFrameCallbackPaused = false;
+		LooperMonitor.getMainMonitor().addListener(mLooperListener);
+		postFrameCallback();
+
+		mRunning = true;
+		return true;
+	}
+
+	/**
+	 * 停止监测，必须在主线程中调用，已经记录的数据仍然保留
+	 */
+	public synchronized void stop() {
+		if (!mRunning) {
+			return;
+		}
+
+		mRunning = false;
+		LooperMonitor.getMainMonitor().removeListener(mLooperListener);
+		mWatchdogHandler.removeCallbacks(mCaptureStackRunnable);
+		mWatchdogThread.quit();
+		mWatchdogThread = null;
+		mWatchdogHandler = null;
+		mDispatching = false;
+	}
+
+	public synchronized boolean isRunning() {
+		return mRunning;
+	}
+
+	/**
+	 * 清除已经记录的数据
+	 */
+	public void reset() {
+		mHistogram.reset();
+		mFrameCount = 0L;
+		mDroppedFrameCount = 0L;
+		mJankCount = 0L;
+		synchronized (mStackSamples) {
+			mStackSamples.clear();
+		}
+	}
+
+	/**
+	 * @return 帧耗时（不支持Choreographer时为消息耗时）的分布，单位为微秒
+	 */
+	public LatencyHistogram getHistogram() {
+		return mHistogram;
+	}
+
+	/**
+	 * @return 是否使用Choreographer记录帧耗时，为false时记录的是主线程消息的耗时
+	 */
+	public boolean isUsingChoreographer() {
+		return mChoreographer != null;
+	}
+
+	public long getFrameCount() {
+		return mFrameCount;
+	}
+
+	/**
+	 * @return 估算的掉帧数量，即每次帧间隔中超出一个标准帧间隔的帧数之和
+	 */
+	public long getDroppedFrameCount() {
+		return mDroppedFrameCount;
+	}
+
+	/**
+	 * @return 耗时超过卡顿阈值的帧（或消息）的数量
+	 */
+	public long getJankCount() {
+		return mJankCount;
+	}
+
+	/**
+	 * @return 最近采集的主线程调用栈，按照时间顺序排列
+	 */
+	public List<StackSample> getStackSamples() {
+		synchronized (mStackSamples) {
+			return new ArrayList<StackSample>(mStackSamples);
+		}
+	}
+
+	/**
+	 * 输出可读的监测报告，包括统计数据、耗时分布表和采集到的调用栈
+	 * @return 监测报告
+	 */
+	public String dump() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("FrameMonitor: source=")
+				.append(isUsingChoreographer() ? "Choreographer" : "Looper")
+				.append(", frames=").append(mFrameCount)
+				.append(", dropped=").append(mDroppedFrameCount)
+				.append(", janks=").append(mJankCount)
+				.append(", jankThreshold=").append(mJankThresholdMillis).append("ms\n");
+		builder.append("Frame time distribution (ms):\n");
+		mHistogram.outputPercentileDistribution(builder, 1000.0);
+
+		SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+		for (StackSample sample : getStackSamples()) {
+			builder.append("\nMain thread stack at ")
+					.append(format.format(new Date(sample.timeMillis))).append(":\n");
+			for (StackTraceElement element : sample.stackTrace) {
+				builder.append("\tat ").append(element).append('\n');
+			}
+		}
+		return builder.toString();
+	}
+
+	private void initChoreographer() {
+		if (mChoreographer != null) {
+			return;
+		}
+
+		try {
+			Class<?> choreographerClass = Class.forName("android.view.Choreographer");
+			Class<?> callbackClass = Class.forName("android.view.Choreographer$FrameCallback");
+			Object choreographer = choreographerClass.getMethod("getInstance").invoke(null);
+			Method postFrameCallbackMethod = choreographerClass.getMethod(
+					"postFrameCallback", callbackClass);
+
+			try {
+				Method getFrameIntervalNanos = choreographerClass.getMethod("getFrameIntervalNanos");
+				long interval = (Long) getFrameIntervalNanos.invoke(choreographer);
+				if (interval > 0L) {
+					mFrameIntervalNanos = interval;
+				}
+			} catch (Exception e) {
+				// 隐藏的方法不一定存在，使用默认的帧间隔
+			}
+
+			mFrameCallback = Proxy.newProxyInstance(callbackClass.getClassLoader(),
+					new Class<?>[] { callbackClass }, new FrameCallbackHandler());
+			mPostFrameCallbackMethod = postFrameCallbackMethod;
+			mChoreographer = choreographer;
+		} catch (ClassNotFoundException e) {
+			Log.i(TAG, "Choreographer is not supported, use Looper message timing instead.");
+		} catch (Exception e) {
+			Log.w(TAG, "Exception at initChoreographer()", e);
+		}
+	}
+
+	private void postFrameCallback() {
+		if (mChoreographer == null) {
+			return;
+		}
+
+		try {
+			mPostFrameCallbackMethod.invoke(mChoreographer, mFrameCallback);
+		} catch (Exception e) {
+			Log.w(TAG, "Exception at postFrameCallback()", e);
+			mChoreographer = null;
+		}
+	}
+
+	/**
+	 * Choreographer的帧回调，在主线程中执行
+	 */
+	private void doFrame(long frameTimeNanos) {
+		if (!mRunning) {
+			return;
+		}
+
+		if (mLastFrameTimeNanos > 0L && frameTimeNanos > mLastFrameTimeNanos) {
+			onFrameTime(frameTimeNanos - mLastFrameTimeNanos);
+		}
+		mLastFrameTimeNanos = frameTimeNanos;
+
+		// 两帧之间只有这一帧本身的消息，说明界面没有其他工作
+		if (mMessagesSinceLastFrame <= 1) {
+			mIdleFrames++;
+		} else {
+			mIdleFrames = 0;
+		}
+		mMessagesSinceLastFrame = 0;
+
+		if (mIdleFrames >= IDLE_FRAME_LIMIT) {
+			mIdleFrames = 0;
+			mFrameCallbackPaused = true;
+		} else {
+			postFrameCallback();
+		}
+	}
+
+	private void onFrameTime(long durationNanos) {
+		mHistogram.recordValue(durationNanos / 1000L);
+		mFrameCount++;
+
+		long dropped = (durationNanos + mFrameIntervalNanos / 2) / mFrameIntervalNanos - 1;
+		if (dropped > 0L) {
+			mDroppedFrameCount += dropped;
+		}
+		if (durationNanos > mJankThresholdMillis * 1000000L) {
+			mJankCount++;
+		}
+	}
+
+	/**
+	 * 在监视线程中采集主线程的调用栈
+	 */
+	private void captureMainThreadStack() {
+		if (mMaxStackSamples == 0) {
+			return;
+		}
+
+		StackTraceElement[] stackTrace = Looper.getMainLooper().getThread().getStackTrace();
+		StackSample sample = new StackSample(System.currentTimeMillis(),
+				SystemClock.uptimeMillis(), stackTrace);
+		synchronized (mStackSamples) {
+			if (mStackSamples.size() >= mMaxStackSamples) {
+				mStackSamples.remove(0);
+			}
+			mStackSamples.add(sample);
+		}
+		Log.w(TAG, "Main thread blocked for more than " + mJankThresholdMillis + "ms");
+	}
+
+	/**
+	 * 通过动态代理实现Choreographer.FrameCallback接口
+	 */
+	private final class FrameCallbackHandler implements InvocationHandler {
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("doFrame".equals(name)) {
+				doFrame((Long) args[0]);
+				return null;
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("toString".equals(name)) {
+				return TAG + "$FrameCallback";
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * 主线程卡顿时采集的调用栈
+	 */
+	public static final class StackSample {
+		/** 采集时的系统时间，单位为毫秒 */
+		public final long timeMillis;
+		/** 采集时的{@link SystemClock#uptimeMillis()} */
+		public final long uptimeMillis;
+		public final StackTraceElement[] stackTrace;
+
+		StackSample(long timeMillis, long uptimeMillis, StackTraceElement[] stackTrace) {
+			this.timeMillis = timeMillis;
+			this.uptimeMillis = uptimeMillis;
+			this.stackTrace = stackTrace;
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package com.imasson.droidshake.util.debug;
+
+import java.util.Locale;
+
+/**
+ * <p>记录耗时分布的直方图，采用与HdrHistogram相同的对数-线性分桶方式</p>
+ * <p>数值按照2的幂划分为若干个区间，每个区间再均分为{@link #SUB_BUCKET_COUNT}个桶，
+ * 因此在整个数值范围内的相对误差不超过1/{@link #SUB_BUCKET_COUNT}（约3%）。
+ * 所有的桶在创建时分配，记录数值时不会创建任何对象。</p>
+ * <p>本类是线程安全的，单位由使用者决定，例如{@link FrameMonitor}使用微秒。</p>
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+
+	/** 每个2的幂区间内的桶数量 */
+	public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/** 能够精确区分的最大数值，超出的数值计入最后一个桶 */
+	public static final long MAX_VALUE = (1L << 40) - 1;
+
+	private final long[] mCounts;
+	private long mTotalCount;
+	private long mMin;
+	private long mMax;
+	private double mSum;
+	private double mSumOfSquares;
+
+	public LatencyHistogram() {
+		mCounts = new long[indexOf(MAX_VALUE) + 1];
+		reset();
+	}
+
+	/**
+	 * 记录一个数值
+	 * @param value 需要记录的数值，小于0时按0记录，大于{@link #MAX_VALUE}时按{@link #MAX_VALUE}记录
+	 */
+	public synchronized void recordValue(long value) {
+		if (value < 0L) {
+			value = 0L;
+		} else if (value > MAX_VALUE) {
+			value = MAX_VALUE;
+		}
+
+		mCounts[indexOf(value)]++;
+		mTotalCount++;
+		if (value < mMin) {
+			mMin = value;
+		}
+		if (value > mMax) {
+			mMax = value;
+		}
+		mSum += value;
+		mSumOfSquares += (double) value * value;
+	}
+
+	/**
+	 * 清除所有记录的数值
+	 */
+	public synchronized void reset() {
+		for (int i = 0; i < mCounts.length; i++) {
+			mCounts[i] = 0L;
+		}
+		mTotalCount = 0L;
+		mMin = Long.MAX_VALUE;
+		mMax = 0L;
+		mSum = 0.0;
+		mSumOfSquares = 0.0;
+	}
+
+	public synchronized long getTotalCount() {
+		return mTotalCount;
+	}
+
+	/**
+	 * @return 记录过的最小值，没有记录时返回0
+	 */
+	public synchronized long getMin() {
+		return mTotalCount == 0L ? 0L : mMin;
+	}
+
+	/**
+	 * @return 记录过的最大值，没有记录时返回0
+	 */
+	public synchronized long getMax() {
+		return mMax;
+	}
+
+	public synchronized double getMean() {
+		return mTotalCount == 0L ? 0.0 : mSum / mTotalCount;
+	}
+
+	public synchronized double getStdDeviation() {
+		if (mTotalCount == 0L) {
+			return 0.0;
+		}
+		double mean = mSum / mTotalCount;
+		return Math.sqrt(Math.max(0.0, mSumOfSquares / mTotalCount - mean * mean));
+	}
+
+	/**
+	 * 获取指定百分位上的数值
+	 * @param percentile 百分位，范围为0~100
+	 * @return 该百分位所在的桶内的最大值（不超过记录过的最大值），没有记录时返回0
+	 */
+	public synchronized long getValueAtPercentile(double percentile) {
+		if (mTotalCount == 0L) {
+			return 0L;
+		}
+		percentile = Math.min(100.0, Math.max(0.0, percentile));
+		long countAtPercentile = Math.max(1L, (long) Math.ceil(percentile / 100.0 * mTotalCount));
+
+		long count = 0L;
+		for (int i = 0; i < mCounts.length; i++) {
+			count += mCounts[i];
+			if (count >= countAtPercentile) {
+				return Math.min(highestValueOf(i), mMax);
+			}
+		}
+		return mMax;
+	}
+
+	/**
+	 * <p>输出与HdrHistogram的outputPercentileDistribution()格式相同的百分位分布表</p>
+	 * <p>每一行依次为数值、百分位、累计数量和1/(1-百分位)，可以直接用HdrHistogram的绘图工具查看。</p>
+	 * @param out 输出的目标
+	 * @param scalingRatio 输出时数值的缩放比例，例如记录的单位为微秒、输出为毫秒时为1000
+	 */
+	public synchronized void outputPercentileDistribution(StringBuilder out, double scalingRatio) {
+		out.append(String.format(Locale.US, "%12s %14s %10s %14s%n%n",
+				"Value", "Percentile", "TotalCount", "1/(1-Percentile)"));
+
+		if (mTotalCount > 0L) {
+			// 与HdrHistogram相同，每接近100%一半的距离输出5行
+			final int ticksPerHalfDistance = 5;
+			double percentileTo = 0.0;
+			long count = 0L;
+			for (int i = 0; i < mCounts.length; i++) {
+				if (mCounts[i] == 0L) {
+					continue;
+				}
+				count += mCounts[i];
+				double percentile = 100.0 * count / mTotalCount;
+				if (percentile < percentileTo && count < mTotalCount) {
+					continue;
+				}
+
+				long value = Math.min(highestValueOf(i), mMax);
+				appendLine(out, value / scalingRatio, percentile / 100.0, count);
+
+				double halfDistance = Math.pow(2,
+						(int) (Math.log(100.0 / (100.0 - percentile)) / Math.log(2)) + 1);
+				double reportingTicks = ticksPerHalfDistance * halfDistance;
+				percentileTo = percentile + 100.0 / reportingTicks;
+				if (count == mTotalCount) {
+					break;
+				}
+			}
+		}
+
+		out.append(String.format(Locale.US,
+				"#[Mean    = %12.3f, StdDeviation   = %12.3f]%n",
+				getMean() / scalingRatio, getStdDeviation() / scalingRatio));
+		out.append(String.format(Locale.US,
+				"#[Max     = %12.3f, Total count    = %12d]%n",
+				mMax / scalingRatio, mTotalCount));
+		out.append(String.format(Locale.US,
+				"#[Buckets = %12d, SubBuckets     = %12d]%n",
+				mCounts.length / SUB_BUCKET_COUNT, SUB_BUCKET_COUNT));
+	}
+
+	private static void appendLine(StringBuilder out, double value, double percentile, long count) {
+		if (percentile < 1.0) {
+			out.append(String.format(Locale.US, "%12.3f %2.12f %10d %14.2f%n",
+					value, percentile, count, 1.0 / (1.0 - percentile)));
+		} else {
+			out.append(String.format(Locale.US, "%12.3f %2.12f %10d%n",
+					value, percentile, count));
+		}
+	}
+
+	/**
+	 * 计算数值所在的桶的序号
+	 */
+	static int indexOf(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+		return SUB_BUCKET_COUNT + (shift * SUB_BUCKET_COUNT) + subBucket;
+	}
+
+	/**
+	 * 计算桶内的最大数值
+	 */
+	static long highestValueOf(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+		int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+		long lowest = ((long) (SUB_BUCKET_COUNT + subBucket)) << shift;
+		return lowest + (1L << shift) - 1L;
+	}
+}
@@ -0,0 +1,114 @@
+package com.imasson.droidshake.util.debug;
+
+import android.os.Looper;
+import android.util.Printer;
+
+/**
+ * <p>监听主线程Looper中每条消息的开始和结束</p>
+ * <p>{@link Looper#setMessageLogging(Printer)}只能设置一个Printer，因此由本类统一设置，
+ * 再分发给多个监听者。第一个监听者加入时设置Printer，最后一个监听者移除时清除Printer。</p>
+ * <p>注意：设置Printer后，Looper在分发每条消息时都会拼接日志字符串，因此只应该在调试时使用；
+ * 本类会覆盖程序自己通过setMessageLogging()设置的Printer。</p>
+ *
+ * @see FrameMonitor
+ * @see LooperProfiler
+ */
+final class LooperMonitor implements Printer {
+
+	/**
+	 * 消息分发的监听接口，在主线程中回调
+	 */
+	interface Listener {
+		/**
+		 * 开始分发一条消息
+		 * @param log Looper输出的日志，格式为"&gt;&gt;&gt;&gt;&gt; Dispatching to [target] [callback]: [what]"
+		 */
+		void onDispatchStart(String log);
+
+		/**
+		 * 一条消息分发完毕
+		 * @param log Looper输出的日志，格式为"&lt;&lt;&lt;&lt;&lt; Finished to [target] [callback]"
+		 */
+		void onDispatchEnd(String log);
+	}
+
+	private static LooperMonitor sMainMonitor = null;
+
+	private final Looper mLooper;
+	/** 写时复制的监听者数组，分发时不需要加锁 */
+	private volatile Listener[] mListeners = new Listener[0];
+
+	private LooperMonitor(Looper looper) {
+		mLooper = looper;
+	}
+
+	/**
+	 * @return 监听主线程Looper的对象
+	 */
+	static synchronized LooperMonitor getMainMonitor() {
+		if (sMainMonitor == null) {
+			sMainMonitor = new LooperMonitor(Looper.getMainLooper());
+		}
+		return sMainMonitor;
+	}
+
+	synchronized void addListener(Listener listener) {
+		Listener[] listeners = mListeners;
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				return;
+			}
+		}
+
+		Listener[] newListeners = new Listener[listeners.length + 1];
+		System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+		newListeners[listeners.length] = listener;
+		mListeners = newListeners;
+
+		if (listeners.length == 0) {
+			mLooper.setMessageLogging(this);
+		}
+	}
+
+	synchronized void removeListener(Listener listener) {
+		Listener[] listeners = mListeners;
+		int index = -1;
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				index = i;
+				break;
+			}
+		}
+		if (index < 0) {
+			return;
+		}
+
+		Listener[] newListeners = new Listener[listeners.length - 1];
+		System.arraycopy(listeners, 0, newListeners, 0, index);
+		System.arraycopy(listeners, index + 1, newListeners, index, newListeners.length - index);
+		mListeners = newListeners;
+
+		if (newListeners.length == 0) {
+			mLooper.setMessageLogging(null);
+		}
+	}
+
+	@Override
+	public void println(String x) {
+		if (x == null || x.length() == 0) {
+			return;
+		}
+
+		Listener[] listeners = mListeners;
+		char first = x.charAt(0);
+		if (first == '>') {
+			for (int i = 0; i < listeners.length; i++) {
+				listeners[i].onDispatchStart(x);
+			}
+		} else if (first == '<') {
+			for (int i = 0; i < listeners.length; i++) {
+				listeners[i].onDispatchEnd(x);
+			}
+		}
+	}
+}
@@ -0,0 +1,380 @@
+package com.imasson.droidshake.util.debug;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import android.util.Log;
+
+/**
+ * <p>统计主线程Looper中各个Handler处理消息耗时的分析器</p>
+ * <p>通过{@link android.os.Looper#setMessageLogging(android.util.Printer)}配对每条消息的
+ * "&gt;&gt;&gt;&gt;&gt; Dispatching"和"&lt;&lt;&lt;&lt;&lt; Finished"日志，按照Handler的类名和
+ * Runnable的类名（去掉对象地址）汇总消息数量、总耗时、最大耗时和慢消息的数量。</p>
+ * <p>解析日志时直接比较字符区间，只有第一次遇到某个Handler时才会创建字符串；
+ * 统计数据保存在分段加锁的散列表中，生成报告时不会长时间阻塞主线程。</p>
+ * <p>用法：</p>
+ * <pre>
+ * LooperProfiler profiler = new LooperProfiler(16);
+ * profiler.start();
+ * ...
+ * Log.i(TAG, profiler.dump(10));
+ * </pre>
+ *
+ * @see FrameMonitor
+ */
+public class LooperProfiler {
+	private static final String TAG = "LooperProfiler";
+
+	/** 默认的慢消息阈值，即一帧的时间，单位为毫秒 */
+	public static final long DEFAULT_SLOW_THRESHOLD_MILLIS = 16L;
+
+	private static final String DISPATCH_PREFIX = ">>>>> Dispatching to ";
+	private static final String HANDLER_PREFIX = "Handler (";
+	private static final String NULL_CALLBACK = "null";
+
+	/** 散列表的分段数量，必须为2的幂 */
+	private static final int STRIPE_COUNT = 8;
+
+	private final long mSlowThresholdNanos;
+	private final Stripe[] mStripes = new Stripe[STRIPE_COUNT];
+
+	private boolean mRunning = false;
+
+	// 以下字段只在主线程中访问
+	private String mDispatchLog = null;
+	private long mDispatchStartNanos = 0L;
+
+	private final LooperMonitor.Listener mLooperListener = new LooperMonitor.Listener() {
+		@Override
+		public void onDispatchStart(String log) {
+			mDispatchLog = log;
+			mDispatchStartNanos = System.nanoTime();
+		}
+
+		@Override
+		public void onDispatchEnd(String log) {
+			if (mDispatchLog != null) {
+				record(mDispatchLog, System.nanoTime() - mDispatchStartNanos);
+				mDispatchLog = null;
+			}
+		}
+	};
+
+	/**
+	 * 使用默认的慢消息阈值创建对象
+	 */
+	public LooperProfiler() {
+		this(DEFAULT_SLOW_THRESHOLD_MILLIS);
+	}
+
+	/**
+	 * @param slowThresholdMillis 慢消息的阈值，单位为毫秒，小于等于0时使用默认值
+	 */
+	public LooperProfiler(long slowThresholdMillis) {
+		if (slowThresholdMillis <= 0L) {
+			Log.w(TAG, "Invalid slow threshold: " + slowThresholdMillis + ", use default value.");
+			slowThresholdMillis = DEFAULT_SLOW_THRESHOLD_MILLIS;
+		}
+		mSlowThresholdNanos = slowThresholdMillis * 1000000L;
+		for (int i = 0; i < STRIPE_COUNT; i++) {
+			mStripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * 开始统计主线程的消息
+	 * @return 是否开始了统计，已经在统计时返回false
+	 */
+	public synchronized boolean start() {
+		if (mRunning) {
+			return false;
+		}
+		LooperMonitor.getMainMonitor().addListener(mLooperListener);
+		mRunning = true;
+		return true;
+	}
+
+	/**
+	 * 停止统计，已经统计的数据仍然保留
+	 */
+	public synchronized void stop() {
+		if (!mRunning) {
+			return;
+		}
+		LooperMonitor.getMainMonitor().removeListener(mLooperListener);
+		mRunning = false;
+	}
+
+	public synchronized boolean isRunning() {
+		return mRunning;
+	}
+
+	public long getSlowThresholdMillis() {
+		return mSlowThresholdNanos / 1000000L;
+	}
+
+	/**
+	 * 清除已经统计的数据
+	 */
+	public void reset() {
+		for (Stripe stripe : mStripes) {
+			synchronized (stripe) {
+				stripe.clear();
+			}
+		}
+	}
+
+	/**
+	 * 获取统计数据的快照
+	 * @return 各个Handler的统计数据，按照总耗时从大到小排列
+	 */
+	public List<HandlerStats> getStats() {
+		List<HandlerStats> list = new ArrayList<HandlerStats>();
+		for (Stripe stripe : mStripes) {
+			synchronized (stripe) {
+				for (Entry head : stripe.table) {
+					for (Entry entry = head; entry != null; entry = entry.next) {
+						list.add(new HandlerStats(entry));
+					}
+				}
+			}
+		}
+
+		Collections.sort(list, new Comparator<HandlerStats>() {
+			@Override
+			public int compare(HandlerStats lhs, HandlerStats rhs) {
+				if (lhs.totalNanos == rhs.totalNanos) {
+					return 0;
+				}
+				return lhs.totalNanos > rhs.totalNanos ? -1 : 1;
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * 输出可读的统计报告
+	 * @param maxEntries 最多输出的Handler数量，小于等于0时输出全部
+	 * @return 统计报告，按照总耗时从大到小排列
+	 */
+	public String dump(int maxEntries) {
+		List<HandlerStats> list = getStats();
+		if (maxEntries <= 0 || maxEntries > list.size()) {
+			maxEntries = list.size();
+		}
+
+		StringBuilder builder = new StringBuilder();
+		builder.append("LooperProfiler: handlers=").append(list.size())
+				.append(", slowThreshold=").append(getSlowThresholdMillis()).append("ms\n");
+		builder.append(String.format(Locale.US, "%10s %10s %10s %10s %10s  %s%n",
+				"total(ms)", "count", "slow", "avg(ms)", "max(ms)", "handler"));
+		for (int i = 0; i < maxEntries; i++) {
+			HandlerStats stats = list.get(i);
+			builder.append(String.format(Locale.US, "%10.1f %10d %10d %10.3f %10.1f  %s",
+					stats.totalNanos / 1e6, stats.count, stats.slowCount,
+					stats.totalNanos / 1e6 / stats.count, stats.maxNanos / 1e6,
+					stats.handlerClass));
+			if (stats.callbackClass != null) {
+				builder.append(' ').append(stats.callbackClass);
+			}
+			builder.append('\n');
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * 记录一条消息的耗时，在主线程中调用
+	 * @param log 开始分发消息时Looper输出的日志
+	 * @param durationNanos 消息的耗时
+	 */
+	void record(String log, long durationNanos) {
+		if (!log.startsWith(DISPATCH_PREFIX)) {
+			return;
+		}
+
+		// 日志格式为">>>>> Dispatching to " + target + " " + callback + ": " + what
+		int end = log.lastIndexOf(": ");
+		if (end < 0) {
+			return;
+		}
+
+		int targetStart = DISPATCH_PREFIX.length();
+		int targetEnd;
+		int callbackStart;
+		if (log.startsWith(HANDLER_PREFIX, targetStart)) {
+			// Handler.toString()的格式为"Handler (" + 类名 + ") {" + 地址 + "}"
+			targetStart += HANDLER_PREFIX.length();
+			targetEnd = log.indexOf(')', targetStart);
+			callbackStart = log.indexOf(' ', log.indexOf('}', targetEnd) + 1) + 1;
+		} else {
+			// Handler的子类重写了toString()，以第一个空格之前的部分为准
+			targetEnd = log.indexOf(' ', targetStart);
+			callbackStart = targetEnd + 1;
+		}
+		if (targetEnd < 0 || callbackStart <= 0 || callbackStart > end) {
+			return;
+		}
+
+		// Runnable的默认toString()为类名 + "@" + 地址，去掉地址部分
+		int callbackEnd = log.lastIndexOf('@', end);
+		if (callbackEnd < callbackStart) {
+			callbackEnd = end;
+		}
+		if (callbackEnd - callbackStart == NULL_CALLBACK.length()
+				&& log.startsWith(NULL_CALLBACK, callbackStart)) {
+			callbackStart = callbackEnd = end;
+		}
+
+		int hash = hash(log, targetStart, targetEnd, callbackStart, callbackEnd);
+		Stripe stripe = mStripes[hash & (STRIPE_COUNT - 1)];
+		synchronized (stripe) {
+			Entry entry = stripe.get(hash, log, targetStart, targetEnd, callbackStart, callbackEnd);
+			entry.count++;
+			entry.totalNanos += durationNanos;
+			if (durationNanos > entry.maxNanos) {
+				entry.maxNanos = durationNanos;
+			}
+			if (durationNanos >= mSlowThresholdNanos) {
+				entry.slowCount++;
+			}
+		}
+	}
+
+	private static int hash(String s, int targetStart, int targetEnd,
+			int callbackStart, int callbackEnd) {
+		int h = 0;
+		for (int i = targetStart; i < targetEnd; i++) {
+			h = 31 * h + s.charAt(i);
+		}
+		h = 31 * h + '#';
+		for (int i = callbackStart; i < callbackEnd; i++) {
+			h = 31 * h + s.charAt(i);
+		}
+		// 与HashMap相同，混合高位以减少冲突
+		h ^= (h >>> 20) ^ (h >>> 12);
+		return h ^ (h >>> 7) ^ (h >>> 4);
+	}
+
+	/**
+	 * 散列表的一个分段，使用链地址法，由分段自身的锁保护
+	 */
+	private static final class Stripe {
+		private static final int INITIAL_CAPACITY = 16;
+
+		Entry[] table = new Entry[INITIAL_CAPACITY];
+		int size = 0;
+
+		Entry get(int hash, String s, int targetStart, int targetEnd,
+				int callbackStart, int callbackEnd) {
+			// 低位已经用于选择分段，桶的序号使用其余的位
+			int index = (hash >>> 3) & (table.length - 1);
+			for (Entry entry = table[index]; entry != null; entry = entry.next) {
+				if (entry.hash == hash
+						&& entry.matches(s, targetStart, targetEnd, callbackStart, callbackEnd)) {
+					return entry;
+				}
+			}
+
+			String handlerClass = s.substring(targetStart, targetEnd);
+			String callbackClass = callbackStart < callbackEnd
+					? s.substring(callbackStart, callbackEnd) : null;
+			Entry entry = new Entry(hash, handlerClass, callbackClass, table[index]);
+			table[index] = entry;
+			if (++size > table.length * 3 / 4) {
+				resize();
+			}
+			return entry;
+		}
+
+		void clear() {
+			table = new Entry[INITIAL_CAPACITY];
+			size = 0;
+		}
+
+		private void resize() {
+			Entry[] newTable = new Entry[table.length * 2];
+			for (Entry head : table) {
+				Entry entry = head;
+				while (entry != null) {
+					Entry next = entry.next;
+					int index = (entry.hash >>> 3) & (newTable.length - 1);
+					entry.next = newTable[index];
+					newTable[index] = entry;
+					entry = next;
+				}
+			}
+			table = newTable;
+		}
+	}
+
+	private static final class Entry {
+		final int hash;
+		final String handlerClass;
+		final String callbackClass;
+		Entry next;
+
+		long count;
+		long slowCount;
+		long totalNanos;
+		long maxNanos;
+
+		Entry(int hash, String handlerClass, String callbackClass, Entry next) {
+			this.hash = hash;
+			this.handlerClass = handlerClass;
+			this.callbackClass = callbackClass;
+			this.next = next;
+		}
+
+		boolean matches(String s, int targetStart, int targetEnd,
+				int callbackStart, int callbackEnd) {
+			int targetLength = targetEnd - targetStart;
+			if (handlerClass.length() != targetLength
+					|| !handlerClass.regionMatches(0, s, targetStart, targetLength)) {
+				return false;
+			}
+			int callbackLength = callbackEnd - callbackStart;
+			if (callbackClass == null) {
+				return callbackLength == 0;
+			}
+			return callbackClass.length() == callbackLength
+					&& callbackClass.regionMatches(0, s, callbackStart, callbackLength);
+		}
+	}
+
+	/**
+	 * 一个Handler（及其Runnable）的统计数据快照
+	 */
+	public static final class HandlerStats {
+		/** Handler的类名，Handler的子类重写了toString()时为其输出的第一部分 */
+		public final String handlerClass;
+		/** 通过post()发送的Runnable的类名，发送的是普通消息时为null */
+		public final String callbackClass;
+		/** 消息的数量 */
+		public final long count;
+		/** 耗时不小于慢消息阈值的消息数量 */
+		public final long slowCount;
+		/** 总耗时，单位为纳秒 */
+		public final long totalNanos;
+		/** 最大耗时，单位为纳秒 */
+		public final long maxNanos;
+
+		HandlerStats(Entry entry) {
+			this.handlerClass = entry.handlerClass;
+			this.callbackClass = entry.callbackClass;
+			this.count = entry.count;
+			this.slowCount = entry.slowCount;
+			this.totalNanos = entry.totalNanos;
+			this.maxNanos = entry.maxNanos;
+		}
+
+		@Override
+		public String toString() {
+			return handlerClass + (callbackClass != null ? " " + callbackClass : "")
+					+ ": count=" + count + ", slow=" + slowCount
+					+ ", total=" + totalNanos / 1000000L + "ms, max=" + maxNanos / 1000000L + "ms";
+		}
+	}
+}
@@ -0,0 +1,353 @@
+package com.imasson.droidshake.util.debug;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * <p>读取并解析/proc/meminfo的工具类</p>
+ * <p>解析文件中的全部字段，直接在重复使用的字节缓冲区中进行，不使用正则表达式或split()，
+ * 只有第一次遇到某个字段名时才会创建字符串。为了避免频繁读取，在{@link #getMaxStalenessMillis()}
+ * 毫秒之内的重复查询直接返回上一次读取的结果。</p>
+ * <p>单位为kB的字段在返回时换算为byte，其他字段（例如HugePages_Total）按照原值返回。
+ * 本类是线程安全的。</p>
+ *
+ * @see ShakeDiagnotor#getSystemTotalMemorySize()
+ */
+public class MemInfoReader {
+	private static final String TAG = "MemInfoReader";
+
+	/** 默认的meminfo文件路径 */
+	public static final String DEFAULT_PATH = "/proc/meminfo";
+	/** 默认的结果有效期，单位为毫秒 */
+	public static final long DEFAULT_MAX_STALENESS_MILLIS = 1000L;
+
+	public static final String MEM_TOTAL       = "MemTotal";
+	public static final String MEM_FREE        = "MemFree";
+	public static final String MEM_AVAILABLE   = "MemAvailable";
+	public static final String BUFFERS         = "Buffers";
+	public static final String CACHED          = "Cached";
+	public static final String SWAP_CACHED     = "SwapCached";
+	public static final String ACTIVE          = "Active";
+	public static final String INACTIVE        = "Inactive";
+	public static final String SWAP_TOTAL      = "SwapTotal";
+	public static final String SWAP_FREE       = "SwapFree";
+	public static final String DIRTY           = "Dirty";
+	public static final String SHMEM           = "Shmem";
+	public static final String SLAB            = "Slab";
+	public static final String S_RECLAIMABLE   = "SReclaimable";
+
+	/** meminfo一般在2KB以内，不够时缓冲区会自动扩大 */
+	private static final int INITIAL_BUFFER_SIZE = 4096;
+
+	private final String mPath;
+	private final long mMaxStalenessMillis;
+
+	private RandomAccessFile mFile = null;
+	private byte[] mBuffer = new byte[INITIAL_BUFFER_SIZE];
+	private int mBufferLength = 0;
+
+	/** 按照文件中出现的顺序保存的字段，字段的顺序一般不会变化 */
+	private String[] mNames = new String[0];
+	private long[] mValues = new long[0];
+	private int mFieldCount = 0;
+	private long mLastReadTime = 0L;
+	private boolean mValid = false;
+	private long mReadCount = 0L;
+
+	/**
+	 * 使用默认的路径和有效期创建对象
+	 */
+	public MemInfoReader() {
+		this(DEFAULT_PATH, DEFAULT_MAX_STALENESS_MILLIS);
+	}
+
+	/**
+	 * @param path meminfo文件的路径，主要用于测试
+	 * @param maxStalenessMillis 结果的有效期，单位为毫秒，为0时每次查询都重新读取
+	 */
+	public MemInfoReader(String path, long maxStalenessMillis) {
+		if (maxStalenessMillis < 0L) {
+			Log.w(TAG, "Invalid max staleness: " + maxStalenessMillis + ", use 0 instead.");
+			maxStalenessMillis = 0L;
+		}
+		mPath = path;
+		mMaxStalenessMillis = maxStalenessMillis;
+	}
+
+	public long getMaxStalenessMillis() {
+		return mMaxStalenessMillis;
+	}
+
+	/**
+	 * 结果超过有效期时重新读取文件
+	 * @return 当前是否有可用的结果
+	 */
+	public synchronized boolean update() {
+		if (mValid && SystemClock.uptimeMillis() - mLastReadTime < mMaxStalenessMillis) {
+			return true;
+		}
+		return read();
+	}
+
+	/**
+	 * 不论结果是否过期，立即重新读取文件
+	 * @return 是否读取成功
+	 */
+	public synchronized boolean read() {
+		try {
+			if (mFile == null) {
+				mFile = new RandomAccessFile(new File(mPath), "r");
+			}
+			readFully();
+			parse();
+			mReadCount++;
+			mLastReadTime = SystemClock.uptimeMillis();
+			mValid = mFieldCount > 0;
+			return mValid;
+		} catch (IOException e) {
+			Log.w(TAG, "IOException at read()", e);
+			close();
+			return false;
+		}
+	}
+
+	/**
+	 * 获取指定字段的值，结果超过有效期时先重新读取文件
+	 * @param name 字段名，例如{@link #MEM_AVAILABLE}
+	 * @return 字段的值，单位为kB的字段换算为byte，字段不存在或读取失败时返回-1
+	 */
+	public synchronized long getValue(String name) {
+		if (name == null) {
+			Log.w(TAG, "Argument 'name' is null at getValue()");
+			return -1L;
+		}
+		if (!update()) {
+			return -1L;
+		}
+		return findValue(name);
+	}
+
+	/**
+	 * @return 系统总内存，单位为byte，读取失败时返回-1
+	 */
+	public long getTotalSize() {
+		return getValue(MEM_TOTAL);
+	}
+
+	/**
+	 * @return 系统完全空闲的内存，单位为byte，读取失败时返回-1
+	 */
+	public long getFreeSize() {
+		return getValue(MEM_FREE);
+	}
+
+	/**
+	 * <p>获取系统可用内存，即不需要交换就能分配给新程序的内存</p>
+	 * <p>Linux 3.14之前的内核没有MemAvailable字段，此时以MemFree、Buffers与Cached之和估算。</p>
+	 * @return 可用内存，单位为byte，读取失败时返回-1
+	 */
+	public synchronized long getAvailableSize() {
+		if (!update()) {
+			return -1L;
+		}
+		// 全部字段都取自同一次读取的结果
+		long available = findValue(MEM_AVAILABLE);
+		if (available >= 0L) {
+			return available;
+		}
+
+		long free = findValue(MEM_FREE);
+		long buffers = findValue(BUFFERS);
+		long cached = findValue(CACHED);
+		if (free < 0L) {
+			return -1L;
+		}
+		return free + Math.max(0L, buffers) + Math.max(0L, cached);
+	}
+
+	/**
+	 * @return 页缓存占用的内存，单位为byte，读取失败时返回-1
+	 */
+	public long getCachedSize() {
+		return getValue(CACHED);
+	}
+
+	/**
+	 * @return 交换空间的总大小，单位为byte，读取失败时返回-1
+	 */
+	public long getSwapTotalSize() {
+		return getValue(SWAP_TOTAL);
+	}
+
+	/**
+	 * @return 交换空间的剩余大小，单位为byte，读取失败时返回-1
+	 */
+	public long getSwapFreeSize() {
+		return getValue(SWAP_FREE);
+	}
+
+	/**
+	 * 获取字段的数量，用于遍历全部字段，结果超过有效期时先重新读取文件
+	 * @return 字段的数量，读取失败时返回0
+	 */
+	public synchronized int getFieldCount() {
+		return update() ? mFieldCount : 0;
+	}
+
+	/**
+	 * @param index 字段的序号，按照在文件中出现的顺序
+	 * @return 字段名
+	 */
+	public synchronized String getFieldName(int index) {
+		checkIndex(index);
+		return mNames[index];
+	}
+
+	/**
+	 * @param index 字段的序号，按照在文件中出现的顺序
+	 * @return 字段的值，单位为kB的字段换算为byte
+	 */
+	public synchronized long getFieldValue(int index) {
+		checkIndex(index);
+		return mValues[index];
+	}
+
+	/**
+	 * @return 实际读取文件的次数
+	 */
+	public synchronized long getReadCount() {
+		return mReadCount;
+	}
+
+	/**
+	 * 关闭打开的文件，之后仍然可以继续使用
+	 */
+	public synchronized void close() {
+		if (mFile != null) {
+			try {
+				mFile.close();
+			} catch (IOException e) {}
+			mFile = null;
+		}
+		mValid = false;
+	}
+
+	/**
+	 * 在当前的结果中查找字段，不会重新读取文件
+	 */
+	private long findValue(String name) {
+		for (int i = 0; i < mFieldCount; i++) {
+			if (name.equals(mNames[i])) {
+				return mValues[i];
+			}
+		}
+		return -1L;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= mFieldCount) {
+			throw new IndexOutOfBoundsException("index=" + index + ", count=" + mFieldCount);
+		}
+	}
+
+	private void readFully() throws IOException {
+		// proc文件在seek到开头之后重新读取即可得到最新的数据
+		mFile.seek(0L);
+		int length = 0;
+		int count;
+		while ((count = mFile.read(mBuffer, length, mBuffer.length - length)) > 0) {
+			length += count;
+			if (length == mBuffer.length) {
+				byte[] buffer = new byte[mBuffer.length * 2];
+				System.arraycopy(mBuffer, 0, buffer, 0, length);
+				mBuffer = buffer;
+			}
+		}
+		mBufferLength = length;
+	}
+
+	/**
+	 * 逐行解析"Name:    value kB"格式的内容
+	 */
+	private void parse() {
+		byte[] buffer = mBuffer;
+		int end = mBufferLength;
+		int position = 0;
+		int field = 0;
+
+		while (position < end) {
+			int nameStart = position;
+			while (position < end && buffer[position] != ':' && buffer[position] != '\n') {
+				position++;
+			}
+			if (position == end || buffer[position] == '\n') {
+				// 不是合法的字段，跳过这一行
+				position++;
+				continue;
+			}
+			int nameEnd = position++;
+
+			while (position < end && buffer[position] == ' ') {
+				position++;
+			}
+			long value = 0L;
+			boolean hasDigit = false;
+			while (position < end && buffer[position] >= '0' && buffer[position] <= '9') {
+				value = value * 10L + (buffer[position] - '0');
+				position++;
+				hasDigit = true;
+			}
+			while (position < end && buffer[position] == ' ') {
+				position++;
+			}
+			if (position + 1 < end && buffer[position] == 'k' && buffer[position + 1] == 'B') {
+				value *= 1024L;
+			}
+			while (position < end && buffer[position] != '\n') {
+				position++;
+			}
+			position++;
+
+			if (hasDigit) {
+				setField(field++, nameStart, nameEnd, value);
+			}
+		}
+		mFieldCount = field;
+	}
+
+	private void setField(int index, int nameStart, int nameEnd, long value) {
+		// 字段的顺序一般不变，优先检查同一位置上的字段名
+		if (index < mNames.length && nameEquals(mNames[index], nameStart, nameEnd)) {
+			mValues[index] = value;
+			return;
+		}
+
+		if (index >= mNames.length) {
+			int capacity = Math.max(16, mNames.length * 2);
+			String[] names = new String[capacity];
+			System.arraycopy(mNames, 0, names, 0, mNames.length);
+			long[] values = new long[capacity];
+			System.arraycopy(mValues, 0, values, 0, mValues.length);
+			mNames = names;
+			mValues = values;
+		}
+		mNames[index] = new String(mBuffer, nameStart, nameEnd - nameStart);
+		mValues[index] = value;
+	}
+
+	private boolean nameEquals(String name, int start, int end) {
+		if (name == null || name.length() != end - start) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (name.charAt(i) != mBuffer[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
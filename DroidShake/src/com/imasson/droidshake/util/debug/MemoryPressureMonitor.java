@@ -0,0 +1,421 @@
+package com.imasson.droidshake.util.debug;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * <p>监测内存压力并通知监听者的工具类</p>
+ * <p>内存压力分为{@link #LEVEL_NONE}、{@link #LEVEL_MODERATE}、{@link #LEVEL_HIGH}和
+ * {@link #LEVEL_CRITICAL}四个等级，来源有两个：</p>
+ * <ul>
+ * <li>系统的onTrimMemory()和onLowMemory()回调。API Level 14及以上的系统中自动通过反射注册
+ * ComponentCallbacks2，更早的系统中可以在Application中调用{@link #onLowMemory()}转发；</li>
+ * <li>后台线程定时采样Java堆的使用比例和系统可用内存的比例。采样得到的等级带有滞后，
+ * 升级立即生效，降级需要指标回落到阈值以下{@link #HYSTERESIS}，避免在阈值附近反复通知。</li>
+ * </ul>
+ * <p>监听者以弱引用保存，不需要手动移除，所有的通知都在监测线程中进行。
+ * 监听者可以根据{@link #getTrimRatio(int)}按比例缩小缓存。</p>
+ *
+ * @see ShakeDiagnotor#getMemoryPressureMonitor()
+ */
+public class MemoryPressureMonitor {
+	private static final String TAG = "MemoryPressureMonitor";
+
+	public static final int LEVEL_NONE      = 0;
+	public static final int LEVEL_MODERATE  = 1;
+	public static final int LEVEL_HIGH      = 2;
+	public static final int LEVEL_CRITICAL  = 3;
+	private static final int LEVEL_COUNT    = 4;
+
+	/** 默认的采样间隔，单位为毫秒 */
+	public static final long DEFAULT_INTERVAL_MILLIS = 5000L;
+
+	/** 降级时指标需要低于阈值的幅度 */
+	public static final float HYSTERESIS = 0.05f;
+
+	/** 各等级对应的Java堆使用比例（已使用/最大可用）的阈值 */
+	private static final float[] HEAP_THRESHOLDS = { 0f, 0.70f, 0.85f, 0.95f };
+	/** 各等级对应的系统内存紧张程度（1 - 可用/总内存）的阈值 */
+	private static final float[] SYSTEM_THRESHOLDS = { 0f, 0.85f, 0.90f, 0.95f };
+
+	// 与ComponentCallbacks2中的常量相同，API Level 8中不存在
+	private static final int TRIM_MEMORY_RUNNING_MODERATE = 5;
+	private static final int TRIM_MEMORY_RUNNING_LOW = 10;
+	private static final int TRIM_MEMORY_RUNNING_CRITICAL = 15;
+	private static final int TRIM_MEMORY_UI_HIDDEN = 20;
+	private static final int TRIM_MEMORY_MODERATE = 60;
+	private static final int TRIM_MEMORY_COMPLETE = 80;
+
+	/**
+	 * 内存压力的监听接口
+	 */
+	public interface Listener {
+		/**
+		 * 内存压力的等级发生变化，或者收到了系统的内存回调，在监测线程中回调
+		 * @param level 当前的压力等级，为LEVEL_*常量之一
+		 * @param trimRatio 建议缩小缓存的比例，范围为0~1
+		 */
+		void onMemoryPressure(int level, float trimRatio);
+	}
+
+	private final Context mContext;
+	private final long mIntervalMillis;
+	private final MemInfoReader mMemInfoReader;
+
+	private final List<WeakReference<Listener>> mListeners = new ArrayList<WeakReference<Listener>>();
+	private final long[] mLevelCounts = new long[LEVEL_COUNT];
+
+	private HandlerThread mThread = null;
+	private Handler mHandler = null;
+	private Object mComponentCallbacks = null;
+
+	// 以下字段只在监测线程中访问
+	private int mHeapLevel = LEVEL_NONE;
+	private int mSystemLevel = LEVEL_NONE;
+	private volatile int mLevel = LEVEL_NONE;
+
+	private final Runnable mSampleRunnable = new Runnable() {
+		@Override
+		public void run() {
+			sampleOnce();
+			Handler handler = mHandler;
+			if (handler != null) {
+				handler.postDelayed(this, mIntervalMillis);
+			}
+		}
+	};
+
+	/**
+	 * 使用默认的采样间隔创建对象
+	 * @param context 上下文对象，不能为空
+	 */
+	public MemoryPressureMonitor(Context context) {
+		this(context, DEFAULT_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * @param context 上下文对象，不能为空
+	 * @param intervalMillis 采样间隔，单位为毫秒，小于等于0时使用默认值
+	 */
+	public MemoryPressureMonitor(Context context, long intervalMillis) {
+		if (intervalMillis <= 0L) {
+			Log.w(TAG, "Invalid interval: " + intervalMillis + ", use default value.");
+			intervalMillis = DEFAULT_INTERVAL_MILLIS;
+		}
+		mContext = context.getApplicationContext();
+		mIntervalMillis = intervalMillis;
+		mMemInfoReader = new MemInfoReader(MemInfoReader.DEFAULT_PATH, 0L);
+	}
+
+	/**
+	 * 开始监测
+	 * @return 是否开始了监测，已经在监测时返回false
+	 */
+	public synchronized boolean start() {
+		if (mThread != null) {
+			return false;
+		}
+
+		mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		mThread.start();
+		mHandler = new Handler(mThread.getLooper());
+		mHandler.post(mSampleRunnable);
+		registerComponentCallbacks();
+		return true;
+	}
+
+	/**
+	 * 停止监测，已经注册的监听者仍然保留
+	 */
+	public synchronized void stop() {
+		if (mThread == null) {
+			return;
+		}
+
+		unregisterComponentCallbacks();
+		final Handler handler = mHandler;
+		mHandler = null;
+		handler.removeCallbacks(mSampleRunnable);
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				mMemInfoReader.close();
+				Looper.myLooper().quit();
+			}
+		});
+		mThread = null;
+	}
+
+	public synchronized boolean isRunning() {
+		return mThread != null;
+	}
+
+	/**
+	 * 注册监听者，以弱引用保存
+	 * @param listener 监听者
+	 */
+	public void addListener(Listener listener) {
+		if (listener == null) {
+			Log.w(TAG, "Argument 'listener' is null at addListener()");
+			return;
+		}
+
+		synchronized (mListeners) {
+			for (WeakReference<Listener> reference : mListeners) {
+				if (reference.get() == listener) {
+					return;
+				}
+			}
+			mListeners.add(new WeakReference<Listener>(listener));
+		}
+	}
+
+	/**
+	 * 移除监听者
+	 * @param listener 监听者
+	 */
+	public void removeListener(Listener listener) {
+		synchronized (mListeners) {
+			for (int i = mListeners.size() - 1; i >= 0; i--) {
+				Listener item = mListeners.get(i).get();
+				if (item == null || item == listener) {
+					mListeners.remove(i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return 当前的内存压力等级，为LEVEL_*常量之一
+	 */
+	public int getLevel() {
+		return mLevel;
+	}
+
+	/**
+	 * 获取指定等级的通知次数
+	 * @param level 压力等级，为LEVEL_*常量之一
+	 * @return 通知的次数，等级无效时返回0
+	 */
+	public long getLevelCount(int level) {
+		if (level < 0 || level >= LEVEL_COUNT) {
+			return 0L;
+		}
+		synchronized (mLevelCounts) {
+			return mLevelCounts[level];
+		}
+	}
+
+	/**
+	 * 获取压力等级对应的建议缩小缓存的比例
+	 * @param level 压力等级，为LEVEL_*常量之一
+	 * @return 比例，范围为0~1
+	 */
+	public static float getTrimRatio(int level) {
+		switch (level) {
+		case LEVEL_MODERATE:
+			return 0.25f;
+		case LEVEL_HIGH:
+			return 0.5f;
+		case LEVEL_CRITICAL:
+			return 1f;
+		default:
+			return 0f;
+		}
+	}
+
+	/**
+	 * 转发系统的onTrimMemory()回调，在API Level 14及以上的系统中已经自动注册，不需要手动调用
+	 * @param trimLevel ComponentCallbacks2中的TRIM_MEMORY_*常量
+	 */
+	public void onTrimMemory(int trimLevel) {
+		int level;
+		if (trimLevel >= TRIM_MEMORY_COMPLETE) {
+			level = LEVEL_CRITICAL;
+		} else if (trimLevel >= TRIM_MEMORY_MODERATE) {
+			level = LEVEL_HIGH;
+		} else if (trimLevel >= TRIM_MEMORY_UI_HIDDEN) {
+			// 包括TRIM_MEMORY_BACKGROUND，界面已经不可见，适度释放即可
+			level = LEVEL_MODERATE;
+		} else if (trimLevel >= TRIM_MEMORY_RUNNING_CRITICAL) {
+			level = LEVEL_CRITICAL;
+		} else if (trimLevel >= TRIM_MEMORY_RUNNING_LOW) {
+			level = LEVEL_HIGH;
+		} else if (trimLevel >= TRIM_MEMORY_RUNNING_MODERATE) {
+			level = LEVEL_MODERATE;
+		} else {
+			return;
+		}
+		postSystemLevel(level);
+	}
+
+	/**
+	 * 转发系统的onLowMemory()回调，在API Level 14以下的系统中需要在Application中手动调用
+	 */
+	public void onLowMemory() {
+		postSystemLevel(LEVEL_CRITICAL);
+	}
+
+	private void postSystemLevel(final int level) {
+		Handler handler;
+		synchronized (this) {
+			handler = mHandler;
+		}
+		if (handler == null) {
+			return;
+		}
+
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				// 系统回调是一次性的事件，即使等级没有变化也要通知
+				int current = Math.max(level, Math.max(mHeapLevel, mSystemLevel));
+				mLevel = current;
+				notifyListeners(current);
+			}
+		});
+	}
+
+	/**
+	 * 在监测线程中采样一次，等级变化时通知监听者
+	 */
+	private void sampleOnce() {
+		Runtime runtime = Runtime.getRuntime();
+		float heapRatio = (float) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
+		mHeapLevel = computeLevel(mHeapLevel, heapRatio, HEAP_THRESHOLDS);
+
+		long total = mMemInfoReader.getTotalSize();
+		long available = mMemInfoReader.getAvailableSize();
+		if (total > 0L && available >= 0L) {
+			float systemRatio = 1f - (float) available / total;
+			mSystemLevel = computeLevel(mSystemLevel, systemRatio, SYSTEM_THRESHOLDS);
+		}
+
+		int level = Math.max(mHeapLevel, mSystemLevel);
+		if (level != mLevel) {
+			mLevel = level;
+			notifyListeners(level);
+		}
+	}
+
+	/**
+	 * 根据指标计算带滞后的等级：升级立即生效，降级需要指标低于当前等级的阈值{@link #HYSTERESIS}
+	 */
+	static int computeLevel(int current, float ratio, float[] thresholds) {
+		int level = LEVEL_NONE;
+		for (int i = thresholds.length - 1; i > LEVEL_NONE; i--) {
+			if (ratio >= thresholds[i]) {
+				level = i;
+				break;
+			}
+		}
+		if (level >= current) {
+			return level;
+		}
+
+		if (ratio >= thresholds[current] - HYSTERESIS) {
+			// 还没有回落到足够低，保持在这一级
+			return current;
+		}
+		return level;
+	}
+
+	private void notifyListeners(int level) {
+		synchronized (mLevelCounts) {
+			mLevelCounts[level]++;
+		}
+
+		float trimRatio = getTrimRatio(level);
+		Listener[] listeners;
+		synchronized (mListeners) {
+			List<Listener> alive = new ArrayList<Listener>(mListeners.size());
+			for (int i = mListeners.size() - 1; i >= 0; i--) {
+				Listener listener = mListeners.get(i).get();
+				if (listener == null) {
+					mListeners.remove(i);
+				} else {
+					alive.add(listener);
+				}
+			}
+			listeners = alive.toArray(new Listener[alive.size()]);
+		}
+
+		Log.i(TAG, "Memory pressure level: " + level + ", listeners: " + listeners.length);
+		for (Listener listener : listeners) {
+			try {
+				listener.onMemoryPressure(level, trimRatio);
+			} catch (RuntimeException e) {
+				Log.w(TAG, "Exception at onMemoryPressure() of " + listener, e);
+			}
+		}
+	}
+
+	/**
+	 * 通过反射和动态代理注册ComponentCallbacks2，API Level 14以下的系统中不做任何事情
+	 */
+	private void registerComponentCallbacks() {
+		try {
+			Class<?> callbacksClass = Class.forName("android.content.ComponentCallbacks2");
+			Method register = Context.class.getMethod("registerComponentCallbacks",
+					Class.forName("android.content.ComponentCallbacks"));
+			Object callbacks = Proxy.newProxyInstance(callbacksClass.getClassLoader(),
+					new Class<?>[] { callbacksClass }, new ComponentCallbacksHandler());
+			register.invoke(mContext, callbacks);
+			mComponentCallbacks = callbacks;
+		} catch (ClassNotFoundException e) {
+			Log.i(TAG, "ComponentCallbacks2 is not supported, call onLowMemory() manually.");
+		} catch (NoSuchMethodException e) {
+			Log.i(TAG, "registerComponentCallbacks() is not supported, call onLowMemory() manually.");
+		} catch (Exception e) {
+			Log.w(TAG, "Exception at registerComponentCallbacks()", e);
+		}
+	}
+
+	private void unregisterComponentCallbacks() {
+		if (mComponentCallbacks == null) {
+			return;
+		}
+
+		try {
+			Method unregister = Context.class.getMethod("unregisterComponentCallbacks",
+					Class.forName("android.content.ComponentCallbacks"));
+			unregister.invoke(mContext, mComponentCallbacks);
+		} catch (Exception e) {
+			Log.w(TAG, "Exception at unregisterComponentCallbacks()", e);
+		}
+		mComponentCallbacks = null;
+	}
+
+	/**
+	 * 通过动态代理实现ComponentCallbacks2接口
+	 */
+	private final class ComponentCallbacksHandler implements InvocationHandler {
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("onTrimMemory".equals(name)) {
+				onTrimMemory((Integer) args[0]);
+			} else if ("onLowMemory".equals(name)) {
+				onLowMemory();
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("toString".equals(name)) {
+				return TAG + "$ComponentCallbacks";
+			}
+			return null;
+		}
+	}
+}
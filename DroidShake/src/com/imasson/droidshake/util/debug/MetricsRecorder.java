@@ -0,0 +1,242 @@
+package com.imasson.droidshake.util.debug;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.imasson.droidshake.util.FileUtils;
+
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * <p>在后台线程中定时采集程序运行指标的记录器</p>
+ * <p>每次采样记录以下指标，保存在{@link SampleRingBuffer}中，采样过程中不创建新的对象：</p>
+ * <ul>
+ * <li>{@link #METRIC_CPU_RATE} 当前进程的CPU占用率，单位为0.01%；</li>
+ * <li>{@link #METRIC_PSS} 当前进程的PSS内存，单位为byte；</li>
+ * <li>{@link #METRIC_JAVA_HEAP} Java堆已使用的内存，单位为byte；</li>
+ * <li>{@link #METRIC_NATIVE_HEAP} Native堆已分配的内存，单位为byte；</li>
+ * <li>{@link #METRIC_SYSTEM_AVAILABLE} 系统可用内存，单位为byte。</li>
+ * </ul>
+ * <p>系统内存通过{@link MemInfoReader}读取/proc/meminfo，采样过程中没有跨进程调用。</p>
+ * <p>注意：统计PSS需要读取/proc/self/smaps，耗时可能达到数毫秒，因此采样间隔不宜过短。</p>
+ *
+ * @see ShakeDiagnotor#startRecording(long, int)
+ */
+public class MetricsRecorder {
+	private static final String TAG = "MetricsRecorder";
+
+	public static final int METRIC_CPU_RATE          = 0;
+	public static final int METRIC_PSS               = 1;
+	public static final int METRIC_JAVA_HEAP         = 2;
+	public static final int METRIC_NATIVE_HEAP       = 3;
+	public static final int METRIC_SYSTEM_AVAILABLE  = 4;
+	public static final int METRIC_COUNT             = 5;
+
+	/** 默认的采样间隔，单位为毫秒 */
+	public static final long DEFAULT_INTERVAL_MILLIS = 1000L;
+	/** 默认最多保存的采样点数量，配合默认的采样间隔可以保存最近10分钟的数据 */
+	public static final int DEFAULT_CAPACITY = 600;
+
+	/** 二进制文件的标识，即"DSMR"的ASCII码 */
+	private static final int DUMP_MAGIC = 0x44534D52;
+	private static final int DUMP_VERSION = 1;
+
+	private final long mIntervalMillis;
+	private final SampleRingBuffer mBuffer;
+
+	private SamplingTask mTask = null;
+
+	/**
+	 * 使用默认的采样间隔和容量创建记录器
+	 */
+	public MetricsRecorder() {
+		this(DEFAULT_INTERVAL_MILLIS, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param intervalMillis 采样间隔，单位为毫秒，小于等于0时使用默认值
+	 * @param capacity 最多保存的采样点数量，小于等于0时使用默认值
+	 */
+	public MetricsRecorder(long intervalMillis, int capacity) {
+		if (intervalMillis <= 0L) {
+			Log.w(TAG, "Invalid interval: " + intervalMillis + ", use default value.");
+			intervalMillis = DEFAULT_INTERVAL_MILLIS;
+		}
+		if (capacity <= 0) {
+			Log.w(TAG, "Invalid capacity: " + capacity + ", use default value.");
+			capacity = DEFAULT_CAPACITY;
+		}
+		mIntervalMillis = intervalMillis;
+		mBuffer = new SampleRingBuffer(METRIC_COUNT, capacity);
+	}
+
+	/**
+	 * 开始采样，采样在一个低优先级的后台线程中进行
+	 * @return 是否启动了采样，已经在采样时返回false
+	 */
+	public synchronized boolean start() {
+		if (mTask != null) {
+			return false;
+		}
+
+		mTask = new SamplingTask();
+		mTask.start();
+		return true;
+	}
+
+	/**
+	 * 停止采样，已经记录的数据仍然保留
+	 */
+	public synchronized void stop() {
+		if (mTask == null) {
+			return;
+		}
+
+		mTask.quit();
+		mTask = null;
+	}
+
+	/**
+	 * @return 是否正在采样
+	 */
+	public synchronized boolean isRunning() {
+		return mTask != null;
+	}
+
+	public long getIntervalMillis() {
+		return mIntervalMillis;
+	}
+
+	/**
+	 * @return 保存采样数据的缓冲区，各通道的序号为METRIC_*常量
+	 */
+	public SampleRingBuffer getSamples() {
+		return mBuffer;
+	}
+
+	/**
+	 * 统计指定指标在缓冲区内的最小值、最大值、平均值和百分位数
+	 * @param metric 指标的序号，为METRIC_*常量之一
+	 * @return 统计结果，没有有效的数据时返回null
+	 */
+	public SampleRingBuffer.Summary getSummary(int metric) {
+		return mBuffer.getSummary(metric);
+	}
+
+	/**
+	 * <p>以紧凑的二进制格式把所有采样数据写入文件，供离线分析</p>
+	 * <p>格式为：int 标识"DSMR"，int 版本号，long 采样间隔，
+	 * 然后是{@link SampleRingBuffer#writeTo(DataOutputStream)}的输出。所有数值均为大端序。</p>
+	 * @param file 目标文件，已经存在时将被覆盖
+	 * @return 是否写入成功
+	 */
+	public boolean dump(File file) {
+		if (file == null) {
+			Log.w(TAG, "Argument 'file' is null at dump()");
+			return false;
+		}
+
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(file), FileUtils.DEFAULT_BUFFER_SIZE));
+			out.writeInt(DUMP_MAGIC);
+			out.writeInt(DUMP_VERSION);
+			out.writeLong(mIntervalMillis);
+			mBuffer.writeTo(out);
+			out.flush();
+			return true;
+		} catch (IOException e) {
+			Log.w(TAG, "IOException at dump()", e);
+			return false;
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	/**
+	 * <p>一次启动对应的采样任务，拥有独立的采样线程</p>
+	 * <p>采样时使用的对象只在采样线程中访问，每次采样重复使用。</p>
+	 */
+	private final class SamplingTask implements Runnable {
+		private final HandlerThread mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		private Handler mHandler;
+		private long mNextSampleTime;
+		private volatile boolean mQuit = false;
+
+		private final long[] mSample = new long[METRIC_COUNT];
+		private final CpuSampler mCpuSampler = new CpuSampler();
+		private final Debug.MemoryInfo mMemoryInfo = new Debug.MemoryInfo();
+		private final MemInfoReader mMemInfoReader = new MemInfoReader(MemInfoReader.DEFAULT_PATH, 0L);
+
+		void start() {
+			mThread.start();
+			mHandler = new Handler(mThread.getLooper());
+			mNextSampleTime = SystemClock.uptimeMillis();
+			mHandler.post(this);
+		}
+
+		void quit() {
+			mQuit = true;
+			mHandler.removeCallbacks(this);
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					mCpuSampler.close();
+					mMemInfoReader.close();
+					Looper.myLooper().quit();
+				}
+			});
+		}
+
+		@Override
+		public void run() {
+			if (mQuit) {
+				return;
+			}
+			sampleOnce();
+
+			// 按照固定的节奏安排下一次采样，避免采样耗时造成的累积偏移
+			long now = SystemClock.uptimeMillis();
+			mNextSampleTime += mIntervalMillis;
+			if (mNextSampleTime <= now) {
+				mNextSampleTime = now + mIntervalMillis;
+			}
+			mHandler.postAtTime(this, mNextSampleTime);
+		}
+
+		private void sampleOnce() {
+			long[] sample = mSample;
+
+			if (mCpuSampler.sample() && mCpuSampler.hasDelta()) {
+				sample[METRIC_CPU_RATE] = Math.round(mCpuSampler.getProcessCpuRate() * 100f);
+			} else {
+				sample[METRIC_CPU_RATE] = -1L;
+			}
+
+			Debug.getMemoryInfo(mMemoryInfo);
+			sample[METRIC_PSS] = mMemoryInfo.getTotalPss() * 1024L;
+
+			Runtime runtime = Runtime.getRuntime();
+			sample[METRIC_JAVA_HEAP] = runtime.totalMemory() - runtime.freeMemory();
+			sample[METRIC_NATIVE_HEAP] = Debug.getNativeHeapAllocatedSize();
+
+			sample[METRIC_SYSTEM_AVAILABLE] = mMemInfoReader.getAvailableSize();
+
+			mBuffer.add(System.currentTimeMillis(), sample);
+		}
+	}
+}
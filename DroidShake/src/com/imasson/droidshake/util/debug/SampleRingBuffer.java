@@ -0,0 +1,218 @@
+package com.imasson.droidshake.util.debug;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import android.util.Log;
+
+/**
+ * <p>保存定时采样数据的环形缓冲区</p>
+ * <p>每个采样点包含一个时间戳和若干个通道的long数值，全部保存在预先分配的基本类型数组中，
+ * 添加采样点时不会创建任何对象。缓冲区满了之后，新的采样点将覆盖最旧的采样点。</p>
+ * <p>数值小于0表示该通道在这次采样中失败，统计时将被忽略。本类是线程安全的。</p>
+ *
+ * @see MetricsRecorder
+ */
+public class SampleRingBuffer {
+	private static final String TAG = "SampleRingBuffer";
+
+	private final int mChannelCount;
+	private final int mCapacity;
+	private final long[] mTimestamps;
+	/** 按照采样点的顺序保存各个通道的数值，每个采样点占用mChannelCount个元素 */
+	private final long[] mValues;
+	/** 计算百分位数时用于排序的临时数组 */
+	private final long[] mScratch;
+
+	private int mNext = 0;
+	private int mSize = 0;
+	private long mTotalCount = 0L;
+
+	/**
+	 * @param channelCount 每个采样点的通道数量，至少为1
+	 * @param capacity 最多保存的采样点数量，至少为1
+	 */
+	public SampleRingBuffer(int channelCount, int capacity) {
+		if (channelCount < 1) {
+			Log.w(TAG, "Invalid channel count: " + channelCount + ", use 1 instead.");
+			channelCount = 1;
+		}
+		if (capacity < 1) {
+			Log.w(TAG, "Invalid capacity: " + capacity + ", use 1 instead.");
+			capacity = 1;
+		}
+		mChannelCount = channelCount;
+		mCapacity = capacity;
+		mTimestamps = new long[capacity];
+		mValues = new long[capacity * channelCount];
+		mScratch = new long[capacity];
+	}
+
+	/**
+	 * 添加一个采样点，缓冲区已满时覆盖最旧的采样点
+	 * @param timestamp 采样的时间
+	 * @param values 各个通道的数值，长度不能小于通道数量，多余的部分将被忽略
+	 */
+	public synchronized void add(long timestamp, long[] values) {
+		mTimestamps[mNext] = timestamp;
+		System.arraycopy(values, 0, mValues, mNext * mChannelCount, mChannelCount);
+
+		mNext = (mNext + 1) % mCapacity;
+		if (mSize < mCapacity) {
+			mSize++;
+		}
+		mTotalCount++;
+	}
+
+	/**
+	 * 清除所有的采样点
+	 */
+	public synchronized void clear() {
+		mNext = 0;
+		mSize = 0;
+		mTotalCount = 0L;
+	}
+
+	/**
+	 * @return 当前保存的采样点数量
+	 */
+	public synchronized int size() {
+		return mSize;
+	}
+
+	/**
+	 * @return 添加过的采样点总数，包括已经被覆盖的采样点
+	 */
+	public synchronized long getTotalCount() {
+		return mTotalCount;
+	}
+
+	public int getCapacity() {
+		return mCapacity;
+	}
+
+	public int getChannelCount() {
+		return mChannelCount;
+	}
+
+	/**
+	 * @param index 采样点的序号，0为最旧的采样点
+	 * @return 采样的时间
+	 */
+	public synchronized long getTimestamp(int index) {
+		checkIndex(index);
+		return mTimestamps[physicalIndex(index)];
+	}
+
+	/**
+	 * @param index 采样点的序号，0为最旧的采样点
+	 * @param channel 通道的序号
+	 * @return 该通道的数值
+	 */
+	public synchronized long getValue(int index, int channel) {
+		checkIndex(index);
+		if (channel < 0 || channel >= mChannelCount) {
+			throw new IndexOutOfBoundsException("channel=" + channel + ", count=" + mChannelCount);
+		}
+		return mValues[physicalIndex(index) * mChannelCount + channel];
+	}
+
+	/**
+	 * <p>统计指定通道的最小值、最大值、平均值和百分位数</p>
+	 * @param channel 通道的序号
+	 * @return 统计结果，没有有效的数值时返回null
+	 */
+	public synchronized Summary getSummary(int channel) {
+		if (channel < 0 || channel >= mChannelCount) {
+			Log.w(TAG, "Invalid channel: " + channel + " at getSummary()");
+			return null;
+		}
+
+		int count = 0;
+		long sum = 0L;
+		for (int i = 0; i < mSize; i++) {
+			long value = mValues[i * mChannelCount + channel];
+			if (value >= 0L) {
+				mScratch[count++] = value;
+				sum += value;
+			}
+		}
+		if (count == 0) {
+			return null;
+		}
+
+		Arrays.sort(mScratch, 0, count);
+		return new Summary(count, mScratch[0], mScratch[count - 1], sum / count,
+				percentile(mScratch, count, 50), percentile(mScratch, count, 90),
+				percentile(mScratch, count, 99));
+	}
+
+	/**
+	 * <p>以二进制的形式按照时间顺序写出所有的采样点</p>
+	 * <p>格式为：int 采样点数量，int 通道数量，然后是每个采样点的 long 时间戳和各通道的 long 数值。</p>
+	 * @param out 输出流
+	 * @throws IOException 写出失败
+	 */
+	public synchronized void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(mSize);
+		out.writeInt(mChannelCount);
+		for (int i = 0; i < mSize; i++) {
+			int physical = physicalIndex(i);
+			out.writeLong(mTimestamps[physical]);
+			int offset = physical * mChannelCount;
+			for (int channel = 0; channel < mChannelCount; channel++) {
+				out.writeLong(mValues[offset + channel]);
+			}
+		}
+	}
+
+	private int physicalIndex(int index) {
+		int oldest = mSize < mCapacity ? 0 : mNext;
+		return (oldest + index) % mCapacity;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= mSize) {
+			throw new IndexOutOfBoundsException("index=" + index + ", size=" + mSize);
+		}
+	}
+
+	/**
+	 * 按照最近序数法计算百分位数
+	 */
+	private static long percentile(long[] sorted, int count, int percent) {
+		int rank = (int) Math.ceil(percent / 100.0 * count);
+		return sorted[Math.max(0, Math.min(count, rank) - 1)];
+	}
+
+	/**
+	 * 一个通道的统计结果
+	 */
+	public static final class Summary {
+		/** 有效数值的数量 */
+		public final int count;
+		public final long min;
+		public final long max;
+		public final long mean;
+		public final long p50;
+		public final long p90;
+		public final long p99;
+
+		Summary(int count, long min, long max, long mean, long p50, long p90, long p99) {
+			this.count = count;
+			this.min = min;
+			this.max = max;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+		}
+
+		@Override
+		public String toString() {
+			return "count=" + count + ", min=" + min + ", max=" + max + ", mean=" + mean
+					+ ", p50=" + p50 + ", p90=" + p90 + ", p99=" + p99;
+		}
+	}
+}
@@ -1,18 +1,13 @@
 package com.imasson.droidshake.util.debug;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import com.imasson.droidshake.util.FileUtils;
+import java.util.Collections;
+import java.util.List;
 
 import android.app.ActivityManager;
 import android.content.Context;
 import android.os.Debug;
 import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 /**
@@ -23,13 +18,23 @@ import android.util.Log;
 public class ShakeDiagnotor {
 	private static final String TAG = "ShakeDiagnotor";
 	
+	/** 第一次获取CPU占用率时两次采样之间的间隔，单位为毫秒 */
+	private static final long FIRST_CPU_SAMPLE_INTERVAL = 100L;
+	/** 两次采样之间的最小间隔，间隔太短时CPU时间的增量过小，占用率没有意义 */
+	private static final long MIN_CPU_SAMPLE_INTERVAL = 50L;
+	
 	private Context mContext = null;
 	private ActivityManager mActivityManager = null;
 	
 	private int[] mPid = null;
-	private long mSystemTotalMemory = 0L;
-	private ActivityManager.MemoryInfo mCachedMemoryInfo = null;
-	private Pattern mCpuRatePattern = null;
+	private MemInfoReader mMemInfoReader = null;
+	private CpuSampler mCpuSampler = null;
+	private long mLastCpuSampleTime = 0L;
+	private int mLastCpuRate = -1;
+	private CpuSampler mThreadCpuSampler = null;
+	private long mLastThreadCpuSampleTime = 0L;
+	private MetricsRecorder mMetricsRecorder = null;
+	private MemoryPressureMonitor mMemoryPressureMonitor = null;
 	
 	public ShakeDiagnotor(Context context) {
 		mContext = context;
@@ -66,118 +71,155 @@ public class ShakeDiagnotor {
 	}
 	
 	/**
-	 * 获取当前系统可用的内存大小
-	 * @return 可用的内存大小，单位为byte
+	 * <p>获取当前系统可用的内存大小</p>
+	 * <p>通过{@link MemInfoReader}读取/proc/meminfo，不需要跨进程调用，
+	 * 一秒之内的重复查询直接返回缓存的结果。</p>
+	 * @return 可用的内存大小，单位为byte，查询失败时返回-1
 	 */
 	public long getSystemAvailableMemorySize() {
-		if (mCachedMemoryInfo == null) {
-			mCachedMemoryInfo = new ActivityManager.MemoryInfo();
-		}
-		mActivityManager.getMemoryInfo(mCachedMemoryInfo);
-		return mCachedMemoryInfo.availMem;
+		return getMemInfoReader().getAvailableSize();
 	}
 	
 	/**
 	 * 获取当前系统总内存大小
-	 * @return 总内存大小，单位为byte
+	 * @return 总内存大小，单位为byte，查询失败时返回-1
 	 */
 	public long getSystemTotalMemorySize() {
-		if (mSystemTotalMemory <= 0L) {
-			String path = "/proc/meminfo";
-			String[] arrayOfString;
-
-			FileReader fileReader = null;
-			BufferedReader bufferedReader = null;
-			try {
-				fileReader = new FileReader(path);
-				bufferedReader = new BufferedReader(fileReader, FileUtils.DEFAULT_BUFFER_SIZE);
-				String result = bufferedReader.readLine(); // meminfo的第一行为系统总内存
-
-				arrayOfString = result.split("\\s+");
-
-				mSystemTotalMemory = Integer.parseInt(arrayOfString[1]) * 1024; // meminfo里面内存值单位为kb
-				
-			} catch (IOException e) {
-				Log.w(TAG, "IOException at getSystemTotalMemorySize()", e);
-			} catch (NumberFormatException e) {
-				Log.w(TAG, "NumberFormatException at getSystemTotalMemorySize()", e);
-			} finally {
-				try {
-					if (bufferedReader != null) bufferedReader.close();
-					if (fileReader != null) fileReader.close();
-				} catch (IOException e) {}
-			}
+		return getMemInfoReader().getTotalSize();
+	}
+	
+	/**
+	 * @return 读取/proc/meminfo的对象，可以查询Cached、SwapFree等全部字段
+	 */
+	public synchronized MemInfoReader getMemInfoReader() {
+		if (mMemInfoReader == null) {
+			mMemInfoReader = new MemInfoReader();
 		}
-		
-		return mSystemTotalMemory;
+		return mMemInfoReader;
 	}
 	
 	/**
 	 * 获取当前系统剩余内存大小
-	 * @return 剩余内存大小，单位为byte
+	 * @return 剩余内存大小，单位为byte，查询失败时返回-1
 	 */
 	public long getSystemFreeMemorySize() {
-		return getSystemTotalMemorySize() - getSystemAvailableMemorySize();
+		long total = getSystemTotalMemorySize();
+		long available = getSystemAvailableMemorySize();
+		if (total < 0L || available < 0L) {
+			return -1L;
+		}
+		return total - available;
 	}
 	
 	
 	/**
-	 * 获取当前程序包的CPU占用情况
+	 * <p>获取当前程序包的CPU占用情况</p>
+	 * <p>通过{@link CpuSampler}读取/proc文件系统计算，结果为距离上一次调用这段时间内的平均占用率。
+	 * 第一次调用时需要连续采样两次，因此会阻塞{@link #FIRST_CPU_SAMPLE_INTERVAL}毫秒；
+	 * 两次调用的间隔过短时直接返回上一次的结果。</p>
 	 * @return CPU占用的百分比，查询失败将返回-1
 	 */
-	public int getOwnCpuRate() {
-		java.lang.Process p = null;
-		try {
-			p = Runtime.getRuntime().exec("top -n 1");
-		} catch (IOException e) {
-			Log.w(TAG, "Error while exec 'top -n 1' at getOwnCpuRate()");
+	public synchronized int getOwnCpuRate() {
+		if (mCpuSampler == null) {
+			mCpuSampler = new CpuSampler();
 		}
-
-		int cpuRate = -1;
-		InputStreamReader isr = null;
-    	BufferedReader br = null;
-		try {
-			isr = new InputStreamReader(p.getInputStream());
-			br = new BufferedReader(isr);
-			
-			String result = null;
-			String packageName = mContext.getPackageName();
-			while ((result = br.readLine()) != null) {
-				result = result.trim();
-				if (result.endsWith(packageName)) {
-					cpuRate = fetchCpuRateFromProcessLine(result);
-					break;
-				}
+		
+		long now = SystemClock.uptimeMillis();
+		if (mLastCpuRate >= 0 && now - mLastCpuSampleTime < MIN_CPU_SAMPLE_INTERVAL) {
+			return mLastCpuRate;
+		}
+		
+		if (!mCpuSampler.hasDelta()) {
+			if (!mCpuSampler.sample()) {
+				return -1;
 			}
-		} catch (IOException e) {
-			Log.w(TAG, "IOException at getOwnCpuRate()", e);
-		} finally {
-			try {
-				if (isr != null) isr.close();
-				if (br != null) br.close();
-			} catch (IOException e) {}
+			SystemClock.sleep(FIRST_CPU_SAMPLE_INTERVAL);
+		}
+		if (!mCpuSampler.sample()) {
+			return -1;
 		}
 		
-		return cpuRate;
+		float cpuRate = mCpuSampler.getProcessCpuRate();
+		if (cpuRate < 0f) {
+			return -1;
+		}
+		mLastCpuSampleTime = SystemClock.uptimeMillis();
+		mLastCpuRate = Math.round(cpuRate);
+		return mLastCpuRate;
 	}
-
-	private int fetchCpuRateFromProcessLine(String result) {
-		if (mCpuRatePattern == null) {
-			mCpuRatePattern = Pattern.compile("\\b\\d(?=%)");
+	
+	/**
+	 * <p>获取当前程序中CPU占用最多的若干个线程</p>
+	 * <p>通过{@link CpuSampler}枚举/proc/self/task统计每个线程的CPU时间，结果为距离上一次调用这段时间内的数据，
+	 * 用于在{@link #getOwnCpuRate()}偏高时找出具体是哪个线程在占用CPU。
+	 * 第一次调用时同样会阻塞{@link #FIRST_CPU_SAMPLE_INTERVAL}毫秒；两次调用的间隔过短时返回上一次的结果。</p>
+	 * @param maxCount 最多返回的线程数量，小于等于0时返回全部线程
+	 * @return 按照CPU占用从多到少排列的线程列表，查询失败将返回空列表
+	 */
+	public synchronized List<CpuSampler.ThreadCpuUsage> getTopThreadCpuUsage(int maxCount) {
+		if (mThreadCpuSampler == null) {
+			mThreadCpuSampler = new CpuSampler();
+			mThreadCpuSampler.setTrackAllThreads(true);
 		}
 		
-		int cpuRate = -1;
-		Matcher matcher = mCpuRatePattern.matcher(result);
-		if (matcher != null && matcher.find()) {
-			String cpuRateString = result.substring(matcher.start(), matcher.end());
-			try {
-				cpuRate = Integer.parseInt(cpuRateString);
-			} catch (NumberFormatException e) {
-				Log.w(TAG, "NumberFormatException at fetchCpuRateFromProcessLine()", e);
+		long now = SystemClock.uptimeMillis();
+		if (!mThreadCpuSampler.hasDelta()) {
+			if (!mThreadCpuSampler.sample()) {
+				return Collections.emptyList();
 			}
-			return cpuRate;
+			SystemClock.sleep(FIRST_CPU_SAMPLE_INTERVAL);
+		} else if (now - mLastThreadCpuSampleTime < MIN_CPU_SAMPLE_INTERVAL) {
+			return mThreadCpuSampler.getTopThreads(maxCount);
+		}
+		if (!mThreadCpuSampler.sample()) {
+			return Collections.emptyList();
 		}
 		
-		return cpuRate;
+		mLastThreadCpuSampleTime = SystemClock.uptimeMillis();
+		return mThreadCpuSampler.getTopThreads(maxCount);
+	}
+	
+	/**
+	 * <p>开始在后台持续记录程序的运行指标，已经在记录时先停止原来的记录</p>
+	 * @param intervalMillis 采样间隔，单位为毫秒
+	 * @param capacity 最多保存的采样点数量，超出后覆盖最旧的数据
+	 * @return 正在记录的记录器对象
+	 * @see MetricsRecorder
+	 */
+	public synchronized MetricsRecorder startRecording(long intervalMillis, int capacity) {
+		stopRecording();
+		mMetricsRecorder = new MetricsRecorder(intervalMillis, capacity);
+		mMetricsRecorder.start();
+		return mMetricsRecorder;
+	}
+	
+	/**
+	 * 停止记录程序的运行指标，已经记录的数据仍然可以通过{@link #getMetricsRecorder()}获取
+	 */
+	public synchronized void stopRecording() {
+		if (mMetricsRecorder != null) {
+			mMetricsRecorder.stop();
+		}
+	}
+	
+	/**
+	 * @return 最近一次通过{@link #startRecording(long, int)}创建的记录器，没有时返回null
+	 */
+	public synchronized MetricsRecorder getMetricsRecorder() {
+		return mMetricsRecorder;
+	}
+	
+	/**
+	 * <p>获取内存压力监测器，第一次调用时创建并开始监测</p>
+	 * <p>缓存等占用内存较多的模块可以注册监听者，在系统内存紧张时按比例释放内存。</p>
+	 * @return 内存压力监测器
+	 * @see MemoryPressureMonitor#addListener(MemoryPressureMonitor.Listener)
+	 */
+	public synchronized MemoryPressureMonitor getMemoryPressureMonitor() {
+		if (mMemoryPressureMonitor == null) {
+			mMemoryPressureMonitor = new MemoryPressureMonitor(mContext);
+			mMemoryPressureMonitor.start();
+		}
+		return mMemoryPressureMonitor;
 	}
 }
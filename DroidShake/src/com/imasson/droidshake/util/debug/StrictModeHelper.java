@@ -1,7 +1,11 @@
 package com.imasson.droidshake.util.debug;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Executor;
 
 import android.util.Log;
 
@@ -9,9 +13,12 @@ import android.util.Log;
  * <p>用于启用Android系统提供的StrictMode检测工具的工具类</p>
  * <p>本类主要是供在 API Level < 9的编译环境下使用的，否则不用引入或使用该类，直接使用 
  * {@link android.os.StrictMode StrictMode} 类即可。</p>
+ * <p>所需的类和方法在第一次使用时通过反射解析并缓存，构造好的策略对象也按照选项缓存，
+ * 因此可以在运行时频繁地启用或关闭检测。</p>
  * 
  * @see <a href="http://developer.android.com/reference/android/os/StrictMode.html">
  * official reference of StrictMode</a>
+ * @see StrictModeViolationCollector
  */
 public final class StrictModeHelper {
 	private static final String TAG = "StrictModeHelper";
@@ -46,233 +53,403 @@ public final class StrictModeHelper {
             OPTION_THREAD_POLICY_ALL |
             OPTION_VM_POLICY_ALL;
     
-    
+    /** 选项的标记位数量，低8位为ThreadPolicy，高8位为VmPolicy */
+    private static final int OPTION_BIT_COUNT = 16;
+    private static final int VM_POLICY_SHIFT = 8;
+    private static final int POLICY_OPTION_MASK = 0xFF;
+
+    /** 各个标记位对应的Builder方法名，按照标记位的序号排列 */
+    private static final String[] DETECT_METHOD_NAMES = new String[OPTION_BIT_COUNT];
+    static {
+        DETECT_METHOD_NAMES[bitIndex(OPTION_THREAD_POLICY_DISK_READS)] = "detectDiskReads";
+        DETECT_METHOD_NAMES[bitIndex(OPTION_THREAD_POLICY_DISK_WRITES)] = "detectDiskWrites";
+        DETECT_METHOD_NAMES[bitIndex(OPTION_THREAD_POLICY_NETWORK)] = "detectNetwork";
+        DETECT_METHOD_NAMES[bitIndex(OPTION_THREAD_POLICY_POLICY_SLOW_CALLS)] = "detectCustomSlowCalls";
+        DETECT_METHOD_NAMES[bitIndex(OPTION_VM_POLICY_ACTIVITY_LEAKS)] = "detectActivityLeaks";
+        DETECT_METHOD_NAMES[bitIndex(OPTION_VM_POLICY_CLOSABLE_LEAKS)] = "detectLeakedClosableObjects";
+        DETECT_METHOD_NAMES[bitIndex(OPTION_VM_POLICY_REGISTRATION_LEAKS)] = "detectLeakedRegistrationObjects";
+        DETECT_METHOD_NAMES[bitIndex(OPTION_VM_POLICY_SQLLITE_LEAKS)] = "detectLeakedSqlLiteObjects";
+    }
+
+    /** 解析好的反射对象，第一次使用时初始化 */
+    private static Api sApi = null;
+    private static boolean sApiResolved = false;
+
+    /** 按照选项缓存构造好的策略对象，策略对象是不可变的，可以重复使用 */
+    private static final Object[] sThreadPolicies = new Object[POLICY_OPTION_MASK + 1];
+    private static final Object[] sVmPolicies = new Object[POLICY_OPTION_MASK + 1];
+
+    /** 接收违例的收集器，为null时只输出日志 */
+    private static volatile StrictModeViolationCollector sViolationCollector = null;
+
+
+    /**
+     * @return 当前系统是否支持StrictMode
+     */
+    public static boolean isSupported() {
+        return getApi() != null;
+    }
+
+    /**
+     * @return 当前系统是否支持通过penaltyListener接收违例（API Level 28及以上）
+     */
+    public static boolean isPenaltyListenerSupported() {
+        Api api = getApi();
+        return api != null && api.threadPenaltyListener != null && api.vmPenaltyListener != null;
+    }
+
+    /**
+     * <p>设置接收违例的收集器，之后构造的策略除了输出日志之外还会把违例发送给收集器</p>
+     * <p>已经生效的策略不受影响，需要重新调用 {@link #enable(int)} 等方法。</p>
+     * @param collector 收集器，为null时只输出日志
+     * @see StrictModeViolationCollector#start()
+     */
+    static void setViolationCollector(StrictModeViolationCollector collector) {
+        synchronized (sThreadPolicies) {
+            synchronized (sVmPolicies) {
+                sViolationCollector = collector;
+                for (int i = 0; i <= POLICY_OPTION_MASK; i++) {
+                    sThreadPolicies[i] = null;
+                    sVmPolicies[i] = null;
+                }
+            }
+        }
+    }
+
     /**
      * 采用系统默认模式启用StrictMode
      */
     public static void enableDefault() {
-        if (!checkSdkVersion(9)) {
+        Api api = getApi();
+        if (api == null) {
             Log.w(TAG, "StrictMode is not supported at this android version.");
             return;
         }
-        
-        long startTime = System.currentTimeMillis();
-        
-        try {
-            Class<?> klass = Class.forName("android.os.StrictMode");
-            Method method = klass.getDeclaredMethod("enableDefaults");
-            method.invoke(null);
+
+        if (invoke(api.enableDefaults, null, null)) {
             Log.v(TAG, "StrictMode enabled, mode=default");
-            
-        } catch (ClassNotFoundException e) {
-            Log.w(TAG, "ClassNotFoundException at enableDefault()", e);
-        } catch (NoSuchMethodException e) {
-            Log.w(TAG, "NoSuchMethodException at enableDefault()", e);
-        } catch (RuntimeException e) {
-            Log.w(TAG, "Unexpected exception at enableDefault()", e);
-        } catch (IllegalAccessException e) {
-            Log.w(TAG, "IllegalAccessException at enableDefault()", e);
-        } catch (InvocationTargetException e) {
-            Log.w(TAG, "InvocationTargetException at enableDefault()", e.getCause());
         }
-        
-        long costTime = System.currentTimeMillis() - startTime;
-        Log.v(TAG, "enableDefault, cost time: " + costTime + " ms");
     }
-    
+
     /**
      * 启用StrictMode，并尽可能采用所有已知的模式进行检测
      */
     public static void enableAll() {
         enable(OPTION_ALL);
     }
-    
+
     /**
-     * 启用StrictMode，并使用指定的选项
+     * <p>启用StrictMode，并使用指定的选项</p>
+     * <p>注意：ThreadPolicy只对调用本方法的线程生效，VmPolicy对整个进程生效。
+     * 反射对象和策略对象在第一次调用时解析并缓存，之后再次调用的开销很小。</p>
      * @param options 检测模式选项，标记位，请参考 <code>OPTION_</code> 开头的常量
      */
     public static void enable(int options) {
-        if (!checkSdkVersion(9)) {
-            Log.w(TAG, "StrictMode is not supported at this android version.");
-            return;
-        }
-        
         if (options == OPTION_SYSTEM_DEFAULT) {
             enableDefault();
+            return;
         }
-        
-        long startTime = System.currentTimeMillis();
-        
-        Class<?> threadPolicyBuilderClass = null;
-        Class<?> vmPolicyBuilderClass = null;
-        Object threadPolicyBuilder = null;
-        Object vmPolicyBuilder = null;
-        
-        try {
-            threadPolicyBuilderClass = Class.forName(
-                    "android.os.StrictMode$ThreadPolicy$Builder");
-            vmPolicyBuilderClass = Class.forName(
-                    "android.os.StrictMode$VmPolicy$Builder");
-            threadPolicyBuilder = threadPolicyBuilderClass.newInstance();
-            vmPolicyBuilder = vmPolicyBuilderClass.newInstance();
-        } catch (ClassNotFoundException e) {
-            Log.w(TAG, "ClassNotFoundException at applyStrictMode()", e);
-        } catch (IllegalAccessException e) {
-            Log.w(TAG, "IllegalAccessException at applyStrictMode()", e);
-        } catch (InstantiationException e) {
-            Log.w(TAG, "InstantiationException at applyStrictMode()", e);
-        }
-        
-        int mask = 0x0001;
-        for (int i = 0; i < 16; i++) {
-            mask = mask << i;
-            int optionItem = (options & mask);
-            if (optionItem != 0) {
-                if (optionItem <= OPTION_THREAD_POLICY_ALL) {
-                    enableOption(threadPolicyBuilderClass, threadPolicyBuilder, optionItem);
-                } else if (optionItem <= OPTION_VM_POLICY_ALL) {
-                    enableOption(vmPolicyBuilderClass, vmPolicyBuilder, optionItem);
-                } else {
-                    Log.w(TAG, "Unknow option at enable(), option=" + optionItem);
-                }
-            }
+
+        Api api = getApi();
+        if (api == null) {
+            Log.w(TAG, "StrictMode is not supported at this android version.");
+            return;
         }
-        
-        boolean isSuccess = applyStrictMode(
-                threadPolicyBuilderClass, vmPolicyBuilderClass, 
-                threadPolicyBuilder, vmPolicyBuilder);
+
+        warnUnknownOptions(options);
+        boolean isSuccess = applyThreadPolicy(api, options & OPTION_THREAD_POLICY_ALL)
+                & applyVmPolicy(api, options & OPTION_VM_POLICY_ALL);
         if (isSuccess) {
             Log.v(TAG, "StrictMode enabled, options=" + options);
         } else {
             Log.w(TAG, "Fail to enable StrictMode, options=" + options);
         }
-        
-        long costTime = System.currentTimeMillis() - startTime;
-        Log.v(TAG, "enable, cost time: " + costTime + " ms");
     }
 
-    private static boolean applyStrictMode(
-            Class<?> threadPolicyBuilderClass, Class<?> vmPolicyBuilderClass,
-            Object threadPolicyBuilder, Object vmPolicyBuilder) {
-        boolean isSuccess = false;
-        try {
-            Object threadPolicy = buildPolicy(threadPolicyBuilderClass, threadPolicyBuilder);
-            Object vmPolicy = buildPolicy(vmPolicyBuilderClass, vmPolicyBuilder);
-            
-            Class<?> klass = Class.forName("android.os.StrictMode");
-            if (threadPolicy != null) {
-                Method setThreadPolicyMethod = klass.getDeclaredMethod("setThreadPolicy");
-                setThreadPolicyMethod.invoke(null, threadPolicy);
+    /**
+     * <p>只为当前线程设置ThreadPolicy，不影响其他线程和VmPolicy</p>
+     * <p>可以在不同的线程中使用不同的选项，例如只在主线程中检测磁盘读写。</p>
+     * @param options ThreadPolicy的检测模式选项，<code>OPTION_THREAD_POLICY_</code> 开头的常量，
+     * 为 {@link #OPTION_SYSTEM_DEFAULT} 时关闭当前线程的检测
+     * @return 是否设置成功
+     */
+    public static boolean enableThreadPolicy(int options) {
+        Api api = getApi();
+        if (api == null) {
+            Log.w(TAG, "StrictMode is not supported at this android version.");
+            return false;
+        }
+
+        if ((options & ~OPTION_THREAD_POLICY_ALL) != 0) {
+            Log.w(TAG, "Options other than thread policy are ignored at enableThreadPolicy(), options="
+                    + options);
+        }
+        return applyThreadPolicy(api, options & OPTION_THREAD_POLICY_ALL);
+    }
+
+    /**
+     * 关闭当前线程的ThreadPolicy和整个进程的VmPolicy，之后可以再次调用 {@link #enable(int)} 启用
+     */
+    public static void disable() {
+        Api api = getApi();
+        if (api == null) {
+            return;
+        }
+
+        invoke(api.setThreadPolicy, null, api.laxThreadPolicy);
+        invoke(api.setVmPolicy, null, api.laxVmPolicy);
+    }
+
+    /**
+     * 关闭当前线程的ThreadPolicy，不影响其他线程和VmPolicy
+     */
+    public static void disableThreadPolicy() {
+        Api api = getApi();
+        if (api == null) {
+            return;
+        }
+
+        invoke(api.setThreadPolicy, null, api.laxThreadPolicy);
+    }
+
+    private static boolean applyThreadPolicy(Api api, int options) {
+        Object policy;
+        synchronized (sThreadPolicies) {
+            policy = sThreadPolicies[options];
+            if (policy == null) {
+                policy = buildPolicy(api.threadPolicyBuilder, api.threadPenaltyLog,
+                        api.threadPenaltyListener, api.threadListenerClass, api.threadBuild, api.detectMethods, 0, options);
+                sThreadPolicies[options] = policy;
             }
-            if (vmPolicy != null) {
-                Method setVmPolicyMethod = klass.getDeclaredMethod("setVmPolicy");
-                setVmPolicyMethod.invoke(null, vmPolicy);
+        }
+        return policy != null && invoke(api.setThreadPolicy, null, policy);
+    }
+
+    private static boolean applyVmPolicy(Api api, int options) {
+        int index = options >>> VM_POLICY_SHIFT;
+        Object policy;
+        synchronized (sVmPolicies) {
+            policy = sVmPolicies[index];
+            if (policy == null) {
+                policy = buildPolicy(api.vmPolicyBuilder, api.vmPenaltyLog,
+                        api.vmPenaltyListener, api.vmListenerClass, api.vmBuild, api.detectMethods, VM_POLICY_SHIFT, index);
+                sVmPolicies[index] = policy;
             }
-            isSuccess = true;
-            
-        } catch (ClassNotFoundException e) {
-            Log.w(TAG, "ClassNotFoundException at applyStrictMode()", e);
-        } catch (NoSuchMethodException e) {
-            Log.w(TAG, "NoSuchMethodException at applyStrictMode()", e);
-        } catch (RuntimeException e) {
-            Log.w(TAG, "Unexpected exception at applyStrictMode()", e);
-        } catch (IllegalAccessException e) {
-            Log.w(TAG, "IllegalAccessException at applyStrictMode()", e);
-        } catch (InvocationTargetException e) {
-            Log.w(TAG, "InvocationTargetException at applyStrictMode()", e.getCause());
         }
-        return isSuccess;
+        return policy != null && invoke(api.setVmPolicy, null, policy);
     }
 
-    private static Object buildPolicy(Class<?> builderClass, Object builder) 
-            throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
-        if (builderClass != null && builder != null) {
-            Method method = builderClass.getDeclaredMethod("penaltyLog");
-            method.invoke(builder);
-            Method buildMethod = builderClass.getDeclaredMethod("build");
+    /**
+     * 通过Builder构造策略对象，当前系统不支持的选项将被忽略。设置了收集器时同时启用penaltyListener
+     * @param detectMethods 各个标记位对应的Builder方法
+     * @param shift 策略的选项在全部选项中的起始位置
+     * @param options 策略的选项，已经右移shift位
+     */
+    private static Object buildPolicy(Constructor<?> builderConstructor, Method penaltyMethod,
+            Method listenerMethod, Class<?> listenerClass, Method buildMethod, Method[] detectMethods, int shift, int options) {
+        try {
+            Object builder = builderConstructor.newInstance();
+            for (int i = 0; i < VM_POLICY_SHIFT; i++) {
+                if ((options & (1 << i)) == 0) {
+                    continue;
+                }
+                Method method = detectMethods[shift + i];
+                if (method == null) {
+                    Log.w(TAG, "Target option not support at buildPolicy(), option="
+                            + (1 << (shift + i)));
+                    continue;
+                }
+                method.invoke(builder);
+            }
+            penaltyMethod.invoke(builder);
+
+            StrictModeViolationCollector collector = sViolationCollector;
+            if (collector != null && listenerMethod != null) {
+                Executor executor = collector.getListenerExecutor();
+                if (executor != null) {
+                    listenerMethod.invoke(builder, executor,
+                            createViolationListener(listenerClass, collector));
+                }
+            }
             return buildMethod.invoke(builder);
+
+        } catch (InstantiationException e) {
+            Log.w(TAG, "InstantiationException at buildPolicy()", e);
+        } catch (IllegalAccessException e) {
+            Log.w(TAG, "IllegalAccessException at buildPolicy()", e);
+        } catch (InvocationTargetException e) {
+            Log.w(TAG, "InvocationTargetException at buildPolicy()", e.getCause());
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Unexpected exception at buildPolicy()", e);
         }
         return null;
     }
-    
-    private static boolean checkSdkVersion(int sdk) {
-        return android.os.Build.VERSION.SDK_INT >= sdk;
+
+    /**
+     * 通过动态代理实现OnThreadViolationListener或OnVmViolationListener接口，把违例转发给收集器
+     */
+    private static Object createViolationListener(Class<?> listenerClass,
+            final StrictModeViolationCollector collector) {
+        return Proxy.newProxyInstance(listenerClass.getClassLoader(), new Class<?>[] { listenerClass },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if ("onThreadViolation".equals(name) || "onVmViolation".equals(name)) {
+                            collector.recordViolation((Throwable) args[0]);
+                        } else if ("equals".equals(name)) {
+                            return proxy == args[0];
+                        } else if ("hashCode".equals(name)) {
+                            return System.identityHashCode(proxy);
+                        } else if ("toString".equals(name)) {
+                            return TAG + "$ViolationListener";
+                        }
+                        return null;
+                    }
+                });
     }
-    
-    
-    private static void enableOption(Class<?> builderClass, Object builder, int option) {
-        if (builderClass == null || builder == null) {
-            Log.w(TAG, "Target option not support at enableOption(), option=" + option);
-            return;
-        }
-        
+
+    private static boolean invoke(Method method, Object receiver, Object arg) {
         try {
-            enableOptionOrThrows(builderClass, builder, option);
-        } catch (RuntimeException e) {
-            Log.w(TAG, "Unexpected exception at enableOption(), option=" + option, e);
-        } catch (NoSuchMethodException e) {
-            Log.w(TAG, "NoSuchMethodException at enableOption(), option=" + option, e);
+            if (arg == null) {
+                method.invoke(receiver);
+            } else {
+                method.invoke(receiver, arg);
+            }
+            return true;
         } catch (IllegalAccessException e) {
-            Log.w(TAG, "IllegalAccessException at enableOption(), option=" + option, e);
+            Log.w(TAG, "IllegalAccessException at invoke(), method=" + method.getName(), e);
         } catch (InvocationTargetException e) {
-            Log.w(TAG, "InvocationTargetException at enableOption(), option=" + option, e.getCause());
+            Log.w(TAG, "InvocationTargetException at invoke(), method=" + method.getName(),
+                    e.getCause());
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Unexpected exception at invoke(), method=" + method.getName(), e);
         }
+        return false;
     }
-    
-    private static void enableOptionOrThrows(Class<?> builderClass, Object builder, int option) 
-            throws SecurityException, NoSuchMethodException, IllegalArgumentException, 
-            IllegalAccessException, InvocationTargetException {
-        Method method = null;
-        switch (option) {
-            case OPTION_THREAD_POLICY_DISK_READS:
-                method = builderClass.getDeclaredMethod("detectDiskReads");
-                break;
-                
-            case OPTION_THREAD_POLICY_DISK_WRITES:
-                method = builderClass.getDeclaredMethod("detectDiskWrites");
-                break;
-                
-            case OPTION_THREAD_POLICY_NETWORK:
-                method = builderClass.getDeclaredMethod("detectDiskWrites");
-                break;
-                
-            case OPTION_THREAD_POLICY_POLICY_SLOW_CALLS:
-                if (checkSdkVersion(11)) {
-                    method = builderClass.getDeclaredMethod("detectCustomSlowCalls");
-                }
-                break;
-                
-            case OPTION_VM_POLICY_ACTIVITY_LEAKS:
-                if (checkSdkVersion(11)) {
-                    method = builderClass.getDeclaredMethod("detectActivityLeaks");
-                }
-                break;
-                
-            case OPTION_VM_POLICY_CLOSABLE_LEAKS:
-                if (checkSdkVersion(11)) {
-                    method = builderClass.getDeclaredMethod("detectLeakedClosableObjects");
-                }
-                break;
-                
-            case OPTION_VM_POLICY_REGISTRATION_LEAKS:
-                if (checkSdkVersion(16)) {
-                    method = builderClass.getDeclaredMethod("detectLeakedRegistrationObjects");
+
+    private static void warnUnknownOptions(int options) {
+        int unknown = options & ~OPTION_ALL;
+        if (unknown != 0) {
+            Log.w(TAG, "Unknow option at enable(), option=" + unknown);
+        }
+    }
+
+    private static synchronized Api getApi() {
+        if (!sApiResolved) {
+            sApiResolved = true;
+            if (checkSdkVersion(9)) {
+                sApi = Api.resolve();
+            }
+        }
+        return sApi;
+    }
+
+    private static boolean checkSdkVersion(int sdk) {
+        return android.os.Build.VERSION.SDK_INT >= sdk;
+    }
+
+    private static int bitIndex(int option) {
+        return Integer.numberOfTrailingZeros(option);
+    }
+
+
+    /**
+     * 通过反射解析的StrictMode相关的类和方法，只解析一次
+     */
+    private static final class Api {
+        Method enableDefaults;
+        Method setThreadPolicy;
+        Method setVmPolicy;
+        Object laxThreadPolicy;
+        Object laxVmPolicy;
+
+        Constructor<?> threadPolicyBuilder;
+        Method threadPenaltyLog;
+        Method threadBuild;
+        Constructor<?> vmPolicyBuilder;
+        Method vmPenaltyLog;
+        Method vmBuild;
+
+        /** penaltyListener相关的方法和接口，API Level 28以下的系统中为null */
+        Method threadPenaltyListener;
+        Class<?> threadListenerClass;
+        Method vmPenaltyListener;
+        Class<?> vmListenerClass;
+
+        /** 各个标记位对应的Builder方法，当前系统不支持时为null */
+        final Method[] detectMethods = new Method[OPTION_BIT_COUNT];
+
+        static Api resolve() {
+            try {
+                Class<?> strictModeClass = Class.forName("android.os.StrictMode");
+                Class<?> threadPolicyClass = Class.forName("android.os.StrictMode$ThreadPolicy");
+                Class<?> vmPolicyClass = Class.forName("android.os.StrictMode$VmPolicy");
+                Class<?> threadBuilderClass = Class.forName("android.os.StrictMode$ThreadPolicy$Builder");
+                Class<?> vmBuilderClass = Class.forName("android.os.StrictMode$VmPolicy$Builder");
+
+                Api api = new Api();
+                api.enableDefaults = strictModeClass.getMethod("enableDefaults");
+                api.setThreadPolicy = strictModeClass.getMethod("setThreadPolicy", threadPolicyClass);
+                api.setVmPolicy = strictModeClass.getMethod("setVmPolicy", vmPolicyClass);
+                api.laxThreadPolicy = threadPolicyClass.getField("LAX").get(null);
+                api.laxVmPolicy = vmPolicyClass.getField("LAX").get(null);
+
+                api.threadPolicyBuilder = threadBuilderClass.getConstructor();
+                api.threadPenaltyLog = threadBuilderClass.getMethod("penaltyLog");
+                api.threadBuild = threadBuilderClass.getMethod("build");
+                api.vmPolicyBuilder = vmBuilderClass.getConstructor();
+                api.vmPenaltyLog = vmBuilderClass.getMethod("penaltyLog");
+                api.vmBuild = vmBuilderClass.getMethod("build");
+
+                for (int i = 0; i < OPTION_BIT_COUNT; i++) {
+                    String name = DETECT_METHOD_NAMES[i];
+                    if (name == null) {
+                        continue;
+                    }
+                    Class<?> builderClass = i < VM_POLICY_SHIFT ? threadBuilderClass : vmBuilderClass;
+                    try {
+                        api.detectMethods[i] = builderClass.getMethod(name);
+                    } catch (NoSuchMethodException e) {
+                        // 较早版本的系统不支持这个选项
+                    }
                 }
-                break;
-                
-            case OPTION_VM_POLICY_SQLLITE_LEAKS:
-                method = builderClass.getDeclaredMethod("detectLeakedSqlLiteObjects");
-                break;
-                
-            default:
-                break;
+                resolvePenaltyListener(api, threadBuilderClass, vmBuilderClass);
+                return api;
+
+            } catch (ClassNotFoundException e) {
+                Log.w(TAG, "ClassNotFoundException at resolve()", e);
+            } catch (NoSuchMethodException e) {
+                Log.w(TAG, "NoSuchMethodException at resolve()", e);
+            } catch (NoSuchFieldException e) {
+                Log.w(TAG, "NoSuchFieldException at resolve()", e);
+            } catch (IllegalAccessException e) {
+                Log.w(TAG, "IllegalAccessException at resolve()", e);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Unexpected exception at resolve()", e);
+            }
+            return null;
         }
-        
-        if (method == null) {
-            Log.w(TAG, "The method not found at enableOption(), option=" + option);
-            return;
+
+        private static void resolvePenaltyListener(Api api, Class<?> threadBuilderClass,
+                Class<?> vmBuilderClass) {
+            try {
+                Class<?> threadListenerClass = Class.forName(
+                        "android.os.StrictMode$OnThreadViolationListener");
+                Class<?> vmListenerClass = Class.forName(
+                        "android.os.StrictMode$OnVmViolationListener");
+                api.threadPenaltyListener = threadBuilderClass.getMethod("penaltyListener",
+                        Executor.class, threadListenerClass);
+                api.vmPenaltyListener = vmBuilderClass.getMethod("penaltyListener",
+                        Executor.class, vmListenerClass);
+                api.threadListenerClass = threadListenerClass;
+                api.vmListenerClass = vmListenerClass;
+            } catch (ClassNotFoundException e) {
+                // API Level 28以下的系统不支持penaltyListener
+            } catch (NoSuchMethodException e) {
+                api.threadPenaltyListener = null;
+                api.vmPenaltyListener = null;
+            }
         }
-        
-        method.invoke(builder);
     }
 }
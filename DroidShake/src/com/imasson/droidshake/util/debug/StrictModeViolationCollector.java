@@ -0,0 +1,587 @@
+package com.imasson.droidshake.util.debug;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * <p>收集并汇总StrictMode违例的工具类</p>
+ * <p>违例按照类型和调用栈的签名（调用栈中属于应用本身的前几帧）去重，
+ * 统计每种违例的次数和累计的阻塞时间，每种违例只保留第一次出现时的完整调用栈作为样本。
+ * 最多保留{@link #getMaxEntries()}种违例，超出时淘汰累计耗时最少的一种，
+ * 因此可以长时间运行并按照实际的开销排列出主线程读写磁盘、访问网络等问题。</p>
+ * <p>违例的来源有两种：</p>
+ * <ul>
+ * <li>API Level 28及以上的系统中，通过StrictMode的penaltyListener直接接收违例对象，
+ * 但是系统不提供违例的阻塞时间；</li>
+ * <li>更早的系统中，在后台线程中读取本进程输出的StrictMode日志并解析，
+ * 可以得到阻塞时间。API Level 16以下的系统需要READ_LOGS权限。</li>
+ * </ul>
+ * <p>用法：</p>
+ * <pre>
+ * StrictModeViolationCollector collector = new StrictModeViolationCollector();
+ * collector.start();
+ * StrictModeHelper.enableAll();
+ * ...
+ * Log.i(TAG, collector.dump(10));
+ * </pre>
+ *
+ * @see StrictModeHelper
+ */
+public class StrictModeViolationCollector {
+	private static final String TAG = "StrictModeViolationCollector";
+
+	/** 默认最多保留的违例种类数量 */
+	public static final int DEFAULT_MAX_ENTRIES = 64;
+
+	/** 计算签名时使用的应用调用栈帧数 */
+	private static final int SIGNATURE_FRAME_COUNT = 5;
+	/** 每个样本最多保留的调用栈帧数 */
+	private static final int MAX_SAMPLE_FRAMES = 32;
+
+	private static final String LOG_TAG = "StrictMode";
+	private static final String VIOLATION_PREFIX = "StrictMode policy violation";
+	private static final String DURATION_PREFIX = "~duration=";
+	private static final String FRAME_PREFIX = "at ";
+
+	/** 属于StrictMode检测机制本身的调用栈帧，计算签名时跳过 */
+	private static final String[] IGNORED_FRAME_PREFIXES = {
+		"android.os.StrictMode",
+		"dalvik.system.BlockGuard",
+		"libcore.io.BlockGuardOs",
+		"android.os.strictmode.",
+	};
+
+	/** 属于系统和框架的调用栈帧，计算签名时跳过，只使用应用本身的帧 */
+	private static final String[] FRAMEWORK_FRAME_PREFIXES = {
+		"java.",
+		"javax.",
+		"libcore.",
+		"dalvik.",
+		"android.",
+		"com.android.",
+	};
+
+	private final int mMaxEntries;
+	private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+	private long mEvictedCount = 0L;
+	private long mTotalCount = 0L;
+
+	// 解析日志时尚未结束的违例，由mPendingFrames的锁保护
+	private String mPendingType = null;
+	private long mPendingDuration = -1L;
+	private final List<String> mPendingFrames = new ArrayList<String>();
+
+	private boolean mRunning = false;
+	private HandlerThread mListenerThread = null;
+	private Executor mListenerExecutor = null;
+	private LogReader mLogReader = null;
+
+	/**
+	 * 使用默认的数量上限创建对象
+	 */
+	public StrictModeViolationCollector() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param maxEntries 最多保留的违例种类数量，小于等于0时使用默认值
+	 */
+	public StrictModeViolationCollector(int maxEntries) {
+		if (maxEntries <= 0) {
+			Log.w(TAG, "Invalid max entries: " + maxEntries + ", use default value.");
+			maxEntries = DEFAULT_MAX_ENTRIES;
+		}
+		mMaxEntries = maxEntries;
+	}
+
+	public int getMaxEntries() {
+		return mMaxEntries;
+	}
+
+	/**
+	 * <p>开始收集违例</p>
+	 * <p>支持penaltyListener的系统中，之后通过{@link StrictModeHelper}启用的策略都会把违例发送给本对象，
+	 * 已经启用的策略需要重新调用{@link StrictModeHelper#enable(int)}；其他系统中开始读取日志。</p>
+	 * @return 是否开始了收集，已经在收集时返回false
+	 */
+	public synchronized boolean start() {
+		if (mRunning) {
+			return false;
+		}
+
+		if (StrictModeHelper.isPenaltyListenerSupported()) {
+			mListenerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+			mListenerThread.start();
+			final Handler handler = new Handler(mListenerThread.getLooper());
+			mListenerExecutor = new Executor() {
+				@Override
+				public void execute(Runnable command) {
+					handler.post(command);
+				}
+			};
+			StrictModeHelper.setViolationCollector(this);
+		} else {
+			mLogReader = new LogReader(Process.myPid());
+			mLogReader.start();
+		}
+		mRunning = true;
+		return true;
+	}
+
+	/**
+	 * 停止收集，已经收集的数据仍然保留
+	 */
+	public synchronized void stop() {
+		if (!mRunning) {
+			return;
+		}
+
+		if (mListenerThread != null) {
+			StrictModeHelper.setViolationCollector(null);
+			final HandlerThread thread = mListenerThread;
+			new Handler(thread.getLooper()).post(new Runnable() {
+				@Override
+				public void run() {
+					Looper.myLooper().quit();
+				}
+			});
+			mListenerThread = null;
+			mListenerExecutor = null;
+		}
+		if (mLogReader != null) {
+			mLogReader.quit();
+			mLogReader = null;
+		}
+		mRunning = false;
+	}
+
+	public synchronized boolean isRunning() {
+		return mRunning;
+	}
+
+	/**
+	 * @return 传给penaltyListener的Executor，违例在收集器的后台线程中处理
+	 */
+	synchronized Executor getListenerExecutor() {
+		return mListenerExecutor;
+	}
+
+	/**
+	 * 清除已经收集的数据
+	 */
+	public synchronized void reset() {
+		mEntries.clear();
+		mEvictedCount = 0L;
+		mTotalCount = 0L;
+	}
+
+	/**
+	 * 记录一个penaltyListener收到的违例
+	 * @param violation 违例对象，即android.os.strictmode.Violation
+	 */
+	public void recordViolation(Throwable violation) {
+		if (violation == null) {
+			Log.w(TAG, "Argument 'violation' is null at recordViolation()");
+			return;
+		}
+
+		StackTraceElement[] stackTrace = violation.getStackTrace();
+		int count = Math.min(stackTrace.length, MAX_SAMPLE_FRAMES);
+		String[] frames = new String[count];
+		for (int i = 0; i < count; i++) {
+			frames[i] = stackTrace[i].toString();
+		}
+		recordViolation(violation.getClass().getName(), -1L, frames);
+	}
+
+	/**
+	 * 记录一个违例
+	 * @param type 违例的类型，一般为违例的类名
+	 * @param durationMillis 违例阻塞的时间，单位为毫秒，未知时为-1
+	 * @param frames 调用栈，每个元素为一帧，格式与{@link StackTraceElement#toString()}相同
+	 */
+	public void recordViolation(String type, long durationMillis, String[] frames) {
+		if (type == null) {
+			Log.w(TAG, "Argument 'type' is null at recordViolation()");
+			return;
+		}
+		if (frames == null) {
+			frames = new String[0];
+		}
+
+		String signature = buildSignature(type, frames);
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			mTotalCount++;
+			Entry entry = mEntries.get(signature);
+			if (entry == null) {
+				if (mEntries.size() >= mMaxEntries) {
+					evictOne();
+				}
+				entry = new Entry(type, frames, now);
+				mEntries.put(signature, entry);
+			}
+			entry.count++;
+			entry.lastTimeMillis = now;
+			if (durationMillis >= 0L) {
+				entry.totalDurationMillis += durationMillis;
+				if (durationMillis > entry.maxDurationMillis) {
+					entry.maxDurationMillis = durationMillis;
+				}
+			}
+		}
+	}
+
+	/**
+	 * <p>解析一行StrictMode输出的日志内容（不包括日志的级别、标签和进程号等前缀）</p>
+	 * <p>一个违例由"StrictMode policy violation"开头的一行和之后以"at "开头的调用栈组成，
+	 * 在下一个违例开始或者调用{@link #flushLog()}时记录。</p>
+	 * @param message 日志的内容
+	 */
+	public void parseLogMessage(String message) {
+		if (message == null) {
+			return;
+		}
+
+		String line = message.trim();
+		if (line.length() == 0) {
+			return;
+		}
+
+		synchronized (mPendingFrames) {
+			if (line.startsWith(FRAME_PREFIX)) {
+				if (mPendingType != null && mPendingFrames.size() < MAX_SAMPLE_FRAMES) {
+					mPendingFrames.add(line.substring(FRAME_PREFIX.length()));
+				}
+				return;
+			}
+			if (line.startsWith("Caused by:") || line.startsWith("...")) {
+				return;
+			}
+
+			flushPending();
+			if (line.startsWith(VIOLATION_PREFIX)) {
+				parseViolationLine(line);
+			} else {
+				// VmPolicy的违例没有固定的格式，以第一行作为类型
+				mPendingType = line;
+				mPendingDuration = -1L;
+			}
+		}
+	}
+
+	/**
+	 * 记录解析日志时尚未结束的违例
+	 */
+	public void flushLog() {
+		synchronized (mPendingFrames) {
+			flushPending();
+		}
+	}
+
+	/**
+	 * @return 收到的违例总数，包括已经被淘汰的种类
+	 */
+	public synchronized long getTotalCount() {
+		return mTotalCount;
+	}
+
+	/**
+	 * @return 因为超出数量上限而被淘汰的违例种类数量
+	 */
+	public synchronized long getEvictedCount() {
+		return mEvictedCount;
+	}
+
+	/**
+	 * 获取累计耗时最多的违例，耗时相同（例如都未知）时按照次数排列
+	 * @param maxCount 最多返回的数量，小于等于0时返回全部
+	 * @return 违例统计数据的快照
+	 */
+	public List<ViolationStats> getTopViolations(int maxCount) {
+		flushLog();
+
+		List<ViolationStats> list = new ArrayList<ViolationStats>();
+		synchronized (this) {
+			for (Entry entry : mEntries.values()) {
+				list.add(new ViolationStats(entry));
+			}
+		}
+		Collections.sort(list, new Comparator<ViolationStats>() {
+			@Override
+			public int compare(ViolationStats lhs, ViolationStats rhs) {
+				if (lhs.totalDurationMillis != rhs.totalDurationMillis) {
+					return lhs.totalDurationMillis > rhs.totalDurationMillis ? -1 : 1;
+				}
+				if (lhs.count != rhs.count) {
+					return lhs.count > rhs.count ? -1 : 1;
+				}
+				return 0;
+			}
+		});
+
+		if (maxCount > 0 && maxCount < list.size()) {
+			return new ArrayList<ViolationStats>(list.subList(0, maxCount));
+		}
+		return list;
+	}
+
+	/**
+	 * 输出可读的统计报告
+	 * @param maxCount 最多输出的违例种类数量，小于等于0时输出全部
+	 * @return 统计报告
+	 */
+	public String dump(int maxCount) {
+		List<ViolationStats> list = getTopViolations(maxCount);
+		StringBuilder builder = new StringBuilder();
+		synchronized (this) {
+			builder.append("StrictModeViolationCollector: total=").append(mTotalCount)
+					.append(", kinds=").append(mEntries.size())
+					.append(", evicted=").append(mEvictedCount).append('\n');
+		}
+		for (ViolationStats stats : list) {
+			builder.append(String.format(Locale.US, "%d times, %d ms total, %d ms max: %s%n",
+					stats.count, stats.totalDurationMillis, stats.maxDurationMillis, stats.type));
+			for (String frame : stats.stackTrace) {
+				builder.append("\tat ").append(frame).append('\n');
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * 解析"StrictMode policy violation; ~duration=319 ms: android.os.StrictMode$StrictModeDiskReadViolation: policy=31 violation=2"
+	 */
+	private void parseViolationLine(String line) {
+		long duration = -1L;
+		int index = line.indexOf(DURATION_PREFIX);
+		if (index >= 0) {
+			index += DURATION_PREFIX.length();
+			duration = 0L;
+			while (index < line.length() && Character.isDigit(line.charAt(index))) {
+				duration = duration * 10L + (line.charAt(index) - '0');
+				index++;
+			}
+		}
+
+		int typeStart = line.indexOf(": ");
+		if (typeStart < 0) {
+			typeStart = line.length();
+		} else {
+			typeStart += 2;
+		}
+		int typeEnd = line.indexOf(':', typeStart);
+		if (typeEnd < 0) {
+			typeEnd = line.length();
+		}
+		String type = line.substring(typeStart, typeEnd).trim();
+
+		mPendingType = type.length() > 0 ? type : VIOLATION_PREFIX;
+		mPendingDuration = duration;
+	}
+
+	private void flushPending() {
+		if (mPendingType == null) {
+			return;
+		}
+		recordViolation(mPendingType, mPendingDuration,
+				mPendingFrames.toArray(new String[mPendingFrames.size()]));
+		mPendingType = null;
+		mPendingDuration = -1L;
+		mPendingFrames.clear();
+	}
+
+	/**
+	 * 淘汰累计耗时最少（耗时相同时次数最少）的一种违例
+	 */
+	private void evictOne() {
+		String victimKey = null;
+		Entry victim = null;
+		for (Map.Entry<String, Entry> item : mEntries.entrySet()) {
+			Entry entry = item.getValue();
+			if (victim == null || entry.totalDurationMillis < victim.totalDurationMillis
+					|| (entry.totalDurationMillis == victim.totalDurationMillis
+							&& entry.count < victim.count)) {
+				victim = entry;
+				victimKey = item.getKey();
+			}
+		}
+		if (victimKey != null) {
+			mEntries.remove(victimKey);
+			mEvictedCount++;
+		}
+	}
+
+	/**
+	 * <p>签名为违例类型加上调用栈中属于应用本身的前几帧。</p>
+	 * <p>同一个框架调用（如读取SharedPreferences）可能来自应用中不同的位置，
+	 * 只取框架的帧会把它们合并成一种违例。调用栈中没有应用的帧时（如CloseGuard的违例），
+	 * 改为使用跳过StrictMode自身之后的前几帧。</p>
+	 */
+	private static String buildSignature(String type, String[] frames) {
+		StringBuilder builder = new StringBuilder(type);
+		int used = 0;
+		for (int i = 0; i < frames.length && used < SIGNATURE_FRAME_COUNT; i++) {
+			String frame = frames[i];
+			if (!startsWithAny(frame, FRAMEWORK_FRAME_PREFIXES)) {
+				builder.append('\n').append(frame);
+				used++;
+			}
+		}
+		if (used > 0) {
+			return builder.toString();
+		}
+
+		for (int i = 0; i < frames.length && used < SIGNATURE_FRAME_COUNT; i++) {
+			String frame = frames[i];
+			if (used == 0 && startsWithAny(frame, IGNORED_FRAME_PREFIXES)) {
+				continue;
+			}
+			builder.append('\n').append(frame);
+			used++;
+		}
+		return builder.toString();
+	}
+
+	private static boolean startsWithAny(String frame, String[] prefixes) {
+		for (String prefix : prefixes) {
+			if (frame.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static final class Entry {
+		final String type;
+		final String[] stackTrace;
+		final long firstTimeMillis;
+		long lastTimeMillis;
+		long count;
+		long totalDurationMillis;
+		long maxDurationMillis;
+
+		Entry(String type, String[] stackTrace, long firstTimeMillis) {
+			this.type = type;
+			this.stackTrace = stackTrace;
+			this.firstTimeMillis = firstTimeMillis;
+		}
+	}
+
+	/**
+	 * 一种违例的统计数据快照
+	 */
+	public static final class ViolationStats {
+		/** 违例的类型 */
+		public final String type;
+		/** 第一次出现时的调用栈 */
+		public final String[] stackTrace;
+		/** 出现的次数 */
+		public final long count;
+		/** 累计的阻塞时间，单位为毫秒，系统不提供时为0 */
+		public final long totalDurationMillis;
+		/** 最长的一次阻塞时间，单位为毫秒 */
+		public final long maxDurationMillis;
+		/** 第一次出现的时间 */
+		public final long firstTimeMillis;
+		/** 最近一次出现的时间 */
+		public final long lastTimeMillis;
+
+		ViolationStats(Entry entry) {
+			this.type = entry.type;
+			this.stackTrace = entry.stackTrace;
+			this.count = entry.count;
+			this.totalDurationMillis = entry.totalDurationMillis;
+			this.maxDurationMillis = entry.maxDurationMillis;
+			this.firstTimeMillis = entry.firstTimeMillis;
+			this.lastTimeMillis = entry.lastTimeMillis;
+		}
+
+		@Override
+		public String toString() {
+			return type + ": count=" + count + ", total=" + totalDurationMillis
+					+ "ms, max=" + maxDurationMillis + "ms";
+		}
+	}
+
+	/**
+	 * 在后台线程中读取本进程StrictMode日志的线程
+	 */
+	private final class LogReader extends Thread {
+		private final String mPid;
+		private volatile boolean mQuit = false;
+		private java.lang.Process mProcess = null;
+
+		LogReader(int pid) {
+			super(TAG);
+			setDaemon(true);
+			mPid = String.valueOf(pid);
+		}
+
+		@Override
+		public void run() {
+			Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+			BufferedReader reader = null;
+			try {
+				java.lang.Process process = Runtime.getRuntime().exec(
+						new String[] { "logcat", "-v", "brief", "-s", LOG_TAG });
+				synchronized (this) {
+					mProcess = process;
+					if (mQuit) {
+						process.destroy();
+						return;
+					}
+				}
+
+				reader = new BufferedReader(new InputStreamReader(process.getInputStream()), 8192);
+				String line;
+				// brief格式为"D/StrictMode( 1234): message"
+				while (!mQuit && (line = reader.readLine()) != null) {
+					int open = line.indexOf('(');
+					int close = line.indexOf("):", open);
+					if (open < 0 || close < 0) {
+						continue;
+					}
+					// 进程号前面可能有空格，比较时去掉
+					if (!mPid.equals(line.substring(open + 1, close).trim())) {
+						continue;
+					}
+					parseLogMessage(line.substring(close + 2));
+				}
+			} catch (IOException e) {
+				if (!mQuit) {
+					Log.w(TAG, "IOException at LogReader.run()", e);
+				}
+			} finally {
+				if (reader != null) {
+					try {
+						reader.close();
+					} catch (IOException e) {}
+				}
+				flushLog();
+			}
+		}
+
+		synchronized void quit() {
+			mQuit = true;
+			if (mProcess != null) {
+				mProcess.destroy();
+			}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.imasson.droidshake.util.debug;
+
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.text.Spannable;
+
+import com.imasson.droidshake.util.BitmapUtils;
+import com.imasson.droidshake.util.FileUtils;
+import com.imasson.droidshake.util.ShakeLinkify;
+import com.imasson.droidshake.util.debug.AllocationTracker.Probe;
+import com.imasson.droidshake.util.debug.AllocationTracker.Sample;
+
+/**
+ * <p>常用工具方法的统计版本</p>
+ * <p>每个方法的功能、参数和返回值都与被包装的方法完全相同，只是在调用前后通过{@link AllocationTracker}
+ * 统计调用次数、耗时和内存分配。在需要分析的代码中把对原方法的调用替换成本类的方法，
+ * 然后调用{@link AllocationTracker#setEnabled(boolean)}开始统计即可。</p>
+ *
+ * @see AllocationTracker
+ */
+public final class TrackedUtils {
+
+	private static final Probe READ_STRING = AllocationTracker.probe("FileUtils.readString");
+	private static final Probe READ_STRING_LINES = AllocationTracker.probe("FileUtils.readStringLines");
+	private static final Probe READ_BYTES = AllocationTracker.probe("FileUtils.readBytes");
+	private static final Probe GET_BITMAP_FILE = AllocationTracker.probe("BitmapUtils.getBitmap(String)");
+	private static final Probe GET_BITMAP_BYTES = AllocationTracker.probe("BitmapUtils.getBitmap(byte[])");
+	private static final Probe COMPRESS_BITMAP = AllocationTracker.probe("BitmapUtils.compressBitmap");
+	private static final Probe ADD_LINKS = AllocationTracker.probe("ShakeLinkify.addLinks");
+	private static final Probe FIND_LINKS = AllocationTracker.probe("ShakeLinkify.findLinks");
+
+	/**
+	 * @see FileUtils#readString(String)
+	 */
+	public static String readString(String path) {
+		Sample sample = READ_STRING.begin();
+		try {
+			return FileUtils.readString(path);
+		} finally {
+			READ_STRING.end(sample);
+		}
+	}
+
+	/**
+	 * @see FileUtils#readStringLines(String)
+	 */
+	public static List<String> readStringLines(String path) {
+		Sample sample = READ_STRING_LINES.begin();
+		try {
+			return FileUtils.readStringLines(path);
+		} finally {
+			READ_STRING_LINES.end(sample);
+		}
+	}
+
+	/**
+	 * @see FileUtils#readBytes(String)
+	 */
+	public static byte[] readBytes(String path) {
+		Sample sample = READ_BYTES.begin();
+		try {
+			return FileUtils.readBytes(path);
+		} finally {
+			READ_BYTES.end(sample);
+		}
+	}
+
+	/**
+	 * @see BitmapUtils#getBitmap(String, int, int)
+	 */
+	public static Bitmap getBitmap(String filePath, int maxWidth, int maxHeight) {
+		Sample sample = GET_BITMAP_FILE.begin();
+		try {
+			return BitmapUtils.getBitmap(filePath, maxWidth, maxHeight);
+		} finally {
+			GET_BITMAP_FILE.end(sample);
+		}
+	}
+
+	/**
+	 * @see BitmapUtils#getBitmap(byte[], int, int)
+	 */
+	public static Bitmap getBitmap(byte[] imageBytes, int maxWidth, int maxHeight) {
+		Sample sample = GET_BITMAP_BYTES.begin();
+		try {
+			return BitmapUtils.getBitmap(imageBytes, maxWidth, maxHeight);
+		} finally {
+			GET_BITMAP_BYTES.end(sample);
+		}
+	}
+
+	/**
+	 * @see BitmapUtils#compressBitmap(Bitmap, Bitmap.CompressFormat, int)
+	 */
+	public static byte[] compressBitmap(Bitmap bitmap, Bitmap.CompressFormat format, int quality) {
+		Sample sample = COMPRESS_BITMAP.begin();
+		try {
+			return BitmapUtils.compressBitmap(bitmap, format, quality);
+		} finally {
+			COMPRESS_BITMAP.end(sample);
+		}
+	}
+
+	/**
+	 * @see ShakeLinkify#addLinks(Spannable, int)
+	 */
+	public static boolean addLinks(Spannable text, int mask) {
+		Sample sample = ADD_LINKS.begin();
+		try {
+			return ShakeLinkify.addLinks(text, mask);
+		} finally {
+			ADD_LINKS.end(sample);
+		}
+	}
+
+	/**
+	 * @see ShakeLinkify#findLinks(CharSequence, int)
+	 */
+	public static ShakeLinkify.LinkRanges findLinks(CharSequence text, int mask) {
+		Sample sample = FIND_LINKS.begin();
+		try {
+			return ShakeLinkify.findLinks(text, mask);
+		} finally {
+			FIND_LINKS.end(sample);
+		}
+	}
+
+	// Do not create this static utility class.
+	private TrackedUtils() {}
+}
@@ -0,0 +1,50 @@
+package com.imasson.droidshake.util.net;
+
+import android.util.Log;
+
+/**
+ * <p>限制同时打开的网络连接数量</p>
+ * <p>所有{@link DownloadTask}共用同一个限制器，分段下载时每个分段在连接之前都要先获取许可，
+ * 因此无论同时执行多少个任务，整个程序的下载连接数都不会超过上限。</p>
+ */
+final class ConnectionLimiter {
+	private static final String TAG = "ConnectionLimiter";
+
+	private int mMaxConnections;
+	private int mActiveConnections = 0;
+
+	ConnectionLimiter(int maxConnections) {
+		mMaxConnections = Math.max(1, maxConnections);
+	}
+
+	/**
+	 * 修改连接数的上限，已经打开的连接不受影响
+	 */
+	synchronized void setMaxConnections(int maxConnections) {
+		if (maxConnections < 1) {
+			Log.w(TAG, "Invalid maxConnections: " + maxConnections + ", use 1.");
+			maxConnections = 1;
+		}
+		mMaxConnections = maxConnections;
+		notifyAll();
+	}
+
+	synchronized int getMaxConnections() {
+		return mMaxConnections;
+	}
+
+	/**
+	 * 获取一个连接许可，达到上限时阻塞，直到其它连接释放
+	 */
+	synchronized void acquire() throws InterruptedException {
+		while (mActiveConnections >= mMaxConnections) {
+			wait();
+		}
+		mActiveConnections++;
+	}
+
+	synchronized void release() {
+		mActiveConnections--;
+		notifyAll();
+	}
+}
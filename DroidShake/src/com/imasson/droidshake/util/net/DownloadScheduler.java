@@ -0,0 +1,690 @@
+package com.imasson.droidshake.util.net;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.imasson.droidshake.util.BandwidthEstimator;
+import com.imasson.droidshake.util.ConnectivityMonitor;
+import com.imasson.droidshake.util.FileUtils;
+import com.imasson.droidshake.util.NetworkUtils;
+
+/**
+ * <p>管理大量下载请求的调度器</p>
+ * <p>目前支持的特性如下：</p>
+ * <ul>
+ * <li>按照优先级排队，优先级相同时先加入的先下载；</li>
+ * <li>相同地址的请求合并为一次下载，完成后通知所有的监听者，保存路径不同时复制到各个路径；</li>
+ * <li>根据网络状态调整同时下载的数量：没有网络时暂停；计费网络（移动网络）上只下载允许使用计费网络的请求，
+ * 并且数量更少；连接质量较差时减少下载的数量；</li>
+ * <li>失败的请求按照指数增长的间隔重试，超过次数后放弃；</li>
+ * <li>队列保存在文件中，变化后在后台线程延迟写入，短时间内的多次变化只写一次。
+ * 程序被结束后重新创建调度器时会恢复未完成的请求，已经下载的部分可以继续下载。
+ * 监听者不会被保存，需要重新加入请求才能收到通知；</li>
+ * <li>取消的请求会删除已经下载的部分。取消后立即重新加入相同地址的请求时，等待之前的下载停止后再开始；</li>
+ * <li>提供队列长度、已完成数量和吞吐量等统计数据。</li>
+ * </ul>
+ * <p>本类是线程安全的，监听者在下载线程中回调。</p>
+ *
+ * @see DownloadTask
+ */
+public class DownloadScheduler {
+	private static final String TAG = "DownloadScheduler";
+
+	/** 默认的优先级 */
+	public static final int PRIORITY_NORMAL = 0;
+	/** 较高的优先级，例如用户正在等待的下载 */
+	public static final int PRIORITY_HIGH = 10;
+	/** 较低的优先级，例如预加载 */
+	public static final int PRIORITY_LOW = -10;
+
+	/** 非计费网络上默认的最大同时下载数量 */
+	public static final int DEFAULT_MAX_CONCURRENCY = 3;
+	/** 计费网络上默认的最大同时下载数量 */
+	public static final int DEFAULT_MAX_METERED_CONCURRENCY = 1;
+	/** 失败后最多重试的次数 */
+	public static final int MAX_RETRIES = 3;
+	/** 第一次重试前等待的时间，之后每次加倍，单位为毫秒 */
+	public static final long DEFAULT_RETRY_DELAY = 2000L;
+	/** 重试前等待的最长时间，单位为毫秒 */
+	public static final long MAX_RETRY_DELAY = 5 * 60 * 1000L;
+	/** 队列变化后延迟写入文件的时间，单位为毫秒 */
+	private static final long SAVE_DELAY = 500L;
+
+	/**
+	 * 下载结果的监听接口，在下载线程中回调
+	 */
+	public interface Listener {
+		/**
+		 * 一个请求下载结束
+		 * @param url 下载地址
+		 * @param savePath 加入请求时指定的保存路径
+		 * @param result 下载的结果，{@link DownloadTask#RESULT_SUCCESS}等常量之一
+		 */
+		void onDownloadFinished(String url, String savePath, int result);
+	}
+
+	private final Context mContext;
+	private final File mQueueFile;
+	private final ExecutorService mExecutor;
+	/** 用于延迟写入队列文件和等待重试 */
+	private final ScheduledExecutorService mTimer;
+	private final ConnectivityMonitor.Listener mConnectivityListener;
+	/** 保证队列文件按照顺序写入，不能在持有this的锁时获取 */
+	private final Object mSaveLock = new Object();
+	private final Runnable mSaveRunnable = new Runnable() {
+		@Override
+		public void run() {
+			flushQueue();
+		}
+	};
+	private final Runnable mScheduleRunnable = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (DownloadScheduler.this) {
+				mWakeUpTime = Long.MAX_VALUE;
+				schedule();
+			}
+		}
+	};
+
+	/** 以地址为键的全部未完成请求，包括正在下载的请求 */
+	private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>();
+	/** 已经取消但下载还没有停止的请求，停止之前不能开始相同地址的下载 */
+	private final LinkedHashMap<String, Entry> mCanceling = new LinkedHashMap<String, Entry>();
+	private long mSequence = 0L;
+	private int mMaxConcurrency = DEFAULT_MAX_CONCURRENCY;
+	private int mMaxMeteredConcurrency = DEFAULT_MAX_METERED_CONCURRENCY;
+	private int mMaxRetries = MAX_RETRIES;
+	private long mRetryDelay = DEFAULT_RETRY_DELAY;
+	private boolean mPaused = false;
+	private boolean mShutdown = false;
+	private boolean mQueueDirty = false;
+	private boolean mSaveScheduled = false;
+	/** 已经安排的下一次重新调度的时间，没有安排时为Long.MAX_VALUE */
+	private long mWakeUpTime = Long.MAX_VALUE;
+
+	private boolean mConnected = true;
+	private boolean mMetered = false;
+	private int mQuality = BandwidthEstimator.QUALITY_UNKNOWN;
+
+	private int mRunningCount = 0;
+	private long mCompletedCount = 0L;
+	private long mFailedCount = 0L;
+	private long mCoalescedCount = 0L;
+	private long mTransferredBytes = 0L;
+	private long mBusyMillis = 0L;
+	private long mBusyStartTime = 0L;
+
+	/**
+	 * 创建调度器，并恢复队列文件中未完成的请求
+	 * @param context 上下文对象，用于监听网络状态和估计带宽，为null时不根据网络状态调度，
+	 * 可以通过{@link #updateNetworkState(boolean, boolean, int)}手动设置网络状态
+	 * @param queueFile 保存队列的文件，为null时不保存
+	 */
+	public DownloadScheduler(Context context, File queueFile) {
+		mContext = context;
+		mQueueFile = queueFile;
+		ThreadFactory factory = new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "DownloadScheduler #" + mCount.getAndIncrement());
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		};
+		mExecutor = Executors.newCachedThreadPool(factory);
+		mTimer = Executors.newSingleThreadScheduledExecutor(factory);
+
+		loadQueue();
+
+		if (context != null) {
+			ConnectivityMonitor monitor = ConnectivityMonitor.getInstance(context);
+			mConnectivityListener = new ConnectivityMonitor.Listener() {
+				@Override
+				public void onConnectivityChanged(ConnectivityMonitor.Snapshot oldSnapshot,
+						ConnectivityMonitor.Snapshot newSnapshot) {
+					updateNetworkState(newSnapshot.connected, newSnapshot.isMobile(),
+							NetworkUtils.getConnectionQuality(mContext));
+				}
+			};
+			monitor.addListener(mConnectivityListener);
+			ConnectivityMonitor.Snapshot snapshot = monitor.getSnapshot();
+			updateNetworkState(snapshot.connected, snapshot.isMobile(),
+					NetworkUtils.getConnectionQuality(context));
+		} else {
+			mConnectivityListener = null;
+			synchronized (this) {
+				schedule();
+			}
+		}
+	}
+
+	/**
+	 * 加入一个下载请求，相同地址的请求已经在队列中时合并为一次下载
+	 * @param url 下载地址
+	 * @param savePath 保存的完整路径
+	 * @param priority 优先级，越大越先下载，合并时取较大的优先级
+	 * @param allowMetered 是否允许在计费网络上下载，合并时只要有一个请求允许即可
+	 * @param listener 下载结束时的监听者，可以为null
+	 * @return 是否成功加入，参数无效或调度器已经关闭时返回false
+	 */
+	public synchronized boolean enqueue(String url, String savePath, int priority,
+			boolean allowMetered, Listener listener) {
+		if (TextUtils.isEmpty(url) || TextUtils.isEmpty(savePath)) {
+			Log.w(TAG, "Argument 'url' or 'savePath' is null or empty at enqueue()");
+			return false;
+		}
+		if (url.indexOf('\t') >= 0 || url.indexOf('\n') >= 0
+				|| savePath.indexOf('\t') >= 0 || savePath.indexOf('\n') >= 0) {
+			Log.w(TAG, "Argument 'url' or 'savePath' contains tab or line break at enqueue()");
+			return false;
+		}
+		if (mShutdown) {
+			Log.w(TAG, "The scheduler is shut down at enqueue(), url=" + url);
+			return false;
+		}
+
+		Entry entry = mEntries.get(url);
+		if (entry == null) {
+			entry = new Entry(url, savePath, priority, allowMetered, mSequence++);
+			mEntries.put(url, entry);
+		} else {
+			mCoalescedCount++;
+			entry.priority = Math.max(entry.priority, priority);
+			entry.allowMetered |= allowMetered;
+			if (!entry.savePaths.contains(savePath)) {
+				entry.savePaths.add(savePath);
+			}
+		}
+		if (listener != null) {
+			entry.listeners.add(new Target(savePath, listener));
+		}
+
+		markQueueDirty();
+		schedule();
+		return true;
+	}
+
+	/**
+	 * 取消指定地址的请求，正在下载时停止下载，并通知监听者{@link DownloadTask#RESULT_CANCELED}。
+	 * 已经下载的部分会被删除
+	 * @param url 下载地址
+	 * @return 是否找到了该请求
+	 */
+	public boolean cancel(String url) {
+		Entry entry;
+		synchronized (this) {
+			entry = mEntries.remove(url);
+			if (entry == null) {
+				return false;
+			}
+			entry.removed = true;
+			markQueueDirty();
+			if (entry.task != null) {
+				// 由下载线程删除临时文件并通知监听者
+				mCanceling.put(url, entry);
+				entry.task.cancel();
+				return true;
+			}
+			DownloadTask.deleteTempFiles(entry.savePaths.get(0));
+		}
+		notifyListeners(entry, DownloadTask.RESULT_CANCELED);
+		return true;
+	}
+
+	/**
+	 * 暂停调度，正在下载的请求会继续完成
+	 */
+	public synchronized void pause() {
+		mPaused = true;
+	}
+
+	/**
+	 * 恢复调度
+	 */
+	public synchronized void resume() {
+		mPaused = false;
+		schedule();
+	}
+
+	/**
+	 * 关闭调度器，停止正在进行的下载，并立即写入队列文件。
+	 * 队列文件中的请求会在下次创建调度器时恢复
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			if (mShutdown) {
+				return;
+			}
+			mShutdown = true;
+			for (Entry entry : mEntries.values()) {
+				if (entry.task != null) {
+					entry.task.cancel();
+				}
+			}
+		}
+		if (mConnectivityListener != null) {
+			ConnectivityMonitor.getInstance(mContext).removeListener(mConnectivityListener);
+		}
+		mTimer.shutdownNow();
+		flushQueue();
+		mExecutor.shutdown();
+	}
+
+	/**
+	 * 设置失败后的重试策略
+	 * @param maxRetries 最多重试的次数，为0时不重试
+	 * @param retryDelay 第一次重试前等待的时间，之后每次加倍，最长为{@link #MAX_RETRY_DELAY}，单位为毫秒
+	 */
+	public synchronized void setRetryPolicy(int maxRetries, long retryDelay) {
+		if (maxRetries < 0) {
+			Log.w(TAG, "Invalid maxRetries: " + maxRetries + ", use default value.");
+			maxRetries = MAX_RETRIES;
+		}
+		if (retryDelay < 0L) {
+			Log.w(TAG, "Invalid retryDelay: " + retryDelay + ", use default value.");
+			retryDelay = DEFAULT_RETRY_DELAY;
+		}
+		mMaxRetries = maxRetries;
+		mRetryDelay = retryDelay;
+	}
+
+	/**
+	 * 设置同时下载的最大数量
+	 * @param maxConcurrency 非计费网络上的最大数量
+	 * @param maxMeteredConcurrency 计费网络上的最大数量
+	 */
+	public synchronized void setMaxConcurrency(int maxConcurrency, int maxMeteredConcurrency) {
+		if (maxConcurrency < 1) {
+			Log.w(TAG, "Invalid maxConcurrency: " + maxConcurrency + ", use default value.");
+			maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+		}
+		if (maxMeteredConcurrency < 0) {
+			Log.w(TAG, "Invalid maxMeteredConcurrency: " + maxMeteredConcurrency
+					+ ", use default value.");
+			maxMeteredConcurrency = DEFAULT_MAX_METERED_CONCURRENCY;
+		}
+		mMaxConcurrency = maxConcurrency;
+		mMaxMeteredConcurrency = maxMeteredConcurrency;
+		schedule();
+	}
+
+	/**
+	 * <p>更新网络状态并重新调度</p>
+	 * <p>创建调度器时指定了Context的话会自动更新，一般不需要手动调用。
+	 * 网络断开或者切换到计费网络时，不允许继续下载的请求会被停止并重新排队，之后从停止的位置继续下载。</p>
+	 * @param connected 是否已经连接上网络
+	 * @param metered 是否为计费网络
+	 * @param quality 连接质量，{@link BandwidthEstimator#QUALITY_UNKNOWN}等常量之一
+	 */
+	public synchronized void updateNetworkState(boolean connected, boolean metered, int quality) {
+		mConnected = connected;
+		mMetered = metered;
+		mQuality = quality;
+
+		for (Entry entry : mEntries.values()) {
+			if (entry.task != null && !isAllowed(entry)) {
+				entry.requeue = true;
+				entry.task.cancel();
+			}
+		}
+		schedule();
+	}
+
+	/**
+	 * @return 根据当前网络状态允许同时下载的数量
+	 */
+	public synchronized int getAllowedConcurrency() {
+		if (mPaused || mShutdown || !mConnected) {
+			return 0;
+		}
+
+		int concurrency = mMetered ? mMaxMeteredConcurrency : mMaxConcurrency;
+		if (mQuality == BandwidthEstimator.QUALITY_POOR) {
+			concurrency = Math.min(concurrency, 1);
+		} else if (mQuality == BandwidthEstimator.QUALITY_MODERATE) {
+			concurrency = Math.min(concurrency, 2);
+		}
+		return concurrency;
+	}
+
+	/**
+	 * @return 排队等待下载的请求数量，不包括正在下载的请求
+	 */
+	public synchronized int getQueueDepth() {
+		return mEntries.size() - mRunningCount;
+	}
+
+	/**
+	 * @return 正在下载的请求数量
+	 */
+	public synchronized int getRunningCount() {
+		return mRunningCount;
+	}
+
+	/**
+	 * @return 成功完成的下载次数，合并的请求只算一次
+	 */
+	public synchronized long getCompletedCount() {
+		return mCompletedCount;
+	}
+
+	/**
+	 * @return 重试之后仍然失败的下载次数
+	 */
+	public synchronized long getFailedCount() {
+		return mFailedCount;
+	}
+
+	/**
+	 * @return 因为地址相同而被合并的请求数量
+	 */
+	public synchronized long getCoalescedCount() {
+		return mCoalescedCount;
+	}
+
+	/**
+	 * @return 实际传输的总字节数
+	 */
+	public synchronized long getTransferredBytes() {
+		return mTransferredBytes;
+	}
+
+	/**
+	 * @return 有下载正在进行的这段时间内的平均吞吐量，单位为byte/s，还没有下载时返回0
+	 */
+	public synchronized long getThroughput() {
+		long busyMillis = mBusyMillis;
+		if (mRunningCount > 0) {
+			busyMillis += SystemClock.elapsedRealtime() - mBusyStartTime;
+		}
+		return busyMillis > 0L ? mTransferredBytes * 1000L / busyMillis : 0L;
+	}
+
+	private boolean isAllowed(Entry entry) {
+		return !mShutdown && mConnected && (!mMetered || entry.allowMetered);
+	}
+
+	/**
+	 * 在允许的数量之内，按照优先级开始下载排队的请求，必须在持有锁时调用
+	 */
+	private void schedule() {
+		int allowed = getAllowedConcurrency();
+		long now = SystemClock.elapsedRealtime();
+		long nextRetryTime = Long.MAX_VALUE;
+		while (mRunningCount < allowed) {
+			Entry next = null;
+			for (Entry entry : mEntries.values()) {
+				if (entry.task != null || !isAllowed(entry) || mCanceling.containsKey(entry.url)) {
+					continue;
+				}
+				if (entry.retryTime > now) {
+					nextRetryTime = Math.min(nextRetryTime, entry.retryTime);
+					continue;
+				}
+				if (next == null || entry.priority > next.priority
+						|| (entry.priority == next.priority && entry.sequence < next.sequence)) {
+					next = entry;
+				}
+			}
+			if (next == null) {
+				break;
+			}
+			start(next);
+		}
+
+		if (nextRetryTime < mWakeUpTime && !mShutdown) {
+			mWakeUpTime = nextRetryTime;
+			mTimer.schedule(mScheduleRunnable, nextRetryTime - now, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void start(final Entry entry) {
+		final DownloadTask task = new DownloadTask(entry.url, entry.savePaths.get(0));
+		entry.task = task;
+		entry.requeue = false;
+		if (mRunningCount++ == 0) {
+			mBusyStartTime = SystemClock.elapsedRealtime();
+		}
+
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				int result = task.execute();
+				onTaskFinished(entry, task, result);
+			}
+		});
+	}
+
+	private void onTaskFinished(Entry entry, DownloadTask task, int result) {
+		if (mContext != null) {
+			NetworkUtils.recordTransfer(mContext, task.getTransferredBytes(), task.getElapsedMillis());
+		}
+
+		boolean finished;
+		synchronized (this) {
+			entry.task = null;
+			mTransferredBytes += task.getTransferredBytes();
+			if (--mRunningCount == 0) {
+				mBusyMillis += SystemClock.elapsedRealtime() - mBusyStartTime;
+			}
+
+			if (entry.removed) {
+				finished = true;
+				result = DownloadTask.RESULT_CANCELED;
+				// 删除临时文件之后才能开始相同地址的下载
+				DownloadTask.deleteTempFiles(entry.savePaths.get(0));
+				mCanceling.remove(entry.url);
+			} else if (result == DownloadTask.RESULT_CANCELED && (entry.requeue || mShutdown)) {
+				// 因为网络变化或者关闭而停止，留在队列中
+				finished = false;
+			} else if (result == DownloadTask.RESULT_FAILED && ++entry.retries <= mMaxRetries) {
+				finished = false;
+				long delay = mRetryDelay << Math.min(entry.retries - 1, 30);
+				entry.retryTime = SystemClock.elapsedRealtime() + Math.min(delay, MAX_RETRY_DELAY);
+			} else {
+				finished = true;
+				mEntries.remove(entry.url);
+				if (result == DownloadTask.RESULT_SUCCESS) {
+					mCompletedCount++;
+				} else {
+					mFailedCount++;
+				}
+				markQueueDirty();
+			}
+			schedule();
+		}
+		if (mShutdown) {
+			// 关闭之后不再延迟写入
+			flushQueue();
+		}
+
+		if (finished) {
+			if (result == DownloadTask.RESULT_SUCCESS) {
+				copyToOtherPaths(entry);
+			}
+			notifyListeners(entry, result);
+		}
+	}
+
+	private static void copyToOtherPaths(Entry entry) {
+		String source = entry.savePaths.get(0);
+		for (int i = 1; i < entry.savePaths.size(); i++) {
+			String path = entry.savePaths.get(i);
+			File parent = new File(path).getParentFile();
+			if (parent != null) {
+				FileUtils.mkdirIfNotFound(parent.getPath());
+			}
+			if (!FileUtils.copyFile(source, path)) {
+				Log.w(TAG, "Can't copy the downloaded file to " + path + ", url=" + entry.url);
+			}
+		}
+	}
+
+	private void notifyListeners(Entry entry, int result) {
+		List<Target> targets;
+		synchronized (this) {
+			targets = new ArrayList<Target>(entry.listeners);
+		}
+		for (Target target : targets) {
+			target.listener.onDownloadFinished(entry.url, target.savePath, result);
+		}
+	}
+
+	/**
+	 * 标记队列已经变化，延迟一段时间后在后台线程写入文件，必须在持有锁时调用
+	 */
+	private void markQueueDirty() {
+		if (mQueueFile == null) {
+			return;
+		}
+		mQueueDirty = true;
+		if (!mSaveScheduled && !mShutdown) {
+			mSaveScheduled = true;
+			mTimer.schedule(mSaveRunnable, SAVE_DELAY, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * <p>队列有变化时，把未完成的请求保存到队列文件，每行一个请求：</p>
+	 * <pre>priority\tallowMetered\turl\tsavePath[\tsavePath...]</pre>
+	 * <p>不能在持有锁时调用。</p>
+	 */
+	private void flushQueue() {
+		synchronized (mSaveLock) {
+			StringBuilder builder = new StringBuilder();
+			synchronized (this) {
+				mSaveScheduled = false;
+				if (!mQueueDirty) {
+					return;
+				}
+				mQueueDirty = false;
+				for (Entry entry : mEntries.values()) {
+					builder.append(entry.priority).append('\t').append(entry.allowMetered ? 1 : 0)
+							.append('\t').append(entry.url);
+					for (String path : entry.savePaths) {
+						builder.append('\t').append(path);
+					}
+					builder.append('\n');
+				}
+			}
+			writeQueue(builder.toString());
+		}
+	}
+
+	private void writeQueue(String content) {
+		File tmpFile = new File(mQueueFile.getPath() + ".tmp");
+		FileWriter writer = null;
+		try {
+			writer = new FileWriter(tmpFile);
+			writer.write(content);
+			writer.close();
+			writer = null;
+			if (!tmpFile.renameTo(mQueueFile)) {
+				mQueueFile.delete();
+				tmpFile.renameTo(mQueueFile);
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "IOException at writeQueue(), path=" + mQueueFile, e);
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	private synchronized void loadQueue() {
+		if (mQueueFile == null || !mQueueFile.exists()) {
+			return;
+		}
+
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(mQueueFile));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (fields.length < 4) {
+					continue;
+				}
+				Entry entry = new Entry(fields[2], fields[3], Integer.parseInt(fields[0]),
+						"1".equals(fields[1]), mSequence++);
+				for (int i = 4; i < fields.length; i++) {
+					entry.savePaths.add(fields[i]);
+				}
+				mEntries.put(entry.url, entry);
+			}
+			Log.i(TAG, "Restored " + mEntries.size() + " requests from " + mQueueFile);
+		} catch (IOException e) {
+			Log.w(TAG, "IOException at loadQueue(), path=" + mQueueFile, e);
+		} catch (NumberFormatException e) {
+			Log.w(TAG, "Invalid queue file at loadQueue(), path=" + mQueueFile, e);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+
+	/**
+	 * 一个下载地址对应的请求，合并后可能有多个保存路径和监听者
+	 */
+	private static final class Entry {
+		final String url;
+		final List<String> savePaths = new ArrayList<String>(1);
+		final List<Target> listeners = new ArrayList<Target>(1);
+		final long sequence;
+		int priority;
+		boolean allowMetered;
+		int retries = 0;
+		/** 失败后等待重试，在这个时间之前不会开始下载，单位同{@link SystemClock#elapsedRealtime()} */
+		long retryTime = 0L;
+		DownloadTask task = null;
+		/** 被网络变化停止，需要重新排队 */
+		boolean requeue = false;
+		/** 被{@link DownloadScheduler#cancel(String)}移除 */
+		boolean removed = false;
+
+		Entry(String url, String savePath, int priority, boolean allowMetered, long sequence) {
+			this.url = url;
+			this.savePaths.add(savePath);
+			this.priority = priority;
+			this.allowMetered = allowMetered;
+			this.sequence = sequence;
+		}
+	}
+
+	private static final class Target {
+		final String savePath;
+		final Listener listener;
+
+		Target(String savePath, Listener listener) {
+			this.savePath = savePath;
+			this.listener = listener;
+		}
+	}
+}
@@ -0,0 +1,796 @@
+package com.imasson.droidshake.util.net;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.imasson.droidshake.util.FileUtils;
+
+/**
+ * <p>支持断点续传和多线程分段下载的下载任务</p>
+ * <p>下载过程：</p>
+ * <ol>
+ * <li>先发送一个只请求第一个字节的Range请求，判断服务器是否支持Range，并获取文件的总长度；
+ * 服务器不支持Range而返回完整的文件时，直接使用这次请求的内容，不再重新请求；</li>
+ * <li>支持Range时把文件分成若干段，每段使用一个连接并行下载，通过{@link RandomAccessFile}
+ * 直接写入临时文件（目标路径加上".part"）的对应位置；</li>
+ * <li>下载过程中定期把每段的进度保存到状态文件（目标路径加上".part.meta"），
+ * 失败或取消后再次执行时，只要服务器上的文件没有变化（长度、ETag或Last-Modified相同），
+ * 就从上次的位置继续下载；下载过程中发现文件已经变化时，删除临时文件并重新开始；</li>
+ * <li>全部分段完成后，如果设置了摘要则通过{@link FileUtils#computeDigest(String, String)}校验，
+ * 校验通过后把临时文件重命名为目标文件。</li>
+ * </ol>
+ * <p>所有任务共用一个连接数的上限，包括探测请求，见{@link #setMaxConnections(int)}。</p>
+ * <p>{@link #execute()}会阻塞当前线程直到下载结束，请不要在主线程中调用。</p>
+ *
+ * @version 1.0 支持断点续传、分段下载和摘要校验
+ */
+public class DownloadTask {
+	private static final String TAG = "DownloadTask";
+
+	/** 下载成功 */
+	public static final int RESULT_SUCCESS = 0;
+	/** 网络或者文件读写失败，再次执行时可以继续下载 */
+	public static final int RESULT_FAILED = 1;
+	/** 被{@link #cancel()}取消，用同样的地址和路径创建新的任务即可继续下载 */
+	public static final int RESULT_CANCELED = 2;
+	/** 文件下载完毕，但是摘要校验失败，临时文件已经被删除 */
+	public static final int RESULT_DIGEST_MISMATCH = 3;
+
+	/** 默认的分段数量 */
+	public static final int DEFAULT_SEGMENT_COUNT = 3;
+	/** 默认的最小分段大小，小于该大小的文件不会再分段 */
+	public static final long DEFAULT_MIN_SEGMENT_SIZE = 512 * 1024;
+	/** 默认的全局连接数上限 */
+	public static final int DEFAULT_MAX_CONNECTIONS = 4;
+
+	public static final int DEFAULT_CONNECT_TIMEOUT = 15000;
+	public static final int DEFAULT_READ_TIMEOUT = 30000;
+
+	/** 保存状态文件和通知进度的间隔，单位为毫秒 */
+	private static final long PROGRESS_INTERVAL = 500L;
+
+	/** 下载过程中发现文件变化时，最多重新开始的次数 */
+	private static final int MAX_RESTARTS = 2;
+
+	/** HTTP 416，空文件的Range请求会得到该响应 */
+	private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+	private static final String PART_SUFFIX = ".part";
+	private static final String META_SUFFIX = ".part.meta";
+
+	private static final ConnectionLimiter sLimiter = new ConnectionLimiter(DEFAULT_MAX_CONNECTIONS);
+
+	private static final ExecutorService sExecutor = Executors.newCachedThreadPool(
+			new ThreadFactory() {
+				private final AtomicInteger mCount = new AtomicInteger(1);
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "DownloadTask #" + mCount.getAndIncrement());
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+
+	/**
+	 * 下载进度的监听接口，在调用{@link DownloadTask#execute()}的线程中回调
+	 */
+	public interface Listener {
+		/**
+		 * 下载进度发生了变化
+		 * @param task 下载任务
+		 * @param downloadedBytes 已经下载的字节数，包括之前下载的部分
+		 * @param totalBytes 文件的总长度，服务器没有返回长度时为-1
+		 */
+		void onProgress(DownloadTask task, long downloadedBytes, long totalBytes);
+	}
+
+	private final String mUrl;
+	private final String mSavePath;
+	private int mSegmentCount = DEFAULT_SEGMENT_COUNT;
+	private long mMinSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+	private int mConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private int mReadTimeout = DEFAULT_READ_TIMEOUT;
+	private String mDigestAlgorithm = null;
+	private String mExpectedDigest = null;
+	private Listener mListener = null;
+
+	private volatile boolean mCanceled = false;
+	private volatile boolean mRunning = false;
+	private long mTotalBytes = -1L;
+	/** ETag或者Last-Modified，用于判断服务器上的文件是否变化 */
+	private String mValidator = null;
+	private Segment[] mSegments = new Segment[0];
+	/** 分段请求时服务器返回的不是206，或者206的长度、ETag不一致，说明文件已经变化，需要重新下载 */
+	private volatile boolean mStateInvalid = false;
+	private final AtomicLong mTransferredBytes = new AtomicLong();
+	private long mElapsedMillis = 0L;
+
+	/**
+	 * 创建下载任务
+	 * @param url 下载地址，只支持HTTP和HTTPS
+	 * @param savePath 保存的完整路径，所在的目录不存在时会自动创建
+	 */
+	public DownloadTask(String url, String savePath) {
+		mUrl = url;
+		mSavePath = savePath;
+	}
+
+	/**
+	 * 设置全部下载任务同时打开的连接数上限
+	 * @param maxConnections 连接数上限，至少为1
+	 */
+	public static void setMaxConnections(int maxConnections) {
+		sLimiter.setMaxConnections(maxConnections);
+	}
+
+	public static int getMaxConnections() {
+		return sLimiter.getMaxConnections();
+	}
+
+	/**
+	 * 设置分段数量和最小分段大小，只对新开始的下载有效，继续下载时沿用原来的分段
+	 * @param segmentCount 最多分成多少段，为1时不分段
+	 * @param minSegmentSize 每段的最小大小，单位为byte
+	 */
+	public void setSegments(int segmentCount, long minSegmentSize) {
+		if (segmentCount < 1) {
+			Log.w(TAG, "Invalid segmentCount: " + segmentCount + ", use default value.");
+			segmentCount = DEFAULT_SEGMENT_COUNT;
+		}
+		if (minSegmentSize < 1L) {
+			Log.w(TAG, "Invalid minSegmentSize: " + minSegmentSize + ", use default value.");
+			minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+		}
+		mSegmentCount = segmentCount;
+		mMinSegmentSize = minSegmentSize;
+	}
+
+	/**
+	 * 设置连接超时和读取超时，单位为毫秒
+	 */
+	public void setTimeout(int connectTimeout, int readTimeout) {
+		mConnectTimeout = connectTimeout;
+		mReadTimeout = readTimeout;
+	}
+
+	/**
+	 * 设置下载完毕后需要校验的摘要
+	 * @param algorithm 摘要算法，例如"MD5"、"SHA-1"
+	 * @param expectedDigest 十六进制表示的摘要，不区分大小写，为null时不校验
+	 */
+	public void setExpectedDigest(String algorithm, String expectedDigest) {
+		mDigestAlgorithm = algorithm;
+		mExpectedDigest = expectedDigest;
+	}
+
+	public void setListener(Listener listener) {
+		mListener = listener;
+	}
+
+	public String getUrl() {
+		return mUrl;
+	}
+
+	public String getSavePath() {
+		return mSavePath;
+	}
+
+	/**
+	 * @return 文件的总长度，还没有连接或者服务器没有返回长度时为-1
+	 */
+	public long getTotalBytes() {
+		return mTotalBytes;
+	}
+
+	/**
+	 * @return 已经下载的字节数，包括之前下载的部分
+	 */
+	public long getDownloadedBytes() {
+		long downloaded = 0L;
+		Segment[] segments = mSegments;
+		for (int i = 0; i < segments.length; i++) {
+			downloaded += segments[i].downloaded.get();
+		}
+		return downloaded;
+	}
+
+	/**
+	 * @return 最近一次执行时实际传输的字节数，不包括之前下载的部分，可以用于估计网络带宽
+	 * @see com.imasson.droidshake.util.NetworkUtils#recordTransfer(android.content.Context, long, long)
+	 */
+	public long getTransferredBytes() {
+		return mTransferredBytes.get();
+	}
+
+	/**
+	 * @return 最近一次执行的耗时，单位为毫秒
+	 */
+	public long getElapsedMillis() {
+		return mElapsedMillis;
+	}
+
+	public boolean isRunning() {
+		return mRunning;
+	}
+
+	/**
+	 * 取消下载，{@link #execute()}会尽快返回{@link #RESULT_CANCELED}，已经下载的部分会被保留。
+	 * 取消之后本任务不能再执行
+	 * @see #deleteTempFiles(String)
+	 */
+	public void cancel() {
+		mCanceled = true;
+	}
+
+	public boolean isCanceled() {
+		return mCanceled;
+	}
+
+	/**
+	 * 删除下载的临时文件和状态文件，之后再下载时需要从头开始。不要在该路径的任务执行时调用
+	 * @param savePath 下载任务的保存路径
+	 */
+	public static void deleteTempFiles(String savePath) {
+		if (TextUtils.isEmpty(savePath)) {
+			Log.w(TAG, "Argument 'savePath' is null or empty at deleteTempFiles(String)");
+			return;
+		}
+		new File(savePath + PART_SUFFIX).delete();
+		new File(savePath + META_SUFFIX).delete();
+	}
+
+	/**
+	 * <p>执行下载，阻塞直到下载结束</p>
+	 * <p>目标文件已经存在时会被覆盖。</p>
+	 * @return 下载的结果，{@link #RESULT_SUCCESS}等常量之一
+	 */
+	public int execute() {
+		if (TextUtils.isEmpty(mUrl) || TextUtils.isEmpty(mSavePath)) {
+			Log.w(TAG, "Argument 'url' or 'savePath' is null or empty at execute()");
+			return RESULT_FAILED;
+		}
+		synchronized (this) {
+			if (mRunning) {
+				Log.w(TAG, "The task is already running at execute(), url=" + mUrl);
+				return RESULT_FAILED;
+			}
+			mRunning = true;
+		}
+		if (mCanceled) {
+			mRunning = false;
+			return RESULT_CANCELED;
+		}
+
+		long startTime = SystemClock.elapsedRealtime();
+		mTransferredBytes.set(0L);
+		try {
+			File partFile = new File(mSavePath + PART_SUFFIX);
+			File metaFile = new File(mSavePath + META_SUFFIX);
+			File parent = partFile.getParentFile();
+			if (parent != null && !parent.exists() && !parent.mkdirs()) {
+				Log.w(TAG, "The target dir can't be created at execute(), path=" + mSavePath);
+				return RESULT_FAILED;
+			}
+
+			int result;
+			int restarts = 0;
+			while (true) {
+				mStateInvalid = false;
+				if (!prepare(partFile, metaFile)) {
+					return mCanceled ? RESULT_CANCELED : RESULT_FAILED;
+				}
+				result = download(partFile, metaFile);
+				// 文件在下载过程中发生了变化，临时文件已经删除，重新开始
+				if (!mStateInvalid || mCanceled || restarts++ >= MAX_RESTARTS) {
+					break;
+				}
+				Log.i(TAG, "Restart download, url=" + mUrl);
+			}
+			if (result != RESULT_SUCCESS) {
+				return result;
+			}
+			return finish(partFile, metaFile);
+		} finally {
+			mElapsedMillis = SystemClock.elapsedRealtime() - startTime;
+			mRunning = false;
+		}
+	}
+
+	/**
+	 * 探测服务器并恢复或者创建分段。服务器不支持Range时直接下载探测请求返回的内容
+	 */
+	private boolean prepare(File partFile, File metaFile) {
+		try {
+			sLimiter.acquire();
+		} catch (InterruptedException e) {
+			mCanceled = true;
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		HttpURLConnection conn = null;
+		InputStream is = null;
+		try {
+			conn = openConnection();
+			conn.setRequestProperty("Range", "bytes=0-0");
+			int code = conn.getResponseCode();
+			mValidator = conn.getHeaderField("ETag");
+			if (mValidator == null) {
+				mValidator = conn.getHeaderField("Last-Modified");
+			}
+			if (code == HttpURLConnection.HTTP_PARTIAL) {
+				mTotalBytes = parseContentRangeTotal(conn.getHeaderField("Content-Range"));
+			} else if (code == HttpURLConnection.HTTP_OK) {
+				// 不能分段，也不能继续下载，直接使用这次请求的内容
+				mTotalBytes = parseLong(conn.getHeaderField("Content-Length"));
+				is = conn.getInputStream();
+				return downloadWhole(is, partFile, metaFile);
+			} else if (code == HTTP_RANGE_NOT_SATISFIABLE
+					&& parseContentRangeTotal(conn.getHeaderField("Content-Range")) <= 0L) {
+				// 空文件没有第一个字节
+				mTotalBytes = 0L;
+				return downloadWhole(null, partFile, metaFile);
+			} else {
+				Log.w(TAG, "Unexpected response code " + code + " at prepare(), url=" + mUrl);
+				return false;
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "IOException at prepare(), url=" + mUrl, e);
+			return false;
+		} finally {
+			if (is != null) {
+				try {
+					is.close();
+				} catch (IOException e) {}
+			}
+			if (conn != null) {
+				conn.disconnect();
+			}
+			sLimiter.release();
+		}
+
+		if (mTotalBytes > 0L && partFile.exists() && loadState(metaFile)) {
+			Log.i(TAG, "Resume download from " + getDownloadedBytes() + "/" + mTotalBytes
+					+ ", url=" + mUrl);
+			return true;
+		}
+
+		partFile.delete();
+		metaFile.delete();
+		if (mTotalBytes <= 0L) {
+			// 服务器没有返回总长度，不能分段
+			mSegments = new Segment[] { new Segment(0L, -1L, 0L) };
+			return true;
+		}
+
+		long count = Math.min(mSegmentCount, (mTotalBytes + mMinSegmentSize - 1) / mMinSegmentSize);
+		count = Math.max(1L, count);
+		long size = mTotalBytes / count;
+		Segment[] segments = new Segment[(int) count];
+		for (int i = 0; i < count; i++) {
+			long start = i * size;
+			long end = i == count - 1 ? mTotalBytes - 1 : start + size - 1;
+			segments[i] = new Segment(start, end, 0L);
+		}
+		mSegments = segments;
+		return true;
+	}
+
+	/**
+	 * 把探测请求返回的完整内容写入新的临时文件，作为唯一的分段
+	 * @param is 完整内容的输入流，为null时表示空文件
+	 * @return 是否下载完毕或者被取消，失败时返回false
+	 */
+	private boolean downloadWhole(InputStream is, File partFile, File metaFile) throws IOException {
+		partFile.delete();
+		metaFile.delete();
+		Segment segment = new Segment(0L, -1L, 0L);
+		mSegments = new Segment[] { segment };
+
+		RandomAccessFile raf = new RandomAccessFile(partFile, "rw");
+		try {
+			if (is != null) {
+				transfer(is, raf, segment, Long.MAX_VALUE);
+			}
+		} finally {
+			raf.close();
+		}
+		segment.done = !mCanceled;
+		return true;
+	}
+
+	/**
+	 * 并行下载所有未完成的分段，定期保存状态并通知进度
+	 */
+	private int download(File partFile, File metaFile) {
+		final Segment[] segments = mSegments;
+		List<Segment> pending = new ArrayList<Segment>(segments.length);
+		for (Segment segment : segments) {
+			segment.failed = false;
+			if (!segment.isComplete()) {
+				pending.add(segment);
+			}
+		}
+
+		final boolean ranged = mTotalBytes > 0L && segments[0].end >= 0L;
+		final CountDownLatch latch = new CountDownLatch(pending.size());
+		final File file = partFile;
+		for (final Segment segment : pending) {
+			sExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						downloadSegment(segment, file, ranged);
+					} finally {
+						latch.countDown();
+					}
+				}
+			});
+		}
+
+		try {
+			while (!latch.await(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS)) {
+				if (ranged) {
+					saveState(metaFile);
+				}
+				notifyProgress();
+			}
+		} catch (InterruptedException e) {
+			// 调用者中断了当前线程，按照取消处理
+			mCanceled = true;
+			try {
+				latch.await();
+			} catch (InterruptedException ignored) {}
+			Thread.currentThread().interrupt();
+		}
+		notifyProgress();
+
+		if (mStateInvalid) {
+			partFile.delete();
+			metaFile.delete();
+			return RESULT_FAILED;
+		}
+
+		boolean failed = false;
+		for (Segment segment : segments) {
+			if (segment.failed || (ranged && !segment.isComplete())) {
+				failed = true;
+			}
+		}
+		if (!ranged && mTotalBytes >= 0L && getDownloadedBytes() != mTotalBytes) {
+			failed = true;
+		}
+		if (failed || mCanceled) {
+			if (ranged) {
+				saveState(metaFile);
+			}
+			return mCanceled ? RESULT_CANCELED : RESULT_FAILED;
+		}
+		return RESULT_SUCCESS;
+	}
+
+	private void downloadSegment(Segment segment, File partFile, boolean ranged) {
+		HttpURLConnection conn = null;
+		InputStream is = null;
+		RandomAccessFile raf = null;
+		try {
+			sLimiter.acquire();
+		} catch (InterruptedException e) {
+			segment.failed = true;
+			return;
+		}
+
+		try {
+			if (mCanceled) {
+				return;
+			}
+
+			if (!ranged) {
+				// 不能继续下载，从头开始
+				segment.downloaded.set(0L);
+			}
+			long offset = segment.start + segment.downloaded.get();
+			conn = openConnection();
+			if (ranged) {
+				conn.setRequestProperty("Range", "bytes=" + offset + "-" + segment.end);
+				// If-Range使用强比较，弱ETag总是会得到200，此时只能检查206响应的ETag
+				if (mValidator != null && !isWeakETag(mValidator)) {
+					conn.setRequestProperty("If-Range", mValidator);
+				}
+			}
+
+			int code = conn.getResponseCode();
+			if (ranged && (code != HttpURLConnection.HTTP_PARTIAL || !isSameFile(conn))) {
+				Log.w(TAG, "The file has changed on server, response code " + code
+						+ " at downloadSegment(), url=" + mUrl);
+				mStateInvalid = true;
+				segment.failed = true;
+				return;
+			} else if (!ranged && code != HttpURLConnection.HTTP_OK) {
+				Log.w(TAG, "Unexpected response code " + code + " at downloadSegment(), url=" + mUrl);
+				segment.failed = true;
+				return;
+			}
+
+			is = conn.getInputStream();
+			raf = new RandomAccessFile(partFile, "rw");
+			raf.seek(offset);
+
+			long remaining = transfer(is, raf, segment,
+					ranged ? segment.end - offset + 1 : Long.MAX_VALUE);
+			if (!ranged && !mCanceled) {
+				segment.done = true;
+			}
+			if (ranged && remaining > 0L && !mCanceled) {
+				Log.w(TAG, "Connection closed before the segment is complete at downloadSegment(), "
+						+ "url=" + mUrl);
+				segment.failed = true;
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "IOException at downloadSegment(), url=" + mUrl, e);
+			segment.failed = true;
+		} finally {
+			if (is != null) {
+				try {
+					is.close();
+				} catch (IOException e) {}
+			}
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {}
+			}
+			if (conn != null) {
+				conn.disconnect();
+			}
+			sLimiter.release();
+		}
+	}
+
+	/**
+	 * 从输入流读取数据写入文件的当前位置，直到读完、达到指定长度或者被取消
+	 * @return 剩余未读取的长度
+	 */
+	private long transfer(InputStream is, RandomAccessFile raf, Segment segment, long remaining)
+			throws IOException {
+		byte[] buffer = new byte[FileUtils.DEFAULT_BUFFER_SIZE];
+		int count;
+		while (remaining > 0L && !mCanceled
+				&& (count = is.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+			raf.write(buffer, 0, count);
+			segment.downloaded.addAndGet(count);
+			mTransferredBytes.addAndGet(count);
+			remaining -= count;
+		}
+		return remaining;
+	}
+
+	/**
+	 * 校验摘要并把临时文件重命名为目标文件
+	 */
+	private int finish(File partFile, File metaFile) {
+		if (!TextUtils.isEmpty(mExpectedDigest)) {
+			String digest = FileUtils.computeDigest(partFile.getPath(), mDigestAlgorithm);
+			if (digest == null || !digest.equalsIgnoreCase(mExpectedDigest)) {
+				Log.w(TAG, "Digest mismatch at finish(), expected=" + mExpectedDigest
+						+ ", actual=" + digest + ", url=" + mUrl);
+				partFile.delete();
+				metaFile.delete();
+				return RESULT_DIGEST_MISMATCH;
+			}
+		}
+
+		File target = new File(mSavePath);
+		if (target.exists() && !target.delete()) {
+			Log.w(TAG, "The target file can't be deleted at finish(), path=" + mSavePath);
+			return RESULT_FAILED;
+		}
+		if (!partFile.renameTo(target)) {
+			Log.w(TAG, "Can't rename the temporary file at finish(), path=" + mSavePath);
+			return RESULT_FAILED;
+		}
+		metaFile.delete();
+		return RESULT_SUCCESS;
+	}
+
+	private void notifyProgress() {
+		Listener listener = mListener;
+		if (listener != null) {
+			listener.onProgress(this, getDownloadedBytes(), mTotalBytes);
+		}
+	}
+
+	private HttpURLConnection openConnection() throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(mUrl).openConnection();
+		conn.setConnectTimeout(mConnectTimeout);
+		conn.setReadTimeout(mReadTimeout);
+		// 禁止透明的gzip压缩，否则Range和Content-Length都是压缩后的长度
+		conn.setRequestProperty("Accept-Encoding", "identity");
+		return conn;
+	}
+
+	/**
+	 * <p>保存分段的状态，格式为：</p>
+	 * <pre>
+	 * url
+	 * totalBytes
+	 * validator
+	 * start end downloaded
+	 * ...
+	 * </pre>
+	 */
+	private void saveState(File metaFile) {
+		File tmpFile = new File(metaFile.getPath() + ".tmp");
+		FileWriter writer = null;
+		try {
+			StringBuilder builder = new StringBuilder();
+			builder.append(mUrl).append('\n');
+			builder.append(mTotalBytes).append('\n');
+			builder.append(mValidator != null ? mValidator : "").append('\n');
+			for (Segment segment : mSegments) {
+				builder.append(segment.start).append(' ').append(segment.end).append(' ')
+						.append(segment.downloaded.get()).append('\n');
+			}
+			writer = new FileWriter(tmpFile);
+			writer.write(builder.toString());
+			writer.close();
+			writer = null;
+			if (!tmpFile.renameTo(metaFile)) {
+				metaFile.delete();
+				tmpFile.renameTo(metaFile);
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "IOException at saveState(), path=" + metaFile, e);
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	/**
+	 * 读取分段的状态，地址、长度或者校验值与服务器不一致时返回false
+	 */
+	private boolean loadState(File metaFile) {
+		if (!metaFile.exists()) {
+			return false;
+		}
+
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(metaFile));
+			String url = reader.readLine();
+			long total = parseLong(reader.readLine());
+			String validator = reader.readLine();
+			if (!mUrl.equals(url) || total != mTotalBytes
+					|| !(mValidator != null ? mValidator : "").equals(validator)) {
+				return false;
+			}
+
+			List<Segment> segments = new ArrayList<Segment>();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(" ");
+				if (fields.length != 3) {
+					return false;
+				}
+				Segment segment = new Segment(parseLong(fields[0]), parseLong(fields[1]),
+						parseLong(fields[2]));
+				if (segment.start < 0L || segment.end >= total || segment.downloaded.get() < 0L
+						|| segment.start + segment.downloaded.get() > segment.end + 1) {
+					return false;
+				}
+				segments.add(segment);
+			}
+			if (segments.isEmpty()) {
+				return false;
+			}
+			mSegments = segments.toArray(new Segment[segments.size()]);
+			return true;
+		} catch (IOException e) {
+			Log.w(TAG, "IOException at loadState(), path=" + metaFile, e);
+			return false;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	/**
+	 * 解析"bytes 0-0/12345"格式的Content-Range中的总长度
+	 */
+	/**
+	 * 检查206响应的总长度和ETag是否与探测时相同，ETag按照弱比较
+	 */
+	private boolean isSameFile(HttpURLConnection conn) {
+		long total = parseContentRangeTotal(conn.getHeaderField("Content-Range"));
+		if (total >= 0L && total != mTotalBytes) {
+			return false;
+		}
+		String eTag = conn.getHeaderField("ETag");
+		if (eTag == null || mValidator == null || !isETag(mValidator)) {
+			return true;
+		}
+		return stripWeakPrefix(eTag).equals(stripWeakPrefix(mValidator));
+	}
+
+	private static boolean isETag(String validator) {
+		return validator.startsWith("\"") || isWeakETag(validator);
+	}
+
+	private static boolean isWeakETag(String validator) {
+		return validator.startsWith("W/");
+	}
+
+	private static String stripWeakPrefix(String eTag) {
+		return isWeakETag(eTag) ? eTag.substring(2) : eTag;
+	}
+
+	private static long parseContentRangeTotal(String contentRange) {
+		if (contentRange == null) {
+			return -1L;
+		}
+		int index = contentRange.lastIndexOf('/');
+		return index < 0 ? -1L : parseLong(contentRange.substring(index + 1));
+	}
+
+	private static long parseLong(String value) {
+		if (value == null) {
+			return -1L;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1L;
+		}
+	}
+
+
+	/**
+	 * 一个下载分段，end为-1表示长度未知
+	 */
+	private static final class Segment {
+		final long start;
+		final long end;
+		final AtomicLong downloaded;
+		volatile boolean failed = false;
+		/** 长度未知的分段已经读到了结尾 */
+		volatile boolean done = false;
+
+		Segment(long start, long end, long downloaded) {
+			this.start = start;
+			this.end = end;
+			this.downloaded = new AtomicLong(downloaded);
+		}
+
+		boolean isComplete() {
+			return done || (end >= 0L && start + downloaded.get() > end);
+		}
+	}
+}
@@ -0,0 +1,569 @@
+package com.imasson.droidshake.util.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.util.Log;
+
+import com.imasson.droidshake.util.FileUtils;
+
+/**
+ * <p>用于反复获取的小资源（JSON、配置文件等）的HTTP缓存</p>
+ * <p>{@link #fetch(String)}按照以下顺序获取资源：</p>
+ * <ol>
+ * <li>缓存中有新鲜的响应（Cache-Control的max-age或者Expires还没有过期）时直接返回，
+ * 不访问网络，计为命中；</li>
+ * <li>缓存中的响应已经过期但带有ETag或Last-Modified时，发送If-None-Match/If-Modified-Since的条件请求，
+ * 服务器返回304时只更新有效期，计为重新验证；</li>
+ * <li>其它情况发送普通请求，可以缓存的200响应会被保存，计为未命中。</li>
+ * <li>网络错误或者服务器返回5xx时，如果缓存中有过期的响应，返回过期的响应。</li>
+ * </ol>
+ * <p>只有服务器返回200并且表明资源不能缓存时才会删除已有的缓存项。</p>
+ * <p>每个响应保存为目录下的两个文件：响应体（".body"）和元数据（".meta"），
+ * 总大小超过上限时按照最近最少使用的顺序删除。文件的修改时间记录了最近的使用时间，
+ * 重新创建缓存对象后仍然保持原来的顺序。</p>
+ * <p>响应体会被完整读入内存，不适合用于大文件，大文件请使用{@link DownloadTask}。
+ * {@link #fetch(String)}会阻塞当前线程，请不要在主线程中调用。本类是线程安全的。</p>
+ *
+ * @version 1.0 支持Cache-Control、ETag和Last-Modified的磁盘LRU缓存
+ */
+public class HttpCache {
+	private static final String TAG = "HttpCache";
+
+	/** 响应来自网络，缓存中没有可用的响应 */
+	public static final int SOURCE_NETWORK = 0;
+	/** 响应来自缓存，没有访问网络 */
+	public static final int SOURCE_CACHE = 1;
+	/** 响应来自缓存，服务器返回304确认缓存仍然有效 */
+	public static final int SOURCE_REVALIDATED = 2;
+	/** 响应来自缓存，已经过期，因为网络错误或者服务器错误而无法更新 */
+	public static final int SOURCE_STALE = 3;
+
+	/** 默认的缓存大小上限 */
+	public static final long DEFAULT_MAX_SIZE = 2 * 1024 * 1024;
+
+	/** 只有Last-Modified时，使用距离上次修改时间的10%作为有效期 */
+	private static final int HEURISTIC_PERCENT = 10;
+	/** 启发式有效期的上限 */
+	private static final long MAX_HEURISTIC_MILLIS = 24 * 60 * 60 * 1000L;
+
+	private static final String BODY_SUFFIX = ".body";
+	private static final String META_SUFFIX = ".meta";
+
+	private final File mDirectory;
+	private final long mMaxSize;
+	/** 按访问顺序排列的缓存项，值为缓存项占用的磁盘大小 */
+	private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	private long mSize = 0L;
+	private int mConnectTimeout = DownloadTask.DEFAULT_CONNECT_TIMEOUT;
+	private int mReadTimeout = DownloadTask.DEFAULT_READ_TIMEOUT;
+
+	private long mHitCount = 0L;
+	private long mRevalidateCount = 0L;
+	private long mMissCount = 0L;
+	private long mStaleCount = 0L;
+
+	/**
+	 * 创建缓存，并读取目录中已有的缓存项
+	 * @param directory 缓存目录，不存在时会自动创建，不要与其它用途共用
+	 * @param maxSize 缓存的总大小上限，单位为byte
+	 */
+	public HttpCache(File directory, long maxSize) {
+		if (maxSize <= 0L) {
+			Log.w(TAG, "Invalid maxSize: " + maxSize + ", use default value.");
+			maxSize = DEFAULT_MAX_SIZE;
+		}
+		mDirectory = directory;
+		mMaxSize = maxSize;
+		loadEntries();
+	}
+
+	/**
+	 * 设置连接超时和读取超时，单位为毫秒
+	 */
+	public void setTimeout(int connectTimeout, int readTimeout) {
+		mConnectTimeout = connectTimeout;
+		mReadTimeout = readTimeout;
+	}
+
+	/**
+	 * <p>获取指定地址的资源，优先使用缓存</p>
+	 * @param url 资源地址，只支持HTTP和HTTPS的GET请求
+	 * @return 响应，网络错误并且缓存中没有该资源时返回null
+	 */
+	public Response fetch(String url) {
+		if (url == null) {
+			Log.w(TAG, "Argument 'url' is null at fetch(String)");
+			return null;
+		}
+
+		String key = toKey(url);
+		Entry entry = readEntry(key, url);
+		long now = System.currentTimeMillis();
+		if (entry != null && now < entry.expiresAt) {
+			synchronized (this) {
+				mHitCount++;
+			}
+			return new Response(HttpURLConnection.HTTP_OK, entry.body, SOURCE_CACHE);
+		}
+
+		HttpURLConnection conn = null;
+		try {
+			conn = (HttpURLConnection) new URL(url).openConnection();
+			conn.setConnectTimeout(mConnectTimeout);
+			conn.setReadTimeout(mReadTimeout);
+			// 避免与系统的HttpResponseCache重复缓存
+			conn.setUseCaches(false);
+			if (entry != null) {
+				if (entry.eTag.length() > 0) {
+					conn.setRequestProperty("If-None-Match", entry.eTag);
+				}
+				if (entry.lastModified.length() > 0) {
+					conn.setRequestProperty("If-Modified-Since", entry.lastModified);
+				}
+			}
+
+			int code = conn.getResponseCode();
+			now = System.currentTimeMillis();
+			if (code == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+				// 304的响应中可能带有新的有效期和校验值
+				String eTag = conn.getHeaderField("ETag");
+				String lastModified = conn.getHeaderField("Last-Modified");
+				entry.eTag = eTag != null ? eTag : entry.eTag;
+				entry.lastModified = lastModified != null ? lastModified : entry.lastModified;
+				long expiresAt = computeExpiresAt(conn, now);
+				entry.expiresAt = expiresAt >= 0L ? expiresAt : now;
+				synchronized (this) {
+					mRevalidateCount++;
+					// 响应体没有变化，只更新元数据；期间缓存项可能已经被删除，此时重新完整地保存
+					if (!updateMeta(key, entry)) {
+						writeEntry(key, entry);
+					}
+				}
+				return new Response(code, entry.body, SOURCE_REVALIDATED);
+			}
+
+			if (code >= HttpURLConnection.HTTP_INTERNAL_ERROR && entry != null) {
+				Log.w(TAG, "Server error " + code + ", use the stale response at fetch(String), url=" + url);
+				return staleResponse(entry);
+			}
+
+			byte[] body = readBody(conn, code);
+			synchronized (this) {
+				mMissCount++;
+				long expiresAt = computeExpiresAt(conn, now);
+				String eTag = conn.getHeaderField("ETag");
+				String lastModified = conn.getHeaderField("Last-Modified");
+				if (code == HttpURLConnection.HTTP_OK && expiresAt >= 0L
+						&& (expiresAt > now || eTag != null || lastModified != null)) {
+					Entry newEntry = new Entry(url, body);
+					newEntry.eTag = eTag != null ? eTag : "";
+					newEntry.lastModified = lastModified != null ? lastModified : "";
+					newEntry.expiresAt = expiresAt;
+					writeEntry(key, newEntry);
+				} else if (code == HttpURLConnection.HTTP_OK && entry != null) {
+					// 资源已经不能缓存了，删除旧的缓存项
+					removeEntry(key);
+				}
+			}
+			return new Response(code, body, SOURCE_NETWORK);
+		} catch (IOException e) {
+			Log.w(TAG, "IOException at fetch(String), url=" + url, e);
+			return entry != null ? staleResponse(entry) : null;
+		} finally {
+			if (conn != null) {
+				conn.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * 删除指定地址的缓存项
+	 */
+	public synchronized void remove(String url) {
+		if (url == null) {
+			Log.w(TAG, "Argument 'url' is null at remove(String)");
+			return;
+		}
+		removeEntry(toKey(url));
+	}
+
+	/**
+	 * 删除全部缓存项，不会清除统计数据
+	 */
+	public synchronized void clear() {
+		while (!mEntries.isEmpty()) {
+			removeEntry(mEntries.keySet().iterator().next());
+		}
+	}
+
+	/**
+	 * @return 缓存项占用的磁盘总大小
+	 */
+	public synchronized long getSize() {
+		return mSize;
+	}
+
+	public long getMaxSize() {
+		return mMaxSize;
+	}
+
+	public synchronized int getEntryCount() {
+		return mEntries.size();
+	}
+
+	/**
+	 * @return 直接使用缓存、没有访问网络的次数
+	 */
+	public synchronized long getHitCount() {
+		return mHitCount;
+	}
+
+	/**
+	 * @return 服务器返回304、确认缓存仍然有效的次数
+	 */
+	public synchronized long getRevalidateCount() {
+		return mRevalidateCount;
+	}
+
+	/**
+	 * @return 从网络获取完整响应的次数
+	 */
+	public synchronized long getMissCount() {
+		return mMissCount;
+	}
+
+	/**
+	 * @return 因为网络错误或者服务器错误而返回过期响应的次数
+	 */
+	public synchronized long getStaleCount() {
+		return mStaleCount;
+	}
+
+	private Response staleResponse(Entry entry) {
+		synchronized (this) {
+			mStaleCount++;
+		}
+		return new Response(HttpURLConnection.HTTP_OK, entry.body, SOURCE_STALE);
+	}
+
+	/**
+	 * <p>根据响应头计算响应的过期时间</p>
+	 * @return 过期时间（基于{@link System#currentTimeMillis()}），不能缓存时返回-1，
+	 * 每次都需要重新验证时返回当前时间
+	 */
+	private static long computeExpiresAt(HttpURLConnection conn, long now) {
+		String cacheControl = conn.getHeaderField("Cache-Control");
+		if (cacheControl != null) {
+			long maxAge = -1L;
+			boolean noCache = false;
+			String[] directives = cacheControl.toLowerCase().split(",");
+			for (String directive : directives) {
+				directive = directive.trim();
+				if (directive.equals("no-store")) {
+					return -1L;
+				} else if (directive.equals("no-cache")) {
+					noCache = true;
+				} else if (directive.startsWith("max-age=")) {
+					maxAge = parseLong(directive.substring("max-age=".length()));
+				}
+			}
+			if (noCache) {
+				return now;
+			} else if (maxAge >= 0L) {
+				return now + maxAge * 1000L;
+			}
+		}
+
+		// 使用服务器的时间计算有效期，避免客户端时钟不准的影响
+		long date = conn.getHeaderFieldDate("Date", now);
+		long expires = conn.getHeaderFieldDate("Expires", -1L);
+		if (expires >= 0L) {
+			return now + Math.max(expires - date, 0L);
+		}
+		long lastModified = conn.getHeaderFieldDate("Last-Modified", -1L);
+		if (lastModified >= 0L && lastModified < date) {
+			return now + Math.min((date - lastModified) * HEURISTIC_PERCENT / 100,
+					MAX_HEURISTIC_MILLIS);
+		}
+		return now;
+	}
+
+	private static byte[] readBody(HttpURLConnection conn, int code) throws IOException {
+		InputStream is = null;
+		try {
+			is = code >= HttpURLConnection.HTTP_BAD_REQUEST ? conn.getErrorStream() : conn.getInputStream();
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			if (is != null) {
+				byte[] buffer = new byte[FileUtils.DEFAULT_BUFFER_SIZE];
+				int count;
+				while ((count = is.read(buffer)) != -1) {
+					baos.write(buffer, 0, count);
+				}
+			}
+			return baos.toByteArray();
+		} finally {
+			if (is != null) {
+				try {
+					is.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	/**
+	 * 读取缓存项，并把它标记为最近使用，缓存项不存在或者已经损坏时返回null
+	 */
+	private synchronized Entry readEntry(String key, String url) {
+		if (!mEntries.containsKey(key)) {
+			return null;
+		}
+
+		File metaFile = new File(mDirectory, key + META_SUFFIX);
+		List<String> lines = FileUtils.readStringLines(metaFile.getPath());
+		byte[] body = FileUtils.readBytes(new File(mDirectory, key + BODY_SUFFIX).getPath());
+		if (lines == null || lines.size() < 4 || body == null || !url.equals(lines.get(0))) {
+			removeEntry(key);
+			return null;
+		}
+
+		mEntries.get(key);
+		metaFile.setLastModified(System.currentTimeMillis());
+		Entry entry = new Entry(url, body);
+		entry.eTag = lines.get(1);
+		entry.lastModified = lines.get(2);
+		entry.expiresAt = parseLong(lines.get(3));
+		return entry;
+	}
+
+	/**
+	 * 保存缓存项，然后按照最近最少使用的顺序删除超出上限的缓存项
+	 */
+	private void writeEntry(String key, Entry entry) {
+		removeEntry(key);
+		if (entry.body.length > mMaxSize) {
+			return;
+		}
+
+		File bodyFile = new File(mDirectory, key + BODY_SUFFIX);
+		if (!FileUtils.writeBytes(bodyFile.getPath(), entry.body) || !writeMeta(key, entry)) {
+			Log.w(TAG, "Can't write the cache entry at writeEntry(), url=" + entry.url);
+			FileUtils.deleteFile(bodyFile.getPath());
+			FileUtils.deleteFile(new File(mDirectory, key + META_SUFFIX).getPath());
+			return;
+		}
+
+		long size = bodyFile.length() + new File(mDirectory, key + META_SUFFIX).length();
+		mEntries.put(key, size);
+		mSize += size;
+		trimToSize();
+	}
+
+	/**
+	 * 只重写已有缓存项的元数据，并把它标记为最近使用
+	 * @return 是否成功，缓存项已经被删除时返回false
+	 */
+	private boolean updateMeta(String key, Entry entry) {
+		Long oldSize = mEntries.get(key);
+		File bodyFile = new File(mDirectory, key + BODY_SUFFIX);
+		if (oldSize == null || !bodyFile.isFile() || !writeMeta(key, entry)) {
+			return false;
+		}
+
+		long size = bodyFile.length() + new File(mDirectory, key + META_SUFFIX).length();
+		mEntries.put(key, size);
+		mSize += size - oldSize;
+		trimToSize();
+		return true;
+	}
+
+	/**
+	 * <p>元数据的格式为：</p>
+	 * <pre>
+	 * url
+	 * ETag
+	 * Last-Modified
+	 * expiresAt
+	 * </pre>
+	 */
+	private boolean writeMeta(String key, Entry entry) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(entry.url).append('\n');
+		builder.append(entry.eTag).append('\n');
+		builder.append(entry.lastModified).append('\n');
+		builder.append(entry.expiresAt).append('\n');
+		try {
+			return FileUtils.writeBytes(new File(mDirectory, key + META_SUFFIX).getPath(),
+					builder.toString().getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			return false;
+		}
+	}
+
+	private void removeEntry(String key) {
+		Long size = mEntries.remove(key);
+		if (size != null) {
+			mSize -= size;
+		}
+		FileUtils.deleteFile(new File(mDirectory, key + BODY_SUFFIX).getPath());
+		FileUtils.deleteFile(new File(mDirectory, key + META_SUFFIX).getPath());
+	}
+
+	private void trimToSize() {
+		Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+		while (mSize > mMaxSize && iterator.hasNext()) {
+			Map.Entry<String, Long> eldest = iterator.next();
+			iterator.remove();
+			mSize -= eldest.getValue();
+			FileUtils.deleteFile(new File(mDirectory, eldest.getKey() + BODY_SUFFIX).getPath());
+			FileUtils.deleteFile(new File(mDirectory, eldest.getKey() + META_SUFFIX).getPath());
+		}
+	}
+
+	/**
+	 * 按照元数据文件的修改时间恢复使用顺序，删除不完整的缓存项
+	 */
+	private synchronized void loadEntries() {
+		if (mDirectory == null) {
+			Log.w(TAG, "Argument 'directory' is null at HttpCache(File, long)");
+			return;
+		}
+		FileUtils.mkdirIfNotFound(mDirectory.getPath());
+
+		File[] files = mDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				long l = lhs.lastModified();
+				long r = rhs.lastModified();
+				return l < r ? -1 : (l == r ? 0 : 1);
+			}
+		});
+
+		for (File file : files) {
+			String name = file.getName();
+			if (!name.endsWith(META_SUFFIX)) {
+				continue;
+			}
+			String key = name.substring(0, name.length() - META_SUFFIX.length());
+			File bodyFile = new File(mDirectory, key + BODY_SUFFIX);
+			if (!bodyFile.isFile()) {
+				file.delete();
+				continue;
+			}
+			long size = bodyFile.length() + file.length();
+			mEntries.put(key, size);
+			mSize += size;
+		}
+		// 删除没有元数据的响应体
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(BODY_SUFFIX) && !mEntries.containsKey(
+					name.substring(0, name.length() - BODY_SUFFIX.length()))) {
+				file.delete();
+			}
+		}
+		trimToSize();
+	}
+
+	private static String toKey(String url) {
+		try {
+			byte[] bytes = MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8"));
+			char[] hex = new char[bytes.length * 2];
+			for (int i = 0; i < bytes.length; i++) {
+				hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0x0F, 16);
+				hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0x0F, 16);
+			}
+			return new String(hex);
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(url.hashCode());
+		} catch (UnsupportedEncodingException e) {
+			return Integer.toHexString(url.hashCode());
+		}
+	}
+
+	private static long parseLong(String value) {
+		if (value == null) {
+			return -1L;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1L;
+		}
+	}
+
+
+	/**
+	 * 缓存项的内容，校验值不存在时为空字符串
+	 */
+	private static final class Entry {
+		final String url;
+		final byte[] body;
+		String eTag = "";
+		String lastModified = "";
+		long expiresAt = -1L;
+
+		Entry(String url, byte[] body) {
+			this.url = url;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * 一次获取的结果
+	 */
+	public static final class Response {
+		/** HTTP响应码，来自缓存的响应为200，重新验证的响应为304 */
+		public final int code;
+		/** 响应体，不会为null */
+		public final byte[] body;
+		/** 响应的来源，{@link HttpCache#SOURCE_NETWORK}等常量之一 */
+		public final int source;
+
+		Response(int code, byte[] body, int source) {
+			this.code = code;
+			this.body = body;
+			this.source = source;
+		}
+
+		/**
+		 * @return 响应是否成功，包括来自缓存的响应
+		 */
+		public boolean isSuccessful() {
+			return code == HttpURLConnection.HTTP_OK || code == HttpURLConnection.HTTP_NOT_MODIFIED;
+		}
+
+		/**
+		 * 把响应体按照UTF-8解码为字符串
+		 */
+		public String getBodyString() {
+			try {
+				return new String(body, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				return new String(body);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Response: code=" + code + ", length=" + body.length + ", source=" + source;
+		}
+	}
+}
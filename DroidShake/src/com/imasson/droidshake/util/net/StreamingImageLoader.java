@@ -0,0 +1,307 @@
+package com.imasson.droidshake.util.net;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.imasson.droidshake.util.BitmapUtils;
+import com.imasson.droidshake.util.FileUtils;
+import com.imasson.droidshake.util.ImageHeaderParser;
+
+/**
+ * <p>边下载边解析的图片加载器</p>
+ * <p>先把图片完整地下载到字节数组，再通过{@link BitmapUtils#getBitmap(byte[], int, int)}解码，
+ * 解码时压缩的数据和位图会同时占用内存。本类把网络数据直接写入缓存文件，
+ * 同时交给{@link ImageHeaderParser}解析文件头，得到宽高后立即计算缩放比例，
+ * 下载完毕后从缓存文件解码，内存中只有一个缓冲区和最终的位图。
+ * 因为缩放比例已经确定，解码时也不需要再读一次文件来获取宽高。</p>
+ * <p>缩放比例的算法与{@link BitmapUtils#getBitmap(String, int, int)}相同；
+ * 无法解析文件头的格式会退回到该方法。</p>
+ * <p>{@link #load(String, File)}会阻塞当前线程，请不要在主线程中调用。</p>
+ *
+ * @version 1.0 下载到缓存文件并根据文件头提前确定缩放比例
+ */
+public class StreamingImageLoader {
+	private static final String TAG = "StreamingImageLoader";
+
+	/** 默认的最大宽度和高度 */
+	public static final int DEFAULT_MAX_SIZE = 720;
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * 解析出图像宽高的监听接口，在调用{@link StreamingImageLoader#load(String, File)}的线程中回调
+	 */
+	public interface Listener {
+		/**
+		 * 已经从文件头中得到了图像的宽高，此时下载可能还没有结束
+		 * @param width 原图的宽度
+		 * @param height 原图的高度
+		 * @param sampleSize 解码时使用的缩放比例（N分之一）
+		 */
+		void onBoundsDecoded(int width, int height, int sampleSize);
+	}
+
+	private final int mMaxWidth;
+	private final int mMaxHeight;
+	private int mConnectTimeout = DownloadTask.DEFAULT_CONNECT_TIMEOUT;
+	private int mReadTimeout = DownloadTask.DEFAULT_READ_TIMEOUT;
+	private Listener mListener = null;
+
+	/**
+	 * 使用默认的最大宽高创建加载器
+	 */
+	public StreamingImageLoader() {
+		this(DEFAULT_MAX_SIZE, DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * 创建加载器
+	 * @param maxWidth 输出位图的最大宽度
+	 * @param maxHeight 输出位图的最大高度
+	 */
+	public StreamingImageLoader(int maxWidth, int maxHeight) {
+		if (maxWidth <= 0) {
+			Log.w(TAG, "Invalid maxWidth: " + maxWidth + ", use default value.");
+			maxWidth = DEFAULT_MAX_SIZE;
+		}
+		if (maxHeight <= 0) {
+			Log.w(TAG, "Invalid maxHeight: " + maxHeight + ", use default value.");
+			maxHeight = DEFAULT_MAX_SIZE;
+		}
+		mMaxWidth = maxWidth;
+		mMaxHeight = maxHeight;
+	}
+
+	/**
+	 * 设置连接超时和读取超时，单位为毫秒
+	 */
+	public void setTimeout(int connectTimeout, int readTimeout) {
+		mConnectTimeout = connectTimeout;
+		mReadTimeout = readTimeout;
+	}
+
+	public void setListener(Listener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * <p>加载网络图片，缓存文件已经存在时直接从缓存文件解码</p>
+	 * @param url 图片地址，只支持HTTP和HTTPS
+	 * @param cacheFile 缓存文件，所在的目录不存在时会自动创建
+	 * @return 缩放后的位图，失败时返回null，下载成功但解码失败时缓存文件会保留
+	 */
+	public Bitmap load(String url, File cacheFile) {
+		if (url == null) {
+			Log.w(TAG, "Argument 'url' is null at load(String, File)");
+			return null;
+		}
+		if (cacheFile == null) {
+			Log.w(TAG, "Argument 'cacheFile' is null at load(String, File)");
+			return null;
+		}
+		if (cacheFile.isFile() && cacheFile.length() > 0L) {
+			return decodeCacheFile(cacheFile);
+		}
+
+		HttpURLConnection conn = null;
+		InputStream is = null;
+		try {
+			conn = (HttpURLConnection) new URL(url).openConnection();
+			conn.setConnectTimeout(mConnectTimeout);
+			conn.setReadTimeout(mReadTimeout);
+			int code = conn.getResponseCode();
+			if (code != HttpURLConnection.HTTP_OK) {
+				Log.w(TAG, "Unexpected response code " + code + " at load(String, File), url=" + url);
+				return null;
+			}
+			is = conn.getInputStream();
+			return load(is, conn.getContentLength(), cacheFile);
+		} catch (IOException e) {
+			Log.w(TAG, "IOException at load(String, File), url=" + url, e);
+			return null;
+		} finally {
+			if (is != null) {
+				try {
+					is.close();
+				} catch (IOException e) {}
+			}
+			if (conn != null) {
+				conn.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * <p>把输入流中的图片数据写入缓存文件并解码，不会关闭输入流</p>
+	 * @param is 图片数据的输入流
+	 * @param cacheFile 缓存文件，已经存在时会被覆盖
+	 * @return 缩放后的位图，失败时返回null
+	 */
+	public Bitmap load(InputStream is, File cacheFile) {
+		return load(is, -1L, cacheFile);
+	}
+
+	/**
+	 * @param contentLength 数据的总长度，为-1时不检查，否则长度不符时认为下载失败
+	 */
+	private Bitmap load(InputStream is, long contentLength, File cacheFile) {
+		if (is == null) {
+			Log.w(TAG, "Argument 'is' is null at load(InputStream, File)");
+			return null;
+		}
+		if (cacheFile == null) {
+			Log.w(TAG, "Argument 'cacheFile' is null at load(InputStream, File)");
+			return null;
+		}
+
+		File parent = cacheFile.getParentFile();
+		if (parent != null) {
+			FileUtils.mkdirIfNotFound(parent.getPath());
+		}
+		// 先写入临时文件，避免中断后留下不完整的缓存
+		File tempFile = new File(cacheFile.getPath() + TEMP_SUFFIX);
+		ImageHeaderParser parser = new ImageHeaderParser();
+		int sampleSize = 0;
+		long length = 0L;
+		OutputStream os = null;
+		try {
+			os = new FileOutputStream(tempFile);
+			byte[] buffer = new byte[FileUtils.DEFAULT_BUFFER_SIZE];
+			int count;
+			while ((count = is.read(buffer)) != -1) {
+				os.write(buffer, 0, count);
+				length += count;
+				if (!parser.isFinished() && parser.feed(buffer, 0, count)) {
+					sampleSize = onHeaderParsed(parser);
+				}
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "IOException at load(InputStream, File), path=" + cacheFile.getPath(), e);
+			sampleSize = -1;
+		} finally {
+			if (os != null) {
+				try {
+					os.close();
+				} catch (IOException e) {}
+			}
+		}
+
+		if (sampleSize >= 0 && contentLength >= 0L && length != contentLength) {
+			Log.w(TAG, "Connection closed before the image is complete at load(InputStream, File), "
+					+ "path=" + cacheFile.getPath());
+			sampleSize = -1;
+		}
+		if (sampleSize < 0) {
+			tempFile.delete();
+			return null;
+		}
+		if (cacheFile.exists() && !cacheFile.delete()) {
+			Log.w(TAG, "The cache file can't be deleted at load(InputStream, File), path="
+					+ cacheFile.getPath());
+			tempFile.delete();
+			return null;
+		}
+		if (!tempFile.renameTo(cacheFile)) {
+			Log.w(TAG, "Can't rename the temporary file at load(InputStream, File), path="
+					+ cacheFile.getPath());
+			tempFile.delete();
+			return null;
+		}
+		return decode(cacheFile, sampleSize);
+	}
+
+	/**
+	 * <p>从已经下载好的缓存文件解码，只读取文件头来计算缩放比例</p>
+	 * @param cacheFile 缓存文件
+	 * @return 缩放后的位图，失败时返回null
+	 */
+	public Bitmap decodeCacheFile(File cacheFile) {
+		if (cacheFile == null) {
+			Log.w(TAG, "Argument 'cacheFile' is null at decodeCacheFile(File)");
+			return null;
+		}
+
+		ImageHeaderParser parser = new ImageHeaderParser();
+		int sampleSize = 0;
+		InputStream is = null;
+		try {
+			is = new FileInputStream(cacheFile);
+			byte[] buffer = new byte[FileUtils.DEFAULT_BUFFER_SIZE];
+			int count;
+			while ((count = is.read(buffer)) != -1) {
+				if (parser.feed(buffer, 0, count)) {
+					sampleSize = onHeaderParsed(parser);
+					break;
+				}
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "IOException at decodeCacheFile(File), path=" + cacheFile.getPath(), e);
+			return null;
+		} finally {
+			if (is != null) {
+				try {
+					is.close();
+				} catch (IOException e) {}
+			}
+		}
+		return decode(cacheFile, sampleSize);
+	}
+
+	/**
+	 * @return 缩放比例，没有得到宽高时返回0
+	 */
+	private int onHeaderParsed(ImageHeaderParser parser) {
+		if (!parser.hasSize()) {
+			return 0;
+		}
+		int width = parser.getWidth();
+		int height = parser.getHeight();
+		int sampleSize = computeSampleSize(width, height, mMaxWidth, mMaxHeight);
+		Listener listener = mListener;
+		if (listener != null) {
+			listener.onBoundsDecoded(width, height, sampleSize);
+		}
+		return sampleSize;
+	}
+
+	private Bitmap decode(File file, int sampleSize) {
+		String path = file.getPath();
+		if (sampleSize <= 0) {
+			// 不支持的格式，由BitmapFactory读取宽高
+			return BitmapUtils.getBitmap(path, mMaxWidth, mMaxHeight);
+		}
+
+		try {
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inSampleSize = sampleSize;
+			return BitmapFactory.decodeFile(path, options);
+		} catch (OutOfMemoryError e) {
+			Log.w(TAG, "OutOfMemoryError at decode(), path=" + path, e);
+		} catch (Exception e) {
+			Log.w(TAG, "Exception at decode(), path=" + path, e);
+		}
+		return null;
+	}
+
+	/**
+	 * 与{@link BitmapUtils#getBitmap(String, int, int)}相同的缩放比例算法，
+	 * 宽度比和高度比四舍五入后取较大的一个
+	 * @return 缩放比例（N分之一），至少为1
+	 */
+	static int computeSampleSize(int width, int height, int maxWidth, int maxHeight) {
+		int ratioWidth = (int) ((double) width / maxWidth + 0.5);
+		int ratioHeight = (int) ((double) height / maxHeight + 0.5);
+		int max = ratioHeight > ratioWidth ? ratioHeight : ratioWidth;
+		return max <= 1 ? 1 : max;
+	}
+}
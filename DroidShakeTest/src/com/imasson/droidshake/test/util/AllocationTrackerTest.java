@@ -0,0 +1,140 @@
+package com.imasson.droidshake.test.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.imasson.droidshake.util.debug.AllocationTracker;
+import com.imasson.droidshake.util.debug.AllocationTracker.Probe;
+import com.imasson.droidshake.util.debug.AllocationTracker.Sample;
+import com.imasson.droidshake.util.debug.TrackedUtils;
+
+/**
+ * {@link AllocationTracker}的单元测试
+ */
+public class AllocationTrackerTest extends TestCase {
+
+	private File mFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mFile = File.createTempFile("AllocationTrackerTest", ".txt");
+		FileOutputStream fos = new FileOutputStream(mFile);
+		try {
+			for (int i = 0; i < 100; i++) {
+				fos.write("DroidShake AllocationTracker\n".getBytes("UTF-8"));
+			}
+		} finally {
+			fos.close();
+		}
+		AllocationTracker.reset();
+	}
+
+	public void testReadString() throws IOException {
+		Probe probe = AllocationTracker.probe("FileUtils.readString");
+
+		AllocationTracker.setEnabled(true);
+		String content = TrackedUtils.readString(mFile.getAbsolutePath());
+		AllocationTracker.setEnabled(false);
+
+		assertTrue(content.startsWith("DroidShake AllocationTracker"));
+		assertEquals(1L, probe.getCallCount());
+		assertTrue(probe.getTotalNanos() > 0L);
+		assertTrue(probe.getMaxNanos() <= probe.getTotalNanos());
+		if (AllocationTracker.isAllocationCountingSupported()) {
+			// 至少需要分配结果字符串
+			assertTrue(probe.getAllocatedBytes() >= content.length());
+		}
+		assertTrue(AllocationTracker.dump().contains("FileUtils.readString"));
+	}
+
+	public void testDisabled() {
+		Probe probe = AllocationTracker.probe("FileUtils.readBytes");
+		assertFalse(AllocationTracker.isEnabled());
+		assertNull(probe.begin());
+
+		TrackedUtils.readBytes(mFile.getAbsolutePath());
+		assertEquals(0L, probe.getCallCount());
+		assertEquals(0L, probe.getAllocatedBytes());
+	}
+
+	public void testNestedProbe() {
+		Probe outer = AllocationTracker.probe("AllocationTrackerTest.outer");
+		Probe inner = AllocationTracker.probe("AllocationTrackerTest.inner");
+		assertSame(outer, AllocationTracker.probe("AllocationTrackerTest.outer"));
+
+		AllocationTracker.setEnabled(true);
+		Sample outerSample = outer.begin();
+		Sample innerSample = inner.begin();
+		// 不同的统计点嵌套时各自统计
+		assertNotNull(innerSample);
+		// 同一个统计点递归调用时只统计最外层
+		Sample recursiveSample = outer.begin();
+		assertNull(recursiveSample);
+		outer.end(recursiveSample);
+		byte[] buffer = new byte[4096];
+		inner.end(innerSample);
+		outer.end(outerSample);
+		AllocationTracker.setEnabled(false);
+
+		assertEquals(1L, outer.getCallCount());
+		assertEquals(1L, inner.getCallCount());
+		if (AllocationTracker.isAllocationCountingSupported()) {
+			// 外层的统计包含了内层的分配
+			assertTrue(inner.getAllocatedBytes() >= buffer.length);
+			assertTrue(outer.getAllocatedBytes() >= inner.getAllocatedBytes());
+		}
+
+		AllocationTracker.reset();
+		assertEquals(0L, outer.getCallCount());
+	}
+
+	/**
+	 * 被统计的工具方法在另一个统计点中调用时也应该被统计
+	 */
+	public void testTrackedUtilsInsideProbe() throws IOException {
+		Probe outer = AllocationTracker.probe("AllocationTrackerTest.outer");
+		Probe probe = AllocationTracker.probe("FileUtils.readString");
+
+		AllocationTracker.setEnabled(true);
+		Sample sample = outer.begin();
+		TrackedUtils.readString(mFile.getAbsolutePath());
+		TrackedUtils.readString(mFile.getAbsolutePath());
+		outer.end(sample);
+		AllocationTracker.setEnabled(false);
+
+		assertEquals(1L, outer.getCallCount());
+		assertEquals(2L, probe.getCallCount());
+	}
+
+	/**
+	 * 没有调用end()的统计点不影响之后的统计
+	 */
+	public void testUnbalancedProbe() {
+		Probe outer = AllocationTracker.probe("AllocationTrackerTest.outer");
+		Probe inner = AllocationTracker.probe("AllocationTrackerTest.inner");
+
+		AllocationTracker.setEnabled(true);
+		Sample outerSample = outer.begin();
+		assertNotNull(inner.begin());
+		outer.end(outerSample);
+		// inner的采样随外层一起丢弃，可以重新开始
+		Sample innerSample = inner.begin();
+		assertNotNull(innerSample);
+		inner.end(innerSample);
+		AllocationTracker.setEnabled(false);
+
+		assertEquals(1L, outer.getCallCount());
+		assertEquals(1L, inner.getCallCount());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		AllocationTracker.setEnabled(false);
+		mFile.delete();
+		super.tearDown();
+	}
+}
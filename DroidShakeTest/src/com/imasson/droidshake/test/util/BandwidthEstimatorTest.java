@@ -0,0 +1,90 @@
+package com.imasson.droidshake.test.util;
+
+import junit.framework.TestCase;
+
+import com.imasson.droidshake.util.BandwidthEstimator;
+
+/**
+ * {@link BandwidthEstimator}的单元测试
+ */
+public class BandwidthEstimatorTest extends TestCase {
+
+	private static final int TYPE_MOBILE = 0;
+	private static final int TYPE_WIFI = 1;
+	private static final int NETWORK_TYPE_EDGE = 2;
+	private static final int NETWORK_TYPE_LTE = 13;
+
+	public void testClassify() {
+		assertEquals(BandwidthEstimator.QUALITY_UNKNOWN, BandwidthEstimator.classify(-1));
+		assertEquals(BandwidthEstimator.QUALITY_POOR, BandwidthEstimator.classify(0));
+		assertEquals(BandwidthEstimator.QUALITY_POOR, BandwidthEstimator.classify(149.9));
+		assertEquals(BandwidthEstimator.QUALITY_MODERATE, BandwidthEstimator.classify(150));
+		assertEquals(BandwidthEstimator.QUALITY_GOOD, BandwidthEstimator.classify(1000));
+		assertEquals(BandwidthEstimator.QUALITY_EXCELLENT, BandwidthEstimator.classify(2000));
+	}
+
+	public void testAverage() {
+		BandwidthEstimator estimator = new BandwidthEstimator(0.5, 1000L);
+		assertEquals(-1.0, estimator.getBandwidthKbps(TYPE_WIFI, 0));
+
+		// 100KB / 800ms = 1000kbps
+		assertTrue(estimator.addSample(TYPE_WIFI, 0, 100000L, 800L));
+		assertEquals(1000.0, estimator.getBandwidthKbps(TYPE_WIFI, 0), 0.001);
+		// 第二个样本的权重为1/2
+		assertTrue(estimator.addSample(TYPE_WIFI, 0, 100000L, 400L));
+		assertEquals(1500.0, estimator.getBandwidthKbps(TYPE_WIFI, 0), 0.001);
+		// 之后的权重为衰减系数
+		assertTrue(estimator.addSample(TYPE_WIFI, 0, 100000L, 200L));
+		assertEquals(2750.0, estimator.getBandwidthKbps(TYPE_WIFI, 0), 0.001);
+		assertEquals(3, estimator.getSampleCount(TYPE_WIFI, 0));
+
+		// 太小或无效的样本被忽略
+		assertFalse(estimator.addSample(TYPE_WIFI, 0, 999L, 1L));
+		assertFalse(estimator.addSample(TYPE_WIFI, 0, 100000L, 0L));
+		assertEquals(3, estimator.getSampleCount(TYPE_WIFI, 0));
+
+		estimator.reset();
+		assertEquals(0, estimator.getSampleCount(TYPE_WIFI, 0));
+	}
+
+	public void testQualityPerNetwork() {
+		BandwidthEstimator estimator = new BandwidthEstimator();
+		for (int i = 0; i < BandwidthEstimator.MIN_SAMPLE_COUNT - 1; i++) {
+			// 约80kbps
+			estimator.addSample(TYPE_MOBILE, NETWORK_TYPE_EDGE, 50000L, 5000L);
+			// 约8000kbps
+			estimator.addSample(TYPE_MOBILE, NETWORK_TYPE_LTE, 500000L, 500L);
+		}
+		// 样本不足
+		assertEquals(BandwidthEstimator.QUALITY_UNKNOWN,
+				estimator.getQuality(TYPE_MOBILE, NETWORK_TYPE_EDGE));
+
+		estimator.addSample(TYPE_MOBILE, NETWORK_TYPE_EDGE, 50000L, 5000L);
+		estimator.addSample(TYPE_MOBILE, NETWORK_TYPE_LTE, 500000L, 500L);
+		assertEquals(BandwidthEstimator.QUALITY_POOR,
+				estimator.getQuality(TYPE_MOBILE, NETWORK_TYPE_EDGE));
+		assertEquals(BandwidthEstimator.QUALITY_EXCELLENT,
+				estimator.getQuality(TYPE_MOBILE, NETWORK_TYPE_LTE));
+		assertEquals(BandwidthEstimator.QUALITY_UNKNOWN, estimator.getQuality(TYPE_WIFI, 0));
+	}
+
+	/**
+	 * 带宽下降后，估计值逐渐跟随新的带宽
+	 */
+	public void testConverge() {
+		BandwidthEstimator estimator = new BandwidthEstimator();
+		for (int i = 0; i < 50; i++) {
+			estimator.addSample(TYPE_WIFI, 0, 1000000L, 1000L);
+		}
+		assertEquals(BandwidthEstimator.QUALITY_EXCELLENT, estimator.getQuality(TYPE_WIFI, 0));
+
+		// 一个异常的慢样本不会立即改变连接质量
+		estimator.addSample(TYPE_WIFI, 0, 100000L, 10000L);
+		assertEquals(BandwidthEstimator.QUALITY_EXCELLENT, estimator.getQuality(TYPE_WIFI, 0));
+
+		for (int i = 0; i < 100; i++) {
+			estimator.addSample(TYPE_WIFI, 0, 100000L, 10000L);
+		}
+		assertEquals(BandwidthEstimator.QUALITY_POOR, estimator.getQuality(TYPE_WIFI, 0));
+	}
+}
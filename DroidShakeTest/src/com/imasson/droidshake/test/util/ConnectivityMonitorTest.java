@@ -0,0 +1,81 @@
+package com.imasson.droidshake.test.util;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.imasson.droidshake.util.ConnectivityMonitor;
+import com.imasson.droidshake.util.NetworkUtils;
+
+/**
+ * {@link ConnectivityMonitor}的单元测试
+ */
+public class ConnectivityMonitorTest extends InstrumentationTestCase {
+	private static final String TAG = "ConnectivityMonitor";
+
+	private Context mContext;
+	private ConnectivityMonitor mMonitor;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mContext = getInstrumentation().getTargetContext();
+		mMonitor = ConnectivityMonitor.getInstance(mContext);
+	}
+
+	public void testSnapshot() {
+		assertNotNull(mMonitor);
+		assertSame(mMonitor, ConnectivityMonitor.getInstance(mContext));
+		assertTrue(mMonitor.isRunning());
+
+		ConnectivityMonitor.Snapshot snapshot = mMonitor.getSnapshot();
+		assertNotNull(snapshot);
+		Log.i(TAG, "testSnapshot: " + snapshot);
+
+		// 与直接查询ConnectivityManager的结果一致
+		ConnectivityManager cm = (ConnectivityManager) mContext
+				.getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkInfo info = cm.getActiveNetworkInfo();
+		assertEquals(info != null && info.isConnected(), snapshot.connected);
+		assertEquals(snapshot.connected, NetworkUtils.isConnected(mContext));
+		assertEquals(snapshot.isWifi(), NetworkUtils.isConnectedWifi(mContext));
+		assertEquals(snapshot.isMobile(), NetworkUtils.isConnectedMobile(mContext));
+		assertEquals(snapshot.isFast(), NetworkUtils.isConnectedFast(mContext));
+		assertEquals(snapshot.available, NetworkUtils.isAvaliable(mContext));
+		assertFalse(NetworkUtils.isConnected(null));
+	}
+
+	public void testListenerNotCalledWithoutChange() {
+		final int[] count = new int[1];
+		ConnectivityMonitor.Listener listener = new ConnectivityMonitor.Listener() {
+			@Override
+			public void onConnectivityChanged(ConnectivityMonitor.Snapshot oldSnapshot,
+					ConnectivityMonitor.Snapshot newSnapshot) {
+				count[0]++;
+			}
+		};
+		mMonitor.addListener(listener);
+
+		ConnectivityMonitor.Snapshot snapshot = mMonitor.getSnapshot();
+		// 网络状态没有变化时返回原来的对象，也不会通知监听者
+		assertSame(snapshot, mMonitor.refresh());
+		assertEquals(0, count[0]);
+		mMonitor.removeListener(listener);
+	}
+
+	/**
+	 * 统计查询网络状态的耗时，应该远小于一次跨进程调用
+	 */
+	public void testQueryCost() {
+		int count = 10000;
+		long startTime = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			NetworkUtils.isConnectedFast(mContext);
+		}
+		long costTime = (System.nanoTime() - startTime) / count;
+		Log.i(TAG, "testQueryCost: costPerQuery=" + costTime + "ns");
+		assertTrue("costPerQuery=" + costTime + "ns", costTime < 100000L);
+	}
+}
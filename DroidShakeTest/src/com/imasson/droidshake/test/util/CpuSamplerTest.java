@@ -0,0 +1,226 @@
+package com.imasson.droidshake.test.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+import android.util.Log;
+
+import com.imasson.droidshake.util.debug.CpuSampler;
+import com.imasson.droidshake.util.debug.CpuSampler.ThreadCpuUsage;
+
+/**
+ * {@link CpuSampler}的单元测试，使用临时目录中构造的/proc文件，结果不受系统实际负载的影响
+ */
+public class CpuSamplerTest extends TestCase {
+	private static final String TAG = "CpuSampler";
+
+	private static final int TID = 1234;
+
+	private File mProcRoot;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mProcRoot = File.createTempFile("proc", "");
+		mProcRoot.delete();
+		new File(mProcRoot, "self/task/" + TID).mkdirs();
+	}
+
+	public void testSample() throws IOException {
+		CpuSampler sampler = new CpuSampler(mProcRoot.getPath());
+		sampler.trackThread(TID);
+
+		writeSystemStat(1000, 100, 500, 8000, 400);
+		writeProcessStat("self/stat", 200, 100);
+		writeProcessStat("self/task/" + TID + "/stat", 50, 10);
+		assertTrue(sampler.sample());
+		assertFalse(sampler.hasDelta());
+		assertEquals(-1f, sampler.getProcessCpuRate());
+
+		// 总时间增加1000，其中空闲300，进程使用150，线程使用50
+		writeSystemStat(1400, 100, 800, 8200, 500);
+		writeProcessStat("self/stat", 300, 150);
+		writeProcessStat("self/task/" + TID + "/stat", 80, 30);
+		assertTrue(sampler.sample());
+
+		assertTrue(sampler.hasDelta());
+		assertEquals(1000L, sampler.getTotalCpuTimeDelta());
+		assertEquals(150L, sampler.getProcessCpuTimeDelta());
+		assertEquals(15f, sampler.getProcessCpuRate(), 0.001f);
+		assertEquals(70f, sampler.getSystemCpuRate(), 0.001f);
+		assertEquals(5f, sampler.getThreadCpuRate(TID), 0.001f);
+		assertEquals(-1f, sampler.getThreadCpuRate(TID + 1));
+
+		sampler.close();
+	}
+
+	public void testThreadExited() throws IOException {
+		CpuSampler sampler = new CpuSampler(mProcRoot.getPath());
+		sampler.trackThread(TID);
+
+		writeSystemStat(1000, 0, 0, 1000, 0);
+		writeProcessStat("self/stat", 10, 10);
+		writeProcessStat("self/task/" + TID + "/stat", 5, 5);
+		assertTrue(sampler.sample());
+
+		// 线程结束之后读取stat文件会失败，这里用空文件模拟
+		write("self/task/" + TID + "/stat", "");
+		writeSystemStat(2000, 0, 0, 2000, 0);
+		writeProcessStat("self/stat", 20, 20);
+		assertTrue(sampler.sample());
+
+		// 线程结束后不影响进程的统计
+		assertEquals(1f, sampler.getProcessCpuRate(), 0.001f);
+		assertEquals(-1f, sampler.getThreadCpuRate(TID));
+
+		sampler.untrackThread(TID);
+		sampler.close();
+	}
+
+	public void testTrackAllThreads() throws IOException {
+		CpuSampler sampler = new CpuSampler(mProcRoot.getPath());
+		sampler.setTrackAllThreads(true);
+		new File(mProcRoot, "self/task/" + (TID + 1)).mkdirs();
+		new File(mProcRoot, "self/task/" + (TID + 2)).mkdirs();
+
+		writeSystemStat(1000, 0, 0, 1000, 0);
+		writeProcessStat("self/stat", 10, 10);
+		writeThreadStat(TID, "main", 5, 5);
+		writeThreadStat(TID + 1, "Binder_1", 0, 0);
+		writeThreadStat(TID + 2, "decoder", 1, 1);
+		assertTrue(sampler.sample());
+		assertEquals(0, sampler.getTopThreads(3).size());
+
+		// 线程TID + 1结束，新增线程TID + 3
+		deleteRecursively(new File(mProcRoot, "self/task/" + (TID + 1)));
+		new File(mProcRoot, "self/task/" + (TID + 3)).mkdirs();
+		writeSystemStat(2000, 0, 0, 2000, 0);
+		writeProcessStat("self/stat", 100, 100);
+		writeThreadStat(TID, "main", 15, 5);
+		writeThreadStat(TID + 2, "decoder", 101, 1);
+		writeThreadStat(TID + 3, "sync", 7, 0);
+		assertTrue(sampler.sample());
+
+		// 新线程在第二次采样之前没有数据
+		List<ThreadCpuUsage> list = sampler.getTopThreads(0);
+		assertEquals(2, list.size());
+		assertEquals(TID + 2, list.get(0).tid);
+		assertEquals("decoder", list.get(0).kernelName);
+		assertEquals(100L, list.get(0).cpuTimeDelta);
+		assertEquals(5f, list.get(0).cpuRate, 0.001f);
+		assertEquals(TID, list.get(1).tid);
+		// 当前测试线程的名称与内核中的线程名相同时可以找到Java线程
+		if ("main".equals(Thread.currentThread().getName())) {
+			assertEquals("main", list.get(1).javaName);
+		}
+		assertEquals(-1f, sampler.getThreadCpuRate(TID + 1));
+
+		writeSystemStat(3000, 0, 0, 3000, 0);
+		writeThreadStat(TID + 3, "sync", 17, 0);
+		assertTrue(sampler.sample());
+		list = sampler.getTopThreads(1);
+		assertEquals(1, list.size());
+		assertEquals(TID + 3, list.get(0).tid);
+
+		sampler.close();
+	}
+
+	public void testInvalidContent() throws IOException {
+		CpuSampler sampler = new CpuSampler(mProcRoot.getPath());
+		write("stat", "intr 1 2 3\n");
+		writeProcessStat("self/stat", 1, 1);
+		assertFalse(sampler.sample());
+
+		write("self/stat", "1234 (broken");
+		assertFalse(sampler.sample());
+
+		assertFalse(new CpuSampler(new File(mProcRoot, "missing").getPath()).sample());
+		sampler.close();
+	}
+
+	/**
+	 * 在Linux环境下读取真实的/proc文件，并统计单次采样的耗时
+	 */
+	public void testRealProc() {
+		if (!new File("/proc/self/stat").exists()) {
+			Log.i(TAG, "testRealProc: /proc is not available, skipped");
+			return;
+		}
+
+		CpuSampler sampler = new CpuSampler();
+		sampler.setTrackAllThreads(true);
+		assertTrue(sampler.sample());
+
+		// 消耗一些CPU时间
+		long sum = 0;
+		long endTime = System.currentTimeMillis() + 100;
+		while (System.currentTimeMillis() < endTime) {
+			sum += sum * 31 + 7;
+		}
+		assertTrue(sampler.sample());
+		float cpuRate = sampler.getProcessCpuRate();
+		assertTrue(cpuRate >= 0f);
+		List<ThreadCpuUsage> topThreads = sampler.getTopThreads(3);
+		assertFalse(topThreads.isEmpty());
+		Log.i(TAG, "testRealProc: topThreads=" + topThreads);
+
+		int count = 1000;
+		long startTime = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			sampler.sample();
+		}
+		long costTime = (System.nanoTime() - startTime) / count;
+		sampler.close();
+
+		Log.i(TAG, "testRealProc: cpuRate=" + cpuRate
+				+ ", costPerSample=" + (costTime / 1000L) + "us, sum=" + sum);
+		assertTrue("costPerSample=" + costTime + "ns", costTime < 1000000L);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		deleteRecursively(mProcRoot);
+		super.tearDown();
+	}
+
+	private void writeSystemStat(long user, long nice, long system, long idle, long iowait)
+			throws IOException {
+		write("stat", "cpu  " + user + " " + nice + " " + system + " " + idle + " " + iowait
+				+ " 0 0 0 0 0\ncpu0 " + user + " " + nice + " " + system + " " + idle
+				+ " " + iowait + " 0 0 0 0 0\nintr 12345\n");
+	}
+
+	private void writeProcessStat(String path, long utime, long stime) throws IOException {
+		// 进程名中带有空格和括号
+		write(path, "4321 (my (app) name) S 1 4321 1 0 -1 4194560 100 0 0 0 "
+				+ utime + " " + stime + " 0 0 20 0 12 0 99505 2703360 289\n");
+	}
+
+	private void writeThreadStat(int tid, String name, long utime, long stime)
+			throws IOException {
+		write("self/task/" + tid + "/stat", tid + " (" + name + ") S 1 4321 1 0 -1 4194560 100 0 0 0 "
+				+ utime + " " + stime + " 0 0 20 0 12 0 99505 2703360 289\n");
+	}
+
+	private void write(String path, String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(new File(mProcRoot, path));
+		try {
+			out.write(content.getBytes("US-ASCII"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,259 @@
+package com.imasson.droidshake.test.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.imasson.droidshake.util.BandwidthEstimator;
+import com.imasson.droidshake.util.net.DownloadScheduler;
+import com.imasson.droidshake.util.net.DownloadTask;
+
+/**
+ * {@link DownloadScheduler}的单元测试，使用{@link LocalHttpServer}作为服务器
+ */
+public class DownloadSchedulerTest extends TestCase {
+
+	private LocalHttpServer mServer;
+	private File mDir;
+	private File mQueueFile;
+	private DownloadScheduler mScheduler;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		byte[] content = new byte[32 * 1024];
+		new Random(42).nextBytes(content);
+		mServer = new LocalHttpServer(content);
+		mServer.start();
+
+		mDir = File.createTempFile("scheduler", "");
+		mDir.delete();
+		mDir.mkdirs();
+		mQueueFile = new File(mDir, "queue");
+		mScheduler = new DownloadScheduler(null, mQueueFile);
+	}
+
+	public void testPriority() throws Exception {
+		mScheduler.pause();
+		mScheduler.setMaxConcurrency(1, 1);
+		final List<String> order = new ArrayList<String>();
+		final CountDownLatch latch = new CountDownLatch(4);
+		DownloadScheduler.Listener listener = new DownloadScheduler.Listener() {
+			@Override
+			public void onDownloadFinished(String url, String savePath, int result) {
+				// 在下载线程中回调，断言失败不会让测试失败，因此只记录结果
+				synchronized (order) {
+					order.add(url.substring(url.lastIndexOf('/') + 1) + ":" + result);
+				}
+				latch.countDown();
+			}
+		};
+		enqueue("low", DownloadScheduler.PRIORITY_LOW, true, listener);
+		enqueue("normal1", DownloadScheduler.PRIORITY_NORMAL, true, listener);
+		enqueue("high", DownloadScheduler.PRIORITY_HIGH, true, listener);
+		enqueue("normal2", DownloadScheduler.PRIORITY_NORMAL, true, listener);
+		assertEquals(4, mScheduler.getQueueDepth());
+		assertEquals(0, mScheduler.getRunningCount());
+
+		mScheduler.resume();
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		synchronized (order) {
+			int ok = DownloadTask.RESULT_SUCCESS;
+			assertEquals("[high:" + ok + ", normal1:" + ok + ", normal2:" + ok + ", low:" + ok + "]",
+					order.toString());
+		}
+		assertEquals(4L, mScheduler.getCompletedCount());
+		assertEquals(4 * 32 * 1024L, mScheduler.getTransferredBytes());
+		assertTrue(mScheduler.getThroughput() > 0L);
+		assertEquals(1, mServer.getMaxActiveCount());
+	}
+
+	public void testCoalesce() throws Exception {
+		mScheduler.pause();
+		final CountDownLatch latch = new CountDownLatch(2);
+		final List<String> paths = new ArrayList<String>();
+		DownloadScheduler.Listener listener = new DownloadScheduler.Listener() {
+			@Override
+			public void onDownloadFinished(String url, String savePath, int result) {
+				assertEquals(DownloadTask.RESULT_SUCCESS, result);
+				synchronized (paths) {
+					paths.add(savePath);
+				}
+				latch.countDown();
+			}
+		};
+		String url = mServer.getUrl("/same");
+		String first = new File(mDir, "first").getPath();
+		String second = new File(mDir, "copy/second").getPath();
+		assertTrue(mScheduler.enqueue(url, first, DownloadScheduler.PRIORITY_NORMAL, true, listener));
+		assertTrue(mScheduler.enqueue(url, second, DownloadScheduler.PRIORITY_HIGH, true, listener));
+		assertEquals(1, mScheduler.getQueueDepth());
+		assertEquals(1L, mScheduler.getCoalescedCount());
+
+		mScheduler.resume();
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertTrue(paths.contains(first));
+		assertTrue(paths.contains(second));
+		assertEquals(32 * 1024L, new File(first).length());
+		assertEquals(32 * 1024L, new File(second).length());
+		// 一次探测请求加上一次下载
+		assertEquals(2, mServer.getRequestCount());
+	}
+
+	public void testMeteredNetwork() throws Exception {
+		mScheduler.updateNetworkState(true, true, BandwidthEstimator.QUALITY_GOOD);
+		assertEquals(DownloadScheduler.DEFAULT_MAX_METERED_CONCURRENCY,
+				mScheduler.getAllowedConcurrency());
+
+		final CountDownLatch meteredLatch = new CountDownLatch(1);
+		final CountDownLatch wifiLatch = new CountDownLatch(1);
+		enqueue("metered", DownloadScheduler.PRIORITY_NORMAL, true, latchListener(meteredLatch));
+		enqueue("wifi", DownloadScheduler.PRIORITY_HIGH, false, latchListener(wifiLatch));
+		assertTrue(meteredLatch.await(10, TimeUnit.SECONDS));
+		// 不允许使用计费网络的请求仍然在排队
+		assertFalse(wifiLatch.await(200, TimeUnit.MILLISECONDS));
+		assertEquals(1, mScheduler.getQueueDepth());
+
+		mScheduler.updateNetworkState(true, false, BandwidthEstimator.QUALITY_POOR);
+		assertEquals(1, mScheduler.getAllowedConcurrency());
+		assertTrue(wifiLatch.await(10, TimeUnit.SECONDS));
+		assertEquals(0, mScheduler.getQueueDepth());
+	}
+
+	public void testPersistQueue() throws Exception {
+		mScheduler.updateNetworkState(false, false, BandwidthEstimator.QUALITY_UNKNOWN);
+		assertEquals(0, mScheduler.getAllowedConcurrency());
+		enqueue("a", DownloadScheduler.PRIORITY_NORMAL, true, null);
+		enqueue("b", DownloadScheduler.PRIORITY_LOW, false, null);
+		assertEquals(2, mScheduler.getQueueDepth());
+		// 队列文件延迟写入，关闭时立即写入
+		assertFalse(mQueueFile.exists());
+		mScheduler.shutdown();
+		assertTrue(mQueueFile.exists());
+		assertFalse(mScheduler.enqueue(mServer.getUrl("/c"), new File(mDir, "c").getPath(),
+				DownloadScheduler.PRIORITY_NORMAL, true, null));
+
+		// 模拟程序重新启动
+		mScheduler = new DownloadScheduler(null, mQueueFile);
+		long endTime = System.currentTimeMillis() + 10000L;
+		while (mScheduler.getCompletedCount() < 2L && System.currentTimeMillis() < endTime) {
+			Thread.sleep(20L);
+		}
+		assertEquals(2L, mScheduler.getCompletedCount());
+		assertTrue(new File(mDir, "a").exists());
+		assertTrue(new File(mDir, "b").exists());
+		assertEquals(0, mScheduler.getQueueDepth());
+	}
+
+	public void testCancel() throws Exception {
+		mScheduler.pause();
+		final int[] result = new int[] { -1 };
+		enqueue("canceled", DownloadScheduler.PRIORITY_NORMAL, true,
+				new DownloadScheduler.Listener() {
+					@Override
+					public void onDownloadFinished(String url, String savePath, int r) {
+						result[0] = r;
+					}
+				});
+		assertTrue(mScheduler.cancel(mServer.getUrl("/canceled")));
+		assertFalse(mScheduler.cancel(mServer.getUrl("/canceled")));
+		assertEquals(DownloadTask.RESULT_CANCELED, result[0]);
+		assertEquals(0, mScheduler.getQueueDepth());
+	}
+
+	public void testCancelRunning() throws Exception {
+		mServer.setChunkDelayMillis(20L);
+		final List<Integer> results = new ArrayList<Integer>();
+		final CountDownLatch latch = new CountDownLatch(2);
+		DownloadScheduler.Listener listener = new DownloadScheduler.Listener() {
+			@Override
+			public void onDownloadFinished(String url, String savePath, int result) {
+				synchronized (results) {
+					results.add(result);
+				}
+				latch.countDown();
+			}
+		};
+		enqueue("running", DownloadScheduler.PRIORITY_NORMAL, true, listener);
+		File partFile = new File(mDir, "running.part");
+		long endTime = System.currentTimeMillis() + 10000L;
+		while (partFile.length() == 0L && System.currentTimeMillis() < endTime) {
+			Thread.sleep(10L);
+		}
+		assertTrue(partFile.length() > 0L);
+
+		// 之前的下载停止并删除临时文件之后，新的请求才能开始
+		assertTrue(mScheduler.cancel(mServer.getUrl("/running")));
+		mServer.setChunkDelayMillis(0L);
+		enqueue("running", DownloadScheduler.PRIORITY_NORMAL, true, listener);
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		synchronized (results) {
+			assertEquals(Integer.valueOf(DownloadTask.RESULT_CANCELED), results.get(0));
+			assertEquals(Integer.valueOf(DownloadTask.RESULT_SUCCESS), results.get(1));
+		}
+		assertEquals(32 * 1024L, new File(mDir, "running").length());
+		assertFalse(partFile.exists());
+		assertFalse(new File(mDir, "running.part.meta").exists());
+	}
+
+	public void testRetryBackoff() throws Exception {
+		mServer.setAbortAfterBytes(1024L);
+		mScheduler.setRetryPolicy(2, 200L);
+		final int[] result = new int[] { -1 };
+		final CountDownLatch latch = new CountDownLatch(1);
+		long startTime = System.currentTimeMillis();
+		enqueue("failing", DownloadScheduler.PRIORITY_NORMAL, true,
+				new DownloadScheduler.Listener() {
+					@Override
+					public void onDownloadFinished(String url, String savePath, int r) {
+						result[0] = r;
+						latch.countDown();
+					}
+				});
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(DownloadTask.RESULT_FAILED, result[0]);
+		// 两次重试分别等待200ms和400ms
+		assertTrue(System.currentTimeMillis() - startTime >= 600L);
+		assertEquals(1L, mScheduler.getFailedCount());
+		// 每次下载包括一次探测请求和一次分段请求
+		assertEquals(6, mServer.getRequestCount());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mScheduler.shutdown();
+		mServer.shutdown();
+		deleteRecursively(mDir);
+		super.tearDown();
+	}
+
+	private void enqueue(String name, int priority, boolean allowMetered,
+			DownloadScheduler.Listener listener) {
+		assertTrue(mScheduler.enqueue(mServer.getUrl("/" + name), new File(mDir, name).getPath(),
+				priority, allowMetered, listener));
+	}
+
+	private static DownloadScheduler.Listener latchListener(final CountDownLatch latch) {
+		return new DownloadScheduler.Listener() {
+			@Override
+			public void onDownloadFinished(String url, String savePath, int result) {
+				latch.countDown();
+			}
+		};
+	}
+
+	private static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+}
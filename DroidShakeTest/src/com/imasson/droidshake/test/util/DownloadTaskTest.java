@@ -0,0 +1,243 @@
+package com.imasson.droidshake.test.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.imasson.droidshake.util.FileUtils;
+import com.imasson.droidshake.util.net.DownloadTask;
+
+/**
+ * {@link DownloadTask}的单元测试，使用{@link LocalHttpServer}作为服务器
+ */
+public class DownloadTaskTest extends TestCase {
+
+	private static final int CONTENT_SIZE = 100 * 1024 + 123;
+
+	private byte[] mContent;
+	private LocalHttpServer mServer;
+	private File mDir;
+	private String mSavePath;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mContent = new byte[CONTENT_SIZE];
+		new Random(42).nextBytes(mContent);
+		mServer = new LocalHttpServer(mContent);
+		mServer.start();
+
+		mDir = File.createTempFile("download", "");
+		mDir.delete();
+		mSavePath = new File(mDir, "sub/file.bin").getPath();
+		DownloadTask.setMaxConnections(DownloadTask.DEFAULT_MAX_CONNECTIONS);
+	}
+
+	public void testSegmentedDownload() throws Exception {
+		DownloadTask task = new DownloadTask(mServer.getUrl("/file.bin"), mSavePath);
+		task.setSegments(4, 16 * 1024);
+		task.setExpectedDigest("SHA-1", sha1(mContent));
+
+		assertEquals(DownloadTask.RESULT_SUCCESS, task.execute());
+		assertContent();
+		assertEquals(CONTENT_SIZE, task.getTotalBytes());
+		assertEquals(CONTENT_SIZE, task.getTransferredBytes());
+		assertFalse(new File(mSavePath + ".part").exists());
+		assertFalse(new File(mSavePath + ".part.meta").exists());
+
+		// 一次探测请求加上4个分段
+		List<String> ranges = mServer.getRanges();
+		assertEquals(5, ranges.size());
+		assertEquals("bytes=0-0", ranges.get(0));
+		assertTrue(ranges.contains("bytes=0-" + (CONTENT_SIZE / 4 - 1)));
+		assertTrue(ranges.contains("bytes=" + (CONTENT_SIZE / 4 * 3) + "-" + (CONTENT_SIZE - 1)));
+	}
+
+	public void testResume() throws Exception {
+		mServer.setAbortAfterBytes(10 * 1024);
+		DownloadTask task = new DownloadTask(mServer.getUrl("/file.bin"), mSavePath);
+		task.setSegments(2, 16 * 1024);
+		assertEquals(DownloadTask.RESULT_FAILED, task.execute());
+		assertTrue(new File(mSavePath + ".part.meta").exists());
+		assertFalse(new File(mSavePath).exists());
+		assertEquals(20 * 1024, task.getDownloadedBytes());
+
+		// 新的任务从断开的位置继续下载
+		mServer.setAbortAfterBytes(-1L);
+		DownloadTask resumed = new DownloadTask(mServer.getUrl("/file.bin"), mSavePath);
+		assertEquals(DownloadTask.RESULT_SUCCESS, resumed.execute());
+		assertEquals(CONTENT_SIZE - 20 * 1024, resumed.getTransferredBytes());
+		assertContent();
+
+		List<String> ranges = mServer.getRanges();
+		assertTrue(ranges.contains("bytes=" + (10 * 1024) + "-" + (CONTENT_SIZE / 2 - 1)));
+		assertTrue(ranges.contains("bytes=" + (CONTENT_SIZE / 2 + 10 * 1024) + "-" + (CONTENT_SIZE - 1)));
+	}
+
+	public void testRestartWhenChanged() throws Exception {
+		mServer.setAbortAfterBytes(10 * 1024);
+		DownloadTask task = new DownloadTask(mServer.getUrl("/file.bin"), mSavePath);
+		task.setSegments(2, 16 * 1024);
+		assertEquals(DownloadTask.RESULT_FAILED, task.execute());
+
+		// 服务器上的文件变化后，不能使用之前下载的部分
+		mServer.setAbortAfterBytes(-1L);
+		new Random(7).nextBytes(mContent);
+		mServer.setContent(mContent, "\"v2\"");
+		DownloadTask restarted = new DownloadTask(mServer.getUrl("/file.bin"), mSavePath);
+		assertEquals(DownloadTask.RESULT_SUCCESS, restarted.execute());
+		assertEquals(CONTENT_SIZE, restarted.getTransferredBytes());
+		assertContent();
+	}
+
+	public void testRangeNotSupported() throws Exception {
+		mServer.setRangeSupported(false);
+		DownloadTask task = new DownloadTask(mServer.getUrl("/file.bin"), mSavePath);
+		task.setSegments(4, 16 * 1024);
+		assertEquals(DownloadTask.RESULT_SUCCESS, task.execute());
+		assertContent();
+		// 直接使用探测请求返回的完整内容
+		assertEquals(1, mServer.getRequestCount());
+		assertEquals(CONTENT_SIZE, task.getTransferredBytes());
+	}
+
+	public void testChangedWhileDownloading() throws Exception {
+		// 探测请求之后文件发生变化，分段请求的If-Range不再匹配
+		byte[] changed = new byte[CONTENT_SIZE];
+		new Random(7).nextBytes(changed);
+		mServer.setContentAfterRequests(1, changed, "\"v2\"");
+		DownloadTask task = new DownloadTask(mServer.getUrl("/file.bin"), mSavePath);
+		task.setSegments(2, 16 * 1024);
+		assertEquals(DownloadTask.RESULT_SUCCESS, task.execute());
+		mContent = changed;
+		assertContent();
+		assertEquals(CONTENT_SIZE, task.getTransferredBytes());
+	}
+
+	public void testWeakETag() throws Exception {
+		// 弱ETag不能用于If-Range，不能因此每次都重新开始
+		mServer.setContent(mContent, "W/\"v1\"");
+		DownloadTask task = new DownloadTask(mServer.getUrl("/file.bin"), mSavePath);
+		task.setSegments(2, 16 * 1024);
+		assertEquals(DownloadTask.RESULT_SUCCESS, task.execute());
+		assertContent();
+		assertEquals(3, mServer.getRequestCount());
+	}
+
+	public void testWeakETagChanged() throws Exception {
+		mServer.setContent(mContent, "W/\"v1\"");
+		byte[] changed = new byte[CONTENT_SIZE];
+		new Random(7).nextBytes(changed);
+		mServer.setContentAfterRequests(1, changed, "W/\"v2\"");
+		DownloadTask task = new DownloadTask(mServer.getUrl("/file.bin"), mSavePath);
+		task.setSegments(2, 16 * 1024);
+		// 分段请求返回206，但ETag已经变化
+		assertEquals(DownloadTask.RESULT_SUCCESS, task.execute());
+		mContent = changed;
+		assertContent();
+	}
+
+	public void testEmptyResource() throws Exception {
+		mServer.setContent(new byte[0], "\"empty\"");
+		DownloadTask task = new DownloadTask(mServer.getUrl("/empty.bin"), mSavePath);
+		assertEquals(DownloadTask.RESULT_SUCCESS, task.execute());
+		File file = new File(mSavePath);
+		assertTrue(file.exists());
+		assertEquals(0L, file.length());
+		assertFalse(new File(mSavePath + ".part").exists());
+		assertEquals(1, mServer.getRequestCount());
+	}
+
+	public void testDigestMismatch() throws Exception {
+		DownloadTask task = new DownloadTask(mServer.getUrl("/file.bin"), mSavePath);
+		task.setExpectedDigest("MD5", "00000000000000000000000000000000");
+		assertEquals(DownloadTask.RESULT_DIGEST_MISMATCH, task.execute());
+		assertFalse(new File(mSavePath).exists());
+		assertFalse(new File(mSavePath + ".part").exists());
+	}
+
+	public void testConnectionLimit() throws Exception {
+		DownloadTask.setMaxConnections(2);
+		mServer.setChunkDelayMillis(1L);
+
+		final DownloadTask first = new DownloadTask(mServer.getUrl("/a"), mSavePath + ".a");
+		DownloadTask second = new DownloadTask(mServer.getUrl("/b"), mSavePath + ".b");
+		first.setSegments(4, 16 * 1024);
+		second.setSegments(4, 16 * 1024);
+		final int[] result = new int[1];
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				result[0] = first.execute();
+			}
+		};
+		thread.start();
+		assertEquals(DownloadTask.RESULT_SUCCESS, second.execute());
+		thread.join();
+		assertEquals(DownloadTask.RESULT_SUCCESS, result[0]);
+
+		// 探测请求和分段请求共用同一个上限
+		assertTrue("max=" + mServer.getMaxActiveCount(), mServer.getMaxActiveCount() <= 2);
+	}
+
+	public void testCancel() throws Exception {
+		mServer.setChunkDelayMillis(20L);
+		final DownloadTask task = new DownloadTask(mServer.getUrl("/file.bin"), mSavePath);
+		task.setListener(new DownloadTask.Listener() {
+			@Override
+			public void onProgress(DownloadTask t, long downloadedBytes, long totalBytes) {
+				t.cancel();
+			}
+		});
+		assertEquals(DownloadTask.RESULT_CANCELED, task.execute());
+		assertFalse(new File(mSavePath).exists());
+		assertTrue(new File(mSavePath + ".part.meta").exists());
+		assertEquals(DownloadTask.RESULT_CANCELED, task.execute());
+	}
+
+	public void testComputeDigest() throws Exception {
+		DownloadTask task = new DownloadTask(mServer.getUrl("/file.bin"), mSavePath);
+		assertEquals(DownloadTask.RESULT_SUCCESS, task.execute());
+		assertEquals(sha1(mContent), FileUtils.computeDigest(mSavePath, "SHA-1"));
+		assertNull(FileUtils.computeDigest(mSavePath, "NO-SUCH-ALGORITHM"));
+		assertNull(FileUtils.computeDigest(mSavePath + ".missing", "MD5"));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mServer.shutdown();
+		deleteRecursively(mDir);
+		DownloadTask.setMaxConnections(DownloadTask.DEFAULT_MAX_CONNECTIONS);
+		super.tearDown();
+	}
+
+	private void assertContent() throws IOException {
+		byte[] bytes = FileUtils.readBytes(mSavePath);
+		assertNotNull(bytes);
+		assertTrue(Arrays.equals(mContent, bytes));
+	}
+
+	private static String sha1(byte[] content) throws Exception {
+		byte[] digest = MessageDigest.getInstance("SHA-1").digest(content);
+		StringBuilder builder = new StringBuilder();
+		for (byte b : digest) {
+			builder.append(String.format("%02x", b & 0xFF));
+		}
+		return builder.toString();
+	}
+
+	private static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+}
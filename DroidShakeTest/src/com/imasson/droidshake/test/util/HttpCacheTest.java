@@ -0,0 +1,199 @@
+package com.imasson.droidshake.test.util;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import com.imasson.droidshake.util.net.HttpCache;
+
+/**
+ * {@link HttpCache}的单元测试，使用{@link LocalHttpServer}作为服务器
+ */
+public class HttpCacheTest extends TestCase {
+
+	private LocalHttpServer mServer;
+	private File mDir;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mServer = new LocalHttpServer("{\"version\":1}".getBytes("UTF-8"));
+		mServer.start();
+
+		mDir = File.createTempFile("http-cache", "");
+		mDir.delete();
+	}
+
+	public void testFreshHit() throws Exception {
+		mServer.setCacheControl("public, max-age=60");
+		HttpCache cache = new HttpCache(mDir, 64 * 1024);
+		String url = mServer.getUrl("/config.json");
+
+		HttpCache.Response response = cache.fetch(url);
+		assertEquals(200, response.code);
+		assertEquals(HttpCache.SOURCE_NETWORK, response.source);
+		assertEquals("{\"version\":1}", response.getBodyString());
+
+		// 还没有过期，不访问网络
+		response = cache.fetch(url);
+		assertEquals(HttpCache.SOURCE_CACHE, response.source);
+		assertEquals("{\"version\":1}", response.getBodyString());
+		assertEquals(1, mServer.getRequestCount());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(0, cache.getRevalidateCount());
+
+		// 重新创建的缓存对象可以使用已经保存的缓存项
+		HttpCache reopened = new HttpCache(mDir, 64 * 1024);
+		assertEquals(1, reopened.getEntryCount());
+		assertEquals(cache.getSize(), reopened.getSize());
+		assertEquals(HttpCache.SOURCE_CACHE, reopened.fetch(url).source);
+		assertEquals(1, mServer.getRequestCount());
+	}
+
+	public void testRevalidate() throws Exception {
+		mServer.setCacheControl("no-cache");
+		HttpCache cache = new HttpCache(mDir, 64 * 1024);
+		String url = mServer.getUrl("/config.json");
+
+		assertEquals(HttpCache.SOURCE_NETWORK, cache.fetch(url).source);
+
+		// ETag没有变化，服务器返回304
+		HttpCache.Response response = cache.fetch(url);
+		assertEquals(304, response.code);
+		assertTrue(response.isSuccessful());
+		assertEquals(HttpCache.SOURCE_REVALIDATED, response.source);
+		assertEquals("{\"version\":1}", response.getBodyString());
+		assertEquals(2, mServer.getRequestCount());
+		assertEquals(1, cache.getRevalidateCount());
+
+		// 内容变化后返回新的内容
+		mServer.setContent("{\"version\":2}".getBytes("UTF-8"), "\"v2\"");
+		response = cache.fetch(url);
+		assertEquals(200, response.code);
+		assertEquals(HttpCache.SOURCE_NETWORK, response.source);
+		assertEquals("{\"version\":2}", response.getBodyString());
+		assertEquals(HttpCache.SOURCE_REVALIDATED, cache.fetch(url).source);
+		assertEquals(2, cache.getRevalidateCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(0, cache.getHitCount());
+	}
+
+	public void testRevalidateKeepsBody() throws Exception {
+		mServer.setCacheControl("no-cache");
+		HttpCache cache = new HttpCache(mDir, 64 * 1024);
+		String url = mServer.getUrl("/config.json");
+		cache.fetch(url);
+		File bodyFile = findFile(".body");
+		assertTrue(bodyFile.setLastModified(1000000000L));
+		long size = cache.getSize();
+
+		// 304只重写元数据，不重写响应体
+		assertEquals(HttpCache.SOURCE_REVALIDATED, cache.fetch(url).source);
+		assertEquals(1000000000L, bodyFile.lastModified());
+		assertEquals(size, cache.getSize());
+		assertEquals(HttpCache.SOURCE_REVALIDATED, cache.fetch(url).source);
+		assertEquals(1, cache.getEntryCount());
+	}
+
+	public void testStaleOnError() throws Exception {
+		mServer.setCacheControl("no-cache");
+		HttpCache cache = new HttpCache(mDir, 64 * 1024);
+		String url = mServer.getUrl("/config.json");
+		assertEquals(HttpCache.SOURCE_NETWORK, cache.fetch(url).source);
+
+		// 服务器错误时返回过期的响应，并保留缓存项
+		mServer.setErrorCode(503);
+		HttpCache.Response response = cache.fetch(url);
+		assertEquals(200, response.code);
+		assertEquals(HttpCache.SOURCE_STALE, response.source);
+		assertEquals("{\"version\":1}", response.getBodyString());
+		assertEquals(1, cache.getEntryCount());
+
+		// 404不是服务器错误，返回网络的响应，但不删除缓存项
+		mServer.setErrorCode(404);
+		response = cache.fetch(url);
+		assertEquals(404, response.code);
+		assertEquals(HttpCache.SOURCE_NETWORK, response.source);
+		assertEquals(1, cache.getEntryCount());
+
+		// 网络错误时同样返回过期的响应
+		mServer.shutdown();
+		response = cache.fetch(url);
+		assertNotNull(response);
+		assertEquals(HttpCache.SOURCE_STALE, response.source);
+		assertEquals("{\"version\":1}", response.getBodyString());
+		assertEquals(2, cache.getStaleCount());
+		assertNull(cache.fetch(mServer.getUrl("/other.json")));
+	}
+
+	public void testNoStore() throws Exception {
+		mServer.setCacheControl("no-store");
+		HttpCache cache = new HttpCache(mDir, 64 * 1024);
+		String url = mServer.getUrl("/config.json");
+
+		assertEquals(HttpCache.SOURCE_NETWORK, cache.fetch(url).source);
+		assertEquals(HttpCache.SOURCE_NETWORK, cache.fetch(url).source);
+		assertEquals(0, cache.getEntryCount());
+		assertEquals(0, cache.getSize());
+		assertEquals(2, cache.getMissCount());
+	}
+
+	public void testEvictLeastRecentlyUsed() throws Exception {
+		byte[] content = new byte[1000];
+		mServer.setContent(content, "\"v1\"");
+		mServer.setCacheControl("max-age=60");
+		// 只能容纳两个缓存项
+		HttpCache cache = new HttpCache(mDir, 2500);
+
+		cache.fetch(mServer.getUrl("/a"));
+		cache.fetch(mServer.getUrl("/b"));
+		// 访问a之后，b成为最久没有使用的缓存项
+		assertEquals(HttpCache.SOURCE_CACHE, cache.fetch(mServer.getUrl("/a")).source);
+		cache.fetch(mServer.getUrl("/c"));
+
+		assertEquals(2, cache.getEntryCount());
+		assertTrue(cache.getSize() <= cache.getMaxSize());
+		assertEquals(HttpCache.SOURCE_CACHE, cache.fetch(mServer.getUrl("/a")).source);
+		assertEquals(HttpCache.SOURCE_CACHE, cache.fetch(mServer.getUrl("/c")).source);
+		int requestCount = mServer.getRequestCount();
+		assertEquals(HttpCache.SOURCE_NETWORK, cache.fetch(mServer.getUrl("/b")).source);
+		assertEquals(requestCount + 1, mServer.getRequestCount());
+
+		// 大于上限的响应不会被缓存
+		mServer.setContent(new byte[3000], "\"v2\"");
+		cache.fetch(mServer.getUrl("/large"));
+		assertEquals(2, cache.getEntryCount());
+
+		cache.clear();
+		assertEquals(0, cache.getEntryCount());
+		assertEquals(0, cache.getSize());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mServer.shutdown();
+		deleteRecursively(mDir);
+		super.tearDown();
+	}
+
+	private File findFile(String suffix) {
+		for (File file : mDir.listFiles()) {
+			if (file.getName().endsWith(suffix)) {
+				return file;
+			}
+		}
+		fail("No file ends with " + suffix);
+		return null;
+	}
+
+	private static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+}
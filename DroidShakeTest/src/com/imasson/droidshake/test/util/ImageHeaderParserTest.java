@@ -0,0 +1,150 @@
+package com.imasson.droidshake.test.util;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+import com.imasson.droidshake.util.ImageHeaderParser;
+
+/**
+ * {@link ImageHeaderParser}的单元测试，不依赖于Android的运行环境
+ */
+public class ImageHeaderParserTest extends TestCase {
+
+	public void testPng() {
+		byte[] data = bytes(0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n',
+				0, 0, 0, 13, 'I', 'H', 'D', 'R',
+				0, 0, 0x05, 0x00, 0, 0, 0x02, 0xD0,
+				8, 6, 0, 0, 0, 0, 0, 0);
+		assertSize(data, ImageHeaderParser.FORMAT_PNG, 1280, 720);
+	}
+
+	public void testGif() {
+		byte[] data = padding(bytes('G', 'I', 'F', '8', '9', 'a', 0x40, 0x01, 0xF0, 0x00));
+		assertSize(data, ImageHeaderParser.FORMAT_GIF, 320, 240);
+	}
+
+	public void testBmp() {
+		byte[] data = new byte[54];
+		data[0] = 'B';
+		data[1] = 'M';
+		data[14] = 40;
+		putInt32LittleEndian(data, 18, 640);
+		// 自上而下存储的位图高度为负数
+		putInt32LittleEndian(data, 22, -480);
+		assertSize(data, ImageHeaderParser.FORMAT_BMP, 640, 480);
+	}
+
+	public void testWebp() {
+		byte[] lossy = webp("VP8 ", bytes(0, 0, 0, 0x9D, 0x01, 0x2A, 0x20, 0x03, 0x58, 0x02));
+		assertSize(lossy, ImageHeaderParser.FORMAT_WEBP, 800, 600);
+
+		int bits = (400 - 1) | ((300 - 1) << 14);
+		byte[] lossless = webp("VP8L", bytes(0x2F, bits & 0xFF, (bits >> 8) & 0xFF,
+				(bits >> 16) & 0xFF, (bits >> 24) & 0xFF));
+		assertSize(lossless, ImageHeaderParser.FORMAT_WEBP, 400, 300);
+
+		byte[] extended = webp("VP8X", bytes(0, 0, 0, 0, 0xFF, 0x0F, 0, 0x37, 0x0B, 0));
+		assertSize(extended, ImageHeaderParser.FORMAT_WEBP, 4096, 2872);
+	}
+
+	public void testJpeg() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(out, 0xFF, 0xD8);
+		// 很大的APP1段(EXIF)和DHT段都应该被跳过
+		write(out, 0xFF, 0xE1, 0xFF, 0xFF);
+		out.write(new byte[0xFFFF - 2], 0, 0xFFFF - 2);
+		write(out, 0xFF, 0xC4, 0, 4, 0xC0, 0xC0);
+		// 填充字节之后是SOF2
+		write(out, 0xFF, 0xFF, 0xC2, 0, 17, 8, 0x0B, 0xB8, 0x0F, 0xA0, 3);
+		out.write(new byte[12], 0, 12);
+		write(out, 0xFF, 0xDA, 0, 2, 0xFF, 0xD9);
+		byte[] data = out.toByteArray();
+		assertSize(data, ImageHeaderParser.FORMAT_JPEG, 4000, 3000);
+
+		// SOF之后的数据不需要传入
+		ImageHeaderParser parser = new ImageHeaderParser();
+		int sofOffset = 2 + 2 + 0xFFFF + 6;
+		assertFalse(parser.feed(data, 0, sofOffset));
+		assertTrue(parser.feed(data, sofOffset, 10));
+		assertEquals(4000, parser.getWidth());
+	}
+
+	public void testJpegWithoutFrame() {
+		byte[] data = bytes(0xFF, 0xD8, 0xFF, 0xE0, 0, 4, 0, 0, 0xFF, 0xDA, 0, 2);
+		ImageHeaderParser parser = new ImageHeaderParser();
+		assertTrue(parser.feed(data, 0, data.length));
+		assertEquals(ImageHeaderParser.FORMAT_JPEG, parser.getFormat());
+		assertFalse(parser.hasSize());
+	}
+
+	public void testUnknownFormat() {
+		byte[] data = padding(bytes('<', 'h', 't', 'm', 'l', '>'));
+		ImageHeaderParser parser = new ImageHeaderParser();
+		assertTrue(parser.feed(data, 0, data.length));
+		assertEquals(ImageHeaderParser.FORMAT_UNKNOWN, parser.getFormat());
+		assertFalse(parser.hasSize());
+		assertEquals(-1, parser.getWidth());
+
+		// 不足文件头长度时还不能判断
+		parser.reset();
+		assertFalse(parser.feed(data, 0, 10));
+		assertFalse(parser.isFinished());
+	}
+
+	/**
+	 * 分别一次传入全部数据和逐字节传入数据
+	 */
+	private static void assertSize(byte[] data, int format, int width, int height) {
+		ImageHeaderParser parser = new ImageHeaderParser();
+		assertTrue(parser.feed(data, 0, data.length));
+		assertEquals(format, parser.getFormat());
+		assertEquals(width, parser.getWidth());
+		assertEquals(height, parser.getHeight());
+
+		parser.reset();
+		for (int i = 0; i < data.length && !parser.isFinished(); i++) {
+			parser.feed(data, i, 1);
+		}
+		assertTrue(parser.isFinished());
+		assertTrue(parser.hasSize());
+		assertEquals(format, parser.getFormat());
+		assertEquals(width, parser.getWidth());
+		assertEquals(height, parser.getHeight());
+	}
+
+	private static byte[] webp(String chunk, byte[] payload) {
+		byte[] data = new byte[ImageHeaderParser.HEADER_SIZE + 10];
+		System.arraycopy("RIFF".getBytes(), 0, data, 0, 4);
+		System.arraycopy("WEBP".getBytes(), 0, data, 8, 4);
+		System.arraycopy(chunk.getBytes(), 0, data, 12, 4);
+		System.arraycopy(payload, 0, data, 20, payload.length);
+		return data;
+	}
+
+	private static byte[] padding(byte[] header) {
+		byte[] data = new byte[ImageHeaderParser.HEADER_SIZE + 10];
+		System.arraycopy(header, 0, data, 0, header.length);
+		return data;
+	}
+
+	private static void putInt32LittleEndian(byte[] data, int offset, int value) {
+		for (int i = 0; i < 4; i++) {
+			data[offset + i] = (byte) (value >> (8 * i));
+		}
+	}
+
+	private static void write(ByteArrayOutputStream out, int... values) {
+		for (int value : values) {
+			out.write(value);
+		}
+	}
+
+	private static byte[] bytes(int... values) {
+		byte[] data = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			data[i] = (byte) values[i];
+		}
+		return data;
+	}
+}
@@ -0,0 +1,131 @@
+package com.imasson.droidshake.test.util;
+
+import junit.framework.TestCase;
+
+import com.imasson.droidshake.util.debug.LatencyHistogram;
+
+/**
+ * {@link LatencyHistogram}的单元测试，不依赖于Android的运行环境
+ */
+public class LatencyHistogramTest extends TestCase {
+
+	public void testEmpty() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0L, histogram.getTotalCount());
+		assertEquals(0L, histogram.getMin());
+		assertEquals(0L, histogram.getMax());
+		assertEquals(0L, histogram.getValueAtPercentile(99.0));
+		assertEquals(0.0, histogram.getMean(), 0.0);
+	}
+
+	public void testSmallValuesAreExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < LatencyHistogram.SUB_BUCKET_COUNT; i++) {
+			histogram.recordValue(i);
+		}
+
+		// 小于SUB_BUCKET_COUNT的数值各占一个桶
+		int count = LatencyHistogram.SUB_BUCKET_COUNT;
+		for (int i = 0; i < count; i++) {
+			double percentile = 100.0 * (i + 1) / count;
+			assertEquals(i, histogram.getValueAtPercentile(percentile));
+		}
+	}
+
+	public void testRelativeError() {
+		long[] values = new long[] { 33L, 100L, 1000L, 16667L, 33333L, 123456789L,
+				LatencyHistogram.MAX_VALUE };
+		for (long value : values) {
+			LatencyHistogram histogram = new LatencyHistogram();
+			// 先记录一个更大的数值，避免百分位的结果被最大值截断
+			histogram.recordValue(value);
+			histogram.recordValue(LatencyHistogram.MAX_VALUE);
+
+			long reported = histogram.getValueAtPercentile(50.0);
+			assertTrue("value=" + value + ", reported=" + reported, reported >= value);
+			assertTrue("value=" + value + ", reported=" + reported,
+					reported - value <= value / LatencyHistogram.SUB_BUCKET_COUNT);
+		}
+	}
+
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		// 1~10000微秒均匀分布
+		for (long i = 1; i <= 10000L; i++) {
+			histogram.recordValue(i);
+		}
+
+		assertEquals(10000L, histogram.getTotalCount());
+		assertEquals(1L, histogram.getMin());
+		assertEquals(10000L, histogram.getMax());
+		assertEquals(5000.5, histogram.getMean(), 0.001);
+		assertEquals(10000L, histogram.getValueAtPercentile(100.0));
+
+		assertWithinError(5000L, histogram.getValueAtPercentile(50.0));
+		assertWithinError(9000L, histogram.getValueAtPercentile(90.0));
+		assertWithinError(9900L, histogram.getValueAtPercentile(99.0));
+	}
+
+	public void testOutOfRange() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.recordValue(-5L);
+		histogram.recordValue(Long.MAX_VALUE);
+
+		assertEquals(2L, histogram.getTotalCount());
+		assertEquals(0L, histogram.getMin());
+		assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+	}
+
+	public void testReset() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.recordValue(100L);
+		histogram.reset();
+		assertEquals(0L, histogram.getTotalCount());
+		assertEquals(0L, histogram.getMax());
+
+		histogram.recordValue(7L);
+		assertEquals(7L, histogram.getMin());
+		assertEquals(7L, histogram.getValueAtPercentile(50.0));
+	}
+
+	public void testOutputPercentileDistribution() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long i = 1; i <= 1000L; i++) {
+			histogram.recordValue(i * 1000L);
+		}
+
+		StringBuilder builder = new StringBuilder();
+		histogram.outputPercentileDistribution(builder, 1000.0);
+		String output = builder.toString();
+
+		assertTrue(output.contains("Percentile"));
+		assertTrue(output.contains("#[Mean    ="));
+		assertTrue(output.contains("Total count    =         1000]"));
+		// 最后一行数据的百分位为100%，且数值不超过最大值
+		assertTrue(output.contains("1000.000 1.000000000000       1000"));
+
+		// 数据行的百分位和累计数量都应该递增
+		double lastPercentile = -1.0;
+		long lastCount = -1L;
+		for (String line : output.split("\n")) {
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#") || line.startsWith("Value")) {
+				continue;
+			}
+			String[] columns = line.split("\\s+");
+			double percentile = Double.parseDouble(columns[1]);
+			long count = Long.parseLong(columns[2]);
+			assertTrue(percentile > lastPercentile);
+			assertTrue(count > lastCount);
+			lastPercentile = percentile;
+			lastCount = count;
+		}
+		assertEquals(1.0, lastPercentile, 0.0);
+	}
+
+	private static void assertWithinError(long expected, long actual) {
+		long error = expected / LatencyHistogram.SUB_BUCKET_COUNT + 1;
+		assertTrue("expected=" + expected + ", actual=" + actual,
+				Math.abs(actual - expected) <= error);
+	}
+}
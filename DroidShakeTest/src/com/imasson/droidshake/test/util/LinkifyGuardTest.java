@@ -0,0 +1,203 @@
+package com.imasson.droidshake.test.util;
+
+import junit.framework.TestCase;
+import android.text.SpannableString;
+import android.text.style.URLSpan;
+import android.text.util.Linkify;
+import android.util.Log;
+
+import com.imasson.droidshake.util.LinkifyGuard;
+import com.imasson.droidshake.util.ShakeLinkify;
+import com.imasson.droidshake.util.ShakeLinkify.LinkRanges;
+
+/**
+ * {@link LinkifyGuard}的单元测试，包括一组针对正则表达式回溯的特殊构造文字
+ */
+public class LinkifyGuardTest extends TestCase {
+	private static final String TAG = "LinkifyGuard";
+
+	private static final String SAMPLE_TEXT =
+			"访问 www.example.com/path?q=1 或者发邮件到 someone@example.com，"
+			+ "也可以打电话 +86 20-1234-5678 咨询。";
+
+	private static final int PATHOLOGICAL_LENGTH = 50 * 1024;
+
+	/** 受限制的识别在最坏情况下允许的耗时，包括了时间限制之外的收尾工作 */
+	private static final long WORST_CASE_MILLIS = 500;
+
+	private static final int MASK = Linkify.WEB_URLS | Linkify.EMAIL_ADDRESSES
+			| Linkify.PHONE_NUMBERS;
+
+	/**
+	 * 正常的文字在限制之下的识别结果应该与不受限制时完全一致
+	 */
+	public void testNormalText() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			builder.append(SAMPLE_TEXT).append('\n');
+		}
+		String text = builder.toString();
+
+		// 放宽时间限制，避免测试设备较慢时超时
+		LinkifyGuard guard = new LinkifyGuard(10000, LinkifyGuard.DEFAULT_MAX_REGION_LENGTH);
+		LinkRanges expected = ShakeLinkify.findLinks(text, Linkify.ALL);
+		LinkRanges actual = ShakeLinkify.findLinks(text, Linkify.ALL, guard);
+
+		assertEquals(300, expected.size());
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getStart(i), actual.getStart(i));
+			assertEquals(expected.getEnd(i), actual.getEnd(i));
+			assertEquals(expected.getType(i), actual.getType(i));
+		}
+		assertEquals(0, guard.getTimeoutCount());
+	}
+
+	/**
+	 * 超长的一行在空白字符处分段，分段处两侧的链接都应该被识别
+	 */
+	public void testLongLine() {
+		StringBuilder builder = new StringBuilder();
+		while (builder.length() < 10000) {
+			builder.append("www.example.com ");
+		}
+		String text = builder.toString();
+
+		LinkRanges ranges = ShakeLinkify.findLinks(text, Linkify.WEB_URLS,
+				new LinkifyGuard(1000, 100));
+		assertEquals(text.length() / 16, ranges.size());
+	}
+
+	/**
+	 * 回溯很多的一行被限制在自己的分段之内，不影响其他行的识别，也不会导致超时
+	 */
+	public void testBacktrackingLine() {
+		final int[] aborts = new int[1];
+		LinkifyGuard guard = new LinkifyGuard(10000, LinkifyGuard.DEFAULT_MAX_REGION_LENGTH);
+		guard.setAbortCallback(new LinkifyGuard.AbortCallback() {
+			@Override
+			public void onLinkifyAborted(int linkType, int regionStart, int regionEnd,
+					long elapsedNanos) {
+				aborts[0]++;
+			}
+		});
+
+		// 邮件地址的用户名部分最长可以有256个字符，每个位置开始都会重新匹配
+		String text = repeat("a", 10000) + "\n" + "someone@example.com";
+		SpannableString spannable = new SpannableString(text);
+		assertTrue(ShakeLinkify.addLinks(spannable, Linkify.EMAIL_ADDRESSES, guard));
+
+		URLSpan[] spans = spannable.getSpans(0, spannable.length(), URLSpan.class);
+		assertEquals(1, spans.length);
+		assertEquals("mailto:someone@example.com", spans[0].getURL());
+
+		assertEquals(0, guard.getTimeoutCount());
+		assertEquals(0, aborts[0]);
+	}
+
+	/**
+	 * 最大分段长度为{@link Integer#MAX_VALUE}时，只在换行符处分段，第二段开始计算分段结束位置时不能溢出
+	 */
+	public void testUnlimitedRegionLength() {
+		LinkifyGuard guard = new LinkifyGuard(10000, Integer.MAX_VALUE);
+		String text = "www.example.com\n" + repeat("a ", 5000) + "someone@example.com";
+		LinkRanges ranges = ShakeLinkify.findLinks(text, MASK, guard);
+		assertEquals(2, ranges.size());
+		assertEquals(0, guard.getTimeoutCount());
+	}
+
+	/**
+	 * 超时之后停止识别，只中止一次并通知回调
+	 */
+	public void testTimeout() {
+		final int[] aborts = new int[1];
+		LinkifyGuard guard = new LinkifyGuard(1, Integer.MAX_VALUE);
+		guard.setAbortCallback(new LinkifyGuard.AbortCallback() {
+			@Override
+			public void onLinkifyAborted(int linkType, int regionStart, int regionEnd,
+					long elapsedNanos) {
+				aborts[0]++;
+			}
+		});
+		String text = repeat("a", 200000);
+
+		long startTime = System.nanoTime();
+		ShakeLinkify.findLinks(text, MASK, guard);
+		long costTime = (System.nanoTime() - startTime) / 1000000L;
+
+		assertEquals(1, guard.getTimeoutCount());
+		assertEquals(1, aborts[0]);
+		assertTrue("costTime=" + costTime + "ms", costTime < WORST_CASE_MILLIS);
+	}
+
+	/**
+	 * 在一组特殊构造的文字上测试最坏情况下的识别时间，并输出不受限制时的耗时作为对比
+	 */
+	public void testPathologicalInputs() {
+		String[] inputs = new String[] {
+				repeat("1.", PATHOLOGICAL_LENGTH),
+				repeat("a", PATHOLOGICAL_LENGTH),
+				repeat("a.", PATHOLOGICAL_LENGTH),
+				repeat("1-", PATHOLOGICAL_LENGTH),
+				repeat("a-", PATHOLOGICAL_LENGTH),
+				repeat("a+", PATHOLOGICAL_LENGTH),
+				repeat("+1 ", PATHOLOGICAL_LENGTH),
+				repeat("www.a", PATHOLOGICAL_LENGTH),
+				repeat("a@a.", PATHOLOGICAL_LENGTH),
+				repeat("http://a", PATHOLOGICAL_LENGTH),
+				repeat("1", PATHOLOGICAL_LENGTH),
+		};
+
+		for (String input : inputs) {
+			LinkifyGuard guard = new LinkifyGuard();
+
+			long startTime = System.nanoTime();
+			ShakeLinkify.addLinks(new SpannableString(input), MASK, guard);
+			long guardedTime = (System.nanoTime() - startTime) / 1000000L;
+
+			Log.i(TAG, "testPathologicalInputs: input=" + input.substring(0, 8)
+					+ "..., guardedTime=" + guardedTime + "ms"
+					+ ", timeouts=" + guard.getTimeoutCount());
+			assertTrue("input=" + input.substring(0, 8) + ", guardedTime=" + guardedTime + "ms",
+					guardedTime < WORST_CASE_MILLIS);
+		}
+	}
+
+	/**
+	 * 随机组合容易引起回溯的字符，检查最坏情况下的识别时间
+	 */
+	public void testRandomInputs() {
+		final String alphabet = "a1.-@+ :/w(";
+		java.util.Random random = new java.util.Random(20121018L);
+		LinkifyGuard guard = new LinkifyGuard();
+		long worstTime = 0;
+
+		for (int round = 0; round < 20; round++) {
+			StringBuilder builder = new StringBuilder(PATHOLOGICAL_LENGTH);
+			// 每次只使用字母表中的少数几个字符，更容易构造出长串的可匹配内容
+			String chars = "" + alphabet.charAt(random.nextInt(alphabet.length()))
+					+ alphabet.charAt(random.nextInt(alphabet.length()))
+					+ alphabet.charAt(random.nextInt(alphabet.length()));
+			for (int i = 0; i < PATHOLOGICAL_LENGTH; i++) {
+				builder.append(chars.charAt(random.nextInt(chars.length())));
+			}
+
+			long startTime = System.nanoTime();
+			ShakeLinkify.addLinks(new SpannableString(builder), MASK, guard);
+			long costTime = (System.nanoTime() - startTime) / 1000000L;
+			worstTime = Math.max(worstTime, costTime);
+		}
+
+		Log.i(TAG, "testRandomInputs: worstTime=" + worstTime + "ms"
+				+ ", timeouts=" + guard.getTimeoutCount());
+		assertTrue("worstTime=" + worstTime + "ms", worstTime < WORST_CASE_MILLIS);
+	}
+
+	private static String repeat(String unit, int length) {
+		StringBuilder builder = new StringBuilder(length + unit.length());
+		while (builder.length() < length) {
+			builder.append(unit);
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,314 @@
+package com.imasson.droidshake.test.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>在测试进程中运行的简单HTTP服务器，用于测试下载相关的类</p>
+ * <p>只支持GET请求，任意路径都返回同一份内容。可以模拟不支持Range的服务器、
+ * 传输到一半断开连接以及文件在服务器上发生变化等情况。
+ * If-None-Match与当前的ETag相同时返回304。</p>
+ */
+public class LocalHttpServer {
+
+	private volatile byte[] mContent;
+	private volatile String mETag = "\"v1\"";
+	private volatile boolean mRangeSupported = true;
+	private volatile byte[] mNextContent;
+	private volatile String mNextETag;
+	private volatile int mSwitchAfterRequests;
+	private volatile int mErrorCode = 0;
+	private volatile long mAbortAfterBytes = -1L;
+	private volatile long mChunkDelayMillis = 0L;
+	private volatile String mCacheControl = null;
+
+	private final AtomicInteger mRequestCount = new AtomicInteger();
+	private final AtomicInteger mActiveCount = new AtomicInteger();
+	private final AtomicInteger mMaxActiveCount = new AtomicInteger();
+	private final List<String> mRanges = new ArrayList<String>();
+
+	private ServerSocket mServerSocket;
+	private Thread mAcceptThread;
+
+	public LocalHttpServer(byte[] content) {
+		mContent = content;
+	}
+
+	/**
+	 * 启动服务器，监听本机的一个随机端口
+	 */
+	public void start() throws IOException {
+		mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		mAcceptThread = new Thread("LocalHttpServer") {
+			@Override
+			public void run() {
+				while (!mServerSocket.isClosed()) {
+					try {
+						final Socket socket = mServerSocket.accept();
+						new Thread("LocalHttpServer-connection") {
+							@Override
+							public void run() {
+								handle(socket);
+							}
+						}.start();
+					} catch (IOException e) {
+						// 服务器已经关闭
+					}
+				}
+			}
+		};
+		mAcceptThread.start();
+	}
+
+	/**
+	 * 关闭服务器，返回之后不会再接受新的连接
+	 */
+	public void shutdown() throws IOException {
+		mServerSocket.close();
+		// 监听线程阻塞在accept()时，端口要等到它退出之后才真正关闭
+		try {
+			mAcceptThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public String getUrl(String path) {
+		return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+	}
+
+	/**
+	 * 修改服务器上的内容，同时修改ETag
+	 */
+	public void setContent(byte[] content, String eTag) {
+		mContent = content;
+		mETag = eTag;
+	}
+
+	/**
+	 * 收到指定数量的请求之后修改服务器上的内容，用于模拟下载过程中文件发生变化
+	 */
+	public void setContentAfterRequests(int requests, byte[] content, String eTag) {
+		mSwitchAfterRequests = requests;
+		mNextETag = eTag;
+		mNextContent = content;
+	}
+
+	/**
+	 * 所有请求都返回指定的错误码和空的响应体，0表示正常响应
+	 */
+	public void setErrorCode(int code) {
+		mErrorCode = code;
+	}
+
+	public void setRangeSupported(boolean supported) {
+		mRangeSupported = supported;
+	}
+
+	/**
+	 * 每个响应发送指定字节数的内容后断开连接，-1表示不断开
+	 */
+	public void setAbortAfterBytes(long bytes) {
+		mAbortAfterBytes = bytes;
+	}
+
+	/**
+	 * 每发送1KB内容之后暂停的时间，用于模拟较慢的网络
+	 */
+	public void setChunkDelayMillis(long delayMillis) {
+		mChunkDelayMillis = delayMillis;
+	}
+
+	/**
+	 * 设置响应的Cache-Control头，为null时不发送
+	 */
+	public void setCacheControl(String cacheControl) {
+		mCacheControl = cacheControl;
+	}
+
+	public int getRequestCount() {
+		return mRequestCount.get();
+	}
+
+	/**
+	 * @return 同时处理的最大请求数
+	 */
+	public int getMaxActiveCount() {
+		return mMaxActiveCount.get();
+	}
+
+	/**
+	 * @return 收到的所有Range请求头，没有Range的请求记为null
+	 */
+	public synchronized List<String> getRanges() {
+		return new ArrayList<String>(mRanges);
+	}
+
+	private void handle(Socket socket) {
+		int active = mActiveCount.incrementAndGet();
+		int max;
+		while (active > (max = mMaxActiveCount.get())) {
+			if (mMaxActiveCount.compareAndSet(max, active)) {
+				break;
+			}
+		}
+		int count = mRequestCount.incrementAndGet();
+		synchronized (this) {
+			if (mNextContent != null && count > mSwitchAfterRequests) {
+				setContent(mNextContent, mNextETag);
+				mNextContent = null;
+			}
+		}
+
+		boolean counted = true;
+		try {
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+			String line = reader.readLine();
+			if (line == null) {
+				return;
+			}
+			String range = null;
+			String ifRange = null;
+			String ifNoneMatch = null;
+			while ((line = reader.readLine()) != null && line.length() > 0) {
+				int index = line.indexOf(':');
+				if (index < 0) {
+					continue;
+				}
+				String name = line.substring(0, index).trim();
+				String value = line.substring(index + 1).trim();
+				if (name.equalsIgnoreCase("Range")) {
+					range = value;
+				} else if (name.equalsIgnoreCase("If-Range")) {
+					ifRange = value;
+				} else if (name.equalsIgnoreCase("If-None-Match")) {
+					ifNoneMatch = value;
+				}
+			}
+			synchronized (this) {
+				mRanges.add(range);
+			}
+
+			byte[] content = mContent;
+			String eTag = mETag;
+			String cacheControl = mCacheControl;
+			OutputStream os = socket.getOutputStream();
+			int errorCode = mErrorCode;
+			if (errorCode != 0) {
+				String header = "HTTP/1.1 " + errorCode + " Error\r\nContent-Length: 0\r\n"
+						+ "Connection: close\r\n\r\n";
+				counted = leave(counted);
+				os.write(header.getBytes("US-ASCII"));
+				os.flush();
+				return;
+			}
+			if (eTag.equals(ifNoneMatch)) {
+				StringBuilder header = new StringBuilder("HTTP/1.1 304 Not Modified\r\n");
+				header.append("ETag: ").append(eTag).append("\r\n");
+				if (cacheControl != null) {
+					header.append("Cache-Control: ").append(cacheControl).append("\r\n");
+				}
+				header.append("Connection: close\r\n\r\n");
+				counted = leave(counted);
+				os.write(header.toString().getBytes("US-ASCII"));
+				os.flush();
+				return;
+			}
+
+			long start = 0L;
+			long end = content.length - 1;
+			boolean partial = false;
+			// If-Range使用强比较，弱ETag不会匹配
+			if (range != null && mRangeSupported && (ifRange == null
+					|| (!ifRange.startsWith("W/") && ifRange.equals(eTag)))) {
+				String[] bounds = range.substring("bytes=".length()).split("-", -1);
+				start = Long.parseLong(bounds[0]);
+				if (bounds[1].length() > 0) {
+					end = Math.min(end, Long.parseLong(bounds[1]));
+				}
+				partial = true;
+			}
+			if (partial && start >= content.length) {
+				StringBuilder header = new StringBuilder("HTTP/1.1 416 Range Not Satisfiable\r\n");
+				header.append("Content-Range: bytes */").append(content.length).append("\r\n");
+				header.append("Content-Length: 0\r\n");
+				header.append("Connection: close\r\n\r\n");
+				counted = leave(counted);
+				os.write(header.toString().getBytes("US-ASCII"));
+				os.flush();
+				return;
+			}
+
+			StringBuilder header = new StringBuilder();
+			header.append(partial ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+			header.append("Content-Length: ").append(end - start + 1).append("\r\n");
+			if (partial) {
+				header.append("Content-Range: bytes ").append(start).append('-').append(end)
+						.append('/').append(content.length).append("\r\n");
+			}
+			if (mRangeSupported) {
+				header.append("Accept-Ranges: bytes\r\n");
+			}
+			header.append("ETag: ").append(eTag).append("\r\n");
+			if (cacheControl != null) {
+				header.append("Cache-Control: ").append(cacheControl).append("\r\n");
+			}
+			header.append("Connection: close\r\n\r\n");
+
+			if (start > end) {
+				counted = leave(counted);
+			}
+			os.write(header.toString().getBytes("US-ASCII"));
+			long limit = mAbortAfterBytes;
+			long sent = 0L;
+			for (long position = start; position <= end; position += 1024) {
+				int length = (int) Math.min(1024, end - position + 1);
+				if (limit >= 0L && sent + length > limit) {
+					counted = leave(counted);
+					os.write(content, (int) position, (int) (limit - sent));
+					os.flush();
+					return;
+				}
+				if (position + length > end) {
+					counted = leave(counted);
+				}
+				os.write(content, (int) position, length);
+				os.flush();
+				sent += length;
+				if (mChunkDelayMillis > 0L) {
+					Thread.sleep(mChunkDelayMillis);
+				}
+			}
+		} catch (IOException e) {
+			// 客户端断开连接
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {}
+			leave(counted);
+		}
+	}
+
+	/**
+	 * 在发送最后的数据之前结束计数，否则客户端读完响应并发起下一个请求时，
+	 * 这边可能还没有结束计数，最大请求数会偏大
+	 * @return 总是返回false，表示已经结束计数
+	 */
+	private boolean leave(boolean counted) {
+		if (counted) {
+			mActiveCount.decrementAndGet();
+		}
+		return false;
+	}
+}
@@ -0,0 +1,96 @@
+package com.imasson.droidshake.test.util;
+
+import java.util.List;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.imasson.droidshake.util.debug.LooperProfiler;
+
+/**
+ * {@link LooperProfiler}的单元测试
+ */
+public class LooperProfilerTest extends InstrumentationTestCase {
+	private static final String TAG = "LooperProfiler";
+
+	private LooperProfiler mProfiler;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mProfiler = new LooperProfiler(20L);
+	}
+
+	public void testSlowHandler() {
+		assertTrue(mProfiler.start());
+		assertFalse(mProfiler.start());
+
+		Handler handler = new SlowHandler();
+		for (int i = 0; i < 3; i++) {
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					SystemClock.sleep(50L);
+				}
+			});
+		}
+		handler.sendEmptyMessage(0);
+		getInstrumentation().waitForIdleSync();
+		mProfiler.stop();
+
+		String report = mProfiler.dump(10);
+		Log.i(TAG, "testSlowHandler:\n" + report);
+
+		List<LooperProfiler.HandlerStats> stats = mProfiler.getStats();
+		LooperProfiler.HandlerStats runnableStats = null;
+		LooperProfiler.HandlerStats messageStats = null;
+		for (LooperProfiler.HandlerStats item : stats) {
+			if (SlowHandler.class.getName().equals(item.handlerClass)) {
+				if (item.callbackClass != null) {
+					runnableStats = item;
+				} else {
+					messageStats = item;
+				}
+			}
+		}
+
+		assertNotNull(runnableStats);
+		assertEquals(3L, runnableStats.count);
+		assertEquals(3L, runnableStats.slowCount);
+		assertTrue(runnableStats.totalNanos >= 150L * 1000000L);
+		assertFalse(runnableStats.callbackClass.contains("@"));
+
+		assertNotNull(messageStats);
+		assertEquals(1L, messageStats.count);
+		assertEquals(0L, messageStats.slowCount);
+
+		// 总耗时最大的应该排在第一位
+		assertSame(runnableStats.callbackClass, stats.get(0).callbackClass);
+	}
+
+	public void testReset() {
+		mProfiler.start();
+		new SlowHandler().sendEmptyMessage(0);
+		getInstrumentation().waitForIdleSync();
+		mProfiler.stop();
+		assertFalse(mProfiler.getStats().isEmpty());
+
+		mProfiler.reset();
+		assertTrue(mProfiler.getStats().isEmpty());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mProfiler.stop();
+		super.tearDown();
+	}
+
+	private static class SlowHandler extends Handler {
+		SlowHandler() {
+			super(Looper.getMainLooper());
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.imasson.droidshake.test.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+
+import com.imasson.droidshake.util.FileUtils;
+import com.imasson.droidshake.util.MediaScanQueue;
+
+/**
+ * {@link MediaScanQueue}的单元测试
+ */
+public class MediaScanQueueTest extends InstrumentationTestCase {
+
+	private Context mContext;
+	private File mDir;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mContext = getInstrumentation().getTargetContext();
+		mDir = new File(mContext.getCacheDir(), "media-scan");
+		FileUtils.mkdirIfNotFound(mDir.getPath());
+	}
+
+	public void testBatchAndDeduplicate() throws Exception {
+		MediaScanQueue queue = new MediaScanQueue(mContext, 200L);
+		String[] paths = new String[5];
+		for (int i = 0; i < paths.length; i++) {
+			paths[i] = new File(mDir, "image" + i + ".jpg").getPath();
+			FileUtils.writeBytes(paths[i], new byte[16]);
+		}
+
+		final CountDownLatch latch = new CountDownLatch(paths.length + 1);
+		final List<String> completed = new ArrayList<String>();
+		MediaScanQueue.Callback callback = new MediaScanQueue.Callback() {
+			@Override
+			public void onScanCompleted(String path, Uri uri) {
+				synchronized (completed) {
+					completed.add(path);
+				}
+				latch.countDown();
+			}
+		};
+		queue.enqueue(paths, callback);
+		// 重复的路径不会重复扫描，但两个回调都会被调用
+		queue.enqueue(paths[0], callback);
+		assertEquals(paths.length, queue.getPendingCount());
+		assertEquals(paths.length + 1, queue.getRequestCount());
+
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(0, queue.getPendingCount());
+		assertEquals(1, queue.getBatchCount());
+		assertEquals(paths.length, queue.getScannedCount());
+		synchronized (completed) {
+			assertEquals(paths.length + 1, completed.size());
+			for (String path : paths) {
+				assertTrue(completed.contains(path));
+			}
+		}
+	}
+
+	public void testFlush() throws Exception {
+		// 窗口足够长，只有flush()才会开始扫描
+		MediaScanQueue queue = new MediaScanQueue(mContext, 60 * 1000L);
+		String path = new File(mDir, "flush.jpg").getPath();
+		FileUtils.writeBytes(path, new byte[16]);
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		queue.enqueue(path, new MediaScanQueue.Callback() {
+			@Override
+			public void onScanCompleted(String path, Uri uri) {
+				latch.countDown();
+			}
+		});
+		queue.flush();
+		assertEquals(0, queue.getPendingCount());
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(1, queue.getBatchCount());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDir(mDir.getPath());
+		super.tearDown();
+	}
+}
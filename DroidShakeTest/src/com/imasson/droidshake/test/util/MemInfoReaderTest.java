@@ -0,0 +1,150 @@
+package com.imasson.droidshake.test.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import android.util.Log;
+
+import com.imasson.droidshake.util.debug.MemInfoReader;
+
+/**
+ * {@link MemInfoReader}的单元测试，使用临时文件中构造的meminfo，结果不受系统实际内存状态的影响
+ */
+public class MemInfoReaderTest extends TestCase {
+	private static final String TAG = "MemInfoReader";
+
+	/** Linux 3.14及以上版本内核的meminfo节选 */
+	private static final String MEMINFO = ""
+			+ "MemTotal:        1882064 kB\n"
+			+ "MemFree:           70976 kB\n"
+			+ "MemAvailable:     812340 kB\n"
+			+ "Buffers:            9536 kB\n"
+			+ "Cached:           682408 kB\n"
+			+ "SwapCached:         1260 kB\n"
+			+ "Active:           868296 kB\n"
+			+ "Inactive:         612188 kB\n"
+			+ "Active(anon):     520104 kB\n"
+			+ "SwapTotal:        524284 kB\n"
+			+ "SwapFree:         262140 kB\n"
+			+ "Shmem:              4620 kB\n"
+			+ "HugePages_Total:       0\n"
+			+ "Hugepagesize:       2048 kB\n";
+
+	/** 没有MemAvailable字段的旧版本内核 */
+	private static final String MEMINFO_OLD_KERNEL = ""
+			+ "MemTotal:         857008 kB\n"
+			+ "MemFree:           21520 kB\n"
+			+ "Buffers:            1200 kB\n"
+			+ "Cached:           204800 kB\n"
+			+ "SwapCached:            0 kB\n";
+
+	private File mFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mFile = File.createTempFile("meminfo", "");
+	}
+
+	public void testParse() throws IOException {
+		write(MEMINFO);
+		MemInfoReader reader = new MemInfoReader(mFile.getPath(), 0L);
+
+		assertEquals(1882064L * 1024L, reader.getTotalSize());
+		assertEquals(70976L * 1024L, reader.getFreeSize());
+		assertEquals(812340L * 1024L, reader.getAvailableSize());
+		assertEquals(682408L * 1024L, reader.getCachedSize());
+		assertEquals(524284L * 1024L, reader.getSwapTotalSize());
+		assertEquals(262140L * 1024L, reader.getSwapFreeSize());
+		assertEquals(520104L * 1024L, reader.getValue("Active(anon)"));
+		// 没有单位的字段按照原值返回
+		assertEquals(0L, reader.getValue("HugePages_Total"));
+		assertEquals(-1L, reader.getValue("NoSuchField"));
+
+		assertEquals(14, reader.getFieldCount());
+		assertEquals(MemInfoReader.MEM_TOTAL, reader.getFieldName(0));
+		assertEquals("Hugepagesize", reader.getFieldName(13));
+		assertEquals(2048L * 1024L, reader.getFieldValue(13));
+		reader.close();
+	}
+
+	public void testOldKernel() throws IOException {
+		write(MEMINFO_OLD_KERNEL);
+		MemInfoReader reader = new MemInfoReader(mFile.getPath(), 0L);
+
+		assertEquals(-1L, reader.getValue(MemInfoReader.MEM_AVAILABLE));
+		// MemFree + Buffers + Cached，全部字段只读取一次文件
+		long readCount = reader.getReadCount();
+		assertEquals((21520L + 1200L + 204800L) * 1024L, reader.getAvailableSize());
+		assertEquals(readCount + 1, reader.getReadCount());
+		reader.close();
+	}
+
+	public void testStaleness() throws IOException {
+		write(MEMINFO);
+		MemInfoReader reader = new MemInfoReader(mFile.getPath(), 60000L);
+		assertEquals(70976L * 1024L, reader.getFreeSize());
+
+		// 有效期内不重新读取文件
+		write(MEMINFO.replace("70976", "12345"));
+		assertEquals(70976L * 1024L, reader.getFreeSize());
+
+		assertTrue(reader.read());
+		assertEquals(12345L * 1024L, reader.getFreeSize());
+
+		// 字段的顺序变化后仍然能正确解析
+		write(MEMINFO_OLD_KERNEL);
+		assertTrue(reader.read());
+		assertEquals(5, reader.getFieldCount());
+		assertEquals(21520L * 1024L, reader.getFreeSize());
+		assertEquals(-1L, reader.getSwapTotalSize());
+		reader.close();
+	}
+
+	public void testMissingFile() {
+		MemInfoReader reader = new MemInfoReader(mFile.getPath() + ".missing", 0L);
+		assertFalse(reader.update());
+		assertEquals(-1L, reader.getTotalSize());
+		assertEquals(-1L, reader.getAvailableSize());
+		assertEquals(0, reader.getFieldCount());
+	}
+
+	public void testSystemMemInfo() {
+		File file = new File(MemInfoReader.DEFAULT_PATH);
+		if (!file.exists()) {
+			return;
+		}
+
+		MemInfoReader reader = new MemInfoReader();
+		long total = reader.getTotalSize();
+		long available = reader.getAvailableSize();
+		Log.i(TAG, "testSystemMemInfo: total=" + total + ", available=" + available
+				+ ", fields=" + reader.getFieldCount());
+		assertTrue(total > 0L);
+		assertTrue(available >= 0L && available <= total);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			reader.read();
+		}
+		Log.i(TAG, "testSystemMemInfo: " + (System.nanoTime() - start) / 1000L / 1000 + "us per read");
+		reader.close();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mFile.delete();
+		super.tearDown();
+	}
+
+	private void write(String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(mFile);
+		try {
+			out.write(content.getBytes("US-ASCII"));
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package com.imasson.droidshake.test.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.imasson.droidshake.util.debug.MemoryPressureMonitor;
+
+/**
+ * {@link MemoryPressureMonitor}的单元测试
+ */
+public class MemoryPressureMonitorTest extends InstrumentationTestCase {
+	private static final String TAG = "MemoryPressureMonitor";
+
+	private MemoryPressureMonitor mMonitor;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mMonitor = new MemoryPressureMonitor(getInstrumentation().getTargetContext(), 100L);
+	}
+
+	public void testLowMemory() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final int[] result = new int[] { -1 };
+		MemoryPressureMonitor.Listener listener = new MemoryPressureMonitor.Listener() {
+			@Override
+			public void onMemoryPressure(int level, float trimRatio) {
+				Log.i(TAG, "testLowMemory: level=" + level + ", trimRatio=" + trimRatio);
+				if (level == MemoryPressureMonitor.LEVEL_CRITICAL) {
+					result[0] = level;
+					latch.countDown();
+				}
+			}
+		};
+		mMonitor.addListener(listener);
+
+		assertTrue(mMonitor.start());
+		assertFalse(mMonitor.start());
+		mMonitor.onLowMemory();
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+		assertEquals(MemoryPressureMonitor.LEVEL_CRITICAL, result[0]);
+		assertTrue(mMonitor.getLevelCount(MemoryPressureMonitor.LEVEL_CRITICAL) >= 1L);
+		assertEquals(0L, mMonitor.getLevelCount(-1));
+		mMonitor.removeListener(listener);
+	}
+
+	public void testTrimRatio() {
+		assertEquals(0f, MemoryPressureMonitor.getTrimRatio(MemoryPressureMonitor.LEVEL_NONE));
+		assertTrue(MemoryPressureMonitor.getTrimRatio(MemoryPressureMonitor.LEVEL_MODERATE)
+				< MemoryPressureMonitor.getTrimRatio(MemoryPressureMonitor.LEVEL_HIGH));
+		assertEquals(1f, MemoryPressureMonitor.getTrimRatio(MemoryPressureMonitor.LEVEL_CRITICAL));
+	}
+
+	public void testStoppedMonitorIgnoresCallbacks() throws InterruptedException {
+		mMonitor.onTrimMemory(80);
+		Thread.sleep(100L);
+		assertEquals(0L, mMonitor.getLevelCount(MemoryPressureMonitor.LEVEL_CRITICAL));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mMonitor.stop();
+		super.tearDown();
+	}
+}
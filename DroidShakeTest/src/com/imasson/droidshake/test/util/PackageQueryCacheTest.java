@@ -0,0 +1,111 @@
+package com.imasson.droidshake.test.util;
+
+import java.util.List;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.imasson.droidshake.util.PackageQueryCache;
+import com.imasson.droidshake.util.PackageUtils;
+
+/**
+ * {@link PackageQueryCache}的单元测试
+ */
+public class PackageQueryCacheTest extends InstrumentationTestCase {
+	private static final String TAG = "PackageQueryCache";
+
+	private Context mContext;
+	private PackageQueryCache mCache;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mContext = getInstrumentation().getTargetContext();
+		mCache = PackageQueryCache.getInstance(mContext);
+		mCache.invalidate(null);
+	}
+
+	public void testActivityInfos() {
+		assertNotNull(mCache);
+		assertSame(mCache, PackageQueryCache.getInstance(mContext));
+		assertTrue(mCache.isRunning());
+
+		long missCount = mCache.getMissCount();
+		long hitCount = mCache.getHitCount();
+		List<ResolveInfo> first = PackageUtils.getInstalledActivityInfos(
+				mContext, Intent.ACTION_SEND, "image/*");
+		List<ResolveInfo> second = PackageUtils.getInstalledActivityInfos(
+				mContext, Intent.ACTION_SEND, "image/*");
+		assertEquals(missCount + 1, mCache.getMissCount());
+		assertEquals(hitCount + 1, mCache.getHitCount());
+		assertEquals(first.size(), second.size());
+		// 每次返回新的列表，修改不会影响缓存
+		assertNotSame(first, second);
+
+		// 与直接查询PackageManager的结果一致
+		Intent intent = new Intent(Intent.ACTION_SEND);
+		intent.addCategory(Intent.CATEGORY_DEFAULT);
+		intent.setType("image/*");
+		List<ResolveInfo> direct = mContext.getPackageManager().queryIntentActivities(
+				intent, PackageManager.COMPONENT_ENABLED_STATE_DEFAULT);
+		assertEquals(direct.size(), second.size());
+
+		// 不同的类型分别缓存
+		PackageUtils.getInstalledActivityInfos(mContext, Intent.ACTION_SEND, "text/plain");
+		assertEquals(missCount + 2, mCache.getMissCount());
+	}
+
+	public void testExistPackage() {
+		String packageName = mContext.getPackageName();
+		assertTrue(PackageUtils.existPackage(mContext, packageName));
+		assertFalse(PackageUtils.existPackage(mContext, "com.imasson.droidshake.not.exist"));
+
+		long hitCount = mCache.getHitCount();
+		assertTrue(PackageUtils.existPackage(mContext, packageName));
+		assertFalse(PackageUtils.existPackage(mContext, "com.imasson.droidshake.not.exist"));
+		assertEquals(hitCount + 2, mCache.getHitCount());
+
+		// 上下文对象不缓存，每次都创建新的对象，不存在的包直接从缓存中得到结果
+		Context packageContext = PackageUtils.createPackageContext(mContext, packageName);
+		assertNotNull(packageContext);
+		assertNotSame(packageContext, PackageUtils.createPackageContext(mContext, packageName));
+		hitCount = mCache.getHitCount();
+		assertNull(PackageUtils.createPackageContext(mContext, "com.imasson.droidshake.not.exist"));
+		assertEquals(hitCount + 1, mCache.getHitCount());
+	}
+
+	public void testInvalidate() {
+		PackageUtils.getInstalledActivityInfos(mContext, Intent.ACTION_VIEW, null);
+		PackageUtils.existPackage(mContext, mContext.getPackageName());
+		long missCount = mCache.getMissCount();
+
+		// 某个包发生变化时，action的查询结果全部失效，其它包的结果仍然有效
+		mCache.invalidate("com.imasson.droidshake.other");
+		PackageUtils.getInstalledActivityInfos(mContext, Intent.ACTION_VIEW, null);
+		PackageUtils.existPackage(mContext, mContext.getPackageName());
+		assertEquals(missCount + 1, mCache.getMissCount());
+		Log.i(TAG, "testInvalidate: hitRate=" + mCache.getHitRate());
+	}
+
+	/**
+	 * 比较直接查询和缓存命中的耗时
+	 */
+	public void testQueryCost() {
+		long startTime = System.nanoTime();
+		PackageUtils.getInstalledActivityInfos(mContext, Intent.ACTION_SEND, "*/*");
+		long missTime = System.nanoTime() - startTime;
+
+		int count = 100;
+		startTime = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			PackageUtils.getInstalledActivityInfos(mContext, Intent.ACTION_SEND, "*/*");
+		}
+		long hitTime = (System.nanoTime() - startTime) / count;
+		Log.i(TAG, "testQueryCost: miss=" + missTime + "ns, hit=" + hitTime + "ns");
+		assertTrue("miss=" + missTime + "ns, hit=" + hitTime + "ns", hitTime < missTime);
+	}
+}
@@ -0,0 +1,89 @@
+package com.imasson.droidshake.test.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.imasson.droidshake.util.debug.SampleRingBuffer;
+
+/**
+ * {@link SampleRingBuffer}的单元测试
+ */
+public class SampleRingBufferTest extends TestCase {
+
+	public void testOverwrite() {
+		SampleRingBuffer buffer = new SampleRingBuffer(2, 3);
+		long[] values = new long[2];
+		for (int i = 1; i <= 5; i++) {
+			values[0] = i;
+			values[1] = i * 10;
+			buffer.add(i * 1000L, values);
+		}
+
+		assertEquals(3, buffer.size());
+		assertEquals(5L, buffer.getTotalCount());
+		// 最旧的两个采样点已经被覆盖
+		assertEquals(3000L, buffer.getTimestamp(0));
+		assertEquals(5000L, buffer.getTimestamp(2));
+		assertEquals(3L, buffer.getValue(0, 0));
+		assertEquals(50L, buffer.getValue(2, 1));
+
+		try {
+			buffer.getValue(3, 0);
+			fail("IndexOutOfBoundsException expected");
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+	}
+
+	public void testSummary() {
+		SampleRingBuffer buffer = new SampleRingBuffer(1, 200);
+		long[] values = new long[1];
+		for (int i = 1; i <= 100; i++) {
+			values[0] = i;
+			buffer.add(i, values);
+		}
+		// 小于0的数值表示采样失败，不参与统计
+		values[0] = -1L;
+		buffer.add(101, values);
+
+		SampleRingBuffer.Summary summary = buffer.getSummary(0);
+		assertEquals(100, summary.count);
+		assertEquals(1L, summary.min);
+		assertEquals(100L, summary.max);
+		assertEquals(50L, summary.mean);
+		assertEquals(50L, summary.p50);
+		assertEquals(90L, summary.p90);
+		assertEquals(99L, summary.p99);
+
+		assertNull(buffer.getSummary(1));
+		buffer.clear();
+		assertNull(buffer.getSummary(0));
+	}
+
+	public void testWriteTo() throws IOException {
+		SampleRingBuffer buffer = new SampleRingBuffer(2, 4);
+		buffer.add(1L, new long[] { 10L, 20L });
+		buffer.add(2L, new long[] { 11L, 21L });
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		buffer.writeTo(out);
+		out.close();
+		assertEquals(4 + 4 + 2 * 3 * 8, bytes.size());
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(2, in.readInt());
+		assertEquals(2, in.readInt());
+		assertEquals(1L, in.readLong());
+		assertEquals(10L, in.readLong());
+		assertEquals(20L, in.readLong());
+		assertEquals(2L, in.readLong());
+		assertEquals(11L, in.readLong());
+		assertEquals(21L, in.readLong());
+	}
+}
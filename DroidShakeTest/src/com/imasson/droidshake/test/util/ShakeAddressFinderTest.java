@@ -0,0 +1,115 @@
+package com.imasson.droidshake.test.util;
+
+import junit.framework.TestCase;
+
+import com.imasson.droidshake.util.ShakeAddressFinder;
+
+/**
+ * {@link ShakeAddressFinder}的单元测试，不依赖于Android的运行环境
+ */
+public class ShakeAddressFinderTest extends TestCase {
+
+	public void testChineseAddress() {
+		assertFound("地址：北京市朝阳区建国路88号", "北京市朝阳区建国路88号");
+		assertFound("我住在广东省广州市天河区中山大道西100号A座1201室，欢迎来玩",
+				"广东省广州市天河区中山大道西100号A座1201室");
+		assertFound("长乐路100弄5号", "长乐路100弄5号");
+		assertFound("上海市浦东新区世纪大道1号3号楼", "上海市浦东新区世纪大道1号3号楼");
+		assertFound("广东省广州市天河区", "广东省广州市天河区");
+	}
+
+	public void testNotChineseAddress() {
+		assertNotFound("今天天气很好，城市道路很通畅");
+		assertNotFound("中山路");
+		assertNotFound("广州市天河区");
+	}
+
+	public void testUsAddress() {
+		assertFound("Visit us at 1600 Amphitheatre Parkway, Mountain View, CA 94043 today",
+				"1600 Amphitheatre Parkway, Mountain View, CA 94043");
+		assertFound("Ship to 221B Baker Street, Suite 5, Springfield, IL 62701-1234.",
+				"221B Baker Street, Suite 5, Springfield, IL 62701-1234");
+	}
+
+	public void testNotUsAddress() {
+		assertNotFound("call 123 456 7890 at 5 pm");
+		assertNotFound("123 Main St");
+		assertNotFound("123 Main St, Springfield, XX 62701");
+	}
+
+	public void testMultipleAddresses() {
+		String text = "旧址：广州市越秀区北京路1号；新址：1 Main Street, Boston, MA 02108";
+		int[] range = new int[2];
+
+		assertTrue(ShakeAddressFinder.find(text, 0, range));
+		assertEquals("广州市越秀区北京路1号", text.substring(range[0], range[1]));
+
+		assertTrue(ShakeAddressFinder.find(text, range[1], range));
+		assertEquals("1 Main Street, Boston, MA 02108", text.substring(range[0], range[1]));
+
+		assertFalse(ShakeAddressFinder.find(text, range[1], range));
+	}
+
+	public void testIsAddress() {
+		assertTrue(ShakeAddressFinder.isAddress("北京市朝阳区建国路88号"));
+		assertFalse(ShakeAddressFinder.isAddress("地址：北京市朝阳区建国路88号"));
+	}
+
+	/**
+	 * 行政区划不能重复，也不能从小到大排列，地址的长度有上限
+	 */
+	public void testRepeatedLevels() {
+		assertNotFound(repeat("ab市cd", 20000));
+		assertNotFound(repeat("市", 50000));
+		assertNotFound("天河区广州市广东省");
+		assertFound("广州市天河区中山路1号广州市天河区", "广州市天河区中山路1号");
+
+		String text = repeat("中山路", 20000) + "1号";
+		int[] range = new int[2];
+		int from = 0;
+		while (ShakeAddressFinder.find(text, from, range)) {
+			assertTrue("length=" + (range[1] - range[0]), range[1] - range[0] <= 60);
+			from = range[1];
+		}
+	}
+
+	/**
+	 * 识别过程只做一次顺序扫描，处理时间应该与文字长度成线性关系
+	 */
+	public void testLongText() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 50000; i++) {
+			builder.append("路市区号");
+		}
+		String text = builder.toString();
+		int[] range = new int[2];
+
+		long startTime = System.nanoTime();
+		int from = 0;
+		while (ShakeAddressFinder.find(text, from, range)) {
+			from = range[1];
+		}
+		long costTime = (System.nanoTime() - startTime) / 1000000L;
+		assertTrue("costTime=" + costTime + "ms", costTime < 2000L);
+	}
+
+	private static String repeat(String s, int count) {
+		StringBuilder builder = new StringBuilder(s.length() * count);
+		for (int i = 0; i < count; i++) {
+			builder.append(s);
+		}
+		return builder.toString();
+	}
+
+	private static void assertFound(String text, String expected) {
+		int[] range = new int[2];
+		assertTrue("No address found in: " + text, ShakeAddressFinder.find(text, 0, range));
+		assertEquals(expected, text.substring(range[0], range[1]));
+	}
+
+	private static void assertNotFound(String text) {
+		int[] range = new int[2];
+		assertFalse("Unexpected address found in: " + text,
+				ShakeAddressFinder.find(text, 0, range));
+	}
+}
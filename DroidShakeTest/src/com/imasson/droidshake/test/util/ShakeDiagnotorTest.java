@@ -1,9 +1,13 @@
 package com.imasson.droidshake.test.util;
 
+import java.io.File;
+
 import android.os.Debug;
 import android.test.InstrumentationTestCase;
 import android.util.Log;
 
+import com.imasson.droidshake.util.debug.MetricsRecorder;
+import com.imasson.droidshake.util.debug.SampleRingBuffer;
 import com.imasson.droidshake.util.debug.ShakeDiagnotor;
 
 /**
@@ -56,6 +60,29 @@ public class ShakeDiagnotorTest extends InstrumentationTestCase {
 		assertTrue(cpuRate >= 0);
 	}
 	
+	public void testStartRecording() throws InterruptedException {
+		MetricsRecorder recorder = mShakeDiagnotor.startRecording(50L, 100);
+		assertTrue(recorder.isRunning());
+		Thread.sleep(500L);
+		mShakeDiagnotor.stopRecording();
+		assertFalse(recorder.isRunning());
+		
+		SampleRingBuffer samples = recorder.getSamples();
+		Log.i(TAG, "testStartRecording: samples=" + samples.size());
+		assertTrue(samples.size() > 1);
+		
+		SampleRingBuffer.Summary pss = recorder.getSummary(MetricsRecorder.METRIC_PSS);
+		Log.i(TAG, "testStartRecording: pss=[" + pss + "]");
+		assertTrue(pss.min > 0L);
+		Log.i(TAG, "testStartRecording: cpu=["
+				+ recorder.getSummary(MetricsRecorder.METRIC_CPU_RATE) + "]");
+		
+		File file = new File(getInstrumentation().getTargetContext().getCacheDir(), "metrics.bin");
+		assertTrue(recorder.dump(file));
+		assertTrue(file.length() > 0L);
+		file.delete();
+	}
+	
 	
 	@Override
 	protected void tearDown() throws Exception {
@@ -0,0 +1,219 @@
+package com.imasson.droidshake.test.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import android.os.Debug;
+import android.text.SpannableString;
+import android.text.style.URLSpan;
+import android.text.util.Linkify;
+import android.util.Log;
+
+import com.imasson.droidshake.util.ShakeLinkify;
+import com.imasson.droidshake.util.ShakeLinkify.LinkRanges;
+
+/**
+ * {@link ShakeLinkify}的单元测试
+ */
+public class ShakeLinkifyTest extends TestCase {
+	private static final String TAG = "ShakeLinkify";
+
+	private static final String SAMPLE_TEXT =
+			"访问 www.example.com/path?q=1 或者发邮件到 someone@example.com，"
+			+ "也可以打电话 +86 20-1234-5678 咨询。";
+
+	public void testAddLinks() {
+		SpannableString text = new SpannableString(SAMPLE_TEXT);
+		assertTrue(ShakeLinkify.addLinks(text, Linkify.ALL & ~Linkify.MAP_ADDRESSES));
+
+		URLSpan[] spans = getSortedSpans(text);
+		assertEquals(3, spans.length);
+		assertEquals("http://www.example.com/path?q=1", spans[0].getURL());
+		assertEquals("mailto:someone@example.com", spans[1].getURL());
+		assertEquals("tel:+862012345678", spans[2].getURL());
+	}
+
+	public void testAddLinksWithoutMatches() {
+		SpannableString text = new SpannableString("没有任何链接的文字");
+		assertFalse(ShakeLinkify.addLinks(text, Linkify.WEB_URLS | Linkify.EMAIL_ADDRESSES));
+		assertEquals(0, text.getSpans(0, text.length(), URLSpan.class).length);
+	}
+
+	public void testPruneOverlaps() {
+		// 网址路径中的数字同时也会被识别为电话号码，应该只保留较长的网址
+		SpannableString text = new SpannableString("www.example.com/item/12345678");
+		assertTrue(ShakeLinkify.addLinks(text, Linkify.WEB_URLS | Linkify.PHONE_NUMBERS));
+
+		URLSpan[] spans = text.getSpans(0, text.length(), URLSpan.class);
+		assertEquals(1, spans.length);
+		assertEquals("http://www.example.com/item/12345678", spans[0].getURL());
+		assertEquals(0, text.getSpanStart(spans[0]));
+		assertEquals(text.length(), text.getSpanEnd(spans[0]));
+	}
+
+	public void testFixSchemeCapitalization() {
+		SpannableString text = new SpannableString("Http://www.example.com");
+		assertTrue(ShakeLinkify.addLinks(text, Linkify.WEB_URLS));
+
+		URLSpan[] spans = text.getSpans(0, text.length(), URLSpan.class);
+		assertEquals(1, spans.length);
+		assertEquals("http://www.example.com", spans[0].getURL());
+	}
+
+	/**
+	 * 统计对一篇较长的文章进行识别时的内存分配情况，结果输出到日志中
+	 */
+	public void testAllocationBenchmark() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			builder.append(SAMPLE_TEXT).append('\n');
+		}
+		String document = builder.toString();
+		int mask = Linkify.ALL & ~Linkify.MAP_ADDRESSES;
+
+		// 预热，避免把类加载等一次性的分配计算在内
+		ShakeLinkify.addLinks(new SpannableString(document), mask);
+
+		SpannableString text = new SpannableString(document);
+		Debug.startAllocCounting();
+		Debug.resetThreadAllocCount();
+		Debug.resetThreadAllocSize();
+		long startTime = System.nanoTime();
+
+		ShakeLinkify.addLinks(text, mask);
+
+		long costTime = System.nanoTime() - startTime;
+		int allocCount = Debug.getThreadAllocCount();
+		int allocSize = Debug.getThreadAllocSize();
+		Debug.stopAllocCounting();
+
+		int linkCount = text.getSpans(0, text.length(), URLSpan.class).length;
+		assertEquals(600, linkCount);
+		Log.i(TAG, "testAllocationBenchmark: links=" + linkCount
+				+ ", allocCount=" + allocCount
+				+ ", allocSize=" + allocSize
+				+ ", allocCountPerLink=" + (allocCount / linkCount)
+				+ ", costTime=" + (costTime / 1000000L) + "ms");
+	}
+
+	public void testFindLinks() {
+		LinkRanges ranges = ShakeLinkify.findLinks(SAMPLE_TEXT, Linkify.ALL & ~Linkify.MAP_ADDRESSES);
+		assertEquals(3, ranges.size());
+		assertEquals(Linkify.WEB_URLS, ranges.getType(0));
+		assertEquals(Linkify.EMAIL_ADDRESSES, ranges.getType(1));
+		assertEquals(Linkify.PHONE_NUMBERS, ranges.getType(2));
+		assertEquals("someone@example.com",
+				SAMPLE_TEXT.substring(ranges.getStart(1), ranges.getEnd(1)));
+
+		SpannableString text = new SpannableString(SAMPLE_TEXT);
+		assertTrue(ShakeLinkify.applyLinks(text, ranges));
+		URLSpan[] spans = getSortedSpans(text);
+		assertEquals(3, spans.length);
+		assertEquals("tel:+862012345678", spans[2].getURL());
+
+		// 文字内容与识别时不一致，不进行修改
+		assertFalse(ShakeLinkify.applyLinks(new SpannableString("www.example.com"), ranges));
+	}
+
+	/**
+	 * 批量识别的结果应该与逐条调用{@link ShakeLinkify#addLinks(android.text.Spannable, int)}完全一致
+	 */
+	public void testFindLinksInBatch() {
+		List<CharSequence> texts = createMessages(1000);
+		texts.set(10, null);
+		int mask = Linkify.ALL;
+
+		LinkRanges[] results = ShakeLinkify.findLinks(texts, mask);
+		assertEquals(texts.size(), results.length);
+		assertNull(results[10]);
+
+		for (int i = 0; i < texts.size(); i++) {
+			if (texts.get(i) == null) {
+				continue;
+			}
+			SpannableString expected = new SpannableString(texts.get(i));
+			ShakeLinkify.addLinks(expected, mask);
+			SpannableString actual = new SpannableString(texts.get(i));
+			ShakeLinkify.applyLinks(actual, results[i]);
+
+			URLSpan[] expectedSpans = getSortedSpans(expected);
+			URLSpan[] actualSpans = getSortedSpans(actual);
+			assertEquals(expectedSpans.length, actualSpans.length);
+			for (int j = 0; j < expectedSpans.length; j++) {
+				assertEquals(expectedSpans[j].getURL(), actualSpans[j].getURL());
+				assertEquals(expected.getSpanStart(expectedSpans[j]),
+						actual.getSpanStart(actualSpans[j]));
+			}
+		}
+	}
+
+	/**
+	 * 比较单线程与多线程批量识别的耗时，结果输出到日志中
+	 */
+	public void testFindLinksBenchmark() {
+		List<CharSequence> texts = createMessages(5000);
+		int mask = Linkify.ALL & ~Linkify.MAP_ADDRESSES;
+		int processors = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(processors);
+		try {
+			// 预热
+			ShakeLinkify.findLinks(texts, mask, executor, processors);
+
+			long startTime = System.nanoTime();
+			ShakeLinkify.findLinks(texts, mask, executor, 1);
+			long serialTime = System.nanoTime() - startTime;
+
+			startTime = System.nanoTime();
+			LinkRanges[] results = ShakeLinkify.findLinks(texts, mask, executor, processors);
+			long parallelTime = System.nanoTime() - startTime;
+
+			assertEquals(texts.size(), results.length);
+			Log.i(TAG, "testFindLinksBenchmark: texts=" + texts.size()
+					+ ", processors=" + processors
+					+ ", serialTime=" + (serialTime / 1000000L) + "ms"
+					+ ", parallelTime=" + (parallelTime / 1000000L) + "ms"
+					+ ", speedup=" + ((float) serialTime / parallelTime));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static List<CharSequence> createMessages(int count) {
+		List<CharSequence> texts = new ArrayList<CharSequence>(count);
+		for (int i = 0; i < count; i++) {
+			switch (i % 4) {
+				case 0:
+					texts.add(SAMPLE_TEXT);
+					break;
+				case 1:
+					texts.add("消息" + i + "：详情见 http://www.example.com/news/" + i);
+					break;
+				case 2:
+					texts.add("请寄到北京市朝阳区建国路" + i + "号，电话 010-6543-" + (1000 + i));
+					break;
+				default:
+					texts.add("没有任何链接的消息" + i);
+					break;
+			}
+		}
+		return texts;
+	}
+
+	private static URLSpan[] getSortedSpans(SpannableString text) {
+		URLSpan[] spans = text.getSpans(0, text.length(), URLSpan.class);
+		for (int i = 1; i < spans.length; i++) {
+			URLSpan span = spans[i];
+			int start = text.getSpanStart(span);
+			int j = i - 1;
+			while (j >= 0 && text.getSpanStart(spans[j]) > start) {
+				spans[j + 1] = spans[j];
+				j--;
+			}
+			spans[j + 1] = span;
+		}
+		return spans;
+	}
+}
@@ -0,0 +1,208 @@
+package com.imasson.droidshake.test.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.regex.Matcher;
+
+import junit.framework.TestCase;
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.util.Linkify;
+import android.util.Log;
+
+import com.imasson.droidshake.util.ShakeLinkify;
+import com.imasson.droidshake.util.ShakePatterns;
+
+/**
+ * {@link ShakePatterns}的单元测试
+ */
+public class ShakePatternsTest extends TestCase {
+	private static final String TAG = "ShakePatterns";
+
+	private static final String SAMPLE_TEXT =
+			"访问 www.example.com/path?q=1 或者发邮件到 someone@example.com，"
+			+ "也可以打电话 +86 20-1234-5678 咨询。";
+
+	public void testObtainMatcher() {
+		Matcher first = ShakePatterns.obtainMatcher(ShakePatterns.WEB_URL, "www.example.com");
+		assertTrue(first.find());
+		assertEquals("www.example.com", first.group());
+
+		// 放回之前再次获取，应该得到另一个对象
+		Matcher nested = ShakePatterns.obtainMatcher(ShakePatterns.WEB_URL, "无");
+		assertNotSame(first, nested);
+		assertFalse(nested.find());
+
+		ShakePatterns.recycleMatcher(nested);
+		ShakePatterns.recycleMatcher(first);
+
+		// 放回之后再次获取，应该复用缓存的对象，并且已经重置为新的文字
+		Matcher reused = ShakePatterns.obtainMatcher(ShakePatterns.WEB_URL, "见 http://example.org");
+		assertSame(nested, reused);
+		assertTrue(reused.find());
+		assertEquals("http://example.org", reused.group());
+		ShakePatterns.recycleMatcher(reused);
+	}
+
+	public void testObtainMatcherInOtherThread() throws InterruptedException {
+		final Matcher matcher = ShakePatterns.obtainMatcher(ShakePatterns.PHONE, SAMPLE_TEXT);
+		ShakePatterns.recycleMatcher(matcher);
+
+		final Matcher[] result = new Matcher[1];
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				result[0] = ShakePatterns.obtainMatcher(ShakePatterns.PHONE, SAMPLE_TEXT);
+			}
+		};
+		thread.start();
+		thread.join();
+
+		// 各线程的缓存互相独立
+		assertNotNull(result[0]);
+		assertNotSame(matcher, result[0]);
+	}
+
+	/**
+	 * <p>比较未预热和预热后第一次识别超链接的耗时，结果输出到日志中</p>
+	 * <p>两次测量各自使用新的{@link ClassLoader}重新加载本库的类，模拟程序刚启动时的状态，
+	 * 因此未预热的一次包含了类加载、正则表达式编译和第一次匹配的耗时。
+	 * JVM上从类文件重新加载，Dalvik/ART上从APK中的dex重新加载，两者都不可用时测试失败。</p>
+	 */
+	public void testWarmUpLatency() throws Exception {
+		long coldTime = measureFirstAddLinks(false);
+		long warmTime = measureFirstAddLinks(true);
+
+		long warmUpTime = ShakePatterns.warmUpNow();
+		assertTrue(ShakePatterns.isWarmedUp());
+		assertFalse(ShakePatterns.warmUp());
+
+		Log.i(TAG, "testWarmUpLatency: firstAddLinksCold=" + (coldTime / 1000L) + "us"
+				+ ", warmUpTime=" + (warmUpTime / 1000L) + "us"
+				+ ", firstAddLinksAfterWarmUp=" + (warmTime / 1000L) + "us");
+	}
+
+	/**
+	 * 在新加载的类中测量第一次调用{@link ShakeLinkify#addLinks(Spannable, int)}的耗时
+	 * @param warmUp 测量之前是否调用{@link ShakePatterns#warmUpNow()}
+	 * @return 耗时，单位为纳秒
+	 */
+	private static long measureFirstAddLinks(boolean warmUp) throws Exception {
+		ClassLoader loader = newFreshClassLoader();
+		if (loader == null) {
+			fail("Cannot reload classes, cold latency can not be measured");
+		}
+		Class<?> linkifyClass = loader.loadClass(ShakeLinkify.class.getName());
+		Class<?> patternsClass = loader.loadClass(ShakePatterns.class.getName());
+		assertNotSame(ShakeLinkify.class, linkifyClass);
+		assertNotSame(ShakePatterns.class, patternsClass);
+
+		if (warmUp) {
+			patternsClass.getMethod("warmUpNow").invoke(null);
+		}
+		Method addLinks = linkifyClass.getMethod("addLinks",
+				Spannable.class, int.class);
+		SpannableString text = new SpannableString(SAMPLE_TEXT);
+		long startTime = System.nanoTime();
+		Object result = addLinks.invoke(null, text,
+				Linkify.WEB_URLS | Linkify.EMAIL_ADDRESSES | Linkify.PHONE_NUMBERS);
+		long costTime = System.nanoTime() - startTime;
+		assertEquals(Boolean.TRUE, result);
+		return costTime;
+	}
+
+	/**
+	 * 创建重新加载本库的类的{@link ClassLoader}
+	 * @return 无法重新加载时返回null
+	 */
+	private static ClassLoader newFreshClassLoader() throws Exception {
+		ClassLoader parent = ShakePatternsTest.class.getClassLoader();
+		if (parent.getResource(ShakeLinkify.class.getName().replace('.', '/') + ".class") != null) {
+			return new FreshClassLoader(parent);
+		}
+
+		// Dalvik/ART上没有类文件，用本进程加载的APK创建新的PathClassLoader，
+		// 父加载器使用系统加载器，只提供Android框架的类
+		StringBuilder dexPath = new StringBuilder();
+		Enumeration<URL> manifests = parent.getResources("AndroidManifest.xml");
+		while (manifests.hasMoreElements()) {
+			String url = manifests.nextElement().toString();
+			int end = url.indexOf("!/");
+			if (url.startsWith("jar:file:") && end > 0) {
+				if (dexPath.length() > 0) {
+					dexPath.append(':');
+				}
+				dexPath.append(url.substring("jar:file:".length(), end));
+			}
+		}
+		if (dexPath.length() == 0) {
+			return null;
+		}
+		Class<?> pathClassLoader;
+		try {
+			pathClassLoader = Class.forName("dalvik.system.PathClassLoader");
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+		return (ClassLoader) pathClassLoader.getConstructor(String.class, ClassLoader.class)
+				.newInstance(dexPath.toString(), ClassLoader.getSystemClassLoader());
+	}
+
+	/**
+	 * 重新加载本库中的类，其他类仍由父加载器加载
+	 */
+	private static final class FreshClassLoader extends ClassLoader {
+		private static final String PACKAGE_PREFIX = "com.imasson.droidshake.util.";
+
+		FreshClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		@Override
+		protected synchronized Class<?> loadClass(String name, boolean resolve)
+				throws ClassNotFoundException {
+			if (!name.startsWith(PACKAGE_PREFIX)) {
+				return super.loadClass(name, resolve);
+			}
+			Class<?> c = findLoadedClass(name);
+			if (c == null) {
+				byte[] bytes = readClass(name);
+				if (bytes == null) {
+					throw new ClassNotFoundException(name);
+				}
+				c = defineClass(name, bytes, 0, bytes.length);
+			}
+			if (resolve) {
+				resolveClass(c);
+			}
+			return c;
+		}
+
+		private byte[] readClass(String name) {
+			InputStream is = getParent().getResourceAsStream(
+					name.replace('.', '/') + ".class");
+			if (is == null) {
+				return null;
+			}
+			try {
+				ByteArrayOutputStream os = new ByteArrayOutputStream();
+				byte[] buffer = new byte[4096];
+				int count;
+				while ((count = is.read(buffer)) != -1) {
+					os.write(buffer, 0, count);
+				}
+				return os.toByteArray();
+			} catch (IOException e) {
+				return null;
+			} finally {
+				try {
+					is.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package com.imasson.droidshake.test.util;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ResolveInfo;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.imasson.droidshake.util.FileUtils;
+import com.imasson.droidshake.util.PackageUtils;
+import com.imasson.droidshake.util.ShareTargetLoader;
+
+/**
+ * {@link ShareTargetLoader}的单元测试
+ */
+public class ShareTargetLoaderTest extends InstrumentationTestCase {
+	private static final String TAG = "ShareTargetLoader";
+
+	private Context mContext;
+	private File mCacheDir;
+	private List<ResolveInfo> mInfos;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mContext = getInstrumentation().getTargetContext();
+		mCacheDir = new File(mContext.getCacheDir(), "share-target-test");
+		mInfos = PackageUtils.getInstalledActivityInfos(mContext, Intent.ACTION_SEND, "text/plain");
+	}
+
+	public void testProgressiveLoad() throws Exception {
+		ShareTargetLoader loader = new ShareTargetLoader(mContext, mCacheDir, 48);
+		final CountDownLatch latch = new CountDownLatch(1);
+		final int[] loadedCount = new int[1];
+		long startTime = System.nanoTime();
+		List<ShareTargetLoader.Target> targets = loader.load(mInfos, new ShareTargetLoader.Callback() {
+			@Override
+			public void onTargetLoaded(int position, ShareTargetLoader.Target target) {
+				loadedCount[0]++;
+			}
+
+			@Override
+			public void onLoadFinished() {
+				latch.countDown();
+			}
+		});
+		long returnTime = System.nanoTime() - startTime;
+
+		// 立即返回占位的目标
+		assertEquals(mInfos.size(), targets.size());
+		for (int i = 0; i < targets.size(); i++) {
+			assertEquals(mInfos.get(i).activityInfo.name, targets.get(i).activityName);
+			assertFalse(targets.get(i).isLoaded());
+		}
+
+		assertTrue(latch.await(30, TimeUnit.SECONDS));
+		long finishTime = System.nanoTime() - startTime;
+		Log.i(TAG, "testProgressiveLoad: count=" + mInfos.size() + ", return=" + returnTime
+				+ "ns, finish=" + finishTime + "ns");
+		assertEquals(mInfos.size(), loadedCount[0]);
+
+		// 再次加载时直接使用内存缓存
+		targets = loader.load(mInfos, null);
+		for (ShareTargetLoader.Target target : targets) {
+			assertNotNull(target.label);
+		}
+	}
+
+	public void testDiskCache() throws Exception {
+		ShareTargetLoader loader = new ShareTargetLoader(mContext, mCacheDir, 48);
+		final CountDownLatch latch = new CountDownLatch(1);
+		final int[] completeCount = new int[1];
+		loader.load(mInfos, new ShareTargetLoader.Callback() {
+			@Override
+			public void onTargetLoaded(int position, ShareTargetLoader.Target target) {
+				if (target.isLoaded()) {
+					completeCount[0]++;
+				}
+			}
+
+			@Override
+			public void onLoadFinished() {
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(30, TimeUnit.SECONDS));
+
+		// 新的加载器没有内存缓存，从磁盘缓存中读取
+		String[] files = mCacheDir.list();
+		assertNotNull(files);
+		assertTrue(mInfos.isEmpty() || files.length > 0);
+		assertEquals(mInfos.size(), loader.getLoadCount());
+		assertEquals(0, loader.getDiskHitCount());
+		final ShareTargetLoader.Target[] loaded = new ShareTargetLoader.Target[mInfos.size()];
+		final CountDownLatch diskLatch = new CountDownLatch(1);
+		ShareTargetLoader reopened = new ShareTargetLoader(mContext, mCacheDir, 48);
+		reopened.load(mInfos, new ShareTargetLoader.Callback() {
+			@Override
+			public void onTargetLoaded(int position, ShareTargetLoader.Target target) {
+				loaded[position] = target;
+			}
+
+			@Override
+			public void onLoadFinished() {
+				diskLatch.countDown();
+			}
+		});
+		assertTrue(diskLatch.await(30, TimeUnit.SECONDS));
+		for (ShareTargetLoader.Target target : loaded) {
+			assertNotNull(target);
+			assertNotNull(target.label);
+		}
+		// 标签和图标都加载成功的目标才会保存到磁盘
+		assertEquals(completeCount[0], reopened.getDiskHitCount());
+		assertEquals(mInfos.size() - completeCount[0], reopened.getLoadCount());
+	}
+
+	public void testRemoveOldVersions() throws Exception {
+		loadAndWait(new ShareTargetLoader(mContext, mCacheDir, 48));
+		String[] names = mCacheDir.list();
+		if (names == null || names.length == 0) {
+			return;
+		}
+
+		// 文件名为"包名_散列值_版本号_语言"，伪造旧版本和其它语言的缓存，删除当前的缓存后重新加载
+		String name = names[0].substring(0, names[0].lastIndexOf('.'));
+		String locale = name.substring(name.lastIndexOf('_') + 1);
+		String prefix = name.substring(0, name.lastIndexOf('_'));
+		prefix = prefix.substring(0, prefix.lastIndexOf('_') + 1);
+		String oldName = prefix + (name.startsWith(prefix + "0_") ? "1" : "0") + '_' + locale;
+		String otherLocaleName = name.substring(0, name.lastIndexOf('_') + 1) + "xx-YY";
+		for (String suffix : new String[] { ".txt", ".png" }) {
+			File file = new File(mCacheDir, name + suffix);
+			assertTrue(FileUtils.copyFile(file.getPath(), new File(mCacheDir, otherLocaleName + suffix).getPath()));
+			assertTrue(file.renameTo(new File(mCacheDir, oldName + suffix)));
+		}
+		loadAndWait(new ShareTargetLoader(mContext, mCacheDir, 48));
+		assertTrue(new File(mCacheDir, name + ".txt").exists());
+		for (String suffix : new String[] { ".txt", ".png" }) {
+			assertFalse(new File(mCacheDir, oldName + suffix).exists());
+			assertFalse(new File(mCacheDir, otherLocaleName + suffix).exists());
+		}
+	}
+
+	public void testLeastRecentlyUsed() throws Exception {
+		loadAndWait(new ShareTargetLoader(mContext, mCacheDir, 48));
+		File[] files = mCacheDir.listFiles();
+		if (files == null || files.length < 8) {
+			return;
+		}
+
+		// 同一个目标的标签和图标按文件名排序后相邻，越靠前的目标越旧
+		Arrays.sort(files);
+		long time = System.currentTimeMillis() - 3600 * 1000L;
+		for (int i = 0; i < files.length; i++) {
+			assertTrue(files[i].setLastModified(time + i / 2 * 1000L));
+		}
+		String oldest = stripSuffix(files[0].getName());
+		String second = stripSuffix(files[2].getName());
+
+		// 最旧的目标最近被读取过，不应该被删除
+		ResolveInfo oldestInfo = findInfo(oldest);
+		ShareTargetLoader reader = new ShareTargetLoader(mContext, mCacheDir, 48);
+		loadAndWait(reader, Collections.singletonList(oldestInfo));
+		assertEquals(1, reader.getDiskHitCount());
+
+		// 删除第二旧的目标，重新加载时保存并触发清理
+		ResolveInfo secondInfo = findInfo(second);
+		new File(mCacheDir, second + ".txt").delete();
+		new File(mCacheDir, second + ".png").delete();
+		ShareTargetLoader writer = new ShareTargetLoader(mContext, mCacheDir, 48);
+		writer.setMaxDiskSize(Math.max(getDirSize() / 2, 1L));
+		loadAndWait(writer, Collections.singletonList(secondInfo));
+		assertEquals(1, writer.getLoadCount());
+		assertTrue(getDirSize() <= writer.getMaxDiskSize());
+		assertTrue(new File(mCacheDir, oldest + ".txt").exists());
+		assertTrue(new File(mCacheDir, oldest + ".png").exists());
+		// 没有被读取过的旧目标被删除
+		assertFalse(new File(mCacheDir, stripSuffix(files[4].getName()) + ".txt").exists());
+	}
+
+	public void testMaxDiskSize() throws Exception {
+		loadAndWait(new ShareTargetLoader(mContext, mCacheDir, 48));
+		long size = getDirSize();
+		FileUtils.deleteDir(mCacheDir.getPath());
+
+		ShareTargetLoader loader = new ShareTargetLoader(mContext, mCacheDir, 48);
+		loader.setMaxDiskSize(Math.max(size / 2, 1L));
+		loadAndWait(loader);
+		assertTrue(getDirSize() <= loader.getMaxDiskSize());
+	}
+
+	private void loadAndWait(ShareTargetLoader loader) throws InterruptedException {
+		loadAndWait(loader, mInfos);
+	}
+
+	private void loadAndWait(ShareTargetLoader loader, List<ResolveInfo> infos)
+			throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		loader.load(infos, new ShareTargetLoader.Callback() {
+			@Override
+			public void onTargetLoaded(int position, ShareTargetLoader.Target target) {
+			}
+
+			@Override
+			public void onLoadFinished() {
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(30, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * 根据缓存文件中保存的类名找到对应的查询结果
+	 */
+	private ResolveInfo findInfo(String name) {
+		List<String> lines = FileUtils.readStringLines(new File(mCacheDir, name + ".txt").getPath());
+		assertNotNull(lines);
+		for (ResolveInfo info : mInfos) {
+			if (name.startsWith(info.activityInfo.packageName + "_")
+					&& info.activityInfo.name.equals(lines.get(0))) {
+				return info;
+			}
+		}
+		fail("No ResolveInfo for " + name);
+		return null;
+	}
+
+	private static String stripSuffix(String name) {
+		return name.substring(0, name.lastIndexOf('.'));
+	}
+
+	private long getDirSize() {
+		long size = 0L;
+		File[] files = mCacheDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				size += file.length();
+			}
+		}
+		return size;
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDir(mCacheDir.getPath());
+		super.tearDown();
+	}
+}
@@ -0,0 +1,105 @@
+package com.imasson.droidshake.test.util;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.imasson.droidshake.util.FileUtils;
+import com.imasson.droidshake.util.net.StreamingImageLoader;
+
+/**
+ * {@link StreamingImageLoader}的单元测试，使用{@link LocalHttpServer}作为服务器
+ * <p>JVM中没有真正的位图解码，只验证缓存文件和提前计算的缩放比例。</p>
+ */
+public class StreamingImageLoaderTest extends TestCase {
+
+	private static final int CONTENT_SIZE = 200 * 1024;
+
+	private byte[] mContent;
+	private LocalHttpServer mServer;
+	private File mDir;
+	private File mCacheFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		// 3000x2000的PNG文件头，后面是随机数据
+		mContent = new byte[CONTENT_SIZE];
+		new Random(42).nextBytes(mContent);
+		byte[] header = {
+			(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n',
+			0, 0, 0, 13, 'I', 'H', 'D', 'R',
+			0, 0, 0x0B, (byte) 0xB8, 0, 0, 0x07, (byte) 0xD0
+		};
+		System.arraycopy(header, 0, mContent, 0, header.length);
+		mServer = new LocalHttpServer(mContent);
+		mServer.start();
+
+		mDir = File.createTempFile("image", "");
+		mDir.delete();
+		mCacheFile = new File(mDir, "cache/image.png");
+	}
+
+	public void testLoad() throws Exception {
+		mServer.setChunkDelayMillis(5);
+		final int[] bounds = new int[3];
+		final boolean[] cached = new boolean[1];
+		StreamingImageLoader loader = new StreamingImageLoader(800, 600);
+		loader.setListener(new StreamingImageLoader.Listener() {
+			@Override
+			public void onBoundsDecoded(int width, int height, int sampleSize) {
+				cached[0] = mCacheFile.exists();
+				bounds[0] = width;
+				bounds[1] = height;
+				bounds[2] = sampleSize;
+			}
+		});
+		loader.load(mServer.getUrl("/image.png"), mCacheFile);
+
+		assertEquals(3000, bounds[0]);
+		assertEquals(2000, bounds[1]);
+		// 3000/800=3.75, 2000/600=3.33，四舍五入后取较大的
+		assertEquals(4, bounds[2]);
+		// 得到宽高时下载还没有结束
+		assertFalse(cached[0]);
+		assertTrue(Arrays.equals(mContent, FileUtils.readBytes(mCacheFile.getPath())));
+		assertFalse(new File(mCacheFile.getPath() + ".tmp").exists());
+		assertEquals(1, mServer.getRequestCount());
+
+		// 再次加载时直接使用缓存文件
+		bounds[2] = 0;
+		loader.load(mServer.getUrl("/image.png"), mCacheFile);
+		assertEquals(4, bounds[2]);
+		assertTrue(cached[0]);
+		assertEquals(1, mServer.getRequestCount());
+	}
+
+	public void testInterrupted() throws Exception {
+		mServer.setAbortAfterBytes(50 * 1024);
+		StreamingImageLoader loader = new StreamingImageLoader(800, 600);
+		assertNull(loader.load(mServer.getUrl("/image.png"), mCacheFile));
+
+		// 不完整的数据不会留在缓存中
+		assertFalse(mCacheFile.exists());
+		assertFalse(new File(mCacheFile.getPath() + ".tmp").exists());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mServer.shutdown();
+		deleteRecursively(mDir);
+		super.tearDown();
+	}
+
+	private static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,155 @@
+package com.imasson.droidshake.test.util;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.imasson.droidshake.util.debug.StrictModeViolationCollector;
+import com.imasson.droidshake.util.debug.StrictModeViolationCollector.ViolationStats;
+
+/**
+ * {@link StrictModeViolationCollector}的单元测试
+ */
+public class StrictModeViolationCollectorTest extends TestCase {
+
+	private static final String DISK_READ =
+			"android.os.StrictMode$StrictModeDiskReadViolation";
+	private static final String NETWORK =
+			"android.os.StrictMode$StrictModeNetworkViolation";
+
+	public void testParseLog() {
+		StrictModeViolationCollector collector = new StrictModeViolationCollector();
+		for (int i = 0; i < 3; i++) {
+			feedDiskRead(collector, 100 + i, "com.example.Prefs.load(Prefs.java:42)");
+		}
+		feedDiskRead(collector, 5, "com.example.Cache.open(Cache.java:10)");
+		collector.parseLogMessage("StrictMode policy violation; ~duration=900 ms: "
+				+ NETWORK + ": policy=31 violation=4");
+		collector.parseLogMessage("\tat android.os.StrictMode$AndroidBlockGuardPolicy.onNetwork(StrictMode.java:1117)");
+		collector.parseLogMessage("\tat com.example.Api.fetch(Api.java:7)");
+
+		// 最后一个违例在flush之前不会被记录，getTopViolations()会自动flush
+		List<ViolationStats> list = collector.getTopViolations(0);
+		assertEquals(3, list.size());
+		assertEquals(5L, collector.getTotalCount());
+
+		ViolationStats network = list.get(0);
+		assertEquals(NETWORK, network.type);
+		assertEquals(900L, network.totalDurationMillis);
+		assertEquals(2, network.stackTrace.length);
+		assertEquals("com.example.Api.fetch(Api.java:7)", network.stackTrace[1]);
+
+		ViolationStats prefs = list.get(1);
+		assertEquals(DISK_READ, prefs.type);
+		assertEquals(3L, prefs.count);
+		assertEquals(303L, prefs.totalDurationMillis);
+		assertEquals(102L, prefs.maxDurationMillis);
+
+		ViolationStats cache = list.get(2);
+		assertEquals(1L, cache.count);
+		assertEquals(5L, cache.totalDurationMillis);
+
+		assertEquals(1, collector.getTopViolations(1).size());
+		String dump = collector.dump(2);
+		assertTrue(dump.contains("3 times, 303 ms total, 102 ms max: " + DISK_READ));
+		assertFalse(dump.contains("Cache.open"));
+	}
+
+	public void testVmViolationLog() {
+		StrictModeViolationCollector collector = new StrictModeViolationCollector();
+		collector.parseLogMessage("A resource was acquired at attached stack trace but never released.");
+		collector.parseLogMessage("java.lang.Throwable: Explicit termination method 'close' not called");
+		collector.parseLogMessage("\tat dalvik.system.CloseGuard.open(CloseGuard.java:184)");
+		collector.flushLog();
+
+		List<ViolationStats> list = collector.getTopViolations(0);
+		assertEquals(2, list.size());
+		for (ViolationStats stats : list) {
+			assertEquals(0L, stats.totalDurationMillis);
+			assertEquals(1L, stats.count);
+		}
+	}
+
+	/**
+	 * 经过同一段框架代码的违例，按照应用中不同的调用位置区分
+	 */
+	public void testSameFrameworkStack() {
+		StrictModeViolationCollector collector = new StrictModeViolationCollector();
+		String[] frameworkFrames = new String[] {
+				"android.os.StrictMode$AndroidBlockGuardPolicy.onReadFromDisk(StrictMode.java:1135)",
+				"libcore.io.BlockGuardOs.open(BlockGuardOs.java:106)",
+				"libcore.io.IoBridge.open(IoBridge.java:393)",
+				"java.io.FileInputStream.<init>(FileInputStream.java:78)",
+				"android.app.SharedPreferencesImpl.loadFromDiskLocked(SharedPreferencesImpl.java:106)",
+				"android.app.SharedPreferencesImpl.awaitLoadedLocked(SharedPreferencesImpl.java:185)",
+				"android.app.SharedPreferencesImpl.getString(SharedPreferencesImpl.java:200)",
+		};
+		collector.recordViolation(DISK_READ, 20L, append(frameworkFrames,
+				"com.example.Settings.getName(Settings.java:12)"));
+		collector.recordViolation(DISK_READ, 40L, append(frameworkFrames,
+				"com.example.Login.onCreate(Login.java:40)"));
+		collector.recordViolation(DISK_READ, 10L, append(frameworkFrames,
+				"com.example.Settings.getName(Settings.java:12)"));
+
+		List<ViolationStats> list = collector.getTopViolations(0);
+		assertEquals(2, list.size());
+		assertEquals(40L, list.get(0).totalDurationMillis);
+		assertEquals(1L, list.get(0).count);
+		assertEquals(30L, list.get(1).totalDurationMillis);
+		assertEquals(2L, list.get(1).count);
+		assertEquals("com.example.Settings.getName(Settings.java:12)",
+				list.get(1).stackTrace[frameworkFrames.length]);
+	}
+
+	public void testRecordThrowable() {
+		StrictModeViolationCollector collector = new StrictModeViolationCollector();
+		for (int i = 0; i < 2; i++) {
+			// 同一行代码产生的违例调用栈相同
+			collector.recordViolation(createViolation());
+		}
+
+		List<ViolationStats> list = collector.getTopViolations(0);
+		assertEquals(1, list.size());
+		assertEquals(2L, list.get(0).count);
+		assertEquals(IllegalStateException.class.getName(), list.get(0).type);
+		assertEquals(0L, list.get(0).totalDurationMillis);
+	}
+
+	public void testEviction() {
+		StrictModeViolationCollector collector = new StrictModeViolationCollector(2);
+		collector.recordViolation(DISK_READ, 50L, new String[] { "a.A.a(A.java:1)" });
+		collector.recordViolation(DISK_READ, 10L, new String[] { "b.B.b(B.java:1)" });
+		collector.recordViolation(DISK_READ, 30L, new String[] { "c.C.c(C.java:1)" });
+
+		List<ViolationStats> list = collector.getTopViolations(0);
+		assertEquals(2, list.size());
+		assertEquals(1L, collector.getEvictedCount());
+		// 耗时最少的B被淘汰
+		assertEquals("a.A.a(A.java:1)", list.get(0).stackTrace[0]);
+		assertEquals("c.C.c(C.java:1)", list.get(1).stackTrace[0]);
+
+		collector.reset();
+		assertEquals(0, collector.getTopViolations(0).size());
+		assertEquals(0L, collector.getTotalCount());
+	}
+
+	private static void feedDiskRead(StrictModeViolationCollector collector, long duration,
+			String frame) {
+		collector.parseLogMessage("StrictMode policy violation; ~duration=" + duration + " ms: "
+				+ DISK_READ + ": policy=31 violation=2");
+		collector.parseLogMessage("\tat android.os.StrictMode$AndroidBlockGuardPolicy.onReadFromDisk(StrictMode.java:1135)");
+		collector.parseLogMessage("\tat libcore.io.BlockGuardOs.open(BlockGuardOs.java:106)");
+		collector.parseLogMessage("\tat " + frame);
+	}
+
+	private static String[] append(String[] frames, String frame) {
+		String[] result = new String[frames.length + 1];
+		System.arraycopy(frames, 0, result, 0, frames.length);
+		result[frames.length] = frame;
+		return result;
+	}
+
+	private static Throwable createViolation() {
+		return new IllegalStateException("violation");
+	}
+}
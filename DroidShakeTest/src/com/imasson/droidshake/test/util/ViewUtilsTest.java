@@ -0,0 +1,104 @@
+package com.imasson.droidshake.test.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.test.InstrumentationTestCase;
+import android.view.View;
+import android.view.View.MeasureSpec;
+
+import com.imasson.droidshake.util.BitmapPool;
+import com.imasson.droidshake.util.ViewUtils;
+
+/**
+ * {@link ViewUtils}中截图方法和{@link BitmapPool}的单元测试
+ */
+public class ViewUtilsTest extends InstrumentationTestCase {
+
+	private static final int WIDTH = 200;
+	private static final int HEIGHT = 120;
+
+	private Context mContext;
+	private View mView;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mContext = getInstrumentation().getTargetContext();
+		mView = new View(mContext);
+		mView.setBackgroundColor(Color.RED);
+		mView.measure(MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY),
+				MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.EXACTLY));
+		mView.layout(0, 0, WIDTH, HEIGHT);
+	}
+
+	public void testFullSnapshot() {
+		Bitmap snapshot = ViewUtils.makeSnapshot(mView);
+		assertNotNull(snapshot);
+		assertEquals(WIDTH, snapshot.getWidth());
+		assertEquals(HEIGHT, snapshot.getHeight());
+		assertEquals(Bitmap.Config.ARGB_8888, snapshot.getConfig());
+		assertEquals(Color.RED, snapshot.getPixel(WIDTH - 1, HEIGHT - 1));
+	}
+
+	public void testScaledSnapshot() {
+		Bitmap snapshot = ViewUtils.makeSnapshot(mView, 0.5f);
+		assertNotNull(snapshot);
+		assertEquals(WIDTH / 2, snapshot.getWidth());
+		assertEquals(HEIGHT / 2, snapshot.getHeight());
+		// 不透明的视图使用RGB_565，缩小后仍然画满整个位图
+		assertEquals(Bitmap.Config.RGB_565, snapshot.getConfig());
+		assertEquals(Color.RED, snapshot.getPixel(0, 0));
+		assertEquals(Color.RED, snapshot.getPixel(WIDTH / 2 - 1, HEIGHT / 2 - 1));
+	}
+
+	public void testReuseBitmap() {
+		Bitmap reuse = Bitmap.createBitmap(WIDTH / 2, HEIGHT / 2, Bitmap.Config.ARGB_8888);
+		Bitmap snapshot = ViewUtils.makeSnapshot(mView, 0.5f, Bitmap.Config.ARGB_8888, reuse);
+		assertSame(reuse, snapshot);
+		assertEquals(Color.RED, snapshot.getPixel(0, 0));
+
+		// 格式或大小不同时创建新的位图
+		snapshot = ViewUtils.makeSnapshot(mView, 0.5f, Bitmap.Config.RGB_565, reuse);
+		assertNotSame(reuse, snapshot);
+		snapshot = ViewUtils.makeSnapshot(mView, 1f, Bitmap.Config.ARGB_8888, reuse);
+		assertNotSame(reuse, snapshot);
+		assertEquals(WIDTH, snapshot.getWidth());
+	}
+
+	public void testSnapshotWithPool() {
+		BitmapPool pool = new BitmapPool();
+		Bitmap first = ViewUtils.makeSnapshot(mView, 0.5f, null, pool);
+		assertNotNull(first);
+		assertEquals(1, pool.getMissCount());
+		assertTrue(pool.put(first));
+		assertTrue(pool.getSize() > 0);
+
+		Bitmap second = ViewUtils.makeSnapshot(mView, 0.5f, null, pool);
+		assertSame(first, second);
+		assertEquals(1, pool.getHitCount());
+		assertEquals(0, pool.getSize());
+		assertEquals(Color.RED, second.getPixel(0, 0));
+	}
+
+	public void testPoolLimit() {
+		Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+		int bytes = bitmap.getRowBytes() * bitmap.getHeight();
+		BitmapPool pool = new BitmapPool(bytes + bytes / 2);
+		assertTrue(pool.put(bitmap));
+
+		// 超出上限时回收最早放入的位图
+		Bitmap another = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+		assertTrue(pool.put(another));
+		assertTrue(bitmap.isRecycled());
+		assertEquals(bytes, pool.getSize());
+
+		// 单个位图超过上限或者不可修改时不放入池中
+		assertFalse(pool.put(Bitmap.createBitmap(WIDTH * 2, HEIGHT, Bitmap.Config.ARGB_8888)));
+		assertFalse(pool.put(Bitmap.createBitmap(another)));
+
+		pool.clear();
+		assertTrue(another.isRecycled());
+		assertEquals(0, pool.getSize());
+	}
+}